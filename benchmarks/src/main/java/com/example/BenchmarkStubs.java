@@ -0,0 +1,49 @@
+package com.example;
+
+import com.example.dao.UserDAO;
+import com.example.service.OfflineMessageService;
+
+import java.util.Collections;
+
+/**
+ * 基准测试用的桩实现，不访问数据库
+ */
+final class BenchmarkStubs {
+
+    private BenchmarkStubs() {
+    }
+
+    /**
+     * 不访问数据库的用户DAO
+     */
+    static class StubUserDAO extends UserDAO {
+        @Override
+        public String getUserNameById(Long userId) {
+            return "User" + userId;
+        }
+    }
+
+    /**
+     * 不访问数据库的离线消息服务
+     */
+    static class StubOfflineMessageService extends OfflineMessageService {
+        @Override
+        public OfflineMessageSyncResult syncOfflineMessages(Long userId) {
+            OfflineMessageSyncResult result = new OfflineMessageSyncResult();
+            result.setUserId(userId);
+            result.setUnreadMessages(Collections.emptyList());
+            result.setSuccess(true);
+            return result;
+        }
+
+        @Override
+        public boolean queueOfflineMessage(Long senderId, Long receiverId, String content) {
+            return true;
+        }
+
+        @Override
+        public boolean storeOfflineMessage(Long senderId, Long receiverId, String content) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.WireProtocol;
+import com.example.service.ClientConnection;
+import com.example.service.OutboundQueue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 广播扇出的CPU开销
+ * 对比每个接收者单独编码与共享一次编码两种方式，在100、1000、10000个接收者下
+ * 测量每次广播（入队 + 写线程取出字节写出）消耗的CPU时间和内存分配
+ * 连接为进程内的桩实现，写出时只复制字节，排除网络本身的开销
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.BroadcastBenchmark [接收者数=100,1000,10000] [每组广播次数=200]
+ */
+public class BroadcastBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        String steps = args.length > 0 ? args[0] : "100,1000,10000";
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Frame frame = Frame.chat(1024, "张三", "大家好，今天下午三点在三楼会议室开会，请大家准时参加，记得带上本周的工作周报。");
+
+        System.out.printf("%-10s %-12s %-10s %14s %16s%n",
+                "recipients", "protocols", "encoding", "cpu/bcast(us)", "alloc/bcast(KB)");
+        for (String step : steps.split(",")) {
+            int recipients = Integer.parseInt(step.trim());
+            for (boolean mixed : new boolean[] {false, true}) {
+                List<SinkConnection> connections = connections(recipients, mixed);
+                // 预热
+                run(connections, frame, false, broadcasts);
+                run(connections, frame, true, broadcasts);
+
+                long[] perRecipient = run(connections, frame, false, broadcasts);
+                long[] shared = run(connections, frame, true, broadcasts);
+                String protocols = mixed ? "text+binary" : "text";
+                print(recipients, protocols, "per-conn", perRecipient, broadcasts);
+                print(recipients, protocols, "shared", shared, broadcasts);
+            }
+        }
+        System.out.println("(sink=" + sink + ")");
+    }
+
+    private static List<SinkConnection> connections(int count, boolean mixed) {
+        List<SinkConnection> connections = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SinkConnection connection = new SinkConnection();
+            connection.setProtocol(mixed && i % 2 == 1 ? WireProtocol.BINARY : WireProtocol.TEXT);
+            connections.add(connection);
+        }
+        return connections;
+    }
+
+    /**
+     * @return {CPU纳秒, 分配字节}
+     */
+    private static long[] run(List<SinkConnection> connections, Frame frame, boolean shared, int broadcasts) {
+        long thread = Thread.currentThread().getId();
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        long alloc = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < broadcasts; i++) {
+            if (shared) {
+                EncodedFrame encoded = EncodedFrame.shared(frame);
+                for (SinkConnection connection : connections) {
+                    connection.send(encoded, OutboundQueue.FrameKind.MESSAGE);
+                }
+            } else {
+                for (SinkConnection connection : connections) {
+                    connection.send(frame);
+                }
+            }
+            for (SinkConnection connection : connections) {
+                connection.drain();
+            }
+        }
+        return new long[] {
+                THREADS.getCurrentThreadCpuTime() - cpu,
+                THREADS.getThreadAllocatedBytes(thread) - alloc
+        };
+    }
+
+    private static void print(int recipients, String protocols, String encoding, long[] result, int broadcasts) {
+        System.out.printf("%-10d %-12s %-10s %14.1f %16.1f%n", recipients, protocols, encoding,
+                result[0] / 1000.0 / broadcasts, result[1] / 1024.0 / broadcasts);
+    }
+
+    /**
+     * 只把字节复制到写缓冲区的连接
+     */
+    private static final class SinkConnection implements ClientConnection {
+        private final OutboundQueue<EncodedFrame> outbound =
+                new OutboundQueue<>(1024, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        private final byte[] writeBuffer = new byte[8192];
+        private WireProtocol protocol = WireProtocol.TEXT;
+
+        @Override
+        public void send(EncodedFrame frame, OutboundQueue.FrameKind kind) {
+            outbound.offer(frame, kind);
+        }
+
+        void drain() {
+            EncodedFrame frame;
+            while ((frame = outbound.poll()) != null) {
+                ByteBuffer bytes = frame.bytes(protocol);
+                int n = bytes.remaining();
+                bytes.get(writeBuffer, 0, n);
+                sink += writeBuffer[n - 1];
+            }
+        }
+
+        @Override
+        public WireProtocol getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public void setProtocol(WireProtocol protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public OutboundQueue<?> getOutboundQueue() {
+            return outbound;
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example;
+
+import com.example.component.ChatPanel;
+import com.example.component.MessageBubble;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * 聊天面板在大量消息下的内存和绘制开销
+ * 向虚拟化的ChatPanel填充10万条消息，统计填充耗时、填充后的堆内存占用，
+ * 以及800x600视口在不同位置滚动时每帧的绘制时间；
+ * 作为对比，旧的实现方式（每条消息一行组件，BoxLayout布局）默认只填充1万条
+ * 不需要显示器，在headless模式下运行
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.ChatPanelBenchmark [消息数=100000] [旧方式消息数=10000] [每个位置的帧数=60]
+ */
+public class ChatPanelBenchmark {
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+    private static final Font FONT = new Font("Microsoft YaHei", Font.PLAIN, 14);
+    private static final String[] SAMPLES = {
+            "好的",
+            "收到，马上处理",
+            "今天下午三点在三楼会议室开会，请大家准时参加，记得带上本周的工作周报和下周的计划。",
+            "The build is green again, I reverted the flaky test and opened an issue to track the real fix.",
+            "第一段：需求已经确认。\n\n第二段：接口文档稍后发到群里，有问题随时联系我。",
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int legacyMessages = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+
+        System.out.printf("%-10s %9s %10s %10s %12s %12s %12s%n",
+                "view", "messages", "fill(ms)", "heap(MB)", "frame avg", "frame p99", "append(ms)");
+        SwingUtilities.invokeAndWait(() -> {
+            run("virtual", messages, frames);
+            run("legacy", legacyMessages, frames);
+        });
+    }
+
+    private static void run(String view, int messages, int frames) {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        JScrollPane scrollPane;
+        Runnable append;
+        if ("virtual".equals(view)) {
+            ChatPanel chatPanel = new ChatPanel(Color.WHITE, new Color(56, 129, 244), new Color(235, 235, 235),
+                    Color.BLACK, Color.GRAY, FONT);
+            for (int i = 0; i < messages; i++) {
+                addMessage(chatPanel, i);
+            }
+            scrollPane = chatPanel.getScrollPane();
+            append = () -> addMessage(chatPanel, messages);
+        } else {
+            LegacyChatList legacy = new LegacyChatList();
+            for (int i = 0; i < messages; i++) {
+                legacy.addMessage(SAMPLES[i % SAMPLES.length], i % 3 == 0, "用户" + (i % 50));
+            }
+            scrollPane = legacy.scrollPane;
+            append = () -> legacy.addMessage(SAMPLES[0], true, "用户");
+        }
+        scrollPane.setSize(WIDTH, HEIGHT);
+        layoutTree(scrollPane);
+        long fillMs = (System.nanoTime() - start) / 1_000_000;
+        long heapMb = (usedHeap() - heapBefore) / (1024 * 1024);
+
+        // 在顶部、中间和底部各滚动frames帧，每帧16像素
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        JViewport viewport = scrollPane.getViewport();
+        int maxY = Math.max(0, viewport.getView().getHeight() - HEIGHT);
+        long[] frameNanos = new long[frames * 3];
+        // 预热，让JIT编译绘制路径
+        for (int f = 0; f < frames; f++) {
+            viewport.setViewPosition(new Point(0, Math.min(maxY, f * 16)));
+            Graphics2D g = image.createGraphics();
+            scrollPane.paint(g);
+            g.dispose();
+        }
+        int n = 0;
+        for (int position : new int[] {0, maxY / 2, Math.max(0, maxY - frames * 16)}) {
+            for (int f = 0; f < frames; f++) {
+                long t = System.nanoTime();
+                viewport.setViewPosition(new Point(0, Math.min(maxY, position + f * 16)));
+                Graphics2D g = image.createGraphics();
+                scrollPane.paint(g);
+                g.dispose();
+                frameNanos[n++] = System.nanoTime() - t;
+            }
+        }
+        Arrays.sort(frameNanos);
+        double avg = Arrays.stream(frameNanos).average().orElse(0) / 1e6;
+        double p99 = frameNanos[(int) (frameNanos.length * 0.99)] / 1e6;
+
+        // 已有大量消息时再追加一条并重新布局的耗时
+        long t = System.nanoTime();
+        append.run();
+        layoutTree(scrollPane);
+        double appendMs = (System.nanoTime() - t) / 1e6;
+
+        System.out.printf("%-10s %9d %10d %10d %10.2fms %10.2fms %12.2f%n",
+                view, messages, fillMs, heapMb, avg, p99, appendMs);
+    }
+
+    private static void addMessage(ChatPanel chatPanel, int i) {
+        if (i % 1000 == 999) {
+            chatPanel.addSystemMessage("以上是离线消息");
+        } else {
+            chatPanel.addMessage(SAMPLES[i % SAMPLES.length], i % 3 == 0, "用户" + (i % 50));
+        }
+    }
+
+    /**
+     * 不在可显示的窗口中时validate()不起作用，直接逐层调用doLayout
+     */
+    private static void layoutTree(Component component) {
+        if (component instanceof Container) {
+            Container container = (Container) component;
+            container.doLayout();
+            for (Component child : container.getComponents()) {
+                layoutTree(child);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 旧的实现方式: 每条消息一行真实组件，BoxLayout纵向排列
+     */
+    private static final class LegacyChatList {
+        final JPanel contentPanel = new JPanel();
+        final JScrollPane scrollPane;
+
+        LegacyChatList() {
+            contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
+            contentPanel.setBackground(Color.WHITE);
+            contentPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+            scrollPane = new JScrollPane(contentPanel);
+        }
+
+        void addMessage(String content, boolean own, String username) {
+            JPanel wrapperPanel = new JPanel(new BorderLayout());
+            wrapperPanel.setOpaque(false);
+            JPanel messageRow = new JPanel(new FlowLayout(own ? FlowLayout.RIGHT : FlowLayout.LEFT, 5, 0));
+            messageRow.setOpaque(false);
+            JLabel avatar = new JLabel(own ? "我" : username.substring(0, 1));
+            avatar.setPreferredSize(new Dimension(28, 28));
+            JPanel contentContainer = new JPanel();
+            contentContainer.setOpaque(false);
+            contentContainer.setLayout(new BoxLayout(contentContainer, BoxLayout.Y_AXIS));
+            if (!own) {
+                contentContainer.add(new JLabel(username));
+            }
+            contentContainer.add(new MessageBubble(content, own,
+                    own ? new Color(56, 129, 244) : new Color(235, 235, 235), own ? Color.WHITE : Color.BLACK, FONT));
+            if (own) {
+                messageRow.add(contentContainer);
+                messageRow.add(avatar);
+            } else {
+                messageRow.add(avatar);
+                messageRow.add(contentContainer);
+            }
+            wrapperPanel.add(messageRow, own ? BorderLayout.EAST : BorderLayout.WEST);
+            contentPanel.add(wrapperPanel);
+            contentPanel.revalidate();
+            contentPanel.repaint();
+        }
+    }
+}
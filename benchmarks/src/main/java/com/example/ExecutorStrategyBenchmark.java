@@ -0,0 +1,220 @@
+package com.example;
+
+import com.example.model.Settings;
+import com.example.service.SocketService;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 阻塞模式下三种执行策略（cached / bounded / virtual）的对比
+ * 每种策略连接若干空闲客户端和活跃客户端，活跃客户端两两互发私聊消息，
+ * 统计吞吐量、私聊往返延迟、线程数和堆内存
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.ExecutorStrategyBenchmark [空闲数] [活跃数] [测量秒数]
+ */
+public class ExecutorStrategyBenchmark {
+    private static final String PM_PREFIX = "PM:";
+
+    public static void main(String[] args) throws Exception {
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        int port = 19100;
+        System.out.printf("%-8s %8s %8s %10s %10s %10s %8s %10s%n",
+                "strategy", "idle", "active", "msgs/s", "p50(ms)", "p99(ms)", "threads", "heap(MB)");
+        for (String strategy : new String[] {"cached", "bounded", "virtual"}) {
+            run(strategy, port++, idle, active, seconds);
+        }
+    }
+
+    private static void run(String strategy, int port, int idle, int active, int seconds) throws Exception {
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("server.executor", strategy);
+        SocketService service = new SocketService(
+                new BenchmarkStubs.StubOfflineMessageService(), new BenchmarkStubs.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+
+        Receiver receiver = new Receiver();
+        receiver.thread.start();
+        List<SocketChannel> channels = new ArrayList<>();
+        try {
+            long nextId = 1;
+            for (int i = 0; i < idle; i++) {
+                channels.add(connect(port, nextId++, receiver));
+            }
+            long firstActiveId = nextId;
+            List<SocketChannel> activeChannels = new ArrayList<>();
+            for (int i = 0; i < active; i++) {
+                SocketChannel channel = connect(port, nextId++, receiver);
+                channels.add(channel);
+                activeChannels.add(channel);
+            }
+            // 等待上线广播结束
+            Thread.sleep(3000);
+            receiver.reset();
+
+            long end = System.currentTimeMillis() + seconds * 1000L;
+            while (System.currentTimeMillis() < end) {
+                for (int i = 0; i < activeChannels.size(); i++) {
+                    long partner = firstActiveId + (i ^ 1) % active;
+                    String line = PM_PREFIX + partner + ":" + System.nanoTime() + "\n";
+                    writeFully(activeChannels.get(i), line);
+                }
+                Thread.sleep(10);
+            }
+            Thread.sleep(500);
+
+            long[] latencies = receiver.latencies();
+            Arrays.sort(latencies);
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+            System.out.printf("%-8s %8d %8d %10d %10.2f %10.2f %8d %10d%n",
+                    strategy, idle, active, latencies.length / seconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    ManagementFactory.getThreadMXBean().getThreadCount(), heap);
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            receiver.running = false;
+            receiver.selector.wakeup();
+            service.shutdown();
+        }
+    }
+
+    private static SocketChannel connect(int port, long userId, Receiver receiver) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        writeFully(channel, userId + "\n");
+        receiver.add(channel);
+        return channel;
+    }
+
+    private static void writeFully(SocketChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * p)] / 1_000_000.0;
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    /**
+     * 单线程读取所有客户端数据，从私聊消息中取出发送时间计算延迟
+     */
+    private static class Receiver implements Runnable {
+        private final Selector selector;
+        private final Thread thread = new Thread(this, "benchmark-receiver");
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean running = true;
+
+        Receiver() throws IOException {
+            selector = Selector.open();
+            thread.setDaemon(true);
+        }
+
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void reset() {
+            latencies.clear();
+        }
+
+        long[] latencies() {
+            synchronized (latencies) {
+                return latencies.stream().mapToLong(Long::longValue).toArray();
+            }
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            try {
+                while (running) {
+                    selector.select(100);
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.configureBlocking(false);
+                        channel.register(selector, SelectionKey.OP_READ, new StringBuilder());
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        read(key, buffer);
+                    }
+                }
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Receiver error: " + e.getMessage());
+            }
+        }
+
+        private void read(SelectionKey key, ByteBuffer buffer) {
+            StringBuilder pendingLine = (StringBuilder) key.attachment();
+            buffer.clear();
+            try {
+                if (((SocketChannel) key.channel()).read(buffer) < 0) {
+                    key.cancel();
+                    return;
+                }
+            } catch (IOException e) {
+                key.cancel();
+                return;
+            }
+            buffer.flip();
+            long now = System.nanoTime();
+            while (buffer.hasRemaining()) {
+                char c = (char) buffer.get();
+                if (c != '\n') {
+                    pendingLine.append(c);
+                    continue;
+                }
+                if (pendingLine.indexOf(PM_PREFIX) == 0) {
+                    int sep = pendingLine.indexOf(":", PM_PREFIX.length());
+                    try {
+                        latencies.add(now - Long.parseLong(pendingLine.substring(sep + 1)));
+                    } catch (NumberFormatException ignored) {
+                        // 非基准测试消息
+                    }
+                }
+                pendingLine.setLength(0);
+            }
+        }
+    }
+}
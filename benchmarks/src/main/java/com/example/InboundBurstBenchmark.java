@@ -0,0 +1,302 @@
+package com.example;
+
+import com.example.component.ChatPanel;
+import com.example.component.EventBatcher;
+import com.example.model.User;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重连或离线同步时大量服务器消息集中到达，对事件分发线程（EDT）的影响
+ * 回放一段消息突发（用户列表、上下线、群聊、离线消息统计），分别以
+ * 每帧一个invokeLater（旧方式，每个事件各自布局、重绘）和 EventBatcher 按帧率批量处理两种方式送到EDT，
+ * 期间每5ms向EDT投递一个探测事件，统计探测事件的排队延迟以及全部消息处理完的耗时
+ * 不需要显示器，在headless模式下运行；headless时组件不会自动布局，每次界面变更后手动布局并绘制一次
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.InboundBurstBenchmark [录制文件]
+ *       录制文件每行一条服务器发给客户端的文本协议消息，不指定时生成一段模拟的突发
+ */
+public class InboundBurstBenchmark {
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 700;
+    private static final Font FONT = new Font("Microsoft YaHei", Font.PLAIN, 14);
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        List<Frame> burst = args.length > 0 ? load(args[0]) : generate();
+        System.out.println("回放 " + burst.size() + " 条消息");
+
+        System.out.printf("%-10s %8s %10s %10s %10s %10s %10s%n",
+                "dispatch", "frames", "drain(ms)", "layouts", "edt p50", "edt p99", "edt max");
+        for (int round = 0; round < 2; round++) {
+            // 第一轮用于预热
+            boolean report = round == 1;
+            run("invokeLater", burst, false, report);
+            run("batched", burst, true, report);
+        }
+    }
+
+    private static void run(String label, List<Frame> burst, boolean batched, boolean report) throws Exception {
+        SimulatedView[] holder = new SimulatedView[1];
+        SwingUtilities.invokeAndWait(() -> holder[0] = new SimulatedView());
+        SimulatedView view = holder[0];
+        CountDownLatch drained = new CountDownLatch(burst.size());
+        EventBatcher<Frame> batcher = new EventBatcher<>("inboundFrames", 16, 500, frames -> {
+            boolean userListChanged = false;
+            for (Frame frame : frames) {
+                userListChanged |= view.apply(frame);
+            }
+            if (userListChanged) {
+                view.refreshUserList();
+            }
+            view.render();
+            for (int i = 0; i < frames.size(); i++) {
+                drained.countDown();
+            }
+        });
+
+        Probe probe = new Probe();
+        probe.start();
+        long start = System.nanoTime();
+        // 模拟接收线程，消息连续到达
+        for (Frame frame : burst) {
+            if (batched) {
+                batcher.submit(frame);
+            } else {
+                SwingUtilities.invokeLater(() -> {
+                    if (view.apply(frame)) {
+                        view.refreshUserList();
+                    }
+                    view.render();
+                    drained.countDown();
+                });
+            }
+        }
+        drained.await(5, TimeUnit.MINUTES);
+        long drainMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long[] latencies = probe.stop();
+
+        if (report) {
+            System.out.printf("%-10s %8d %10d %10d %8.2fms %8.2fms %8.2fms%n",
+                    label, burst.size(), drainMs, view.renderCount,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0));
+            if (batched) {
+                System.out.println("   " + batcher);
+            }
+        }
+    }
+
+    /**
+     * 模拟一次重连: 先是完整的用户列表，然后是上下线、群聊、离线消息统计交错到达
+     */
+    private static List<Frame> generate() {
+        List<Frame> frames = new ArrayList<>();
+        int users = 300;
+        long[] ids = new long[users];
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            ids[i] = i + 2;
+            names[i] = "用户" + (i + 2);
+        }
+        frames.add(Frame.userList(ids, names));
+        for (int i = 0; i < 4000; i++) {
+            long id = 2 + i % users;
+            switch (i % 8) {
+                case 0:
+                    frames.add(Frame.userLeft(id, "用户" + id));
+                    break;
+                case 1:
+                    frames.add(Frame.userJoined(id, "用户" + id));
+                    break;
+                case 2:
+                    frames.add(Frame.offlineStat(id, 1 + i % 20));
+                    break;
+                default:
+                    frames.add(Frame.chat(id, "用户" + id, "第" + i + "条消息，重连后服务器补发的群聊内容"));
+                    break;
+            }
+        }
+        return frames;
+    }
+
+    private static List<Frame> load(String path) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            Frame frame = TextCodec.decodeServerLine(line);
+            if (frame != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) (sorted.length * p));
+        return sorted[index] / 1e6;
+    }
+
+    /**
+     * 每5ms向EDT投递一个空事件，记录从投递到执行的延迟
+     */
+    private static final class Probe {
+        private final List<Long> latencies = new ArrayList<>();
+        private volatile boolean running = true;
+        private Thread thread;
+
+        void start() {
+            thread = new Thread(() -> {
+                while (running) {
+                    long posted = System.nanoTime();
+                    SwingUtilities.invokeLater(() -> {
+                        long latency = System.nanoTime() - posted;
+                        synchronized (latencies) {
+                            latencies.add(latency);
+                        }
+                    });
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "edt-probe");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long[] stop() throws Exception {
+            running = false;
+            thread.join();
+            // 等待已投递的探测事件执行完
+            SwingUtilities.invokeAndWait(() -> { });
+            long[] result;
+            synchronized (latencies) {
+                result = latencies.stream().mapToLong(Long::longValue).toArray();
+            }
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * 与MainView相同的数据处理: 聊天面板 + 左侧用户列表，只在EDT上访问
+     */
+    private static final class SimulatedView {
+        final JPanel root = new JPanel(new BorderLayout());
+        final ChatPanel chatPanel = new ChatPanel(Color.WHITE, new Color(56, 129, 244), new Color(245, 245, 247),
+                new Color(30, 30, 30), new Color(115, 115, 125), FONT);
+        final DefaultListModel<User> userListModel = new DefaultListModel<>();
+        final List<User> allUsers = new ArrayList<>();
+        final Set<Long> onlineUserIds = new HashSet<>();
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int renderCount;
+
+        SimulatedView() {
+            JList<User> userList = new JList<>(userListModel);
+            userList.setFont(FONT);
+            JScrollPane userScroll = new JScrollPane(userList);
+            userScroll.setPreferredSize(new Dimension(250, HEIGHT));
+            root.add(userScroll, BorderLayout.WEST);
+            root.add(chatPanel.getScrollPane(), BorderLayout.CENTER);
+            root.setSize(WIDTH, HEIGHT);
+        }
+
+        // 返回用户列表是否需要刷新
+        boolean apply(Frame frame) {
+            switch (frame.getOpcode()) {
+                case USER_LIST:
+                    onlineUserIds.clear();
+                    for (int i = 0; i < frame.getUserIds().length; i++) {
+                        onlineUserIds.add(frame.getUserIds()[i]);
+                        if (find(frame.getUserIds()[i]) == null) {
+                            allUsers.add(new User(frame.getUserIds()[i], frame.getUserNames()[i]));
+                        }
+                    }
+                    return true;
+                case USER_JOINED:
+                    onlineUserIds.add(frame.getId());
+                    if (find(frame.getId()) == null) {
+                        allUsers.add(new User(frame.getId(), frame.getName()));
+                    }
+                    chatPanel.addSystemMessage(frame.getName() + " 已加入聊天");
+                    return true;
+                case USER_LEFT:
+                    onlineUserIds.remove(frame.getId());
+                    chatPanel.addSystemMessage(frame.getName() + " 已离开聊天");
+                    return true;
+                case OFFLINE_STAT:
+                    User sender = find(frame.getId());
+                    if (sender != null) {
+                        chatPanel.addSystemMessage("您有 " + frame.getCount() + " 条来自 " + sender.getName() + " 的未读消息");
+                    }
+                    return false;
+                case CHAT:
+                    chatPanel.addMessage(frame.getText(), false, frame.getName());
+                    chatPanel.scrollToBottom();
+                    return false;
+                default:
+                    // 私聊和离线消息会打开私聊窗口，headless时无法创建
+                    return false;
+            }
+        }
+
+        void refreshUserList() {
+            List<User> visible = new ArrayList<>(allUsers.size());
+            for (User user : allUsers) {
+                if (onlineUserIds.contains(user.getId())) {
+                    visible.add(user);
+                }
+            }
+            userListModel.clear();
+            userListModel.addAll(visible);
+        }
+
+        User find(long userId) {
+            for (User user : allUsers) {
+                if (user.getId() == userId) {
+                    return user;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 相当于一次布局加一次重绘
+         */
+        void render() {
+            layoutTree(root);
+            Graphics2D g = image.createGraphics();
+            root.paint(g);
+            g.dispose();
+            renderCount++;
+        }
+
+        private static void layoutTree(Component component) {
+            if (component instanceof Container) {
+                Container container = (Container) component;
+                container.doLayout();
+                for (Component child : container.getComponents()) {
+                    layoutTree(child);
+                }
+            }
+        }
+    }
+}
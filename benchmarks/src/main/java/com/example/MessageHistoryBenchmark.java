@@ -0,0 +1,248 @@
+package com.example;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息历史分页验证程序: OFFSET分页与 (sent_at, _id) 游标分页的对比
+ * 生成若干会话的消息（很多条的发送时间相同，分布在若干天内），从最新一页向前翻到最早，
+ * 统计最后几页的查询耗时；翻页过程中不断有新消息写入，校验游标分页没有重复和遗漏
+ * 默认使用H2内存数据库，也可以传入其他JDBC URL
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.MessageHistoryBenchmark [会话消息数=20000] [其他消息数=200000] [每页=50] [jdbcUrl] [user] [password]
+ */
+public class MessageHistoryBenchmark {
+    private static int failures;
+
+    private static final long ALICE = 1;
+    private static final long BOB = 2;
+
+    public static void main(String[] args) throws Exception {
+        int conversation = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int noise = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", args.length > 3 ? args[3] : "jdbc:h2:mem:history;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", args.length > 4 ? args[4] : "sa");
+        prop.setProperty("db.password", args.length > 5 ? args[5] : "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        try {
+            fill(conversation, noise);
+            MessageDAO messageDAO = new MessageDAO();
+
+            // 1. 游标分页: 翻页过程中每页写入一条新消息，新消息不影响向前翻页
+            List<Long> keysetIds = new ArrayList<>();
+            List<Long> keysetTailNanos = new ArrayList<>();
+            MessageDAO.Cursor cursor = null;
+            int pages = 0;
+            while (true) {
+                long start = System.nanoTime();
+                List<Message> page = messageDAO.getMessagesBefore(ALICE, BOB, cursor, pageSize);
+                long elapsed = System.nanoTime() - start;
+                keysetTailNanos.add(elapsed);
+                for (int i = page.size() - 1; i >= 0; i--) {
+                    keysetIds.add(page.get(i).getId());
+                }
+                pages++;
+                messageDAO.storeOfflineMessage(pages % 2 == 0 ? ALICE : BOB, pages % 2 == 0 ? BOB : ALICE, "新消息" + pages);
+                if (page.size() < pageSize) {
+                    break;
+                }
+                cursor = MessageDAO.Cursor.of(page.get(0));
+            }
+            int written = pages;
+
+            // 2. OFFSET分页: 同样在翻页过程中写入新消息
+            List<Long> offsetIds = new ArrayList<>();
+            List<Long> offsetTailNanos = new ArrayList<>();
+            for (int offset = 0; ; offset += pageSize) {
+                long start = System.nanoTime();
+                List<Long> page = offsetPage(offset, pageSize);
+                offsetTailNanos.add(System.nanoTime() - start);
+                offsetIds.addAll(page);
+                messageDAO.storeOfflineMessage(ALICE, BOB, "新消息" + offset);
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+
+            System.out.printf("%-8s %8s %8s %12s %16s %16s%n",
+                    "mode", "pages", "rows", "duplicates", "first page(ms)", "last 10 avg(ms)");
+            report("offset", offsetIds, offsetTailNanos);
+            report("keyset", keysetIds, keysetTailNanos);
+
+            // 校验: 游标分页恰好返回开始翻页前的全部会话消息，按 (sent_at, _id) 从新到旧
+            Set<Long> expected = conversationIds(conversation + written + offsetTailNanos.size());
+            check("游标分页没有重复 (" + (keysetIds.size() - new HashSet<>(keysetIds).size()) + ")",
+                    new HashSet<>(keysetIds).size() == keysetIds.size());
+            check("游标分页返回全部 " + conversation + " 条原有消息（翻页中写入的不在其中）",
+                    keysetIds.size() == conversation && expected.containsAll(keysetIds));
+            check("游标分页按 (sent_at, _id) 从新到旧", isDescending(keysetIds));
+
+            // 向后翻页: 从最早开始，读到所有消息
+            List<Message> forward = new ArrayList<>();
+            cursor = null;
+            while (true) {
+                List<Message> page = messageDAO.getMessagesAfter(ALICE, BOB, cursor, pageSize * 4);
+                forward.addAll(page);
+                if (page.size() < pageSize * 4) {
+                    break;
+                }
+                cursor = MessageDAO.Cursor.of(page.get(page.size() - 1));
+            }
+            check("向后翻页读到 " + forward.size() + " 条", forward.size() == expected.size());
+
+            List<Message> latest = messageDAO.getMessageHistory(ALICE, BOB, 10);
+            check("getMessageHistory返回最新的10条，从新到旧",
+                    latest.size() == 10 && latest.get(0).getContent().startsWith("新消息"));
+        } finally {
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 会话消息分布在最近的若干天内，每100条的发送时间相同（同一时间有多条会话消息）；其他会话的消息穿插其中
+     */
+    private static void fill(int conversation, int noise) throws Exception {
+        String sql = "INSERT INTO message (sender, receiver, message, ddate, sent_at, `read`, reserved) "
+                + "VALUES (?, ?, ?, ?, ?, 1, NULL)";
+        int total = conversation + noise;
+        LocalDateTime first = LocalDateTime.now().minusDays(30).truncatedTo(ChronoUnit.SECONDS);
+        long stepMs = TimeUnit.DAYS.toMillis(30) / Math.max(1, total / 100);
+        long start = System.nanoTime();
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            int step = Math.max(1, total / Math.max(1, conversation));
+            int written = 0;
+            for (int i = 0; i < total; i++) {
+                boolean ours = i % step == 0 && written < conversation;
+                long sender;
+                long receiver;
+                if (ours) {
+                    sender = written % 2 == 0 ? ALICE : BOB;
+                    receiver = written % 2 == 0 ? BOB : ALICE;
+                    written++;
+                } else {
+                    sender = 3 + i % 97;
+                    receiver = 3 + (i / 97) % 89;
+                }
+                pstmt.setLong(1, sender);
+                pstmt.setLong(2, receiver);
+                pstmt.setString(3, "消息" + i);
+                LocalDateTime sentAt = first.plus((i / 100) * stepMs, ChronoUnit.MILLIS);
+                pstmt.setDate(4, java.sql.Date.valueOf(sentAt.toLocalDate()));
+                pstmt.setTimestamp(5, Timestamp.valueOf(sentAt));
+                pstmt.addBatch();
+                if (i % 1000 == 999) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+        System.out.printf("写入 %d 条消息（会话 %d 条）: %d ms%n", total, conversation,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 原来的写法加上OFFSET: OR条件，按 sent_at DESC, _id DESC 排序
+     */
+    private static List<Long> offsetPage(int offset, int limit) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        String sql = "SELECT _id FROM message WHERE (sender = ? AND receiver = ?) OR (sender = ? AND receiver = ?) "
+                + "ORDER BY sent_at DESC, _id DESC LIMIT ? OFFSET ?";
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, ALICE);
+            pstmt.setLong(2, BOB);
+            pstmt.setLong(3, BOB);
+            pstmt.setLong(4, ALICE);
+            pstmt.setInt(5, limit);
+            pstmt.setInt(6, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Long> conversationIds(int hint) throws Exception {
+        Set<Long> ids = new HashSet<>(hint * 2);
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT _id FROM message WHERE (sender = " + ALICE + " AND receiver = " + BOB
+                     + ") OR (sender = " + BOB + " AND receiver = " + ALICE + ")")) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * sent_at随_id单调不减（按时间写入），因此 (sent_at, _id) 从新到旧等价于_id递减
+     */
+    private static boolean isDescending(List<Long> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i) >= ids.get(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void report(String mode, List<Long> ids, List<Long> pageNanos) {
+        int duplicates = ids.size() - new HashSet<>(ids).size();
+        int tail = Math.min(10, pageNanos.size());
+        long tailTotal = 0;
+        for (int i = pageNanos.size() - tail; i < pageNanos.size(); i++) {
+            tailTotal += pageNanos.get(i);
+        }
+        System.out.printf("%-8s %8d %8d %12d %16.2f %16.2f%n", mode, pageNanos.size(), ids.size(), duplicates,
+                pageNanos.get(0) / 1e6, tailTotal / 1e6 / Math.max(1, tail));
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
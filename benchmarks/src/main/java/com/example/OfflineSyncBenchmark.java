@@ -0,0 +1,171 @@
+package com.example;
+
+import com.example.dao.CachedUserDAO;
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.service.OfflineMessageService;
+import com.example.service.OfflineMessageService.OfflineMessageSyncResult;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 登录时离线消息同步的对比: 读取全部未读消息 (eager) 与只查询按发送者的未读数 (lazy)
+ * 给一个用户写入大量来自多个发送者的未读消息，统计同步的耗时和分配的内存；
+ * 然后分段读取某个发送者的离线消息，校验每段不超过配置的条数、全部送达且标记为已读、
+ * 中途停止后再次请求从剩余的消息继续
+ * 默认使用H2内存数据库，也可以传入其他JDBC URL
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.OfflineSyncBenchmark [未读消息数=50000] [发送者数=20] [每段=200] [jdbcUrl] [user] [password]
+ */
+public class OfflineSyncBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long RECEIVER = 1000;
+    private static final int ROUNDS = 5;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int unread = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", args.length > 3 ? args[3] : "jdbc:h2:mem:offlinesync;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", args.length > 4 ? args[4] : "sa");
+        prop.setProperty("db.password", args.length > 5 ? args[5] : "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        try {
+            MessageDAO messageDAO = new MessageDAO();
+            fill(messageDAO, unread, senders);
+
+            // 1. 登录同步
+            OfflineMessageService eager = new OfflineMessageService(messageDAO, CachedUserDAO.getInstance(), false, chunkSize);
+            OfflineMessageService lazy = new OfflineMessageService(messageDAO, CachedUserDAO.getInstance(), true, chunkSize);
+            System.out.printf("%-8s %12s %14s %14s %10s%n", "mode", "avg(ms)", "allocated(KB)", "bodies loaded", "total");
+            OfflineMessageSyncResult eagerResult = sync("eager", eager);
+            OfflineMessageSyncResult lazyResult = sync("lazy", lazy);
+            check("两种方式的未读总数都是 " + unread,
+                    eagerResult.getTotalUnreadCount() == unread && lazyResult.getTotalUnreadCount() == unread);
+            check("两种方式的按发送者统计相同", eagerResult.getMessageStats().equals(lazyResult.getMessageStats()));
+            check("lazy 不读取消息内容", lazyResult.getUnreadMessages().isEmpty());
+
+            // 2. 分段读取一个发送者的离线消息
+            long sender = 1;
+            int expected = lazyResult.getMessageStats().get(sender);
+            List<Long> ids = new ArrayList<>();
+            AtomicInteger maxChunk = new AtomicInteger();
+            AtomicInteger chunks = new AtomicInteger();
+            // 第2段之后停止，相当于发送到一半时连接断开
+            int first = lazy.streamOfflineMessagesFromSender(RECEIVER, sender, chunk -> {
+                if (chunks.incrementAndGet() > 2) {
+                    return false;
+                }
+                maxChunk.accumulateAndGet(chunk.size(), Math::max);
+                for (Message message : chunk) {
+                    ids.add(message.getId());
+                }
+                return true;
+            });
+            check("中途停止时只有已发送的 " + first + " 条标记为已读",
+                    first == Math.min(expected, 2 * chunkSize) && unreadFrom(sender) == expected - first);
+
+            long start = System.nanoTime();
+            long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            int rest = lazy.streamOfflineMessagesFromSender(RECEIVER, sender, chunk -> {
+                maxChunk.accumulateAndGet(chunk.size(), Math::max);
+                for (Message message : chunk) {
+                    ids.add(message.getId());
+                }
+                return true;
+            });
+            System.out.printf("分段读取剩余的 %d 条: %.2f ms, 分配 %d KB%n", rest, (System.nanoTime() - start) / 1e6,
+                    (THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / 1024);
+            Set<Long> distinct = new HashSet<>(ids);
+            check("再次请求后全部 " + expected + " 条送达，没有重复 (" + ids.size() + ")",
+                    ids.size() == expected && distinct.size() == expected);
+            check("每段不超过 " + chunkSize + " 条 (" + maxChunk.get() + ")", maxChunk.get() <= chunkSize);
+            check("该发送者没有剩余的未读消息", unreadFrom(sender) == 0);
+            check("其他发送者的消息仍是未读", lazy.syncOfflineMessages(RECEIVER).getTotalUnreadCount() == unread - expected);
+        } finally {
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 每10条消息的发送时间相同，校验 (sent_at, _id) 游标在同一时间的多条消息之间分段
+     */
+    private static void fill(MessageDAO messageDAO, int unread, int senders) {
+        LocalDateTime first = LocalDateTime.now().minusDays(7).truncatedTo(ChronoUnit.SECONDS);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < unread; i++) {
+            Message message = new Message((long) (1 + i % senders), RECEIVER, "离线消息 " + i);
+            message.setSentAt(first.plus(i / 10, ChronoUnit.MILLIS));
+            batch.add(message);
+            if (batch.size() == 1000) {
+                messageDAO.storeOfflineMessages(batch);
+                batch.clear();
+            }
+        }
+        messageDAO.storeOfflineMessages(batch);
+    }
+
+    private static OfflineMessageSyncResult sync(String mode, OfflineMessageService service) {
+        OfflineMessageSyncResult result = service.syncOfflineMessages(RECEIVER);
+        long start = System.nanoTime();
+        long before = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < ROUNDS; i++) {
+            result = service.syncOfflineMessages(RECEIVER);
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        System.out.printf("%-8s %12.2f %14d %14d %10d%n", mode, (System.nanoTime() - start) / 1e6 / ROUNDS,
+                allocated / 1024 / ROUNDS, result.getUnreadMessages().size(), result.getTotalUnreadCount());
+        return result;
+    }
+
+    private static int unreadFrom(long sender) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM message WHERE receiver = " + RECEIVER
+                     + " AND sender = " + sender + " AND `read` = 2")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.service.OfflineMessageWriter;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 离线消息同步写入与异步批量写入的对比
+ * 多个发送线程（相当于服务器的读线程）连续发送离线消息，统计发送方每条消息被阻塞的时间，
+ * 以及全部消息写入数据库所需的总时间；最后验证崩溃后日志重放
+ * 默认使用H2内存数据库，也可以传入其他JDBC URL
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.OfflineWriteBehindBenchmark [消息数=20000] [发送线程数=8] [jdbcUrl] [user] [password]
+ */
+public class OfflineWriteBehindBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", args.length > 2 ? args[2] : "jdbc:h2:mem:offline;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", args.length > 3 ? args[3] : "sa");
+        prop.setProperty("db.password", args.length > 4 ? args[4] : "");
+        prop.setProperty("db.pool.maxSize", "10");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        MessageDAO messageDAO = new MessageDAO();
+        Path journal = Files.createTempFile("offline-journal", ".log");
+        try {
+            System.out.printf("%-22s %10s %14s %14s %10s%n",
+                    "mode", "messages", "submit avg(us)", "durable(ms)", "rows");
+            run("sync", messageDAO, null, messages, senders);
+            run("write-behind", messageDAO,
+                    new OfflineMessageWriter(messageDAO, 100, 50, 10000, null, false), messages, senders);
+            run("write-behind+journal", messageDAO,
+                    new OfflineMessageWriter(messageDAO, 100, 50, 10000, journal.toString(), false), messages, senders);
+            run("write-behind+fsync", messageDAO,
+                    new OfflineMessageWriter(messageDAO, 100, 50, 10000, journal.toString(), true), messages, senders);
+            checkRecovery(messageDAO, journal);
+        } finally {
+            Files.deleteIfExists(journal);
+            DBUtil.shutdown();
+        }
+    }
+
+    private static void run(String mode, MessageDAO messageDAO, OfflineMessageWriter writer,
+                            int messages, int senders) throws Exception {
+        execute("DELETE FROM message");
+        AtomicLong blockedNanos = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        long start = System.nanoTime();
+        for (int s = 0; s < senders; s++) {
+            long senderId = s + 1;
+            executor.submit(() -> {
+                for (int i = 0; i < messages / senders; i++) {
+                    String content = "离线消息 " + senderId + "-" + i;
+                    long t = System.nanoTime();
+                    if (writer != null) {
+                        writer.submit(senderId, 1000 + i % 10, content);
+                    } else {
+                        messageDAO.storeOfflineMessage(senderId, 1000L + i % 10, content);
+                    }
+                    blockedNanos.addAndGet(System.nanoTime() - t);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        if (writer != null) {
+            writer.flush(TimeUnit.MINUTES.toMillis(10));
+        }
+        long durableMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int total = messages / senders * senders;
+        System.out.printf("%-22s %10d %14.1f %14d %10d%n", mode, total,
+                blockedNanos.get() / 1000.0 / total, durableMs, countRows());
+        if (writer != null) {
+            writer.shutdown(10000);
+        }
+    }
+
+    /**
+     * 数据库不可用时消息留在日志中，重新创建写入器后重放
+     */
+    private static void checkRecovery(MessageDAO messageDAO, Path journal) throws Exception {
+        execute("DELETE FROM message");
+        MessageDAO unavailable = new MessageDAO() {
+            @Override
+            public boolean storeOfflineMessages(List<Message> batch) {
+                return false;
+            }
+        };
+        OfflineMessageWriter failing = new OfflineMessageWriter(unavailable, 100, 10, 1000, journal.toString(), true);
+        for (int i = 0; i < 250; i++) {
+            failing.submit(1, 2, "重放消息 " + i);
+        }
+        failing.shutdown(30000);
+
+        OfflineMessageWriter recovered = new OfflineMessageWriter(messageDAO, 100, 10, 1000, journal.toString(), true);
+        recovered.flush(10000);
+        recovered.shutdown(10000);
+        long rows = countRows();
+        System.out.println((rows == 250 && Files.size(journal) == 0 ? "✅" : "❌")
+                + " 日志重放写入 " + rows + "/250 条，日志剩余 " + Files.size(journal) + " 字节");
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static long countRows() throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM message")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import com.example.service.OfflineMessageService;
+import com.example.service.PresenceAggregator;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登录/下线风暴时在线状态扇出的帧数
+ * 对比不合并（server.presence.batchWindowMs=0）与按窗口合并两种配置:
+ * 观察者为支持 PRESENCE 的二进制客户端，先取得快照，之后统计收到的在线状态帧数和字节数；
+ * 1. 登录风暴: storm 个旧客户端同时登录
+ * 2. 网络抖动: 这些客户端全部断开后立即重连，窗口内的下线和上线互相抵消
+ * 3. 闪断: 每个客户端登录后立即断开，窗口内的上线和下线互相抵消
+ * 每个阶段结束后检查每个观察者维护的在线列表与服务器一致
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.PresenceBatchBenchmark [观察者数=200] [风暴用户数=1000] [合并窗口ms=100] [端口=18894]
+ */
+public class PresenceBatchBenchmark {
+    private static final long FIRST_OBSERVER = 1;
+    private static final long FIRST_STORM_USER = 100_000;
+    // 观察者连续这么久没有收到帧时认为扇出结束
+    private static final long QUIET_MS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int observers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int storm = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long window = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18894;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:presenceBatch;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        // 风暴用户不读取数据，发送队列足够大，避免丢弃在线状态帧影响统计
+        settings.setProperty("server.outbound.capacity", String.valueOf(storm * 4 + 1024));
+
+        System.out.printf("%-8s %-10s %12s %12s %12s %12s %12s %10s %6s%n", "window", "phase", "frames",
+                "bytes", "frames/obs", "cancelled", "saved", "time(ms)", "match");
+        try {
+            int round = 0;
+            for (long windowMs : new long[] {0, window}) {
+                run(observers, storm, windowMs, port + round++);
+            }
+        } finally {
+            DBUtil.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private static void run(int observerCount, int storm, long windowMs, int port) throws Exception {
+        Settings.getInstance().setProperty("server.presence.batchWindowMs", String.valueOf(windowMs));
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new BenchmarkStubs.StubUserDAO(), true, 200),
+                new BenchmarkStubs.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+        List<Observer> observers = new ArrayList<>();
+        List<Socket> stormSockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < observerCount; i++) {
+                observers.add(new Observer(port, FIRST_OBSERVER + i));
+            }
+            for (Observer observer : observers) {
+                observer.send(Frame.presenceSync(0, 0));
+            }
+            Set<Long> expected = new HashSet<>();
+            for (int i = 0; i < observerCount; i++) {
+                expected.add(FIRST_OBSERVER + i);
+            }
+            awaitQuiet(observers);
+
+            // 1. 登录风暴
+            Phase phase = new Phase(service, observers);
+            for (int i = 0; i < storm; i++) {
+                stormSockets.add(legacyLogin(port, FIRST_STORM_USER + i));
+                expected.add(FIRST_STORM_USER + i);
+            }
+            phase.finish(windowMs, "login", expected, storm);
+
+            // 2. 网络抖动
+            phase = new Phase(service, observers);
+            for (int i = 0; i < storm; i++) {
+                stormSockets.get(i).close();
+                stormSockets.set(i, legacyLogin(port, FIRST_STORM_USER + i));
+            }
+            phase.finish(windowMs, "blip", expected, storm);
+
+            // 3. 闪断
+            phase = new Phase(service, observers);
+            for (int i = 0; i < storm; i++) {
+                Socket socket = legacyLogin(port, FIRST_STORM_USER + storm + i);
+                // 等服务器读到用户ID再断开
+                Thread.sleep(0, 200_000);
+                socket.close();
+            }
+            phase.finish(windowMs, "flap", expected, storm);
+        } finally {
+            for (Observer observer : observers) {
+                observer.close();
+            }
+            for (Socket socket : stormSockets) {
+                socket.close();
+            }
+            service.shutdown();
+        }
+    }
+
+    /**
+     * 一个阶段开始时的计数，结束时打印差值
+     */
+    private static final class Phase {
+        private final SocketService service;
+        private final List<Observer> observers;
+        private final long start = System.nanoTime();
+        private final long frames;
+        private final long bytes;
+        private final long received;
+        private final long cancelled;
+        private final long saved;
+
+        Phase(SocketService service, List<Observer> observers) {
+            this.service = service;
+            this.observers = observers;
+            this.frames = totalFrames(observers);
+            this.bytes = totalBytes(observers);
+            PresenceAggregator aggregator = service.getPresenceAggregator();
+            this.received = aggregator.getChangesReceived();
+            this.cancelled = aggregator.getChangesCancelled();
+            this.saved = aggregator.getFramesSaved();
+        }
+
+        /**
+         * @param events 本阶段服务器至少收到的上线和下线次数（旧连接被新连接替换时不通知下线）
+         */
+        void finish(long windowMs, String name, Set<Long> expected, int events) throws InterruptedException {
+            // 服务器通知完所有上线和下线后，再等最后一批变化到达；用户加入 onlineUsers 后才同步离线消息并通知上线
+            PresenceAggregator aggregator = service.getPresenceAggregator();
+            while (service.getConnectionMetrics().size() != expected.size()
+                    || aggregator.getChangesReceived() - received < events) {
+                Thread.sleep(20);
+            }
+            long changes;
+            do {
+                changes = aggregator.getChangesReceived();
+                Thread.sleep(QUIET_MS);
+            } while (aggregator.getChangesReceived() != changes);
+            long end = awaitQuiet(observers);
+            boolean match = true;
+            for (Observer observer : observers) {
+                Set<Long> others = new HashSet<>(expected);
+                others.remove(observer.userId);
+                Set<Long> seen = new HashSet<>(observer.online);
+                seen.remove(observer.userId);
+                match &= seen.equals(others);
+            }
+            long delivered = totalFrames(observers) - frames;
+            System.out.printf("%-8d %-10s %12d %12d %12.1f %12d %12d %10.0f %6s%n", windowMs, name, delivered,
+                    totalBytes(observers) - bytes, delivered / (double) observers.size(),
+                    aggregator.getChangesCancelled() - cancelled, aggregator.getFramesSaved() - saved,
+                    (end - start) / 1e6, match ? "yes" : "NO");
+        }
+    }
+
+    /**
+     * 等待所有观察者连续 QUIET_MS 没有收到帧
+     * @return 最后一帧到达的时间（System.nanoTime）
+     */
+    private static long awaitQuiet(List<Observer> observers) throws InterruptedException {
+        while (true) {
+            Thread.sleep(50);
+            long last = 0;
+            for (Observer observer : observers) {
+                last = Math.max(last, observer.lastFrameAt.get());
+            }
+            if (System.nanoTime() - last > QUIET_MS * 1_000_000L) {
+                return last;
+            }
+        }
+    }
+
+    private static long totalFrames(List<Observer> observers) {
+        long total = 0;
+        for (Observer observer : observers) {
+            total += observer.frames.get();
+        }
+        return total;
+    }
+
+    private static long totalBytes(List<Observer> observers) {
+        long total = 0;
+        for (Observer observer : observers) {
+            total += observer.bytes.get();
+        }
+        return total;
+    }
+
+    /**
+     * 只发送用户ID的旧客户端，不读取服务器发来的数据
+     */
+    private static Socket legacyLogin(int port, long userId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.getOutputStream().write((userId + "\n").getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    /**
+     * 支持 PRESENCE 的二进制客户端，在后台线程中按快照和增量维护在线列表
+     */
+    private static final class Observer implements AutoCloseable {
+        private final long userId;
+        private final Socket socket;
+        private final OutputStream out;
+        private final Set<Long> online = ConcurrentHashMap.newKeySet();
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong lastFrameAt = new AtomicLong(System.nanoTime());
+
+        Observer(int port, long userId) throws IOException {
+            this.userId = userId;
+            socket = new Socket("localhost", port);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            String hello = WireProtocol.HELLO_PREFIX + userId + ":" + WireProtocol.BINARY.getToken()
+                    + "," + WireProtocol.CAPABILITY_PRESENCE;
+            out.write((hello + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            if (line == null || !line.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+                throw new IOException("握手失败: " + line);
+            }
+            Thread reader = new Thread(() -> read(in), "observer-" + userId);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read(InputStream in) {
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    apply(frame);
+                    frames.incrementAndGet();
+                    bytes.addAndGet(BinaryCodec.encode(frame).remaining());
+                    lastFrameAt.set(System.nanoTime());
+                }
+            } catch (IOException e) {
+                // 连接关闭
+            }
+        }
+
+        private void apply(Frame frame) {
+            switch (frame.getOpcode()) {
+                case PRESENCE_SNAPSHOT:
+                    online.clear();
+                    for (long id : frame.getUserIds()) {
+                        online.add(id);
+                    }
+                    break;
+                case PRESENCE_JOINED:
+                    online.add(frame.getId());
+                    break;
+                case PRESENCE_LEFT:
+                    online.remove(frame.getId());
+                    break;
+                case PRESENCE_BATCH:
+                    for (long id : frame.getUserIds()) {
+                        if (id > 0) {
+                            online.add(id);
+                        } else {
+                            online.remove(-id);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void send(Frame frame) throws IOException {
+            BinaryCodec.write(frame, out);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
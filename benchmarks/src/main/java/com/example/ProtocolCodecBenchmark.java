@@ -0,0 +1,155 @@
+package com.example;
+
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 文本协议与二进制协议的编解码对比
+ * 对几种典型的帧分别测量编码、解码耗时，单帧字节数和每次操作的内存分配
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.ProtocolCodecBenchmark [每轮次数=200000] [轮数=5]
+ */
+public class ProtocolCodecBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // 防止JIT消除无副作用的计算
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Map<String, Frame> frames = new LinkedHashMap<>();
+        frames.put("chat", Frame.chat(1024, "张三", "大家好，今天下午三点开会，记得带上周报。"));
+        frames.put("pm", Frame.privateMessage(123456, "hello, are you there?"));
+        frames.put("presence", Frame.userJoined(987654, "李四"));
+        frames.put("offlineStat", Frame.offlineStat(42, 17));
+        frames.put("userList(100)", userList(100));
+        Frame list = userList(100);
+        frames.put("snapshot(100)", Frame.presenceSnapshot(1, 4096, list.getUserIds(), list.getUserNames()));
+
+        System.out.printf("%-14s %-7s %8s %12s %12s %12s %12s%n",
+                "frame", "codec", "bytes", "encode(ns)", "decode(ns)", "encAlloc(B)", "decAlloc(B)");
+        for (Map.Entry<String, Frame> entry : frames.entrySet()) {
+            Frame frame = entry.getValue();
+            // 预热
+            for (int i = 0; i < 3; i++) {
+                runText(frame, iterations);
+                runBinary(frame, iterations);
+            }
+            Result text = new Result();
+            Result binary = new Result();
+            for (int r = 0; r < rounds; r++) {
+                text.add(runText(frame, iterations));
+                binary.add(runBinary(frame, iterations));
+            }
+            print(entry.getKey(), "text", text, rounds);
+            print(entry.getKey(), "binary", binary, rounds);
+        }
+        System.out.println("(sink=" + sink + ")");
+    }
+
+    private static Frame userList(int count) {
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 10_000 + i;
+            names[i] = "用户" + i;
+        }
+        return Frame.userList(ids, names);
+    }
+
+    private static Result runText(Frame frame, int iterations) {
+        Result result = new Result();
+        byte[] encoded = null;
+        long alloc = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encoded = (TextCodec.encode(frame) + "\n").getBytes(StandardCharsets.UTF_8);
+            sink += encoded.length;
+        }
+        result.encodeNanos = System.nanoTime() - start;
+        result.encodeAlloc = allocated() - alloc;
+        result.bytes = encoded.length;
+
+        // 服务器发往客户端的帧用客户端的解析方法
+        alloc = allocated();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String line = new String(encoded, 0, encoded.length - 1, StandardCharsets.UTF_8);
+            Frame decoded = TextCodec.decodeServerLine(line);
+            sink += decoded.getId();
+        }
+        result.decodeNanos = System.nanoTime() - start;
+        result.decodeAlloc = allocated() - alloc;
+        result.iterations = iterations;
+        return result;
+    }
+
+    private static Result runBinary(Frame frame, int iterations) throws Exception {
+        Result result = new Result();
+        ByteBuffer encoded = null;
+        long alloc = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encoded = BinaryCodec.encode(frame);
+            sink += encoded.remaining();
+        }
+        result.encodeNanos = System.nanoTime() - start;
+        result.encodeAlloc = allocated() - alloc;
+        result.bytes = encoded.remaining();
+
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        ByteBuffer input = ByteBuffer.wrap(bytes);
+        alloc = allocated();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            input.clear();
+            Frame decoded = BinaryCodec.decode(input);
+            sink += decoded.getId();
+        }
+        result.decodeNanos = System.nanoTime() - start;
+        result.decodeAlloc = allocated() - alloc;
+        result.iterations = iterations;
+        return result;
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void print(String name, String codec, Result result, int rounds) {
+        long ops = result.iterations;
+        System.out.printf("%-14s %-7s %8d %12.1f %12.1f %12d %12d%n",
+                name, codec, result.bytes / rounds,
+                (double) result.encodeNanos / ops, (double) result.decodeNanos / ops,
+                result.encodeAlloc / ops, result.decodeAlloc / ops);
+    }
+
+    private static final class Result {
+        long iterations;
+        long bytes;
+        long encodeNanos;
+        long decodeNanos;
+        long encodeAlloc;
+        long decodeAlloc;
+
+        void add(Result other) {
+            iterations += other.iterations;
+            bytes += other.bytes;
+            encodeNanos += other.encodeNanos;
+            decodeNanos += other.decodeNanos;
+            encodeAlloc += other.encodeAlloc;
+            decodeAlloc += other.decodeAlloc;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.WireProtocol;
+import com.example.service.ClientConnection;
+import com.example.service.OutboundQueue;
+import com.example.service.RoomRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 房间消息扇出的开销
+ * 默认 1000 个房间、每个房间 100 个在线成员，每个用户加入 10 个房间（共 10000 个用户）:
+ * 1. join   在 RoomRegistry 中建立所有成员关系的耗时和内存分配
+ * 2. fanout 发到随机房间的消息只发给房间成员，对比原来发给所有在线用户的广播，
+ *           测量每条消息的接收者数、CPU时间和内存分配
+ * 3. churn  多个线程持续发送房间消息，同时一个线程不断离开、重新加入房间，
+ *           对比没有成员变化时的消息吞吐量（写时复制下发送不加锁，只有加入和离开复制成员数组）
+ * 连接为进程内的桩实现，只取出共享的编码结果并计数，排除发送队列和网络本身的开销
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.RoomFanoutBenchmark [房间数=1000] [每个房间的成员数=100] [每个用户加入的房间数=10]
+ *                                                                                 [消息数=20000] [发送线程数=4]
+ */
+public class RoomFanoutBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final long CHURN_MS = 2000;
+
+    private static final LongAdder delivered = new LongAdder();
+    private static final LongAdder deliveredBytes = new LongAdder();
+
+    public static void main(String[] args) throws InterruptedException {
+        int roomCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int membersPerRoom = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int roomsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        int publishers = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        int userCount = Math.max(membersPerRoom, roomCount * membersPerRoom / roomsPerUser);
+
+        List<CountingConnection> connections = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            CountingConnection connection = new CountingConnection();
+            connection.setProtocol(i % 2 == 0 ? WireProtocol.BINARY : WireProtocol.TEXT);
+            connections.add(connection);
+        }
+        System.out.println("rooms=" + roomCount + " members/room=" + membersPerRoom + " users=" + userCount
+                + " rooms/user≈" + (roomCount * membersPerRoom / userCount));
+
+        // 1. 建立成员关系: 第 s 个名额属于房间 s / membersPerRoom，用户 s % userCount
+        RoomRegistry registry = new RoomRegistry();
+        long thread = Thread.currentThread().getId();
+        long alloc = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        int memberships = join(registry, connections, roomCount, membersPerRoom);
+        long joinNanos = System.nanoTime() - start;
+        alloc = THREADS.getThreadAllocatedBytes(thread) - alloc;
+        System.out.printf("%njoin: %d memberships in %.1f ms (%.0f joins/s), alloc %.1f MB (%.0f B/membership)%n",
+                memberships, joinNanos / 1e6, memberships * 1e9 / joinNanos, alloc / 1048576.0,
+                (double) alloc / memberships);
+        System.out.println("rooms=" + registry.getRoomCount() + " users in rooms=" + registry.getUserCount());
+
+        // 2. 房间扇出与全员广播
+        Frame template = Frame.roomMessage(1, 1024, "张三", "大家好，今天下午三点在三楼会议室开会，请大家准时参加。");
+        System.out.printf("%n%-10s %10s %14s %16s %14s%n", "fanout", "messages", "recipients/msg",
+                "cpu/msg(us)", "alloc/msg(KB)");
+        // 预热
+        fanout(registry, connections, roomCount, template, false, messages);
+        fanout(registry, connections, roomCount, template, true, Math.max(1, messages / 100));
+        print("room", messages, fanout(registry, connections, roomCount, template, false, messages));
+        int broadcasts = Math.max(1, messages / 100);
+        print("broadcast", broadcasts, fanout(registry, connections, roomCount, template, true, broadcasts));
+
+        // 3. 成员变化时的发送吞吐量
+        System.out.printf("%n%-10s %10s %14s %16s%n", "churn", "threads", "msgs/s", "joins+leaves/s");
+        concurrent(registry, connections, roomCount, membersPerRoom, template, publishers, false);
+        concurrent(registry, connections, roomCount, membersPerRoom, template, publishers, true);
+    }
+
+    private static int join(RoomRegistry registry, List<CountingConnection> connections, int roomCount,
+                            int membersPerRoom) {
+        int userCount = connections.size();
+        int memberships = 0;
+        for (int slot = 0; slot < roomCount * membersPerRoom; slot++) {
+            long roomId = slot / membersPerRoom + 1;
+            int user = slot % userCount;
+            if (registry.join(roomId, user + 1, "User" + (user + 1), connections.get(user))) {
+                memberships++;
+            }
+        }
+        return memberships;
+    }
+
+    /**
+     * @return {接收者总数, CPU纳秒, 分配字节}
+     */
+    private static long[] fanout(RoomRegistry registry, List<CountingConnection> connections, int roomCount,
+                                 Frame template, boolean broadcast, int messages) {
+        Random random = new Random(42);
+        long thread = Thread.currentThread().getId();
+        long before = delivered.sum();
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        long alloc = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < messages; i++) {
+            long roomId = random.nextInt(roomCount) + 1;
+            long senderId = registry.members(roomId)[0].getUserId();
+            EncodedFrame frame = EncodedFrame.shared(
+                    Frame.roomMessage(roomId, senderId, template.getName(), template.getText()));
+            if (broadcast) {
+                // 原来的群聊: 发给除发送者外的所有在线用户
+                for (int user = 0; user < connections.size(); user++) {
+                    if (user + 1 != senderId) {
+                        connections.get(user).send(frame, OutboundQueue.FrameKind.MESSAGE);
+                    }
+                }
+            } else {
+                registry.publish(roomId, frame, OutboundQueue.FrameKind.MESSAGE, senderId);
+            }
+        }
+        return new long[] {
+                delivered.sum() - before,
+                THREADS.getCurrentThreadCpuTime() - cpu,
+                THREADS.getThreadAllocatedBytes(thread) - alloc
+        };
+    }
+
+    private static void concurrent(RoomRegistry registry, List<CountingConnection> connections, int roomCount,
+                                   int membersPerRoom, Frame template, int publishers, boolean churn)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong published = new AtomicLong();
+        AtomicLong changes = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < publishers; t++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (running.get()) {
+                    long roomId = random.nextInt(roomCount) + 1;
+                    EncodedFrame frame = EncodedFrame.shared(
+                            Frame.roomMessage(roomId, 0, template.getName(), template.getText()));
+                    registry.publish(roomId, frame, OutboundQueue.FrameKind.MESSAGE, 0);
+                    count++;
+                }
+                published.addAndGet(count);
+            }, "room-publisher-" + t));
+        }
+        if (churn) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int userCount = connections.size();
+                long count = 0;
+                while (running.get()) {
+                    // 离开后立即重新加入，房间人数保持不变
+                    int slot = random.nextInt(roomCount * membersPerRoom);
+                    long roomId = slot / membersPerRoom + 1;
+                    int user = slot % userCount;
+                    CountingConnection connection = connections.get(user);
+                    if (registry.leave(roomId, user + 1, connection) != null) {
+                        registry.join(roomId, user + 1, "User" + (user + 1), connection);
+                        count += 2;
+                    }
+                }
+                changes.addAndGet(count);
+            }, "room-churn"));
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(CHURN_MS);
+        running.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-10s %10d %14.0f %16.0f%n", churn ? "churn" : "steady", publishers,
+                published.get() / seconds, changes.get() / seconds);
+    }
+
+    private static void print(String mode, int messages, long[] result) {
+        System.out.printf("%-10s %10d %14.1f %16.2f %14.2f%n", mode, messages, (double) result[0] / messages,
+                result[1] / 1000.0 / messages, result[2] / 1024.0 / messages);
+    }
+
+    /**
+     * 只取出编码结果并计数的连接
+     */
+    private static final class CountingConnection implements ClientConnection {
+        private final OutboundQueue<EncodedFrame> outbound =
+                new OutboundQueue<>(1, OutboundQueue.OverflowPolicy.DISCONNECT, 0);
+        private volatile WireProtocol protocol = WireProtocol.TEXT;
+
+        @Override
+        public void send(EncodedFrame frame, OutboundQueue.FrameKind kind) {
+            delivered.increment();
+            deliveredBytes.add(frame.bytes(protocol).remaining());
+        }
+
+        @Override
+        public WireProtocol getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public void setProtocol(WireProtocol protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public OutboundQueue<?> getOutboundQueue() {
+            return outbound;
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
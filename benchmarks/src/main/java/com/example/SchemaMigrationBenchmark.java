@@ -0,0 +1,218 @@
+package com.example;
+
+import com.example.dao.MessageDAO;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据库迁移前后的消息查询延迟对比
+ * 先只执行初始结构的迁移（V1，只有外键自带的sender、receiver单列索引），写入大量消息，
+ * 用迁移前DAO中的SQL测量未读列表、未读统计、某个发送者的未读和会话历史四种查询；
+ * 然后执行其余迁移（sent_at列回填和组合索引），用现在的MessageDAO再次测量
+ * 默认使用临时目录中的H2文件数据库，也可以传入其他JDBC URL（应指向一个空库）
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.SchemaMigrationBenchmark [消息数=10000000] [用户数=10000] [每种查询次数=20] [jdbcUrl] [user] [password]
+ */
+public class SchemaMigrationBenchmark {
+    // 每个用户主要和这么多个用户聊天
+    private static final int CONTACTS = 20;
+    // 未读消息的比例
+    private static final double UNREAD_RATE = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        long messages = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        File dir = null;
+        String url;
+        if (args.length > 3) {
+            url = args[3];
+        } else {
+            dir = Files.createTempDirectory("migration-bench").toFile();
+            url = "jdbc:h2:file:" + new File(dir, "db").getAbsolutePath() + ";NON_KEYWORDS=USER";
+        }
+        Properties prop = new Properties();
+        prop.setProperty("db.url", url);
+        prop.setProperty("db.user", args.length > 4 ? args[4] : "sa");
+        prop.setProperty("db.password", args.length > 5 ? args[5] : "");
+        prop.setProperty("db.pool.leakDetectionThresholdMs", "0");
+        DBUtil.configure(prop);
+
+        try {
+            SchemaMigrator migrator = new SchemaMigrator();
+            migrator.migrate(1);
+            fill(messages, users);
+
+            System.out.printf("%-22s %12s %12s %12s %10s%n", "query", "before p50", "after p50", "before avg", "after avg");
+            double[][] before = measure(false, users, queries);
+
+            long start = System.nanoTime();
+            int applied = migrator.migrate();
+            System.out.printf("执行 %d 个迁移到 V%d: %d ms%n", applied, migrator.currentVersion(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            double[][] after = measure(true, users, queries);
+            String[] names = {"unread by receiver", "unread stats", "unread from sender", "history page"};
+            for (int q = 0; q < names.length; q++) {
+                System.out.printf("%-22s %10.2fms %10.2fms %10.2fms %8.2fms%n", names[q],
+                        percentile(before[q], 0.5), percentile(after[q], 0.5), average(before[q]), average(after[q]));
+            }
+        } finally {
+            DBUtil.shutdown();
+            if (dir != null) {
+                for (File f : dir.listFiles()) {
+                    f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void fill(long messages, int users) throws Exception {
+        long start = System.nanoTime();
+        try (Connection conn = DBUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO user (name, password) VALUES (?, ?)")) {
+                for (int u = 1; u <= users; u++) {
+                    pstmt.setString(1, "user" + u);
+                    pstmt.setString(2, "x");
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+
+            SplittableRandom random = new SplittableRandom(42);
+            LocalDate first = LocalDate.now().minusDays(365);
+            String sql = "INSERT INTO message (sender, receiver, message, ddate, `read`, reserved) VALUES (?, ?, ?, ?, ?, NULL)";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (long i = 0; i < messages; i++) {
+                    int receiver = 1 + random.nextInt(users);
+                    int sender = 1 + (receiver + random.nextInt(CONTACTS)) % users;
+                    pstmt.setLong(1, sender);
+                    pstmt.setLong(2, receiver);
+                    pstmt.setString(3, "消息" + i);
+                    pstmt.setDate(4, java.sql.Date.valueOf(first.plusDays(i * 365 / messages)));
+                    pstmt.setInt(5, random.nextDouble() < UNREAD_RATE ? 2 : 1);
+                    pstmt.addBatch();
+                    if (i % 10000 == 9999) {
+                        pstmt.executeBatch();
+                        conn.commit();
+                    }
+                    if (i % 1_000_000 == 999_999) {
+                        System.out.printf("已写入 %d 条消息 (%d s)%n", i + 1,
+                                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            }
+            conn.setAutoCommit(true);
+        }
+        System.out.printf("写入 %d 个用户、%d 条消息: %d s%n", users, messages,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    /**
+     * @param migrated true时用现在的MessageDAO，否则用迁移前的SQL
+     * @return [查询种类][第几次] 的耗时（毫秒）
+     */
+    private static double[][] measure(boolean migrated, int users, int queries) throws Exception {
+        double[][] result = new double[4][queries];
+        SplittableRandom random = new SplittableRandom(7);
+        MessageDAO messageDAO = new MessageDAO();
+        // 预热一次
+        for (int k = -1; k < queries; k++) {
+            long receiver = 1 + random.nextInt(users);
+            long sender = 1 + (receiver + random.nextInt(CONTACTS)) % users;
+            for (int q = 0; q < 4; q++) {
+                long start = System.nanoTime();
+                if (migrated) {
+                    switch (q) {
+                        case 0:
+                            messageDAO.getUnreadMessages(receiver);
+                            break;
+                        case 1:
+                            messageDAO.getOfflineMessageStats(receiver);
+                            break;
+                        case 2:
+                            messageDAO.getOfflineMessagesFromSender(receiver, sender);
+                            break;
+                        default:
+                            messageDAO.getMessagesBefore(receiver, sender, null, 50);
+                            break;
+                    }
+                } else {
+                    legacyQuery(q, receiver, sender);
+                }
+                if (k >= 0) {
+                    result[q][k] = (System.nanoTime() - start) / 1e6;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 迁移前MessageDAO中的查询
+     */
+    private static void legacyQuery(int q, long receiver, long sender) throws Exception {
+        String sql;
+        switch (q) {
+            case 0:
+                sql = "SELECT * FROM message WHERE receiver = ? AND `read` = 2 ORDER BY ddate ASC";
+                break;
+            case 1:
+                sql = "SELECT sender, COUNT(*) as count FROM message WHERE receiver = ? AND `read` = 2 GROUP BY sender";
+                break;
+            case 2:
+                sql = "SELECT * FROM message WHERE receiver = ? AND sender = ? AND `read` = 2 ORDER BY ddate ASC";
+                break;
+            default:
+                sql = "SELECT * FROM message WHERE (sender = ? AND receiver = ?) OR (sender = ? AND receiver = ?) "
+                        + "ORDER BY ddate DESC LIMIT 50";
+                break;
+        }
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, receiver);
+            if (q == 2) {
+                pstmt.setLong(2, sender);
+            } else if (q == 3) {
+                pstmt.setLong(2, sender);
+                pstmt.setLong(3, sender);
+                pstmt.setLong(4, receiver);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rs.getObject(1);
+                }
+            }
+        }
+    }
+
+    private static double percentile(double[] values, double p) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    private static double average(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+}
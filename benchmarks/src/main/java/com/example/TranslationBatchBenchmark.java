@@ -0,0 +1,168 @@
+package com.example;
+
+import com.example.service.AIService;
+import com.example.service.TranslationCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量翻译与逐条翻译的吞吐量对比
+ * 在本机启动一个模拟的chat/completions接口: 每个请求固定延迟（模拟网络往返和模型首字延迟）
+ * 加上每条消息的少量处理时间；可以让一部分批量回复的结构出错，验证回退为逐条翻译
+ * 翻译一段聊天记录（其中有重复的短语），统计请求数和耗时
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.TranslationBatchBenchmark [消息数=200] [请求延迟ms=150] [每条消息ms=5] [结构出错比例=0.3]
+ */
+public class TranslationBatchBenchmark {
+    private static final String[] PHRASES = {
+            "好的", "收到", "今天下午三点开会", "辛苦了", "这个问题我明天再看一下",
+            "接口文档已经更新", "请把日志发给我", "版本已经发布到测试环境",
+    };
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicInteger batchRequests = new AtomicInteger();
+    private static volatile long requestDelayMs;
+    private static volatile long itemDelayMs;
+    private static volatile double mangleRate;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        requestDelayMs = args.length > 1 ? Long.parseLong(args[1]) : 150;
+        itemDelayMs = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        double mangle = args.length > 3 ? Double.parseDouble(args[3]) : 0.3;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", TranslationBatchBenchmark::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+
+        List<String> history = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            // 约一半是重复的常用短语
+            history.add(i % 2 == 0 ? PHRASES[i % PHRASES.length] : "第" + i + "条消息: " + PHRASES[i % PHRASES.length]);
+        }
+
+        PrintStream stdout = System.out;
+        System.out.printf("%-22s %9s %9s %10s %12s %10s%n", "mode", "messages", "requests", "fallbacks", "elapsed(ms)", "msg/s");
+        try {
+            for (int round = 0; round < 2; round++) {
+                // 第一轮用于预热
+                PrintStream report = round == 1 ? stdout : new PrintStream(OutputStream.nullOutputStream());
+                run(report, "per-message", url, history, 0, false);
+                run(report, "batch(20)", url, history, 0, true);
+                run(report, "batch(20)+" + (int) (mangle * 100) + "% mangled", url, history, mangle, true);
+            }
+        } finally {
+            System.setOut(stdout);
+            server.stop(0);
+            ((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private static void run(PrintStream report, String label, String url, List<String> history,
+                            double mangle, boolean batch) throws IOException {
+        AIService service = new AIService(AIService.sharedClient(), url, "sk-test", "test-model",
+                new TranslationCache(10000, 600000, null, 0));
+        service.setBatchLimits(20, 1500);
+        mangleRate = mangle;
+        int before = requests.get();
+        // AIService会打印每个请求和响应，测量期间关闭标准输出
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        List<String> results;
+        try {
+            if (batch) {
+                results = service.translateBatch(history, "en");
+            } else {
+                results = new ArrayList<>();
+                for (String text : history) {
+                    results.add(service.translateText(text, "en"));
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        for (int i = 0; i < history.size(); i++) {
+            if (!("[English] " + history.get(i)).equals(results.get(i))) {
+                throw new IllegalStateException("第" + i + "条翻译结果错误: " + results.get(i));
+            }
+        }
+        report.printf("%-22s %9d %9d %10d %12d %10.1f%n", label, history.size(), requests.get() - before,
+                service.getBatchFallbackCount(), elapsedMs, history.size() * 1000.0 / Math.max(1, elapsedMs));
+    }
+
+    /**
+     * 模拟接口: 单条请求返回 "[语言] 原文"；批量请求返回同样格式的JSON数组，
+     * 按mangleRate的比例轮流丢掉一条、重复一条或返回无法解析的文本
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        JSONArray messages = request.getJSONArray("messages");
+        String system = messages.getJSONObject(0).getString("content");
+        String text = messages.getJSONObject(1).getString("content");
+        String language = system.substring(system.indexOf(" to ") + 4, system.indexOf('.', system.indexOf(" to ")));
+
+        String content;
+        long delay = requestDelayMs;
+        if (system.contains("JSON array")) {
+            JSONArray items = new JSONArray(text);
+            JSONArray out = new JSONArray();
+            for (int k = 0; k < items.length(); k++) {
+                JSONObject item = items.getJSONObject(k);
+                out.put(new JSONObject().put("i", item.getInt("i")).put("t", "[" + language + "] " + item.getString("t")));
+            }
+            delay += itemDelayMs * items.length();
+            content = "```json\n" + out + "\n```";
+            int batchNo = batchRequests.incrementAndGet();
+            if (mangleRate > 0 && batchNo % Math.max(1, Math.round(1 / mangleRate)) == 0) {
+                switch (batchNo % 3) {
+                    case 0:
+                        out.remove(out.length() / 2);
+                        content = out.toString();
+                        break;
+                    case 1:
+                        out.put(out.getJSONObject(0));
+                        content = out.toString();
+                        break;
+                    default:
+                        content = "Here are the translations: 1. ...";
+                        break;
+                }
+            }
+        } else {
+            delay += itemDelayMs;
+            content = "[" + language + "] " + text;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", content);
+        byte[] bytes = new JSONObject().put("choices", new JSONArray().put(new JSONObject().put("message", message)))
+                .toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example;
+
+import com.example.service.AIService;
+import com.example.service.TranslationCache;
+import com.example.service.TranslationScheduler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 翻译调度器验证程序: 同时点击大量气泡的翻译时的限流、重试、优先级和取消
+ * 在本机启动一个模拟的chat/completions接口，模拟服务商的限制: 同时最多处理若干请求、每秒最多若干请求，
+ * 超出时返回429和Retry-After；每隔若干请求返回一次503。
+ * 对比直接并发调用translateText（每个气泡一个线程，原来的做法）和经调度器排队的结果
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.TranslationSchedulerBenchmark [气泡数=50] [服务商并发上限=4] [服务商每秒请求上限=8] [请求延迟ms=150]
+ */
+public class TranslationSchedulerBenchmark {
+    private static int failures;
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicInteger rejected = new AtomicInteger();
+    private static final AtomicInteger active = new AtomicInteger();
+    private static final AtomicInteger maxActive = new AtomicInteger();
+    private static final Set<String> received = ConcurrentHashMap.newKeySet();
+    private static final ReentrantLock rateLock = new ReentrantLock();
+    private static final long[] recent = new long[64];
+    private static int recentCount;
+    private static volatile int providerConcurrency;
+    private static volatile int providerRate;
+    private static volatile long delayMs;
+
+    public static void main(String[] args) throws Exception {
+        int bubbles = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        providerConcurrency = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        providerRate = Math.min(recent.length, args.length > 2 ? Integer.parseInt(args[2]) : 8);
+        delayMs = args.length > 3 ? Long.parseLong(args[3]) : 150;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", TranslationSchedulerBenchmark::handle);
+        server.setExecutor(Executors.newFixedThreadPool(64));
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+
+        PrintStream stdout = System.out;
+        try {
+            // 1. 原来的做法: 每个气泡一个线程直接请求
+            resetServer();
+            AIService direct = newService(url, null);
+            ExecutorService workers = Executors.newFixedThreadPool(bubbles);
+            List<String> directResults = new ArrayList<>();
+            List<Future<String>> futures = new ArrayList<>();
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            for (int i = 0; i < bubbles; i++) {
+                String text = "直接" + i;
+                futures.add(workers.submit(() -> direct.translateText(text, "en")));
+            }
+            for (Future<String> future : futures) {
+                directResults.add(future.get());
+            }
+            long directMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.setOut(stdout);
+            workers.shutdown();
+            long directErrors = directResults.stream().filter(r -> !r.startsWith("[English]")).count();
+            int directRejected = rejected.get();
+            int directMaxActive = maxActive.get();
+
+            // 2. 经调度器: 前面的气泡已滚出视口，最后10个可见，另取消10个（气泡被清除）
+            resetServer();
+            TranslationScheduler scheduler = new TranslationScheduler("bench", 2, 8, providerRate * 1.5, 4, 6);
+            AIService scheduled = newService(url, scheduler);
+            int visibleCount = Math.min(10, bubbles / 5);
+            int cancelCount = Math.min(10, bubbles / 5);
+            List<TranslationScheduler.Task<String>> tasks = new ArrayList<>();
+            List<Integer> completionOrder = new ArrayList<>();
+            ReentrantLock orderLock = new ReentrantLock();
+            CountDownLatch done = new CountDownLatch(bubbles);
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            start = System.nanoTime();
+            for (int i = 0; i < bubbles; i++) {
+                boolean visible = i >= bubbles - visibleCount;
+                int index = i;
+                TranslationScheduler.Task<String> task = scheduled.translateAsync("排队" + i, "en", () -> visible, null);
+                task.future().whenComplete((result, error) -> {
+                    if (!(error instanceof CancellationException)) {
+                        orderLock.lock();
+                        try {
+                            completionOrder.add(index);
+                        } finally {
+                            orderLock.unlock();
+                        }
+                    }
+                    done.countDown();
+                });
+                tasks.add(task);
+            }
+            // 清除的气泡: 第10到第10+cancelCount个
+            for (int i = 10; i < 10 + cancelCount; i++) {
+                tasks.get(i).cancel();
+            }
+            boolean finished = done.await(120, TimeUnit.SECONDS);
+            long scheduledMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.setOut(stdout);
+
+            int succeeded = 0;
+            int cancelled = 0;
+            int errors = 0;
+            for (int i = 0; i < bubbles; i++) {
+                TranslationScheduler.Task<String> task = tasks.get(i);
+                if (task.isCancelled()) {
+                    cancelled++;
+                    continue;
+                }
+                try {
+                    String result = task.future().get();
+                    if (("[English] 排队" + i).equals(result)) {
+                        succeeded++;
+                    } else {
+                        errors++;
+                    }
+                } catch (Exception e) {
+                    errors++;
+                }
+            }
+
+            System.out.printf("%-10s %8s %8s %10s %9s %11s %12s%n",
+                    "mode", "ok", "errors", "requests", "429/503", "max active", "elapsed(ms)");
+            System.out.printf("%-10s %8d %8d %10d %9d %11d %12d%n", "direct",
+                    bubbles - directErrors, directErrors, bubbles, directRejected, directMaxActive, directMs);
+            System.out.printf("%-10s %8d %8d %10d %9d %11d %12d%n", "scheduled",
+                    succeeded, errors, requests.get(), rejected.get(), maxActive.get(), scheduledMs);
+            System.out.println("   " + scheduler);
+
+            check("全部完成", finished);
+            check("经调度器没有显示为错误的翻译 (" + errors + ")", errors == 0 && succeeded == bubbles - cancelCount);
+            check("同时进行的请求不超过窗口上限 (" + maxActive.get() + ")", maxActive.get() <= 8);
+            boolean cancelledNotSent = cancelled == cancelCount;
+            for (int i = 10; i < 10 + cancelCount; i++) {
+                cancelledNotSent &= !received.contains("排队" + i);
+            }
+            check("取消的" + cancelCount + "个翻译没有请求接口", cancelledNotSent);
+            // 可见的气泡应在大部分不可见的气泡之前完成
+            int lastVisible = 0;
+            for (int k = 0; k < completionOrder.size(); k++) {
+                if (completionOrder.get(k) >= bubbles - visibleCount) {
+                    lastVisible = k;
+                }
+            }
+            check("可见的" + visibleCount + "个翻译在第" + (lastVisible + 1) + "个完成（共" + completionOrder.size() + "个）",
+                    lastVisible < completionOrder.size() / 2);
+
+            // 3. 进行中的请求被取消时中断连接
+            resetServer();
+            delayMs = 2000;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            TranslationScheduler.Task<String> slow = scheduled.translateAsync("很慢的翻译", "en", () -> true, null);
+            long waitStart = System.nanoTime();
+            while (!received.contains("很慢的翻译") && System.nanoTime() - waitStart < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(5);
+            }
+            long cancelStart = System.nanoTime();
+            slow.cancel();
+            boolean cancelledQuickly;
+            try {
+                slow.future().get(1, TimeUnit.SECONDS);
+                cancelledQuickly = false;
+            } catch (CancellationException e) {
+                cancelledQuickly = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelStart) < 500;
+            }
+            System.setOut(stdout);
+            check("进行中的翻译被取消", cancelledQuickly);
+            scheduler.shutdown();
+        } finally {
+            System.setOut(stdout);
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static AIService newService(String url, TranslationScheduler scheduler) throws IOException {
+        return new AIService(AIService.sharedClient(), url, "sk-test", "test-model",
+                new TranslationCache(1000, 600000, null, 0), scheduler);
+    }
+
+    private static void resetServer() {
+        requests.set(0);
+        rejected.set(0);
+        active.set(0);
+        maxActive.set(0);
+        received.clear();
+        delayMs = Math.min(delayMs, 150);
+    }
+
+    /**
+     * 模拟服务商的限流: 超过并发上限或最近一秒的请求数超过上限时返回429 (Retry-After: 1)
+     */
+    private static boolean admit() {
+        rateLock.lock();
+        try {
+            long now = System.nanoTime();
+            int kept = 0;
+            for (int i = 0; i < recentCount; i++) {
+                if (now - recent[i] < TimeUnit.SECONDS.toNanos(1)) {
+                    recent[kept++] = recent[i];
+                }
+            }
+            recentCount = kept;
+            if (recentCount >= providerRate || active.get() >= providerConcurrency) {
+                return false;
+            }
+            recent[recentCount++] = now;
+            active.incrementAndGet();
+            return true;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+
+    /**
+     * 模拟接口: 返回 "[语言] 原文"，每第13个被接受的请求返回503
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        int number = requests.incrementAndGet();
+        JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        JSONArray messages = request.getJSONArray("messages");
+        String system = messages.getJSONObject(0).getString("content");
+        String text = messages.getJSONObject(1).getString("content");
+        String language = system.substring(system.indexOf(" to ") + 4, system.indexOf(". Only"));
+        received.add(text);
+
+        int status;
+        String body;
+        if (!admit()) {
+            rejected.incrementAndGet();
+            status = 429;
+            body = "{\"error\":\"rate limit exceeded\"}";
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        } else {
+            maxActive.accumulateAndGet(active.get(), Math::max);
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            if (number % 13 == 0) {
+                rejected.incrementAndGet();
+                status = 503;
+                body = "{\"error\":\"overloaded\"}";
+            } else {
+                status = 200;
+                JSONObject message = new JSONObject().put("role", "assistant").put("content", "[" + language + "] " + text);
+                body = new JSONObject().put("choices", new JSONArray().put(new JSONObject().put("message", message))).toString();
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // 客户端已取消请求
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
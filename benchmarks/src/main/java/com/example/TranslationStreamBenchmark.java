@@ -0,0 +1,194 @@
+package com.example;
+
+import com.example.component.EventBatcher;
+import com.example.service.AIService;
+import com.example.service.TranslationCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式翻译与一次性翻译的感知延迟对比
+ * 在本机启动一个模拟的chat/completions接口: 首个token前等待一段时间（模型思考），之后每隔一段时间输出一小段；
+ * stream=true时按SSE逐块推送（先推送一块只有reasoning_content的数据），否则等全部生成后一次返回。
+ * 统计一次性翻译的总耗时、流式翻译的首段延迟和总耗时，以及按帧率合并后的界面更新次数，并校验拼接结果
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.TranslationStreamBenchmark [首个token延迟ms=400] [每段间隔ms=5] [段数=80]
+ */
+public class TranslationStreamBenchmark {
+    private static final String TEXT = "今天下午三点在三楼会议室开会，请大家准时参加。";
+
+    private static volatile long firstTokenMs;
+    private static volatile long tokenIntervalMs;
+    private static volatile int tokens;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        firstTokenMs = args.length > 0 ? Long.parseLong(args[0]) : 400;
+        tokenIntervalMs = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        tokens = args.length > 2 ? Integer.parseInt(args[2]) : 80;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", TranslationStreamBenchmark::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+        String expected = expectedTranslation("English");
+
+        PrintStream stdout = System.out;
+        try {
+            for (int round = 0; round < 2; round++) {
+                // 第一轮用于预热
+                boolean report = round == 1;
+
+                AIService blocking = newService(url);
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long start = System.nanoTime();
+                String result = blocking.translateText(TEXT + round, "en");
+                long blockingMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.setOut(stdout);
+                if (!result.equals(expectedTranslation("English", round))) {
+                    throw new IllegalStateException("一次性翻译结果错误: " + result);
+                }
+
+                AIService streaming = newService(url);
+                AtomicLong firstDelta = new AtomicLong();
+                AtomicInteger deltas = new AtomicInteger();
+                StringBuilder assembled = new StringBuilder();
+                AtomicInteger uiUpdates = new AtomicInteger();
+                EventBatcher<String> batcher = new EventBatcher<>("translationStream", 16, 500, batch -> {
+                    for (String delta : batch) {
+                        assembled.append(delta);
+                    }
+                    uiUpdates.incrementAndGet();
+                });
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long streamStart = System.nanoTime();
+                String streamed = streaming.translateStreaming(TEXT + round, "en", delta -> {
+                    firstDelta.compareAndSet(0, System.nanoTime());
+                    deltas.incrementAndGet();
+                    batcher.submit(delta);
+                });
+                long streamMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - streamStart);
+                System.setOut(stdout);
+                // 等待最后一批显示
+                Thread.sleep(50);
+                SwingUtilities.invokeAndWait(() -> { });
+                long ttftMs = TimeUnit.NANOSECONDS.toMillis(firstDelta.get() - streamStart);
+
+                if (!streamed.equals(expectedTranslation("English", round))
+                        || !assembled.toString().trim().equals(streamed)) {
+                    throw new IllegalStateException("流式翻译结果错误: " + streamed + " / " + assembled);
+                }
+                if (report) {
+                    System.out.printf("%-10s %14s %12s %10s %12s%n", "mode", "first text(ms)", "total(ms)", "chunks", "ui updates");
+                    System.out.printf("%-10s %14d %12d %10d %12d%n", "blocking", blockingMs, blockingMs, 1, 1);
+                    System.out.printf("%-10s %14d %12d %10d %12d%n", "streaming", ttftMs, streamMs, deltas.get(), uiUpdates.get());
+                }
+            }
+
+            // 再次翻译同一段文本命中缓存，一次性回调完整译文
+            AIService cached = newService(url);
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            cached.translateStreaming(TEXT, "en", delta -> { });
+            AtomicInteger cachedDeltas = new AtomicInteger();
+            String again = cached.translateStreaming(TEXT, "en", delta -> cachedDeltas.incrementAndGet());
+            System.setOut(stdout);
+            System.out.println((again.equals(expected) && cachedDeltas.get() == 1 ? "✅" : "❌")
+                    + " 缓存命中时一次性返回: " + cached.getCache());
+        } finally {
+            System.setOut(stdout);
+            server.stop(0);
+            ((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private static AIService newService(String url) throws IOException {
+        return new AIService(AIService.sharedClient(), url, "sk-test", "test-model",
+                new TranslationCache(100, 600000, null, 0));
+    }
+
+    private static String expectedTranslation(String language) {
+        return "[" + language + "] \"" + TEXT + "\"\n😀";
+    }
+
+    private static String expectedTranslation(String language, int round) {
+        return "[" + language + "] \"" + TEXT + round + "\"\n😀";
+    }
+
+    /**
+     * 模拟接口: 译文为 [语言] "原文" 换行 😀，覆盖引号、换行和代理对的转义
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        JSONArray messages = request.getJSONArray("messages");
+        String system = messages.getJSONObject(0).getString("content");
+        String text = messages.getJSONObject(1).getString("content");
+        String language = system.substring(system.indexOf(" to ") + 4, system.indexOf('.', system.indexOf(" to ")));
+        String translation = "[" + language + "] \"" + text + "\"\n😀";
+        int pieces = Math.max(1, Math.min(tokens, translation.length()));
+
+        if (!request.optBoolean("stream")) {
+            sleep(firstTokenMs + tokenIntervalMs * (pieces - 1));
+            JSONObject message = new JSONObject().put("role", "assistant").put("content", translation);
+            byte[] bytes = new JSONObject().put("choices", new JSONArray().put(new JSONObject().put("message", message)))
+                    .toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            write(out, ": keep-alive\n\n");
+            write(out, "data: " + chunk(new JSONObject().put("reasoning_content", "thinking").put("content", JSONObject.NULL)) + "\n\n");
+            sleep(firstTokenMs);
+            // 按码点切分，不拆开代理对
+            int[] codePoints = translation.codePoints().toArray();
+            int per = (codePoints.length + pieces - 1) / pieces;
+            for (int i = 0; i < codePoints.length; i += per) {
+                if (i > 0) {
+                    sleep(tokenIntervalMs);
+                }
+                String piece = new String(codePoints, i, Math.min(per, codePoints.length - i));
+                // 非ASCII字符用\\u转义，和部分服务端的输出一致
+                write(out, "data: " + chunk(new JSONObject().put("content", piece)).replace("😀", "\\ud83d\\ude00") + "\n\n");
+            }
+            write(out, "data: [DONE]\n\n");
+        }
+    }
+
+    private static String chunk(JSONObject delta) {
+        return new JSONObject().put("choices", new JSONArray().put(new JSONObject().put("index", 0).put("delta", delta)))
+                .toString();
+    }
+
+    private static void write(OutputStream out, String data) throws IOException {
+        out.write(data.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
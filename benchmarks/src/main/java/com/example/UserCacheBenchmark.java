@@ -0,0 +1,121 @@
+package com.example;
+
+import com.example.dao.CachedUserDAO;
+import com.example.dao.UserDAO;
+import com.example.model.User;
+import com.example.util.ConnectionPool;
+import com.example.util.DBUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务器重启后的登录风暴: 大量客户端同时登录时用户查询对数据库的压力
+ * 每次登录依次执行 getUserByName（登录校验）、getUserNameById（服务器端连接）
+ * 和少量 getAllUsers（客户端用户列表），其中一部分使用不存在的用户名；
+ * 对比直接访问数据库和经过缓存时的数据库访问次数及耗时
+ * 默认使用H2内存数据库
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.example.UserCacheBenchmark [用户数=2000] [登录次数=50000] [线程数=32]
+ */
+public class UserCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int logins = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:usercache;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        prop.setProperty("db.pool.maxSize", "10");
+        DBUtil.configure(prop);
+        createUsers(users);
+        ConnectionPool pool = DBUtil.getPool();
+
+        System.out.printf("%-10s %10s %12s %14s%n", "dao", "logins", "db queries", "elapsed(ms)");
+        for (int round = 0; round < 2; round++) {
+            run("direct", new UserDAO(), pool, users, logins, threads);
+            CachedUserDAO cached = new CachedUserDAO(10000, 300000, 30000);
+            run("cached", cached, pool, users, logins, threads);
+            if (round == 1) {
+                System.out.println("   " + cached);
+            }
+        }
+        checkInvalidation();
+        DBUtil.shutdown();
+    }
+
+    private static void run(String label, UserDAO dao, ConnectionPool pool,
+                            int users, int logins, int threads) throws Exception {
+        long borrows = pool.getBorrowCount();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < logins / threads; i++) {
+                    int n = random.nextInt(users);
+                    // 约5%的登录使用不存在的用户名
+                    String name = random.nextInt(20) == 0 ? "nobody" + random.nextInt(100) : "user" + n;
+                    User user = dao.getUserByName(name);
+                    if (user != null) {
+                        dao.getUserNameById(user.getId());
+                    }
+                    if (i % 50 == 0) {
+                        dao.getAllUsers();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%-10s %10d %12d %14d%n", label, logins / threads * threads,
+                pool.getBorrowCount() - borrows, elapsedMs);
+    }
+
+    /**
+     * 不存在的用户名被缓存后，本进程注册该用户应立即可见
+     */
+    private static void checkInvalidation() {
+        CachedUserDAO dao = new CachedUserDAO(100, 300000, 300000);
+        String name = "newcomer" + System.nanoTime() % 100000;
+        boolean missingBefore = dao.getUserByName(name) == null && dao.getUserByName(name) == null;
+        int listBefore = dao.getAllUsers().size();
+        User user = new User();
+        user.setName(name);
+        user.setPassword("pw");
+        dao.register(user);
+        User found = dao.getUserByName(name);
+        boolean passed = missingBefore && found != null
+                && name.equals(dao.getUserNameById(found.getId()))
+                && dao.getAllUsers().size() == listBefore + 1;
+        System.out.println((passed ? "✅" : "❌") + " 注册后缓存失效: " + dao);
+    }
+
+    private static void createUsers(int users) throws Exception {
+        try (Connection conn = DBUtil.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS user (_id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                        + "name VARCHAR(40) NOT NULL UNIQUE, password VARCHAR(255) NOT NULL)");
+                stmt.execute("DELETE FROM user");
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO user(name, password) VALUES(?, ?)")) {
+                for (int i = 0; i < users; i++) {
+                    pstmt.setString(1, "user" + i);
+                    pstmt.setString(2, "pw" + i);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+    }
+}
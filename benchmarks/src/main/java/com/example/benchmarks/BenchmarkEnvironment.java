@@ -0,0 +1,57 @@
+package com.example.benchmarks;
+
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * 基准测试共用的环境: H2内存库和日志输出
+ */
+public final class BenchmarkEnvironment {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * 连接一个新的H2内存库并迁移到最新的表结构
+     * message 表不带外键先建好（和验证程序一样），不需要 user 表中有对应的用户
+     * @param name 库名，同一个JVM中不同的基准使用不同的库
+     */
+    public static void startDatabase(String name) throws SQLException {
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "sender BIGINT NOT NULL, receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, "
+                    + "ddate DATE NOT NULL, `read` INT NOT NULL, reserved VARCHAR(200))");
+        }
+        new SchemaMigrator().migrate();
+    }
+
+    /**
+     * 关闭连接池
+     */
+    public static void stopDatabase() {
+        DBUtil.shutdown();
+    }
+
+    /**
+     * 丢弃被测代码写到控制台的日志，否则测得的主要是控制台输出的开销；
+     * JMH在单独的进程中运行每个基准，自己的输出不受影响
+     */
+    public static void silenceLogs() {
+        System.setOut(DISCARD);
+        System.setErr(DISCARD);
+    }
+}
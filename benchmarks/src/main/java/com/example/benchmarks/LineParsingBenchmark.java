@@ -0,0 +1,144 @@
+package com.example.benchmarks;
+
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接上的读取和解码，每次调用读完一段混合了各类帧的字节流，结果按每帧计:
+ * serverRead 与 SocketService.handleClientConnection 的读循环相同（客户端发来的帧），
+ * clientRead 与 ChatClient 的监听线程相同（MainView.startMessageListening 收到的服务器帧）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineParsingBenchmark {
+    private static final int FRAMES = 1000;
+    private static final String TEXT = "大家好，今天下午三点在三楼会议室开会，请大家准时参加，记得带上本周的工作周报。";
+
+    @Param({"TEXT", "BINARY"})
+    public WireProtocol protocol;
+
+    private byte[] clientStream;
+    private byte[] serverStream;
+    private Charset charset;
+
+    @Setup
+    public void setUp() throws IOException {
+        charset = Charset.defaultCharset();
+        List<Frame> clientFrames = new ArrayList<>();
+        List<Frame> serverFrames = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            switch (i % 5) {
+                case 0:
+                    clientFrames.add(Frame.chat(TEXT));
+                    serverFrames.add(Frame.chat(1000 + i, "张三", TEXT));
+                    break;
+                case 1:
+                    clientFrames.add(Frame.sendPrivateMessage(2000 + i, 1_700_000_000_000L + i, TEXT));
+                    serverFrames.add(Frame.sequencedMessage(1000 + i, 1_700_000_000_000L + i, TEXT));
+                    break;
+                case 2:
+                    clientFrames.add(Frame.messageAck(1000 + i, 1_700_000_000_000L + i));
+                    serverFrames.add(Frame.presenceJoined(1000 + i, 5000 + i, "李四"));
+                    break;
+                case 3:
+                    clientFrames.add(Frame.roomMessage(42, TEXT));
+                    serverFrames.add(Frame.roomMessage(42, 1000 + i, "王五", TEXT));
+                    break;
+                default:
+                    clientFrames.add(Frame.presenceSync(123456789L, 5000 + i));
+                    serverFrames.add(Frame.presenceBatch(5000 + i,
+                            new long[] {1000 + i, -(2000 + i), 3000 + i}, new String[] {"张三", "李四", "王五"}));
+                    break;
+            }
+        }
+        clientStream = encode(clientFrames);
+        serverStream = encode(serverFrames);
+        if (decodeCount(clientStream, true, null) != FRAMES || decodeCount(serverStream, false, null) != FRAMES) {
+            throw new IllegalStateException("测试数据无法完整解码");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int serverRead(Blackhole blackhole) throws IOException {
+        return decodeCount(clientStream, true, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int clientRead(Blackhole blackhole) throws IOException {
+        return decodeCount(serverStream, false, blackhole);
+    }
+
+    private byte[] encode(List<Frame> frames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Frame frame : frames) {
+            if (protocol == WireProtocol.BINARY) {
+                BinaryCodec.write(frame, out);
+            } else {
+                out.write((TextCodec.encode(frame) + "\n").getBytes(charset));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private int decodeCount(byte[] stream, boolean fromClient, Blackhole blackhole) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(stream));
+        int count = 0;
+        if (protocol == WireProtocol.BINARY) {
+            Frame frame;
+            while ((frame = BinaryCodec.read(in)) != null) {
+                consume(blackhole, frame);
+                count++;
+            }
+        } else {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Frame frame = fromClient ? TextCodec.decodeClientLine(line) : TextCodec.decodeServerLine(line);
+                if (frame != null) {
+                    consume(blackhole, frame);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void consume(Blackhole blackhole, Frame frame) {
+        if (blackhole != null) {
+            blackhole.consume(frame);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.benchmarks;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageDAO 在H2内存库上的常用查询，连接经 DBUtil 的连接池获取，表结构由 SchemaMigrator 迁移到最新版本（含索引）
+ * 预先写入 USERS 个用户两两之间的 MESSAGES 条未读消息:
+ * 存储一条离线消息、登录时的未读统计、打开私聊时读取一段离线消息、会话历史的最新一页
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDAOBenchmark {
+    private static final int USERS = 100;
+    private static final int MESSAGES = 100_000;
+    private static final int PAGE = 50;
+    private static final String TEXT = "今天下午三点在三楼会议室开会，请准时参加。";
+
+    private MessageDAO messageDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.silenceLogs();
+        BenchmarkEnvironment.startDatabase("messages");
+        messageDAO = new MessageDAO();
+        LocalDateTime start = LocalDateTime.now().minusDays(30);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            long sender = i % USERS + 1;
+            long receiver = (i / USERS + sender) % USERS + 1;
+            Message message = new Message(sender, receiver == sender ? receiver % USERS + 1 : receiver, TEXT + i);
+            message.setSentAt(start.plusSeconds(i));
+            batch.add(message);
+            if (batch.size() == 1000) {
+                store(batch);
+                batch.clear();
+            }
+        }
+        store(batch);
+    }
+
+    private void store(List<Message> batch) {
+        if (!messageDAO.storeOfflineMessages(batch)) {
+            throw new IllegalStateException("写入测试数据失败");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.stopDatabase();
+    }
+
+    @Benchmark
+    public boolean storeOfflineMessage() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return messageDAO.storeOfflineMessage(random.nextLong(1, USERS / 2 + 1), random.nextLong(USERS / 2 + 1, USERS + 1),
+                TEXT);
+    }
+
+    @Benchmark
+    public Map<Long, Integer> offlineMessageStats() {
+        return messageDAO.getOfflineMessageStats(ThreadLocalRandom.current().nextLong(1, USERS + 1));
+    }
+
+    @Benchmark
+    public List<Message> offlineChunk() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return messageDAO.getOfflineMessagesFromSender(random.nextLong(1, USERS + 1), random.nextLong(1, USERS + 1),
+                null, PAGE);
+    }
+
+    @Benchmark
+    public List<Message> historyPage() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return messageDAO.getMessageHistory(random.nextLong(1, USERS + 1), random.nextLong(1, USERS + 1), PAGE);
+    }
+}
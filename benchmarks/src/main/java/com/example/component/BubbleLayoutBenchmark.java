@@ -0,0 +1,67 @@
+package com.example.component;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息气泡的换行计算 MessageBubble.calculateLineCount: 每行用二分查找断点，每次比较测量一个子串的宽度
+ * 在无界面（headless）的图形环境中取字体度量，宽度与气泡的最大文本宽度相同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BubbleLayoutBenchmark {
+    // MessageBubble 的 MAX_BUBBLE_WIDTH - PADDING_HORIZONTAL
+    private static final int TEXT_WIDTH = 400 - 24;
+    private static final String SENTENCE = "大家好，今天下午三点在三楼会议室开会 (meeting at 3pm)，请大家准时参加！";
+
+    /** 消息长度（字符数） */
+    @Param({"40", "400", "2000"})
+    public int length;
+
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private FontMetrics metrics;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        metrics = graphics.getFontMetrics(new Font("微软雅黑", Font.PLAIN, 14));
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append(SENTENCE);
+        }
+        text = builder.substring(0, length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public int calculateLineCount() {
+        return MessageBubble.calculateLineCount(text, metrics, TEXT_WIDTH);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.service;
+
+import com.example.benchmarks.BenchmarkEnvironment;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIService 构造请求JSON和解析回复的开销
+ * translate / translateBatch 经 OkHttp 拦截器直接返回固定的回复，不连接网络，测得的是请求构造、
+ * 回复解析和 OkHttp 本身的开销；每次调用使用新的文本，不命中翻译缓存。
+ * parseBatch 和 streamChunk 只测批量结果和流式回复块的解析
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AIServiceJsonBenchmark {
+    private static final int BATCH = 20;
+    private static final String API_URL = "http://localhost/v1/chat/completions";
+    private static final String TEXT = "今天下午三点在三楼会议室开会，请大家准时参加，记得带上本周的工作周报。";
+    private static final String TRANSLATION =
+            "The meeting is at 3 pm today in the third-floor conference room; please bring your weekly report.";
+
+    private AIService single;
+    private AIService batch;
+    private String batchContent;
+    private String streamLine;
+    private long sequence;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.silenceLogs();
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < BATCH; i++) {
+            items.put(new JSONObject().put("i", i).put("t", TRANSLATION + " #" + i));
+        }
+        batchContent = items.toString();
+        single = service(completion(TRANSLATION));
+        batch = service(completion(batchContent));
+        streamLine = "data: " + new JSONObject()
+                .put("id", "chatcmpl-1")
+                .put("choices", new JSONArray().put(new JSONObject()
+                        .put("index", 0)
+                        .put("delta", new JSONObject().put("content", "third-floor \"conference\" room\n"))))
+                .toString();
+    }
+
+    @Benchmark
+    public String translate() {
+        return single.translateText(TEXT + (++sequence), "en-US");
+    }
+
+    @Benchmark
+    public List<String> translateBatch() {
+        List<String> texts = new ArrayList<>(BATCH);
+        long round = ++sequence;
+        for (int i = 0; i < BATCH; i++) {
+            texts.add(TEXT + round + "-" + i);
+        }
+        return batch.translateBatch(texts, "en-US");
+    }
+
+    @Benchmark
+    public Map<Integer, String> parseBatch() {
+        return AIService.parseBatch(batchContent, BATCH);
+    }
+
+    @Benchmark
+    public StringBuilder streamChunk() {
+        StringBuilder out = new StringBuilder();
+        AIService.appendDeltaContent(streamLine, 6, out);
+        return out;
+    }
+
+    private static AIService service(String responseBody) throws Exception {
+        MediaType json = MediaType.get("application/json");
+        Interceptor stub = chain -> new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(responseBody, json))
+                .build();
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(stub).build();
+        // 缓存很小，不断写入新的文本时只保留最近几条
+        return new AIService(client, API_URL, "sk-benchmark", "benchmark-model", new TranslationCache(16, 60_000, null, 0));
+    }
+
+    private static String completion(String content) {
+        return new JSONObject().put("choices", new JSONArray().put(new JSONObject()
+                .put("index", 0)
+                .put("message", new JSONObject().put("role", "assistant").put("content", content)))).toString();
+    }
+}
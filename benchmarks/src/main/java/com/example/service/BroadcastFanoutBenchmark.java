@@ -0,0 +1,162 @@
+package com.example.service;
+
+import com.example.benchmarks.BenchmarkEnvironment;
+import com.example.dao.MessageDAO;
+import com.example.dao.UserDAO;
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.WireProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群聊和房间消息的扇出，经 SocketService.handleClientMessage 走完整的服务端路径
+ * （SocketService.broadcastMessage / 房间的 RoomRegistry.publish），再由每个连接取出字节写出。
+ * 连接为进程内的桩实现，一半使用文本协议、一半使用二进制协议，写出时只复制字节，排除网络本身的开销；
+ * 房间消息发到一个有 100 个成员的房间，与在线人数无关
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanoutBenchmark {
+    private static final long ROOM = 1;
+    private static final int ROOM_MEMBERS = 100;
+    private static final String TEXT = "大家好，今天下午三点在三楼会议室开会，请大家准时参加，记得带上本周的工作周报。";
+
+    @Param({"100", "1000"})
+    public int onlineUsers;
+
+    private SocketService service;
+    private final List<SinkConnection> connections = new ArrayList<>();
+    private Frame chat;
+    private Frame roomMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkEnvironment.silenceLogs();
+        BenchmarkEnvironment.startDatabase("broadcast" + onlineUsers);
+        UserDAO users = new StubUserDAO();
+        service = new SocketService(new OfflineMessageService(new MessageDAO(), users, true, 200), users);
+        for (long userId = 1; userId <= onlineUsers; userId++) {
+            SinkConnection connection = new SinkConnection();
+            String idLine = userId % 2 == 0
+                    ? WireProtocol.helloLine(userId, WireProtocol.BINARY) : String.valueOf(userId);
+            connection.setProtocol(service.negotiateProtocol(idLine));
+            service.loginClient(connection, idLine);
+            connections.add(connection);
+            if (userId <= ROOM_MEMBERS) {
+                service.handleClientMessage(userId, Frame.joinRoom(ROOM));
+            }
+        }
+        // 等登录产生的在线状态合并发送完
+        Thread.sleep(500);
+        drain(connections.size());
+        chat = Frame.chat(TEXT);
+        roomMessage = Frame.roomMessage(ROOM, TEXT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+        BenchmarkEnvironment.stopDatabase();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        service.handleClientMessage(1, chat);
+        return drain(connections.size());
+    }
+
+    @Benchmark
+    public long room() {
+        service.handleClientMessage(1, roomMessage);
+        // 只有房间成员（前 ROOM_MEMBERS 个用户）有帧要写出
+        return drain(Math.min(ROOM_MEMBERS, connections.size()));
+    }
+
+    private long drain(int count) {
+        long written = 0;
+        for (int i = 0; i < count; i++) {
+            written += connections.get(i).drain();
+        }
+        return written;
+    }
+
+    private static final class StubUserDAO extends UserDAO {
+        @Override
+        public String getUserNameById(Long userId) {
+            return "User" + userId;
+        }
+    }
+
+    /**
+     * 只把字节复制到写缓冲区的连接
+     */
+    private static final class SinkConnection implements ClientConnection {
+        private final OutboundQueue<EncodedFrame> outbound =
+                new OutboundQueue<>(4096, OutboundQueue.OverflowPolicy.DROP_OLDEST_PRESENCE, 0);
+        private final byte[] writeBuffer = new byte[64 * 1024];
+        private volatile WireProtocol protocol = WireProtocol.TEXT;
+
+        @Override
+        public void send(EncodedFrame frame, OutboundQueue.FrameKind kind) {
+            outbound.offer(frame, kind);
+        }
+
+        long drain() {
+            long written = 0;
+            EncodedFrame frame;
+            while ((frame = outbound.poll()) != null) {
+                ByteBuffer bytes = frame.bytes(protocol);
+                int n = Math.min(bytes.remaining(), writeBuffer.length);
+                bytes.get(writeBuffer, 0, n);
+                written += n;
+            }
+            return written;
+        }
+
+        @Override
+        public WireProtocol getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public void setProtocol(WireProtocol protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public OutboundQueue<?> getOutboundQueue() {
+            return outbound;
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example;
 
 import com.example.model.Settings;
+import com.example.util.SchemaMigrator;
 import com.example.service.SocketService;
 import com.example.view.LoginView;
 import com.example.component.ChatClient;
@@ -13,6 +14,9 @@ public class App {
     public static void main(String[] args) {
         // 加载设置
         Settings settings = Settings.getInstance();
+
+        // 升级数据库结构
+        SchemaMigrator.migrateOnStartup();
         
         // 根据设置决定是否启动服务器
         if (settings.isStartServerMode()) {
@@ -1,23 +1,79 @@
 package com.example.component;
 
 import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
 import com.example.util.ServerDiscovery;
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 聊天客户端组件，负责与服务器的通信
+ * 连接时通过握手协商线路协议，服务器不支持二进制协议时自动回退为文本协议
+ * 服务器支持 MSG_ACK 时，私聊消息带客户端消息ID发送，收到 PM_SENT 前保留，重新连接后以同一ID重发；
+ * 收到的 PM_SEQ 按每个会话已收到的最大序号去重。
+ * 连接意外断开后按带抖动的指数退避自动重连（client.reconnect.*），握手时带上上次会话的恢复令牌和
+ * 已收到的在线状态版本号，服务器只补发错过的在线状态变化和未确认的私聊消息
  */
 public class ChatClient {
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
     private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private InputStream in;
+    private OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Charset charset = Charset.defaultCharset();
     private Thread listeningThread;
     private MessageListener messageListener;
+    private FrameListener frameListener;
     private ConnectionStatusListener statusListener;
+    private ReconnectListener reconnectListener;
     private Long userId;
-    private boolean connected = false;
+    private volatile WireProtocol protocol = WireProtocol.TEXT;
+    private volatile boolean connected = false;
+    // 服务器是否在握手应答中回显了 MSG_ACK
+    private volatile boolean messageAck = false;
+    // 客户端消息ID从当前时间（毫秒）开始递增，重启客户端后不会与之前的ID重复
+    private final AtomicLong nextClientMessageId = new AtomicLong(System.currentTimeMillis());
+    // 已发送、服务器尚未回复 PM_SENT 的私聊消息，按发送顺序排列
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final Map<Long, Frame> pendingMessages = new LinkedHashMap<>();
+    // 会话对端ID -> 已收到的最大序号
+    private final Map<Long, Long> highWaterMarks = new ConcurrentHashMap<>();
+
+    // 自动重连
+    private final boolean autoReconnect;
+    private final long reconnectInitialDelayMs;
+    private final long reconnectMaxDelayMs;
+    private volatile String host;
+    private volatile int port;
+    // 调用disconnect()主动断开后不再重连
+    private volatile boolean closed = true;
+    private volatile boolean reconnecting = false;
+    private Thread reconnectThread;
+    // 服务器在握手应答中给出的恢复令牌，以及已收到的在线状态版本号
+    private volatile String resumeToken;
+    private volatile long presenceVersion;
+    // 服务器是否在握手应答中回显了 PRESENCE；已收到的在线状态属于哪个纪元，还没有收到快照时为0
+    private volatile boolean presenceSync = false;
+    private volatile long presenceEpoch;
+    // 用户ID -> 已应用的最新在线状态版本号，补发和广播交错到达时丢弃较旧的变化
+    private final Map<Long, Long> presenceVersions = new ConcurrentHashMap<>();
+    private volatile boolean resumed = false;
+    // 服务器是否在握手应答中回显了 ROOMS
+    private volatile boolean roomsSupported = false;
 
     /**
      * 创建聊天客户端
@@ -25,6 +81,10 @@ public class ChatClient {
      */
     public ChatClient(Long userId) {
         this.userId = userId;
+        Settings settings = Settings.getInstance();
+        this.autoReconnect = Boolean.parseBoolean(settings.getProperty("client.reconnect.enabled", "true").trim());
+        this.reconnectInitialDelayMs = Long.parseLong(settings.getProperty("client.reconnect.initialDelayMs", "500").trim());
+        this.reconnectMaxDelayMs = Long.parseLong(settings.getProperty("client.reconnect.maxDelayMs", "30000").trim());
     }
 
     /**
@@ -35,20 +95,7 @@ public class ChatClient {
      */
     public boolean connect(String host, int port) {
         try {
-            clientSocket = new Socket(host, port);
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            
-            // 发送用户ID
-            out.println(userId);
-            
-            // 开始监听消息
-            startListening();
-            
-            connected = true;
-            if (statusListener != null) {
-                statusListener.onConnectionStatusChanged(true);
-            }
+            open(host, port);
             return true;
         } catch (IOException e) {
             System.err.println("连接服务器失败: " + e.getMessage());
@@ -60,16 +107,278 @@ public class ChatClient {
     }
 
     /**
-     * 发送消息
-     * @param message 消息内容
+     * 连接到服务器并完成握手，失败时抛出异常
+     * 优先使用配置的协议（client.protocol），旧服务器不认识握手行会直接断开，此时以文本协议重连
+     * @param host 服务器主机名
+     * @param port 服务器端口
+     * @throws IOException 连接失败
+     */
+    public void open(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        closed = false;
+        WireProtocol preferred = WireProtocol.fromConfig(
+                Settings.getInstance().getProperty("client.protocol", "binary"));
+        try {
+            openConnection(host, port, preferred);
+        } catch (HandshakeException e) {
+            System.out.println("服务器不支持" + preferred.getToken() + "协议，使用文本协议重新连接: " + e.getMessage());
+            openConnection(host, port, WireProtocol.TEXT);
+        }
+
+        // 开始监听消息
+        startListening();
+
+        connected = true;
+        resendPendingMessages();
+        if (statusListener != null) {
+            statusListener.onConnectionStatusChanged(true);
+        }
+    }
+
+    private void openConnection(String host, int port, WireProtocol preferred) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+
+            // 发送用户ID（文本协议）或握手行，重连时带上恢复令牌
+            String resume = resumeToken != null ? resumeToken + "." + presenceVersion : null;
+            output.write((WireProtocol.helloLine(userId, preferred, resume) + "\n").getBytes(charset));
+            output.flush();
+
+            WireProtocol negotiated = WireProtocol.TEXT;
+            boolean acknowledged = false;
+            String session = null;
+            boolean accepted = false;
+            boolean versioned = false;
+            boolean roomAware = false;
+            if (preferred != WireProtocol.TEXT) {
+                String reply = readHandshake(socket, input);
+                WireProtocol selected = WireProtocol.fromHelloOk(reply);
+                negotiated = selected != null ? selected : WireProtocol.TEXT;
+                acknowledged = WireProtocol.helloOkHasCapability(reply, WireProtocol.CAPABILITY_MSG_ACK);
+                session = WireProtocol.helloOkValue(reply, WireProtocol.CAPABILITY_RESUME);
+                accepted = WireProtocol.helloOkHasCapability(reply, WireProtocol.RESUMED);
+                versioned = WireProtocol.helloOkHasCapability(reply, WireProtocol.CAPABILITY_PRESENCE);
+                roomAware = WireProtocol.helloOkHasCapability(reply, WireProtocol.CAPABILITY_ROOMS);
+            }
+
+            this.clientSocket = socket;
+            this.in = input;
+            this.out = output;
+            this.protocol = negotiated;
+            this.messageAck = acknowledged;
+            this.presenceSync = versioned;
+            this.roomsSupported = roomAware;
+            applySession(session, accepted);
+            System.out.println("已连接服务器 " + host + ":" + port + "，协议: " + negotiated.getToken()
+                    + (accepted ? "，已恢复会话" : ""));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 记录服务器给出的恢复令牌 "令牌.在线状态版本号"
+     * 会话没有恢复时，支持 PRESENCE 的服务器由 {@link #requestUsers()} 按之前的纪元和版本号决定补发增量还是快照，
+     * 否则之前的在线状态版本号作废，从服务器当前的版本号开始
+     */
+    private void applySession(String session, boolean accepted) {
+        resumed = accepted;
+        int dot = session != null ? session.indexOf('.') : -1;
+        if (dot <= 0) {
+            resumeToken = null;
+            if (!presenceSync) {
+                presenceVersion = 0;
+                presenceEpoch = 0;
+                presenceVersions.clear();
+            }
+            return;
+        }
+        resumeToken = session.substring(0, dot);
+        long serverVersion = Long.parseLong(session.substring(dot + 1));
+        if (!accepted) {
+            if (presenceSync) {
+                return;
+            }
+            presenceVersions.clear();
+        }
+        // 补发的变化随后在同一个连接上到达
+        presenceVersion = serverVersion;
+    }
+
+    /**
+     * 读取服务器的握手应答
+     * 应答行逐字节读取，之后的数据留在缓冲流中按新协议读取
+     * @return 应答内容（不含 HELLO_OK: 前缀）
+     */
+    private String readHandshake(Socket socket, InputStream input) throws IOException {
+        String reply;
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            reply = TextCodec.readLine(input, charset);
+        } catch (SocketTimeoutException e) {
+            throw new HandshakeException("握手超时");
+        } catch (IOException e) {
+            // 旧服务器解析用户ID失败后会直接关闭连接
+            throw new HandshakeException(e.getMessage());
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(0);
+            }
+        }
+        if (reply == null || !reply.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+            throw new HandshakeException("无效的握手应答: " + reply);
+        }
+        return reply.substring(WireProtocol.HELLO_OK_PREFIX.length());
+    }
+
+    /**
+     * 发送一帧消息
+     * @param frame 帧
      * @return 是否发送成功
      */
-    public boolean sendMessage(String message) {
-        if (out != null && connected) {
-            out.println(message);
+    public boolean send(Frame frame) {
+        if (out == null || !connected) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            if (protocol == WireProtocol.BINARY) {
+                BinaryCodec.write(frame, out);
+            } else {
+                out.write((TextCodec.encode(frame) + "\n").getBytes(charset));
+            }
+            out.flush();
             return true;
+        } catch (IOException e) {
+            System.err.println("发送消息失败: " + e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 请求在线用户
+     * 服务器支持 PRESENCE 时报告已知的纪元和版本号，服务器只补发之后的变化，纪元不同或太旧时发送快照；
+     * 旧服务器发送 GET_USERS 获取完整的用户列表
+     * @return 是否发送成功
+     */
+    public boolean requestUsers() {
+        if (presenceSync) {
+            return send(Frame.presenceSync(presenceEpoch, presenceVersion));
+        }
+        return send(Frame.getUsers());
+    }
+
+    /**
+     * 发送私聊消息
+     * 服务器支持确认时带客户端消息ID发送，收到 PM_SENT 前保留，连接断开时在下次连接后重发
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     * @return 是否已发送或已保留待重发
+     */
+    public boolean sendPrivateMessage(long receiverId, String content) {
+        if (!messageAck) {
+            return send(Frame.privateMessage(receiverId, content));
+        }
+        long clientMessageId = nextClientMessageId.incrementAndGet();
+        Frame frame = Frame.sendPrivateMessage(receiverId, clientMessageId, content);
+        pendingLock.lock();
+        try {
+            pendingMessages.put(clientMessageId, frame);
+        } finally {
+            pendingLock.unlock();
+        }
+        send(frame);
+        return true;
+    }
+
+    /**
+     * 重新连接后按原顺序重发未被服务器接收的私聊消息
+     * 新的服务器不支持确认时以普通私聊消息发送，不再等待 PM_SENT
+     */
+    private void resendPendingMessages() {
+        List<Frame> frames;
+        pendingLock.lock();
+        try {
+            frames = new ArrayList<>(pendingMessages.values());
+            if (!messageAck) {
+                pendingMessages.clear();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+        if (!frames.isEmpty()) {
+            System.out.println("重发 " + frames.size() + " 条未确认的私聊消息");
+        }
+        for (Frame frame : frames) {
+            send(messageAck ? frame : Frame.privateMessage(frame.getId(), frame.getText()));
+        }
+    }
+
+    /**
+     * 获取已发送、服务器尚未接收的私聊消息数
+     * @return 消息数
+     */
+    public int getPendingMessageCount() {
+        pendingLock.lock();
+        try {
+            return pendingMessages.size();
+        } finally {
+            pendingLock.unlock();
         }
-        return false;
+    }
+
+    /**
+     * 获取某个会话已收到的最大序号
+     * @param peerId 会话对端ID
+     * @return 最大序号，没有收到过带序号的消息时为0
+     */
+    public long getHighWaterMark(long peerId) {
+        return highWaterMarks.getOrDefault(peerId, 0L);
+    }
+
+    /**
+     * 加入房间，服务器回复房间的在线成员（ROOM_MEMBERS），之后登录时自动重新加入
+     * @param roomId 房间ID
+     * @return 是否发送成功，服务器不支持房间时返回false
+     */
+    public boolean joinRoom(long roomId) {
+        return roomsSupported && send(Frame.joinRoom(roomId));
+    }
+
+    /**
+     * 离开房间，服务器回复 ROOM_LEFT 确认
+     * @param roomId 房间ID
+     * @return 是否发送成功，服务器不支持房间时返回false
+     */
+    public boolean leaveRoom(long roomId) {
+        return roomsSupported && send(Frame.leaveRoom(roomId));
+    }
+
+    /**
+     * 发送房间消息，只有房间的在线成员会收到
+     * @param roomId 房间ID
+     * @param content 消息内容
+     * @return 是否发送成功，服务器不支持房间时返回false
+     */
+    public boolean sendRoomMessage(long roomId, String content) {
+        return roomsSupported && send(Frame.roomMessage(roomId, content));
+    }
+
+    /**
+     * 发送文本协议格式的消息，如 "PM:接收者ID:内容"、"GET_USERS" 或普通群聊内容
+     * @param message 消息内容
+     * @return 是否发送成功
+     */
+    public boolean sendMessage(String message) {
+        Frame frame = TextCodec.decodeClientLine(message);
+        return frame != null && send(frame);
     }
 
     /**
@@ -77,28 +386,26 @@ public class ChatClient {
      */
     public void disconnect() {
         connected = false;
-        
+        closed = true;
+        reconnecting = false;
+        Thread reconnector = reconnectThread;
+        if (reconnector != null) {
+            reconnector.interrupt();
+        }
+
         try {
             if (listeningThread != null) {
                 listeningThread.interrupt();
                 listeningThread = null;
             }
-            
-            if (out != null) {
-                out.close();
-                out = null;
-            }
-            
-            if (in != null) {
-                in.close();
-                in = null;
-            }
-            
+
             if (clientSocket != null && !clientSocket.isClosed()) {
                 clientSocket.close();
                 clientSocket = null;
             }
-            
+            in = null;
+            out = null;
+
             if (statusListener != null) {
                 statusListener.onConnectionStatusChanged(false);
             }
@@ -111,20 +418,31 @@ public class ChatClient {
      * 开始监听服务器消息
      */
     private void startListening() {
+        InputStream input = in;
+        Socket socket = clientSocket;
+        WireProtocol listeningProtocol = protocol;
         listeningThread = new Thread(() -> {
-            String message;
             try {
-                while ((message = in.readLine()) != null) {
-                    if (messageListener != null) {
-                        messageListener.onMessageReceived(message);
+                if (listeningProtocol == WireProtocol.BINARY) {
+                    Frame frame;
+                    while ((frame = BinaryCodec.read(input)) != null) {
+                        dispatch(frame);
+                    }
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(input, charset));
+                    String message;
+                    while ((message = reader.readLine()) != null) {
+                        Frame frame = TextCodec.decodeServerLine(message);
+                        if (frame != null) {
+                            dispatch(frame);
+                        }
                     }
                 }
+                // 服务器关闭了连接
+                connectionLost(socket, "服务器关闭了连接");
             } catch (IOException e) {
-                if (!Thread.currentThread().isInterrupted() && connected) {
-                    System.err.println("接收消息时出错: " + e.getMessage());
-                    if (statusListener != null) {
-                        statusListener.onConnectionStatusChanged(false);
-                    }
+                if (!Thread.currentThread().isInterrupted()) {
+                    connectionLost(socket, e.getMessage());
                 }
             }
         });
@@ -133,13 +451,178 @@ public class ChatClient {
     }
 
     /**
-     * 设置消息监听器
+     * 当前连接意外断开，通知监听器后开始自动重连
+     * 旧连接的监听线程在新连接建立后才结束时忽略
+     */
+    private void connectionLost(Socket socket, String reason) {
+        if (!connected || socket != clientSocket) {
+            return;
+        }
+        System.err.println("与服务器的连接断开: " + reason);
+        connected = false;
+        closeQuietly(socket);
+        if (autoReconnect && !closed) {
+            reconnecting = true;
+        }
+        if (statusListener != null) {
+            statusListener.onConnectionStatusChanged(false);
+        }
+        if (reconnecting) {
+            startReconnect();
+        }
+    }
+
+    /**
+     * 在后台按带抖动的指数退避重连上次的服务器，直到成功或调用disconnect()
+     * 第一次连接失败时也可以调用
+     * @param host 服务器主机名
+     * @param port 服务器端口
+     */
+    public void reconnect(String host, int port) {
+        this.host = host;
+        this.port = port;
+        closed = false;
+        reconnecting = true;
+        startReconnect();
+    }
+
+    private void startReconnect() {
+        Thread reconnector = new Thread(() -> {
+            for (int attempt = 0; !closed; attempt++) {
+                long delay = backoffDelay(attempt, reconnectInitialDelayMs, reconnectMaxDelayMs);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                try {
+                    open(host, port);
+                    reconnecting = false;
+                    System.out.println("第 " + (attempt + 1) + " 次尝试重连成功" + (resumed ? "，已恢复会话" : ""));
+                    if (reconnectListener != null) {
+                        reconnectListener.onReconnected(resumed);
+                    }
+                    return;
+                } catch (IOException e) {
+                    System.err.println("第 " + (attempt + 1) + " 次重连失败，" + e.getMessage());
+                }
+            }
+        }, "chat-reconnect");
+        reconnector.setDaemon(true);
+        reconnectThread = reconnector;
+        reconnector.start();
+    }
+
+    /**
+     * 第attempt次重连前的等待时间: 上限为 initialDelay * 2^attempt（不超过maxDelay），
+     * 在上限的一半到上限之间随机取值，避免大量客户端在服务器重启后同时重连
+     * @param attempt 已失败的次数，从0开始
+     * @param initialDelayMs 第一次的上限
+     * @param maxDelayMs 最大上限
+     * @return 等待的毫秒数
+     */
+    public static long backoffDelay(int attempt, long initialDelayMs, long maxDelayMs) {
+        long cap = Math.min(maxDelayMs, initialDelayMs << Math.min(attempt, 30));
+        cap = Math.max(1, cap);
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap - cap / 2 + 1);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    private void dispatch(Frame frame) {
+        switch (frame.getOpcode()) {
+            case PM_SENT:
+                // 服务器已接收，不再重发
+                pendingLock.lock();
+                try {
+                    pendingMessages.remove(frame.getCount());
+                } finally {
+                    pendingLock.unlock();
+                }
+                break;
+            case PRESENCE_SNAPSHOT:
+                // 快照之后的变化按顺序在同一个连接上到达，之前记录的版本号不再需要
+                presenceVersions.clear();
+                presenceEpoch = frame.getId();
+                presenceVersion = frame.getCount();
+                break;
+            case PRESENCE_JOINED:
+            case PRESENCE_LEFT:
+                // 补发的变化可能晚于同一用户更新的广播到达，只应用每个用户最新的变化
+                Long applied = presenceVersions.get(frame.getId());
+                if (applied != null && frame.getCount() <= applied) {
+                    return;
+                }
+                presenceVersions.put(frame.getId(), frame.getCount());
+                if (frame.getCount() > presenceVersion) {
+                    presenceVersion = frame.getCount();
+                }
+                break;
+            case PRESENCE_BATCH:
+                // 合并的变化依次占用连续的版本号，全部已应用过时丢弃
+                long[] changedIds = frame.getUserIds();
+                boolean fresh = false;
+                for (int i = 0; i < changedIds.length; i++) {
+                    long changedId = Math.abs(changedIds[i]);
+                    long version = frame.getCount() + i;
+                    Long previous = presenceVersions.get(changedId);
+                    if (previous == null || version > previous) {
+                        presenceVersions.put(changedId, version);
+                        fresh = true;
+                    }
+                }
+                if (!fresh) {
+                    return;
+                }
+                presenceVersion = Math.max(presenceVersion, frame.getCount() + changedIds.length - 1);
+                break;
+            case PM_SEQ:
+                // 重新连接后服务器会重发未确认的消息，已收到的再次确认后丢弃
+                long highWaterMark = getHighWaterMark(frame.getId());
+                if (frame.getCount() <= highWaterMark) {
+                    send(Frame.messageAck(frame.getId(), highWaterMark));
+                    return;
+                }
+                highWaterMarks.put(frame.getId(), frame.getCount());
+                break;
+            default:
+                break;
+        }
+        if (frameListener != null) {
+            frameListener.onFrameReceived(frame);
+        }
+        if (messageListener != null) {
+            messageListener.onMessageReceived(TextCodec.encode(frame));
+        }
+    }
+
+    /**
+     * 设置消息监听器，收到的帧以文本协议格式回调
      * @param listener 消息监听器
      */
     public void setMessageListener(MessageListener listener) {
         this.messageListener = listener;
     }
 
+    /**
+     * 设置帧监听器，需在连接前设置，避免丢失登录后立即到达的消息
+     * @param listener 帧监听器
+     */
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
     /**
      * 设置连接状态监听器
      * @param listener 连接状态监听器
@@ -148,6 +631,54 @@ public class ChatClient {
         this.statusListener = listener;
     }
 
+    /**
+     * 设置自动重连成功的监听器
+     * @param listener 重连监听器
+     */
+    public void setReconnectListener(ReconnectListener listener) {
+        this.reconnectListener = listener;
+    }
+
+    /**
+     * 是否正在自动重连
+     * @return 连接意外断开后、重连成功或调用disconnect()之前为true
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * 最近一次连接是否恢复了上次的会话
+     * @return 恢复时服务器已补发错过的在线状态变化，不需要再请求用户列表
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * 服务器是否支持房间
+     * @return 握手应答中回显了 ROOMS 时为true
+     */
+    public boolean isRoomsSupported() {
+        return roomsSupported;
+    }
+
+    /**
+     * 获取已收到的在线状态版本号
+     * @return 版本号
+     */
+    public long getPresenceVersion() {
+        return presenceVersion;
+    }
+
+    /**
+     * 获取已收到的在线状态所属的纪元
+     * @return 纪元，还没有收到快照时为0
+     */
+    public long getPresenceEpoch() {
+        return presenceEpoch;
+    }
+
     /**
      * 是否已连接
      * @return 连接状态
@@ -156,6 +687,14 @@ public class ChatClient {
         return connected;
     }
 
+    /**
+     * 获取握手后使用的线路协议
+     * @return 线路协议
+     */
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
     /**
      * 消息监听器接口
      */
@@ -163,6 +702,13 @@ public class ChatClient {
         void onMessageReceived(String message);
     }
 
+    /**
+     * 帧监听器接口
+     */
+    public interface FrameListener {
+        void onFrameReceived(Frame frame);
+    }
+
     /**
      * 连接状态监听器接口
      */
@@ -170,6 +716,26 @@ public class ChatClient {
         void onConnectionStatusChanged(boolean connected);
     }
 
+    /**
+     * 自动重连监听器接口
+     */
+    public interface ReconnectListener {
+        /**
+         * 在重连线程上调用
+         * @param resumed 是否恢复了上次的会话；未恢复时需要重新请求用户列表
+         */
+        void onReconnected(boolean resumed);
+    }
+
+    /**
+     * 握手失败，可回退为文本协议重试
+     */
+    private static class HandshakeException extends IOException {
+        HandshakeException(String message) {
+            super(message);
+        }
+    }
+
     /**
      * Discover and connect to a server in the local network
      * @return true if connection successful, false otherwise
@@ -183,13 +749,13 @@ public class ChatClient {
                 }
                 return false;
             }
-            
+
             // Connect to the first server found
             String serverInfo = servers.get(0);
             String[] parts = serverInfo.split(":");
             String host = parts[0];
             int port = Integer.parseInt(parts[1]);
-            
+
             return connect(host, port);
         } catch (Exception e) {
             System.err.println("Error discovering servers: " + e.getMessage());
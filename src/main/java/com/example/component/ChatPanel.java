@@ -4,17 +4,39 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
+import com.example.model.Message;
 import com.example.model.User;
 
 /**
  * 聊天面板组件，包含消息气泡和时间线
+ *
+ * 消息列表是虚拟化的: 每条消息只保存数据和行高，绘制时用少量可复用的渲染器组件
+ * （类似JList的单元格渲染器）画出可见的行，因此消息数量不影响组件数量和布局时间。
+ * 鼠标按在某条消息的气泡上时，在该位置放一个真正的MessageBubble作为编辑器，
+ * 文本选择、复制、翻译和转发都由它完成
  */
 public class ChatPanel extends JPanel {
-    private final JPanel contentPanel;
+    private static final int PADDING = 20;
+    private static final int AVATAR_SIZE = 28;
+    private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+    // 编辑器气泡上记录对应的行，供addTranslationBubble查找
+    private static final String ROW_PROPERTY = "chatRow";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final MessageListView contentPanel;
     private final JScrollPane scrollPane;
     // private final Color chatBackground;
     private final Color sentBubbleColor;
@@ -23,9 +45,34 @@ public class ChatPanel extends JPanel {
     private final Color secondaryTextColor;
     private final Font textFont;
     private final Font secondaryFont;
-    
+    private final Font translationFont;
+
     private String lastTimestamp = "";
 
+    // 所有行的数据；rowTops[i]是第i行顶部相对于第一行的位置，rowTops[rows.size()]是总高度
+    private final List<ChatRow> rows = new ArrayList<>();
+    private int[] rowTops = new int[1024];
+
+    // 渲染器，所有行共用
+    private final CellRendererPane rendererPane = new CellRendererPane();
+    private final MessageRowRenderer ownMessageRenderer;
+    private final MessageRowRenderer otherMessageRenderer;
+    private final TranslationRowRenderer ownTranslationRenderer;
+    private final TranslationRowRenderer otherTranslationRenderer;
+    private final JPanel timelineRenderer;
+    private final JLabel timelineLabel;
+    private final JPanel systemRenderer;
+    private final JLabel systemLabel;
+
+    // 当前覆盖在行上的真实气泡
+    private ChatRow editorRow;
+    private MessageBubble editorBubble;
+    // 按下时落在气泡上，后续的拖动和释放也转给编辑器，以便拖动选择文本
+    private boolean forwardingMouse;
+    private boolean scrollPending;
+    // 正在翻译的消息行 -> 发起翻译的编辑器气泡（编辑器移到其他行后翻译仍在进行）
+    private final Map<ChatRow, MessageBubble> translating = new HashMap<>();
+
     /**
      * 创建聊天面板
      * @param chatBackground 聊天背景色
@@ -43,29 +90,56 @@ public class ChatPanel extends JPanel {
         this.secondaryTextColor = secondaryTextColor;
         this.textFont = textFont;
         this.secondaryFont = new Font(textFont.getName(), Font.PLAIN, textFont.getSize() - 2);
-        
+        this.translationFont = new Font(textFont.getName(), Font.ITALIC, textFont.getSize() - 1);
+
         setLayout(new BorderLayout());
         setBackground(chatBackground);
-        
-        // 创建内容面板 - 使用BorderLayout而不是BoxLayout
-        contentPanel = new JPanel();
-        contentPanel.setLayout(new BoxLayout(contentPanel, BoxLayout.Y_AXIS));
+
+        ownMessageRenderer = new MessageRowRenderer(true);
+        otherMessageRenderer = new MessageRowRenderer(false);
+        ownTranslationRenderer = new TranslationRowRenderer(true);
+        otherTranslationRenderer = new TranslationRowRenderer(false);
+
+        // 时间分隔线
+        timelineRenderer = new JPanel(new BorderLayout());
+        timelineRenderer.setOpaque(false);
+        timelineRenderer.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
+        timelineLabel = new JLabel();
+        timelineLabel.setFont(secondaryFont);
+        timelineLabel.setForeground(secondaryTextColor);
+        timelineLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        timelineRenderer.add(timelineLabel, BorderLayout.CENTER);
+
+        // 系统消息
+        systemRenderer = new JPanel(new BorderLayout());
+        systemRenderer.setOpaque(false);
+        systemRenderer.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
+        systemLabel = new JLabel("", SwingConstants.CENTER);
+        systemLabel.setFont(translationFont);
+        systemLabel.setForeground(secondaryTextColor);
+        systemLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        systemRenderer.add(systemLabel, BorderLayout.CENTER);
+
+        // 创建内容面板
+        contentPanel = new MessageListView();
         contentPanel.setBackground(chatBackground);
-        contentPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        
+        contentPanel.add(rendererPane);
+
         // 创建滚动面板
         scrollPane = new JScrollPane(contentPanel);
         scrollPane.setBorder(null);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.getViewport().setBackground(chatBackground);
-        
+
         // 设置现代化滚动条
         JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
         verticalScrollBar.setUnitIncrement(16);
-        
+        // 滚动时更新正在翻译的行是否可见，排队中的翻译优先发出可见的
+        scrollPane.getViewport().addChangeListener(e -> updateTranslationVisibility());
+
         add(scrollPane, BorderLayout.CENTER);
     }
-    
+
     /**
      * 添加消息气泡
      * @param content 消息内容
@@ -73,187 +147,439 @@ public class ChatPanel extends JPanel {
      * @param username 用户名（如果不是自己发送的消息）
      */
     public void addMessage(String content, boolean isOwnMessage, String username) {
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
-        
+        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
+
         addTimelineIfNeeded(timestamp);
-        
-        // 创建一个包装面板，用于控制对齐
-        JPanel wrapperPanel = new JPanel(new BorderLayout());
-        wrapperPanel.setOpaque(false);
-        
-        JPanel messageRow = createMessageRow(content, isOwnMessage, username);
-        
-        // 根据消息类型添加到不同位置
-        if (isOwnMessage) {
-            wrapperPanel.add(messageRow, BorderLayout.EAST);
+        appendRow(new ChatRow(RowKind.MESSAGE, content, isOwnMessage, username));
+        scrollToBottom();
+    }
+
+    /**
+     * 在列表顶部插入更早的消息（分页加载的历史），当前看到的内容位置不变；
+     * 面板原来为空时滚动到底部
+     * @param messages 消息，从旧到新
+     * @param ownUserId 当前用户ID，由当前用户发送的消息显示为自己的消息
+     * @param ownName 当前用户名
+     * @param otherName 对方用户名
+     */
+    public void prependHistory(List<Message> messages, long ownUserId, String ownName, String otherName) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        boolean wasEmpty = rows.isEmpty();
+        List<ChatRow> history = new ArrayList<>();
+        String previous = "";
+        for (Message message : messages) {
+            LocalDateTime sentAt = message.getSentAt() != null ? message.getSentAt() : LocalDateTime.now();
+            String timestamp = sentAt.format(TIMESTAMP_FORMAT);
+            if (!timestamp.equals(previous)) {
+                history.add(new ChatRow(RowKind.TIMELINE, historyTimeline(sentAt), false, null));
+                previous = timestamp;
+            }
+            boolean own = message.getSenderId() != null && message.getSenderId() == ownUserId;
+            history.add(new ChatRow(RowKind.MESSAGE, message.getContent(), own, own ? ownName : otherName));
+        }
+        int addedHeight = 0;
+        for (ChatRow row : history) {
+            row.height = measure(row);
+            addedHeight += row.height;
+        }
+        rows.addAll(0, history);
+        rowsChanged(0);
+        if (wasEmpty) {
+            if (lastTimestamp.isEmpty()) {
+                lastTimestamp = previous;
+            }
+            // 立即滚动到底部，使调用方随后读到的滚动位置已经是最终位置
+            scrollPane.validate();
+            JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+            verticalBar.setValue(verticalBar.getMaximum());
         } else {
-            wrapperPanel.add(messageRow, BorderLayout.WEST);
+            // 新插入的行把原来的内容向下推了addedHeight，视口随之下移
+            JViewport viewport = scrollPane.getViewport();
+            Point position = viewport.getViewPosition();
+            scrollPane.validate();
+            viewport.setViewPosition(new Point(position.x, position.y + addedHeight));
         }
-        
-        contentPanel.add(wrapperPanel);
-        contentPanel.revalidate();
-        contentPanel.repaint();
-        scrollToBottom();
     }
-    
+
+    /**
+     * 历史消息的时间线: 今天的只显示时间，更早的显示日期；只有日期的时间（零点）不显示时间
+     */
+    private static String historyTimeline(LocalDateTime sentAt) {
+        if (sentAt.toLocalDate().equals(LocalDate.now())) {
+            return sentAt.format(TIMESTAMP_FORMAT).substring(11, 16);
+        }
+        if (sentAt.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return sentAt.toLocalDate().toString();
+        }
+        return sentAt.format(TIMESTAMP_FORMAT);
+    }
+
     /**
      * 如果需要，添加时间线
      * @param timestamp 时间戳
      */
     private void addTimelineIfNeeded(String timestamp) {
         // 检查是否需要添加时间线（每隔一段时间或首条消息）
-        boolean shouldAddTimeline = lastTimestamp.isEmpty() || 
+        boolean shouldAddTimeline = lastTimestamp.isEmpty() ||
                                    !timestamp.substring(0, 16).equals(lastTimestamp.substring(0, 16));
-        
+
         if (shouldAddTimeline) {
             // 提取小时和分钟
-            String hourMinute = timestamp.substring(11, 16);
-            
-            // 创建时间分隔线
-            JPanel timelinePanel = new JPanel(new BorderLayout());
-            timelinePanel.setOpaque(false);
-            timelinePanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
-            
-            // 时间标签
-            JLabel timeLabel = new JLabel(hourMinute);
-            timeLabel.setFont(secondaryFont);
-            timeLabel.setForeground(secondaryTextColor);
-            timeLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            
-            // 添加到时间线面板
-            timelinePanel.add(timeLabel, BorderLayout.CENTER);
-            
-            // 添加到聊天面板
-            contentPanel.add(timelinePanel);
-            
+            appendRow(new ChatRow(RowKind.TIMELINE, timestamp.substring(11, 16), false, null));
+
             // 更新最后时间戳
             lastTimestamp = timestamp;
         }
     }
-    
+
     /**
-     * 创建消息行 - 简化版本，不使用复杂布局
+     * 添加系统消息
+     * @param message 系统消息内容
      */
-    private JPanel createMessageRow(String content, boolean isOwnMessage, String username) {
-        JPanel messageRow = new JPanel(new FlowLayout(isOwnMessage ? FlowLayout.RIGHT : FlowLayout.LEFT, 5, 0));
-        messageRow.setOpaque(false);
-        
-        // 创建头像
-        JLabel avatar = createUserAvatar(isOwnMessage ? "我" : (username != null ? username : "?"), 28);
-        
-        // 创建包含用户名和气泡的容器
-        JPanel contentContainer = new JPanel();
-        contentContainer.setOpaque(false);
-        contentContainer.setLayout(new BoxLayout(contentContainer, BoxLayout.Y_AXIS));
-        
-        // 如果不是自己的消息且有用户名，添加用户名标签
-        if (!isOwnMessage && username != null && !username.isEmpty()) {
-            JLabel usernameLabel = new JLabel(username);
-            usernameLabel.setFont(new Font(textFont.getName(), Font.BOLD, textFont.getSize() - 2));
-            usernameLabel.setForeground(new Color(120, 120, 120));
-            usernameLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 2, 0));
-            usernameLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
-            
-            contentContainer.add(usernameLabel);
+    public void addSystemMessage(String message) {
+        appendRow(new ChatRow(RowKind.SYSTEM, message, false, null));
+        scrollToBottom();
+    }
+
+    /**
+     * 添加翻译气泡
+     * @param originalBubble 原始气泡（由聊天面板创建的气泡）
+     * @param translatedText 翻译后的文本
+     */
+    public void addTranslationBubble(MessageBubble originalBubble, String translatedText) {
+        Object row = originalBubble.getClientProperty(ROW_PROPERTY);
+        if (!(row instanceof ChatRow)) {
+            System.err.println("未找到原始消息行");
+            return;
         }
-        
-        // 创建消息气泡
-        JPanel bubble = createMessageBubble(content, isOwnMessage);
-        bubble.setAlignmentX(isOwnMessage ? Component.RIGHT_ALIGNMENT : Component.LEFT_ALIGNMENT);
-        
-        // 添加气泡到容器
-        contentContainer.add(bubble);
-        
-        // 根据消息类型设置组件顺序
-        if (isOwnMessage) {
-            messageRow.add(contentContainer);
-            messageRow.add(avatar);
+        showTranslation((ChatRow) row, translatedText);
+    }
+
+    /**
+     * 在消息下方显示翻译结果，已有翻译时替换
+     * @param messageRow 消息行
+     * @param translatedText 翻译结果，null表示正在翻译
+     */
+    private void showTranslation(ChatRow messageRow, String translatedText) {
+        int messageIndex = rows.indexOf(messageRow);
+        if (messageIndex < 0) {
+            return;
+        }
+        ChatRow translation = messageRow.translation;
+        int index;
+        if (translation == null) {
+            translation = new ChatRow(RowKind.TRANSLATION, translatedText, messageRow.own, null);
+            messageRow.translation = translation;
+            index = messageIndex + 1;
+            rows.add(index, translation);
         } else {
-            messageRow.add(avatar);
-            messageRow.add(contentContainer);
+            translation.text = translatedText;
+            index = rows.indexOf(translation);
         }
-        
-        return messageRow;
+        translation.height = measure(translation);
+        rowsChanged(index);
+        contentPanel.scrollRectToVisible(rowBounds(index));
     }
-    
+
     /**
-     * 创建消息气泡
-     * @param content 消息内容
-     * @param isOwnMessage 是否为自己发送的消息
-     * @return 消息气泡面板
-     */
-    private JPanel createMessageBubble(String content, boolean isOwnMessage) {
-        // 使用MessageBubble类创建气泡
-        MessageBubble bubble = new MessageBubble(
-            content, 
-            isOwnMessage, 
-            isOwnMessage ? sentBubbleColor : receivedBubbleColor,
-            isOwnMessage ? Color.WHITE : textColor,
-            textFont
-        );
-        
-        // 设置气泡监听器
-        bubble.setMessageBubbleListener(new MessageBubble.MessageBubbleListener() {
-            @Override
-            public void onBubbleClicked(MessageBubble bubble) {
-                // 可以在这里处理气泡点击事件
+     * 根据视口位置更新正在翻译的行是否可见
+     */
+    private void updateTranslationVisibility() {
+        if (translating.isEmpty()) {
+            return;
+        }
+        Rectangle view = scrollPane.getViewport().getViewRect();
+        int first = rowAt(Math.max(view.y, PADDING));
+        Set<ChatRow> visible = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (first >= 0) {
+            int bottom = view.y + view.height;
+            for (int i = first; i < rows.size() && PADDING + rowTops[i] < bottom; i++) {
+                visible.add(rows.get(i));
             }
-            
-            @Override
-            public void onBubbleLongPressed(MessageBubble bubble) {
-                // 可以在这里处理气泡长按事件
+        }
+        for (Map.Entry<ChatRow, MessageBubble> entry : translating.entrySet()) {
+            entry.getValue().setTranslationVisible(visible.contains(entry.getKey()));
+        }
+    }
+
+    /**
+     * 删除消息下方的翻译行（翻译失败时）
+     */
+    private void removeTranslation(ChatRow messageRow) {
+        ChatRow translation = messageRow.translation;
+        if (translation == null) {
+            return;
+        }
+        messageRow.translation = null;
+        int index = rows.indexOf(translation);
+        if (index >= 0) {
+            rows.remove(index);
+            if (translation == editorRow) {
+                removeEditor();
             }
-            
-            @Override
-            public void onBubbleDoubleClicked(MessageBubble bubble) {
-                // 可以在这里处理气泡双击事件
+            rowsChanged(index);
+        }
+    }
+
+    private void appendRow(ChatRow row) {
+        row.height = measure(row);
+        int count = rows.size();
+        rows.add(row);
+        if (rowTops.length < count + 2) {
+            rowTops = Arrays.copyOf(rowTops, rowTops.length * 2);
+        }
+        rowTops[count + 1] = rowTops[count] + row.height;
+        contentPanel.revalidate();
+        contentPanel.repaint(rowBounds(count));
+    }
+
+    /**
+     * 从index开始重新计算各行位置（插入或修改了行）
+     */
+    private void rowsChanged(int index) {
+        int count = rows.size();
+        if (rowTops.length < count + 1) {
+            rowTops = Arrays.copyOf(rowTops, Math.max(rowTops.length * 2, count + 1));
+        }
+        for (int i = index; i < count; i++) {
+            rowTops[i + 1] = rowTops[i] + rows.get(i).height;
+        }
+        positionEditor();
+        contentPanel.revalidate();
+        contentPanel.repaint();
+    }
+
+    /**
+     * 配置渲染器并返回该行的首选高度
+     */
+    private int measure(ChatRow row) {
+        return configureRenderer(row, false).getPreferredSize().height;
+    }
+
+    /**
+     * 按行的类型和内容配置对应的渲染器
+     * @param row 行
+     * @param hideBubble 该行的气泡由编辑器显示，渲染器只画出其余部分
+     * @return 配置好的渲染器
+     */
+    private JComponent configureRenderer(ChatRow row, boolean hideBubble) {
+        switch (row.kind) {
+            case TIMELINE:
+                timelineLabel.setText(row.text);
+                return timelineRenderer;
+            case SYSTEM:
+                systemLabel.setText(row.text);
+                return systemRenderer;
+            case TRANSLATION: {
+                TranslationRowRenderer renderer = row.own ? ownTranslationRenderer : otherTranslationRenderer;
+                renderer.configure(row.text, hideBubble);
+                return renderer;
             }
-            
-            @Override
-            public void onTextSelected(MessageBubble bubble, String selectedText) {
-                // 可以在这里处理文本选中事件
+            case MESSAGE:
+            default: {
+                MessageRowRenderer renderer = row.own ? ownMessageRenderer : otherMessageRenderer;
+                renderer.configure(row.text, row.username, hideBubble);
+                return renderer;
             }
-            
-            @Override
-            public void onBubbleForwarded(MessageBubble bubble, String content) {
-                // 处理转发事件
-                if (forwardListener != null) {
-                    forwardListener.onMessageForward(content, bubble.isOwnMessage());
-                }
+        }
+    }
+
+    private Rectangle rowBounds(int index) {
+        return new Rectangle(PADDING, PADDING + rowTops[index],
+                Math.max(0, contentPanel.getWidth() - 2 * PADDING), rows.get(index).height);
+    }
+
+    /**
+     * 查找y坐标所在的行
+     * @return 行号，不在任何行上时返回-1
+     */
+    private int rowAt(int y) {
+        int count = rows.size();
+        int offset = y - PADDING;
+        if (count == 0 || offset < 0 || offset >= rowTops[count]) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rowTops[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
             }
-        });
-        
-        return bubble;
+        }
+        return low;
+    }
+
+    /**
+     * 渲染器中的气泡在聊天列表中的位置
+     * @return 气泡区域，该行没有可交互的气泡时返回null
+     */
+    private Rectangle bubbleBounds(int index) {
+        ChatRow row = rows.get(index);
+        if (row.kind != RowKind.MESSAGE && !(row.kind == RowKind.TRANSLATION && row.text != null)) {
+            return null;
+        }
+        Rectangle bounds = rowBounds(index);
+        JComponent renderer = configureRenderer(row, false);
+        layoutRenderer(renderer, bounds.width, bounds.height);
+        Component bubble = row.kind == RowKind.MESSAGE
+                ? (row.own ? ownMessageRenderer : otherMessageRenderer).bubble
+                : (row.own ? ownTranslationRenderer : otherTranslationRenderer).bubble;
+        Rectangle result = new Rectangle(bounds.x, bounds.y, bubble.getWidth(), bubble.getHeight());
+        for (Component c = bubble; c != renderer; c = c.getParent()) {
+            result.x += c.getX();
+            result.y += c.getY();
+        }
+        return result;
+    }
+
+    /**
+     * 按给定大小布局渲染器及其子组件
+     * 渲染器不在可显示的组件树中时validate()不起作用，这里直接调用doLayout
+     */
+    private static void layoutRenderer(Component component, int width, int height) {
+        component.setBounds(0, 0, width, height);
+        layoutTree(component);
+    }
+
+    private static void layoutTree(Component component) {
+        if (component instanceof Container) {
+            Container container = (Container) component;
+            container.doLayout();
+            for (Component child : container.getComponents()) {
+                layoutTree(child);
+            }
+        }
     }
-    
+
     /**
-     * 滚动到底部
+     * 在指定行的气泡位置放置真正的MessageBubble
+     */
+    private void installEditor(int index, Rectangle bounds) {
+        ChatRow row = rows.get(index);
+        if (row == editorRow) {
+            return;
+        }
+        removeEditor();
+        MessageBubble bubble;
+        if (row.kind == RowKind.TRANSLATION) {
+            bubble = new MessageBubble(row.text, row.own,
+                    translationBubbleColor(row.own), translationTextColor(row.own), translationFont);
+            // 添加标识，防止翻译气泡再次被翻译
+            bubble.putClientProperty("isTranslation", true);
+            bubble.addTranslationIndicator();
+        } else {
+            bubble = new MessageBubble(row.text, row.own,
+                    row.own ? sentBubbleColor : receivedBubbleColor,
+                    row.own ? Color.WHITE : textColor,
+                    textFont);
+        }
+        bubble.putClientProperty(ROW_PROPERTY, row.kind == RowKind.MESSAGE ? row : null);
+        bubble.setMessageBubbleListener(new RowBubbleListener(row));
+        editorRow = row;
+        editorBubble = bubble;
+        contentPanel.add(bubble, 0);
+        bubble.setBounds(bounds);
+        bubble.validate();
+        contentPanel.repaint(bounds);
+    }
+
+    private void removeEditor() {
+        if (editorBubble != null) {
+            Rectangle bounds = editorBubble.getBounds();
+            contentPanel.remove(editorBubble);
+            contentPanel.repaint(bounds);
+            editorBubble = null;
+            editorRow = null;
+        }
+    }
+
+    /**
+     * 行位置变化后移动编辑器
+     */
+    private void positionEditor() {
+        if (editorBubble == null) {
+            return;
+        }
+        int index = rows.indexOf(editorRow);
+        Rectangle bounds = index >= 0 ? bubbleBounds(index) : null;
+        if (bounds == null) {
+            removeEditor();
+        } else {
+            editorBubble.setBounds(bounds);
+        }
+    }
+
+    private Color translationBubbleColor(boolean isOwnMessage) {
+        if (isOwnMessage) {
+            // 自己发送的消息的翻译 - 使用原气泡颜色的浅色版本
+            return new Color(
+                Math.min(sentBubbleColor.getRed() + 40, 255),
+                Math.min(sentBubbleColor.getGreen() + 40, 255),
+                Math.min(sentBubbleColor.getBlue() + 40, 255),
+                220
+            );
+        }
+        // 他人发送的消息的翻译 - 使用浅灰色
+        return new Color(240, 240, 240);
+    }
+
+    private Color translationTextColor(boolean isOwnMessage) {
+        return isOwnMessage ? Color.WHITE : new Color(80, 80, 80);
+    }
+
+    /**
+     * 滚动到底部，同一批添加的消息只滚动一次
      */
     public void scrollToBottom() {
+        if (scrollPending) {
+            return;
+        }
+        scrollPending = true;
         SwingUtilities.invokeLater(() -> {
+            scrollPending = false;
+            scrollPane.validate();
             JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
             verticalBar.setValue(verticalBar.getMaximum());
         });
     }
-    
+
     /**
      * 清空聊天面板
      */
     public void clear() {
-        contentPanel.removeAll();
+        // 被清除的消息不再需要翻译
+        for (MessageBubble bubble : translating.values()) {
+            bubble.cancelTranslation();
+        }
+        translating.clear();
+        removeEditor();
+        rows.clear();
+        rowTops = new int[1024];
         contentPanel.revalidate();
         contentPanel.repaint();
         lastTimestamp = "";
     }
-    
+
     /**
-     * 获取内容面板
+     * @return 行数（消息、时间线、系统消息和翻译）
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * 获取内容面板（虚拟化的消息列表）
      * @return 内容面板
      */
     public JPanel getContentPanel() {
         return contentPanel;
     }
-    
+
     /**
      * 获取滚动面板
      * @return 滚动面板
@@ -262,225 +588,334 @@ public class ChatPanel extends JPanel {
         return scrollPane;
     }
 
+    // 添加创建头像的方法
+    private JLabel createUserAvatar(String name, int size) {
+        return new Avatar(name, size);
+    }
+
     /**
-     * 添加系统消息
-     * @param message 系统消息内容
+     * 行的类型
      */
-    public void addSystemMessage(String message) {
-        JPanel messageRow = new JPanel(new BorderLayout());
-        messageRow.setOpaque(false);
-        messageRow.setBorder(BorderFactory.createEmptyBorder(5, 0, 5, 0));
-        
-        JLabel systemLabel = new JLabel(message, SwingConstants.CENTER);
-        systemLabel.setFont(new Font(textFont.getName(), Font.ITALIC, textFont.getSize() - 1));
-        systemLabel.setForeground(secondaryTextColor);
-        systemLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
-        
-        messageRow.add(systemLabel, BorderLayout.CENTER);
-        
-        contentPanel.add(messageRow);
-        contentPanel.revalidate();
-        contentPanel.repaint();
-        scrollToBottom();
+    private enum RowKind {
+        TIMELINE, MESSAGE, SYSTEM, TRANSLATION
     }
 
-    // 添加创建头像的方法
-    private JLabel createUserAvatar(String name, int size) {
-        String initial = name.substring(0, 1).toUpperCase();
-        
-        JLabel avatar = new JLabel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                Graphics2D g2 = (Graphics2D) g.create();
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-                
-                // 绘制方形背景，带圆角
-                g2.setColor(new Color(56, 129, 244)); // 使用主色调
-                g2.fillRoundRect(0, 0, getWidth(), getHeight(), 6, 6);
-                
-                // 手动绘制文本
-                g2.setColor(Color.WHITE);
-                g2.setFont(new Font("微软雅黑", Font.BOLD, size / 2));
-                
-                // 计算文本位置以居中显示
-                FontMetrics fm = g2.getFontMetrics();
-                int textWidth = fm.stringWidth(initial);
-                int textHeight = fm.getHeight();
-                int x = (getWidth() - textWidth) / 2;
-                int y = (getHeight() - textHeight) / 2 + fm.getAscent();
-                
-                g2.drawString(initial, x, y);
-                g2.dispose();
-            }
-        };
-        
-        // 确保头像大小固定
-        avatar.setPreferredSize(new Dimension(size, size));
-        avatar.setMinimumSize(new Dimension(size, size));
-        avatar.setMaximumSize(new Dimension(size, size));
-        avatar.setOpaque(false);
-        
-        return avatar;
+    /**
+     * 一行的数据，不持有任何组件
+     */
+    private static final class ChatRow {
+        final RowKind kind;
+        final boolean own;
+        final String username;
+        // 翻译行正在翻译时为null
+        String text;
+        int height;
+        // 消息行下方的翻译行
+        ChatRow translation;
+
+        ChatRow(RowKind kind, String text, boolean own, String username) {
+            this.kind = kind;
+            this.text = text;
+            this.own = own;
+            this.username = username;
+        }
     }
 
     /**
-     * 添加翻译气泡
-     * @param originalBubble 原始气泡
-     * @param translatedText 翻译后的文本
+     * 消息列表视图，只绘制与裁剪区域相交的行
      */
-    public void addTranslationBubble(MessageBubble originalBubble, String translatedText) {
-        System.out.println("ChatPanel.addTranslationBubble 被调用");
-        
-        // 获取原始气泡的属性
-        boolean isOwnMessage = originalBubble.isOwnMessage();
-        
-        // 创建翻译气泡 - 使用更精致的样式
-        Color translationBubbleColor;
-        Color translationTextColor;
-        
-        if (isOwnMessage) {
-            // 自己发送的消息的翻译 - 使用原气泡颜色的浅色版本
-            translationBubbleColor = new Color(
-                Math.min(sentBubbleColor.getRed() + 40, 255),
-                Math.min(sentBubbleColor.getGreen() + 40, 255),
-                Math.min(sentBubbleColor.getBlue() + 40, 255),
-                220
-            );
-            translationTextColor = Color.WHITE;
-        } else {
-            // 他人发送的消息的翻译 - 使用浅灰色
-            translationBubbleColor = new Color(240, 240, 240);
-            translationTextColor = new Color(80, 80, 80);
-        }
-        
-        // 创建翻译气泡，使用斜体和稍小的字体
-        MessageBubble translationBubble = new MessageBubble(
-                translatedText,
-                isOwnMessage,
-                translationBubbleColor,
-                translationTextColor,
-                new Font(textFont.getName(), Font.ITALIC, textFont.getSize() - 1)
-        );
-        
-        // 添加标识，防止翻译气泡再次被翻译
-        translationBubble.putClientProperty("isTranslation", true);
-        
-        // 添加翻译标记图标
-        translationBubble.addTranslationIndicator();
-        
-        // 查找原始气泡所在的消息行
-        Component messageRow = SwingUtilities.getAncestorOfClass(JPanel.class, originalBubble);
-        while (messageRow != null && messageRow.getParent() != contentPanel) {
-            messageRow = messageRow.getParent();
+    private final class MessageListView extends JPanel implements Scrollable {
+        MessageListView() {
+            super(null);
+            setOpaque(true);
+            MouseAdapter mouseHandler = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    forwardingMouse = false;
+                    int index = rowAt(e.getY());
+                    Rectangle bubble = index >= 0 ? bubbleBounds(index) : null;
+                    if (bubble == null || !bubble.contains(e.getPoint())) {
+                        // 点在空白处，取消当前的选择
+                        removeEditor();
+                        return;
+                    }
+                    installEditor(index, bubble);
+                    forwardingMouse = true;
+                    forward(e);
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    if (forwardingMouse) {
+                        forward(e);
+                    }
+                }
+
+                @Override
+                public void mouseReleased(MouseEvent e) {
+                    if (forwardingMouse) {
+                        forwardingMouse = false;
+                        forward(e);
+                    }
+                }
+            };
+            addMouseListener(mouseHandler);
+            addMouseMotionListener(mouseHandler);
         }
-        
-        if (messageRow == null) {
-            System.err.println("未找到原始消息行");
-            return;
+
+        /**
+         * 把列表收到的鼠标事件转给编辑器中的文本区域
+         */
+        private void forward(MouseEvent e) {
+            if (editorBubble != null) {
+                JTextArea target = editorBubble.getTextArea();
+                target.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, target));
+            }
         }
-        
-        // 获取消息行在内容面板中的索引
-        int rowIndex = -1;
-        Component[] components = contentPanel.getComponents();
-        for (int i = 0; i < components.length; i++) {
-            if (components[i] == messageRow) {
-                rowIndex = i;
-                break;
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            int first = rowAt(Math.max(clip.y, PADDING));
+            if (first < 0) {
+                return;
+            }
+            int width = getWidth() - 2 * PADDING;
+            int bottom = clip.y + clip.height;
+            for (int i = first; i < rows.size() && PADDING + rowTops[i] < bottom; i++) {
+                ChatRow row = rows.get(i);
+                JComponent renderer = configureRenderer(row, row == editorRow);
+                rendererPane.add(renderer);
+                layoutRenderer(renderer, width, row.height);
+                rendererPane.paintComponent(g, renderer, this, PADDING, PADDING + rowTops[i],
+                        width, row.height, false);
             }
         }
-        
-        if (rowIndex == -1) {
-            System.err.println("未找到消息行索引");
-            return;
+
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(PADDING * 2 + 440, PADDING * 2 + rowTops[rows.size()]);
         }
-        
-        System.out.println("找到原始消息行索引: " + rowIndex);
-        
-        // 检查是否已经有翻译气泡
-        boolean hasTranslation = false;
-        int translationIndex = -1;
-        
-        // 查找下一个组件是否是翻译气泡
-        if (rowIndex + 1 < components.length) {
-            Component nextComponent = components[rowIndex + 1];
-            // 检查是否包含翻译气泡
-            if (isTranslationBubbleContainer(nextComponent)) {
-                hasTranslation = true;
-                translationIndex = rowIndex + 1;
-                System.out.println("找到现有翻译气泡，索引: " + translationIndex);
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            Dimension size = getPreferredSize();
+            return new Dimension(size.width, Math.min(size.height, 400));
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 16;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+    }
+
+    /**
+     * 消息行渲染器: 头像 + 用户名 + 气泡，自己的消息靠右
+     */
+    private final class MessageRowRenderer extends JPanel {
+        final boolean own;
+        final Avatar avatar = new Avatar("?", AVATAR_SIZE);
+        final JLabel usernameLabel = new JLabel();
+        final MessageBubble bubble;
+
+        MessageRowRenderer(boolean own) {
+            super(new BorderLayout());
+            this.own = own;
+            setOpaque(false);
+            bubble = new MessageBubble("", own, own ? sentBubbleColor : receivedBubbleColor,
+                    own ? Color.WHITE : textColor, textFont);
+            bubble.setAlignmentX(own ? Component.RIGHT_ALIGNMENT : Component.LEFT_ALIGNMENT);
+
+            JPanel messageRow = new JPanel(new FlowLayout(own ? FlowLayout.RIGHT : FlowLayout.LEFT, 5, 0));
+            messageRow.setOpaque(false);
+
+            // 包含用户名和气泡的容器
+            JPanel contentContainer = new JPanel();
+            contentContainer.setOpaque(false);
+            contentContainer.setLayout(new BoxLayout(contentContainer, BoxLayout.Y_AXIS));
+            usernameLabel.setFont(new Font(textFont.getName(), Font.BOLD, textFont.getSize() - 2));
+            usernameLabel.setForeground(new Color(120, 120, 120));
+            usernameLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 2, 0));
+            usernameLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+            contentContainer.add(usernameLabel);
+            contentContainer.add(bubble);
+
+            // 根据消息类型设置组件顺序
+            if (own) {
+                messageRow.add(contentContainer);
+                messageRow.add(avatar);
+                add(messageRow, BorderLayout.EAST);
+            } else {
+                messageRow.add(avatar);
+                messageRow.add(contentContainer);
+                add(messageRow, BorderLayout.WEST);
             }
         }
-        
-        // 创建新的消息行，用于放置翻译气泡
-        JPanel translationRow = new JPanel(new BorderLayout());
-        translationRow.setOpaque(false);
-        translationRow.setBorder(BorderFactory.createEmptyBorder(2, 0, 4, 0)); // 添加一些垂直间距
-        
-        // 创建内部面板，用于控制气泡位置
-        JPanel innerPanel = new JPanel(new FlowLayout(isOwnMessage ? FlowLayout.RIGHT : FlowLayout.LEFT, 5, 0));
-        innerPanel.setOpaque(false);
-        
-        // 如果不是自己的消息，添加一些左边距，与原始消息对齐
-        if (!isOwnMessage) {
-            innerPanel.setBorder(BorderFactory.createEmptyBorder(0, 36, 0, 0)); // 36px是头像宽度+间距
+
+        void configure(String content, String username, boolean hideBubble) {
+            avatar.setInitial(own ? "我" : (username != null ? username : "?"));
+            // 如果不是自己的消息且有用户名，显示用户名
+            boolean showName = !own && username != null && !username.isEmpty();
+            usernameLabel.setVisible(showName);
+            usernameLabel.setText(showName ? username : "");
+            if (hideBubble) {
+                bubble.setMessage(content, own, TRANSPARENT, TRANSPARENT, textFont);
+            } else {
+                bubble.setMessage(content, own, own ? sentBubbleColor : receivedBubbleColor,
+                        own ? Color.WHITE : textColor, textFont);
+            }
         }
-        
-        innerPanel.add(translationBubble);
-        
-        // 添加到消息行
-        if (isOwnMessage) {
-            translationRow.add(innerPanel, BorderLayout.EAST);
-        } else {
-            translationRow.add(innerPanel, BorderLayout.WEST);
+    }
+
+    /**
+     * 翻译行渲染器: 与原消息对齐的翻译气泡，正在翻译时显示提示文字
+     */
+    private final class TranslationRowRenderer extends JPanel {
+        final boolean own;
+        final MessageBubble bubble;
+        final JLabel loadingLabel = new JLabel("正在翻译...");
+
+        TranslationRowRenderer(boolean own) {
+            super(new BorderLayout());
+            this.own = own;
+            setOpaque(false);
+            setBorder(BorderFactory.createEmptyBorder(2, 0, 4, 0)); // 添加一些垂直间距
+
+            bubble = new MessageBubble("", own, translationBubbleColor(own), translationTextColor(own), translationFont);
+            bubble.putClientProperty("isTranslation", true);
+            bubble.addTranslationIndicator();
+            loadingLabel.setFont(translationFont);
+            loadingLabel.setForeground(Color.GRAY);
+
+            // 内部面板，用于控制气泡位置
+            JPanel innerPanel = new JPanel(new FlowLayout(own ? FlowLayout.RIGHT : FlowLayout.LEFT, 5, 0));
+            innerPanel.setOpaque(false);
+            // 如果不是自己的消息，添加一些左边距，与原始消息对齐
+            if (!own) {
+                innerPanel.setBorder(BorderFactory.createEmptyBorder(0, 36, 0, 0)); // 36px是头像宽度+间距
+            }
+            innerPanel.add(loadingLabel);
+            innerPanel.add(bubble);
+            add(innerPanel, own ? BorderLayout.EAST : BorderLayout.WEST);
         }
-        
-        // 如果已有翻译气泡，替换它
-        if (hasTranslation) {
-            System.out.println("替换现有翻译气泡");
-            contentPanel.remove(translationIndex);
-            contentPanel.add(translationRow, translationIndex);
-        } else {
-            // 否则，在原始消息行后添加新的翻译行
-            System.out.println("添加新翻译气泡");
-            contentPanel.add(translationRow, rowIndex + 1);
+
+        void configure(String translatedText, boolean hideBubble) {
+            boolean pending = translatedText == null;
+            loadingLabel.setVisible(pending);
+            bubble.setVisible(!pending);
+            if (!pending) {
+                bubble.setMessage(translatedText, own,
+                        hideBubble ? TRANSPARENT : translationBubbleColor(own),
+                        hideBubble ? TRANSPARENT : translationTextColor(own), translationFont);
+            }
         }
-        
-        // 重新布局
-        contentPanel.revalidate();
-        contentPanel.repaint();
-        
-        // 滚动到底部
-        scrollToBottom();
-        System.out.println("翻译气泡添加完成");
     }
 
     /**
-     * 检查组件是否包含翻译气泡
-     * @param component 要检查的组件
-     * @return 是否包含翻译气泡
+     * 编辑器气泡的监听器，翻译结果作为新行插入列表
      */
-    private boolean isTranslationBubbleContainer(Component component) {
-        if (!(component instanceof JPanel)) {
-            return false;
+    private final class RowBubbleListener implements MessageBubble.MessageBubbleListener {
+        private final ChatRow row;
+
+        RowBubbleListener(ChatRow row) {
+            this.row = row;
         }
-        
-        // 递归检查所有子组件
-        Component[] components = ((JPanel) component).getComponents();
-        for (Component comp : components) {
-            if (comp instanceof MessageBubble && 
-                ((MessageBubble) comp).getClientProperty("isTranslation") != null) {
-                return true;
+
+        @Override
+        public void onBubbleForwarded(MessageBubble bubble, String content) {
+            // 处理转发事件
+            if (forwardListener != null) {
+                forwardListener.onMessageForward(content, bubble.isOwnMessage());
             }
-            
-            if (comp instanceof JPanel) {
-                if (isTranslationBubbleContainer(comp)) {
-                    return true;
-                }
+        }
+
+        @Override
+        public boolean onTranslationStarted(MessageBubble bubble) {
+            translating.put(row, bubble);
+            showTranslation(row, null);
+            return true;
+        }
+
+        @Override
+        public void onTranslationProgress(MessageBubble bubble, String partialText) {
+            showTranslation(row, partialText);
+        }
+
+        @Override
+        public void onTranslationCompleted(MessageBubble bubble, String translatedText) {
+            translating.remove(row);
+            if (translatedText == null) {
+                removeTranslation(row);
+            } else {
+                showTranslation(row, translatedText);
             }
         }
-        
-        return false;
+    }
+
+    /**
+     * 方形圆角头像，显示名字的第一个字
+     */
+    private static final class Avatar extends JLabel {
+        private final Font initialFont;
+        private String initial;
+
+        Avatar(String name, int size) {
+            this.initialFont = new Font("微软雅黑", Font.BOLD, size / 2);
+            setInitial(name);
+            // 确保头像大小固定
+            setPreferredSize(new Dimension(size, size));
+            setMinimumSize(new Dimension(size, size));
+            setMaximumSize(new Dimension(size, size));
+            setOpaque(false);
+        }
+
+        void setInitial(String name) {
+            initial = name.substring(0, 1).toUpperCase();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+            // 绘制方形背景，带圆角
+            g2.setColor(new Color(56, 129, 244)); // 使用主色调
+            g2.fillRoundRect(0, 0, getWidth(), getHeight(), 6, 6);
+
+            // 手动绘制文本
+            g2.setColor(Color.WHITE);
+            g2.setFont(initialFont);
+
+            // 计算文本位置以居中显示
+            FontMetrics fm = g2.getFontMetrics();
+            int textWidth = fm.stringWidth(initial);
+            int textHeight = fm.getHeight();
+            int x = (getWidth() - textWidth) / 2;
+            int y = (getHeight() - textHeight) / 2 + fm.getAscent();
+
+            g2.drawString(initial, x, y);
+            g2.dispose();
+        }
     }
 
     // 转发监听器
@@ -0,0 +1,209 @@
+package com.example.component;
+
+import com.example.model.Settings;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 把后台线程（如网络接收线程）产生的事件攒成批次，在事件分发线程上按帧率批量处理
+ * 队列从空变为非空时安排一次处理，距上一批不足一帧时推迟到下一帧；
+ * 同一批次内对界面的修改在同一个事件中完成，只触发一次布局和重绘。
+ * 一批最多处理maxBatch个事件，其余留到下一帧，避免大量积压时长时间占用事件分发线程
+ *
+ * @param <T> 事件类型
+ */
+public class EventBatcher<T> {
+    private final String name;
+    private final long frameNanos;
+    private final int maxBatch;
+    private final BatchHandler<T> handler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Timer timer;
+    private List<T> pending = new ArrayList<>();
+    // 队列中最早的事件进入队列的时间
+    private long oldestPendingNanos;
+    // 已经安排了处理（invokeLater或定时器）尚未执行
+    private boolean scheduled;
+    // 只在事件分发线程上访问
+    private long lastFlushNanos;
+
+    // 统计
+    private long eventCount;
+    private long batchCount;
+    private int largestBatch;
+    private long maxDelayNanos;
+    private long totalDelayNanos;
+
+    /**
+     * @param name 名称，用于统计输出
+     * @param frameIntervalMs 两批之间的最小间隔
+     * @param maxBatch 一批最多处理的事件数
+     * @param handler 批处理函数，在事件分发线程上调用
+     */
+    public EventBatcher(String name, int frameIntervalMs, int maxBatch, BatchHandler<T> handler) {
+        this.name = name;
+        this.frameNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, frameIntervalMs));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.handler = handler;
+        this.timer = new Timer(Math.max(1, frameIntervalMs), e -> flush());
+        this.timer.setRepeats(false);
+        this.lastFlushNanos = System.nanoTime() - frameNanos;
+    }
+
+    /**
+     * 按 client.ui.* 配置创建
+     * @param name 名称
+     * @param handler 批处理函数
+     * @param <T> 事件类型
+     * @return 批处理器
+     */
+    public static <T> EventBatcher<T> fromConfig(String name, BatchHandler<T> handler) {
+        Settings settings = Settings.getInstance();
+        return new EventBatcher<>(name,
+                Integer.parseInt(settings.getProperty("client.ui.batchIntervalMs", "16").trim()),
+                Integer.parseInt(settings.getProperty("client.ui.maxBatch", "500").trim()),
+                handler);
+    }
+
+    /**
+     * 提交一个事件，可在任意线程调用
+     * @param event 事件
+     */
+    public void submit(T event) {
+        boolean schedule;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                oldestPendingNanos = System.nanoTime();
+            }
+            pending.add(event);
+            schedule = !scheduled;
+            scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+        if (schedule) {
+            SwingUtilities.invokeLater(this::flushOrDefer);
+        }
+    }
+
+    /**
+     * 距上一批已满一帧则立即处理，否则用定时器推迟到下一帧
+     */
+    private void flushOrDefer() {
+        long wait = frameNanos - (System.nanoTime() - lastFlushNanos);
+        if (wait <= 0) {
+            flush();
+        } else {
+            timer.setInitialDelay((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            timer.restart();
+        }
+    }
+
+    private void flush() {
+        List<T> batch;
+        boolean more;
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                scheduled = false;
+                return;
+            }
+            long delay = now - oldestPendingNanos;
+            if (pending.size() <= maxBatch) {
+                batch = pending;
+                pending = new ArrayList<>();
+            } else {
+                List<T> head = pending.subList(0, maxBatch);
+                batch = new ArrayList<>(head);
+                head.clear();
+                // 剩下的事件从现在开始计算等待时间
+                oldestPendingNanos = now;
+            }
+            more = !pending.isEmpty();
+            scheduled = more;
+            eventCount += batch.size();
+            batchCount++;
+            largestBatch = Math.max(largestBatch, batch.size());
+            maxDelayNanos = Math.max(maxDelayNanos, delay);
+            totalDelayNanos += delay;
+        } finally {
+            lock.unlock();
+        }
+        lastFlushNanos = now;
+        try {
+            handler.handleBatch(batch);
+        } catch (RuntimeException e) {
+            System.err.println(name + " 处理事件时出错: " + e.getMessage());
+            e.printStackTrace();
+        }
+        if (more) {
+            timer.setInitialDelay((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(frameNanos)));
+            timer.restart();
+        }
+    }
+
+    /**
+     * 丢弃尚未处理的事件（如断开连接后）
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            pending.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEventCount() {
+        lock.lock();
+        try {
+            return eventCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBatchCount() {
+        lock.lock();
+        try {
+            return batchCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return name + "{events=" + eventCount
+                    + ", batches=" + batchCount
+                    + ", largestBatch=" + largestBatch
+                    + ", pending=" + pending.size()
+                    + ", avgDelayMs=" + String.format("%.2f", batchCount == 0 ? 0.0 : totalDelayNanos / 1e6 / batchCount)
+                    + ", maxDelayMs=" + String.format("%.2f", maxDelayNanos / 1e6)
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批处理函数
+     * @param <T> 事件类型
+     */
+    public interface BatchHandler<T> {
+        /**
+         * 在事件分发线程上处理一批事件，事件按提交顺序排列
+         * @param events 事件
+         */
+        void handleBatch(List<T> events);
+    }
+}
@@ -4,10 +4,14 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.geom.RoundRectangle2D;
+import com.example.model.Settings;
 import com.example.service.AIService;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import javax.swing.SwingWorker;
+import com.example.service.TranslationScheduler;
+import javax.swing.event.AncestorEvent;
+import javax.swing.event.AncestorListener;
+import java.util.concurrent.CancellationException;
 
 /**
  * 消息气泡组件
@@ -19,12 +23,21 @@ public class MessageBubble extends JPanel {
     private static final int PADDING_HORIZONTAL = 24;  // 水平内边距总和
     private static final int PARAGRAPH_SPACING = 8;    // 段落间距
     
-    private final String content;
-    private final boolean isOwnMessage;
-    private final Color bubbleColor;
-    private final Color textColor;
-    private final Font textFont;
+    // 作为列表渲染器复用时可通过setMessage更换
+    private String content;
+    private boolean isOwnMessage;
+    private Color bubbleColor;
+    private Color textColor;
+    private Font textFont;
     private JTextArea textArea;
+    // setMessage更换内容后尚未放入文本区域的文本，绘制前才设置，只用于测量行高时不必重建文档
+    private String pendingText;
+    // 流式翻译过程中显示部分译文的气泡（没有监听器处理翻译时）
+    private MessageBubble streamingTranslation;
+    // 排队中或进行中的翻译，以及它是否可见（调度线程读取）
+    private TranslationScheduler.Task<String> translationTask;
+    private volatile boolean translationVisible;
+    private AncestorListener visibilityTracker;
     
     // 消息气泡监听器
     private MessageBubbleListener bubbleListener;
@@ -51,16 +64,8 @@ public class MessageBubble extends JPanel {
         setOpaque(false);
         setLayout(new BorderLayout());
         
-        // 处理段落间距
-        String processedContent = processParagraphs(content);
-        
-        // 判断是否为短消息 - 更严格的判断
-        final boolean isShortMessage = content.length() <= 30 && !content.contains("\n");
-        
         // 创建文本区域 - 可选择
-        textArea = new JTextArea(processedContent);
-        textArea.setFont(textFont);
-        textArea.setForeground(textColor);
+        textArea = new JTextArea();
         textArea.setWrapStyleWord(true);
         textArea.setEditable(false); // 不可编辑，但可选择
         textArea.setFocusable(true); // 允许获取焦点以便选择
@@ -73,6 +78,63 @@ public class MessageBubble extends JPanel {
         JPopupMenu popupMenu = createTextPopupMenu(textArea);
         textArea.setComponentPopupMenu(popupMenu);
         
+        applyContent();
+        syncText();
+        
+        // 将文本区域添加到气泡中
+        add(textArea, BorderLayout.CENTER);
+        
+        // 添加鼠标事件监听器，用于点击和长按
+        addMouseListeners();
+    }
+
+    /**
+     * 更换气泡显示的消息，用于列表渲染时复用同一个气泡
+     * @param content 消息内容
+     * @param isOwnMessage 是否是自己发送的消息
+     * @param bubbleColor 气泡背景色
+     * @param textColor 文本颜色
+     * @param textFont 文本字体
+     */
+    public void setMessage(String content, boolean isOwnMessage, Color bubbleColor, Color textColor, Font textFont) {
+        this.content = content;
+        this.isOwnMessage = isOwnMessage;
+        this.bubbleColor = bubbleColor;
+        this.textColor = textColor;
+        this.textFont = textFont;
+        applyContent();
+    }
+
+    private void syncText() {
+        if (pendingText != null) {
+            // 渲染器在相同内容的行之间复用时不必重建文档
+            if (!pendingText.equals(textArea.getText())) {
+                textArea.setText(pendingText);
+            }
+            pendingText = null;
+        }
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        syncText();
+        super.paint(g);
+    }
+
+    /**
+     * 根据当前内容设置文本并计算气泡大小
+     */
+    private void applyContent() {
+        // 处理段落间距
+        String processedContent = processParagraphs(content);
+        
+        // 判断是否为短消息 - 更严格的判断
+        final boolean isShortMessage = content.length() <= 30 && !content.contains("\n");
+        
+        pendingText = processedContent;
+        textArea.setFont(textFont);
+        textArea.setForeground(textColor);
+        
         // 短消息不自动换行，长消息自动换行
         textArea.setLineWrap(!isShortMessage);
         
@@ -112,12 +174,6 @@ public class MessageBubble extends JPanel {
         setPreferredSize(bubbleSize);
         setMinimumSize(bubbleSize);
         setMaximumSize(bubbleSize);
-        
-        // 将文本区域添加到气泡中
-        add(textArea, BorderLayout.CENTER);
-        
-        // 添加鼠标事件监听器，用于点击和长按
-        addMouseListeners();
     }
 
     /**
@@ -306,80 +362,171 @@ public class MessageBubble extends JPanel {
         // 标记正在翻译
         putClientProperty("translating", true);
         
+        // 监听器负责显示翻译进度和结果时（如虚拟化的聊天列表），不再修改父容器
+        final boolean handledByListener = bubbleListener != null && bubbleListener.onTranslationStarted(this);
+        
         // 添加加载指示器或提示
         JLabel loadingLabel = new JLabel("正在翻译...");
         loadingLabel.setFont(new Font(textFont.getName(), Font.ITALIC, textFont.getSize() - 1));
         loadingLabel.setForeground(Color.GRAY);
         
         // 获取当前气泡所在的容器
-        Container parent = getParent();
+        Container parent = handledByListener ? null : getParent();
         if (parent != null) {
             parent.add(loadingLabel);
             parent.revalidate();
             parent.repaint();
         }
         
-        // 创建一个SwingWorker来执行翻译，避免阻塞UI线程
-        new SwingWorker<String, Void>() {
-            @Override
-            protected String doInBackground() throws Exception {
-                try {
-                    // 使用AIService翻译文本
-                    AIService aiService = new AIService();
-                    System.out.println("开始翻译文本: " + content);
-                    String result = aiService.translateText(content, "zh-CN");
-                    System.out.println("翻译结果: " + result);
-                    return result;
-                } catch (Exception e) {
-                    System.err.println("翻译出错: " + e.getMessage());
-                    e.printStackTrace();
-                    return "翻译失败: " + e.getMessage();
+        // 流式翻译时收到的译文片段按帧率合并后显示，首个片段到达时就能看到译文
+        final boolean streaming = Boolean.parseBoolean(
+                Settings.getInstance().getProperty("ai.stream", "true").trim());
+        final StringBuilder partialText = new StringBuilder();
+        final boolean[] finished = new boolean[1];
+        final EventBatcher<String> deltas = EventBatcher.fromConfig("translationStream", batch -> {
+            if (finished[0]) {
+                return;
+            }
+            for (String delta : batch) {
+                partialText.append(delta);
+            }
+            showTranslationProgress(partialText.toString(), handledByListener, parent, loadingLabel);
+        });
+        
+        // 可见性决定排队时的优先级: 由监听器处理时由其根据所在行更新，否则跟随气泡在视口中的位置
+        translationVisible = true;
+        if (!handledByListener) {
+            visibilityTracker = new AncestorListener() {
+                @Override
+                public void ancestorAdded(AncestorEvent event) {
+                    translationVisible = !getVisibleRect().isEmpty();
+                }
+
+                @Override
+                public void ancestorMoved(AncestorEvent event) {
+                    translationVisible = !getVisibleRect().isEmpty();
                 }
+
+                @Override
+                public void ancestorRemoved(AncestorEvent event) {
+                    translationVisible = false;
+                }
+            };
+            addAncestorListener(visibilityTracker);
+        }
+
+        // 经共享的AIService排队翻译（共用HTTP连接、翻译缓存和并发/速率限制），不阻塞UI线程
+        System.out.println("开始翻译文本: " + content);
+        translationTask = AIService.getInstance().translateAsync(content, "zh-CN", () -> translationVisible,
+                streaming ? deltas::submit : null);
+        translationTask.future().whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            // 之后到达的片段不再显示，以完整结果为准
+            finished[0] = true;
+            deltas.clear();
+            translationTask = null;
+            if (visibilityTracker != null) {
+                removeAncestorListener(visibilityTracker);
+                visibilityTracker = null;
             }
-            
-            @Override
-            protected void done() {
-                try {
-                    // 移除加载指示器
-                    if (parent != null) {
-                        parent.remove(loadingLabel);
-                        parent.revalidate();
-                        parent.repaint();
-                    }
-                    
-                    String translatedText = get();
-                    if (translatedText != null && !translatedText.isEmpty()) {
-                        // 创建翻译结果气泡
-                        System.out.println("显示翻译结果: " + translatedText);
-                        createTranslationBubble(translatedText);
-                    } else {
-                        System.err.println("翻译结果为空");
-                        JOptionPane.showMessageDialog(null, "翻译失败: 结果为空", "翻译错误", JOptionPane.ERROR_MESSAGE);
-                    }
-                } catch (Exception e) {
-                    System.err.println("处理翻译结果时出错: " + e.getMessage());
-                    e.printStackTrace();
-                    JOptionPane.showMessageDialog(null, "翻译失败: " + e.getMessage(), "翻译错误", JOptionPane.ERROR_MESSAGE);
-                } finally {
-                    // 标记翻译完成
-                    putClientProperty("translating", false);
+            // 移除加载指示器
+            if (parent != null) {
+                parent.remove(loadingLabel);
+                parent.revalidate();
+                parent.repaint();
+            }
+
+            String translatedText;
+            if (error instanceof CancellationException) {
+                // 气泡已被清除，不再显示结果
+                System.out.println("翻译已取消: " + content);
+                translatedText = null;
+            } else {
+                translatedText = error != null ? AIService.errorMessage(error) : result;
+                System.out.println("翻译结果: " + translatedText);
+            }
+            if (translatedText != null && !translatedText.isEmpty()) {
+                // 创建翻译结果气泡
+                System.out.println("显示翻译结果: " + translatedText);
+                if (handledByListener) {
+                    bubbleListener.onTranslationCompleted(MessageBubble.this, translatedText);
+                } else if (streamingTranslation != null) {
+                    streamingTranslation.setContent(translatedText);
+                } else {
+                    createTranslationBubble(translatedText);
+                }
+            } else {
+                if (handledByListener) {
+                    bubbleListener.onTranslationCompleted(MessageBubble.this, null);
+                }
+                if (translatedText != null) {
+                    System.err.println("翻译结果为空");
+                    JOptionPane.showMessageDialog(null, "翻译失败: 结果为空", "翻译错误", JOptionPane.ERROR_MESSAGE);
                 }
             }
-        }.execute();
+            streamingTranslation = null;
+            // 标记翻译完成
+            putClientProperty("translating", false);
+        }));
+    }
+
+    /**
+     * 设置正在翻译的气泡当前是否可见，排队中的翻译请求优先发出可见的
+     * @param visible 是否可见
+     */
+    public void setTranslationVisible(boolean visible) {
+        translationVisible = visible;
+    }
+
+    /**
+     * 取消正在进行的翻译（如气泡已被清除）: 排队中的请求不再发出，进行中的请求被中断
+     */
+    public void cancelTranslation() {
+        TranslationScheduler.Task<String> task = translationTask;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * 显示流式翻译已收到的部分译文，在事件分发线程上调用
+     */
+    private void showTranslationProgress(String text, boolean handledByListener, Container parent, JLabel loadingLabel) {
+        if (handledByListener) {
+            bubbleListener.onTranslationProgress(this, text);
+        } else if (streamingTranslation != null) {
+            streamingTranslation.setContent(text);
+        } else {
+            if (parent != null) {
+                parent.remove(loadingLabel);
+            }
+            streamingTranslation = createTranslationBubble(text);
+        }
+    }
+
+    /**
+     * 更换气泡显示的文本并重新计算大小
+     * @param content 新的文本
+     */
+    public void setContent(String content) {
+        this.content = content;
+        applyContent();
+        revalidate();
+        repaint();
     }
 
     /**
      * 创建翻译结果气泡
      * @param translatedText 翻译后的文本
+     * @return 创建的翻译气泡，无法添加时返回null
      */
-    private void createTranslationBubble(String translatedText) {
+    private MessageBubble createTranslationBubble(String translatedText) {
         System.out.println("创建翻译气泡: " + translatedText);
         
         // 获取当前气泡所在的容器
         Container parent = getParent();
         if (parent == null) {
             System.err.println("无法获取父容器");
-            return;
+            return null;
         }
         
         // 创建翻译气泡 - 使用更精致的样式
@@ -479,7 +626,7 @@ public class MessageBubble extends JPanel {
                     }
                 }
                 
-                return;
+                return translationBubble;
             }
         }
         
@@ -540,12 +687,13 @@ public class MessageBubble extends JPanel {
                     // 尝试滚动到底部
                     scrollToBottom(contentPanel);
                     
-                    return;
+                    return translationBubble;
                 }
             }
         }
         
         System.err.println("无法添加翻译气泡，所有尝试都失败了");
+        return null;
     }
 
     /**
@@ -688,6 +836,7 @@ public class MessageBubble extends JPanel {
      * @return 文本区域组件
      */
     public JTextArea getTextArea() {
+        syncText();
         return textArea;
     }
 
@@ -759,7 +908,8 @@ public class MessageBubble extends JPanel {
     }
 
     // 优化的中文换行算法 - 计算文本换行后的行数
-    private int calculateLineCount(String text, FontMetrics fm, int maxWidth) {
+    // 不依赖气泡的状态，基准测试（benchmarks 模块的 BubbleLayoutBenchmark）直接调用
+    static int calculateLineCount(String text, FontMetrics fm, int maxWidth) {
         if (text == null || text.isEmpty()) {
             return 1;
         }
@@ -778,7 +928,7 @@ public class MessageBubble extends JPanel {
     }
     
     // 优化的中文换行算法 - 找出文本在指定宽度内的断点
-    private int findBreakPoint(String text, int startIndex, FontMetrics fm, int availableWidth) {
+    private static int findBreakPoint(String text, int startIndex, FontMetrics fm, int availableWidth) {
         int textLength = text.length();
         if (startIndex >= textLength) return textLength;
         
@@ -866,6 +1016,29 @@ public class MessageBubble extends JPanel {
          * @param content 要转发的内容
          */
         default void onBubbleForwarded(MessageBubble bubble, String content) {}
+        
+        /**
+         * 开始翻译时调用
+         * @param bubble 气泡
+         * @return true表示由监听器显示翻译进度和结果，气泡不再修改父容器
+         */
+        default boolean onTranslationStarted(MessageBubble bubble) {
+            return false;
+        }
+        
+        /**
+         * 翻译结束时调用，仅在onTranslationStarted返回true时调用
+         * @param bubble 气泡
+         * @param translatedText 翻译结果，失败时为null
+         */
+        default void onTranslationCompleted(MessageBubble bubble, String translatedText) {}
+        
+        /**
+         * 流式翻译收到新的译文片段时调用（按帧率合并），仅在onTranslationStarted返回true时调用
+         * @param bubble 气泡
+         * @param partialText 目前为止收到的译文
+         */
+        default void onTranslationProgress(MessageBubble bubble, String partialText) {}
     }
 
     /**
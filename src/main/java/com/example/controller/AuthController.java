@@ -1,5 +1,6 @@
 package com.example.controller;
 
+import com.example.dao.CachedUserDAO;
 import com.example.dao.UserDAO;
 import com.example.model.User;
 
@@ -8,7 +9,7 @@ public class AuthController {
     private User currentUser;
 
     public AuthController() {
-        this.userDAO = new UserDAO();
+        this.userDAO = CachedUserDAO.getInstance();
     }
 
     public boolean login(String username, String password) {
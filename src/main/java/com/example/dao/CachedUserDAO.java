@@ -0,0 +1,197 @@
+package com.example.dao;
+
+import com.example.model.Settings;
+import com.example.model.User;
+import com.example.util.LruCache;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 带缓存的用户数据访问对象
+ * 按用户名、用户ID和全部用户列表分别缓存，容量有上限（LRU），条目按TTL过期；
+ * 不存在的用户名/ID也会缓存一段较短的时间，同一个键的并发查询只访问一次数据库
+ *
+ * 本进程内的注册会立即使相关条目失效；其他进程（如另一个客户端）注册的用户
+ * 最多在negativeTtlMs之后可见
+ */
+public class CachedUserDAO extends UserDAO {
+    private static final String ALL_USERS_KEY = "all";
+
+    private final LruCache<String, User> usersByName;
+    private final LruCache<Long, String> namesById;
+    private final LruCache<String, List<User>> allUsers;
+
+    /**
+     * @param maxSize 每个缓存最多的条目数
+     * @param ttlMs 条目有效期
+     * @param negativeTtlMs 不存在的用户的缓存时间，0表示不缓存
+     */
+    public CachedUserDAO(int maxSize, long ttlMs, long negativeTtlMs) {
+        this.usersByName = new LruCache<>("usersByName", maxSize, ttlMs, negativeTtlMs);
+        this.namesById = new LruCache<>("namesById", maxSize, ttlMs, negativeTtlMs);
+        this.allUsers = new LruCache<>("allUsers", 1, ttlMs, 0);
+    }
+
+    private static class Holder {
+        private static final CachedUserDAO INSTANCE = fromConfig();
+    }
+
+    /**
+     * 获取按 user.cache.* 配置创建的共享实例
+     * @return 共享实例
+     */
+    public static CachedUserDAO getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static CachedUserDAO fromConfig() {
+        Settings settings = Settings.getInstance();
+        return new CachedUserDAO(
+                Integer.parseInt(settings.getProperty("user.cache.maxSize", "10000").trim()),
+                Long.parseLong(settings.getProperty("user.cache.ttlMs", "300000").trim()),
+                Long.parseLong(settings.getProperty("user.cache.negativeTtlMs", "30000").trim()));
+    }
+
+    @Override
+    public User getUserByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return copy(usersByName.get(name, this::loadUserByName));
+        } catch (LoadException e) {
+            e.getCause().printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public String getUserNameById(Long userId) {
+        if (userId == null) {
+            return null;
+        }
+        try {
+            return namesById.get(userId, this::loadUserNameById);
+        } catch (LoadException e) {
+            e.getCause().printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        try {
+            List<User> users = allUsers.get(ALL_USERS_KEY, key -> loadAllUsers());
+            // 调用方会修改列表和其中的User，返回副本
+            List<User> result = new ArrayList<>(users.size());
+            for (User user : users) {
+                result.add(copy(user));
+            }
+            return result;
+        } catch (LoadException e) {
+            e.getCause().printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public boolean register(User user) {
+        boolean success = super.register(user);
+        invalidate(user);
+        return success;
+    }
+
+    @Override
+    public boolean addUser(User user) {
+        boolean success = super.addUser(user);
+        invalidate(user);
+        return success;
+    }
+
+    /**
+     * 注册后（无论成功与否，失败可能是用户名已被占用）清除该用户名的缓存、
+     * 用户列表以及所有"ID不存在"的记录
+     */
+    private void invalidate(User user) {
+        if (user.getName() != null) {
+            usersByName.invalidate(user.getName());
+        }
+        namesById.invalidateNegatives();
+        allUsers.invalidateAll();
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public void invalidateAll() {
+        usersByName.invalidateAll();
+        namesById.invalidateAll();
+        allUsers.invalidateAll();
+    }
+
+    private User loadUserByName(String name) {
+        try {
+            User user = queryUserByName(name);
+            if (user != null) {
+                namesById.put(user.getId(), user.getName());
+            }
+            return user;
+        } catch (SQLException e) {
+            throw new LoadException(e);
+        }
+    }
+
+    private String loadUserNameById(Long userId) {
+        try {
+            return queryUserNameById(userId);
+        } catch (SQLException e) {
+            throw new LoadException(e);
+        }
+    }
+
+    private List<User> loadAllUsers() {
+        try {
+            List<User> users = queryAllUsers();
+            for (User user : users) {
+                namesById.put(user.getId(), user.getName());
+            }
+            return users;
+        } catch (SQLException e) {
+            throw new LoadException(e);
+        }
+    }
+
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User(user.getId(), user.getName());
+        copy.setPassword(user.getPassword());
+        copy.setOnline(user.isOnline());
+        return copy;
+    }
+
+    public LruCache<String, User> getUsersByNameCache() {
+        return usersByName;
+    }
+
+    public LruCache<Long, String> getNamesByIdCache() {
+        return namesById;
+    }
+
+    @Override
+    public String toString() {
+        return "CachedUserDAO{" + usersByName + ", " + namesById + ", " + allUsers + '}';
+    }
+
+    /**
+     * 数据库查询失败，不缓存结果
+     */
+    private static class LoadException extends RuntimeException {
+        LoadException(SQLException cause) {
+            super(cause);
+        }
+    }
+}
@@ -5,12 +5,15 @@ import com.example.util.DBUtil;
 
 import java.sql.*;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 /**
  * 消息数据访问对象
  */
 public class MessageDAO {
+    // 已送达消息的reserved字段值
+    private static final String DELIVERED = "delivered";
 
     /**
      * 存储离线消息
@@ -20,7 +23,7 @@ public class MessageDAO {
      * @return 是否成功存储
      */
     public boolean storeOfflineMessage(Long senderId, Long receiverId, String content) {
-        String sql = "INSERT INTO message (sender, receiver, message, ddate, `read`, reserved) VALUES (?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO message (sender, receiver, message, ddate, sent_at, `read`, reserved) VALUES (?, ?, ?, ?, ?, ?, ?)";
         
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -28,10 +31,12 @@ public class MessageDAO {
             pstmt.setLong(1, senderId);
             pstmt.setLong(2, receiverId);
             pstmt.setString(3, content);
-            // 使用当前日期
-            pstmt.setDate(4, new java.sql.Date(System.currentTimeMillis()));
-            pstmt.setInt(5, 2); // 2表示未读
-            pstmt.setString(6, null); // 保留字段设为null
+            // 使用当前时间（毫秒精度）
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            pstmt.setDate(4, java.sql.Date.valueOf(now.toLocalDate()));
+            pstmt.setTimestamp(5, Timestamp.valueOf(now));
+            pstmt.setInt(6, 2); // 2表示未读
+            pstmt.setString(7, null); // 保留字段设为null
             
             return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
@@ -41,6 +46,49 @@ public class MessageDAO {
         }
     }
 
+    /**
+     * 批量存储离线消息，在一个事务中用JDBC批处理插入
+     * MySQL需要在连接URL中加上 rewriteBatchedStatements=true 才会合并为多行INSERT
+     * @param messages 消息列表，使用各自的发送者、接收者、内容和发送时间
+     * @return 是否全部存储成功（失败时整批回滚）
+     */
+    public boolean storeOfflineMessages(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return true;
+        }
+        String sql = "INSERT INTO message (sender, receiver, message, ddate, sent_at, `read`, reserved) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+        try (Connection conn = DBUtil.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Message message : messages) {
+                    pstmt.setLong(1, message.getSenderId());
+                    pstmt.setLong(2, message.getReceiverId());
+                    pstmt.setString(3, message.getContent());
+                    LocalDateTime sentAt = message.getSentAt() != null ? message.getSentAt() : LocalDateTime.now();
+                    pstmt.setDate(4, java.sql.Date.valueOf(sentAt.toLocalDate()));
+                    pstmt.setTimestamp(5, Timestamp.valueOf(sentAt.truncatedTo(ChronoUnit.MILLIS)));
+                    pstmt.setInt(6, 2); // 2表示未读
+                    pstmt.setString(7, null);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            System.err.println("批量存储离线消息失败(" + messages.size() + "条): " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * 获取用户的所有未读消息
      * @param receiverId 接收者ID
@@ -48,7 +96,7 @@ public class MessageDAO {
      */
     public List<Message> getUnreadMessages(Long receiverId) {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM message WHERE receiver = ? AND `read` = 2 ORDER BY ddate ASC";
+        String sql = "SELECT * FROM message WHERE receiver = ? AND `read` = 2 ORDER BY sent_at ASC, _id ASC";
         
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -104,7 +152,7 @@ public class MessageDAO {
      */
     public List<Message> getOfflineMessagesFromSender(Long receiverId, Long senderId) {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM message WHERE receiver = ? AND sender = ? AND `read` = 2 ORDER BY ddate ASC";
+        String sql = "SELECT * FROM message WHERE receiver = ? AND sender = ? AND `read` = 2 ORDER BY sent_at ASC, _id ASC";
         
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -125,6 +173,49 @@ public class MessageDAO {
         return messages;
     }
 
+    /**
+     * 按游标分段获取来自特定发送者的离线消息，使用 (receiver, sender, read, sent_at, _id) 索引的范围扫描
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param after 只返回此游标之后的消息，null表示从最早的未读消息开始
+     * @param limit 限制数量
+     * @return 消息列表，从旧到新；少于limit条表示没有更多
+     */
+    public List<Message> getOfflineMessagesFromSender(Long receiverId, Long senderId, Cursor after, int limit) {
+        List<Message> messages = new ArrayList<>();
+        String bound = after == null ? ""
+                : " AND sent_at >= ? AND (sent_at > ? OR (sent_at = ? AND _id > ?))";
+        String sql = "SELECT * FROM message WHERE receiver = ? AND sender = ? AND `read` = 2" + bound
+                + " ORDER BY sent_at ASC, _id ASC LIMIT ?";
+
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            pstmt.setLong(index++, receiverId);
+            pstmt.setLong(index++, senderId);
+            if (after != null) {
+                Timestamp sentAt = Timestamp.valueOf(after.getSentAt());
+                pstmt.setTimestamp(index++, sentAt);
+                pstmt.setTimestamp(index++, sentAt);
+                pstmt.setTimestamp(index++, sentAt);
+                pstmt.setLong(index++, after.getId());
+            }
+            pstmt.setInt(index, limit);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(createMessageFromResultSet(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("获取特定发送者的离线消息失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return messages;
+    }
+
     /**
      * 处理离线消息（获取并标记为已读）
      * @param receiverId 接收者ID
@@ -179,43 +270,96 @@ public class MessageDAO {
     }
 
     /**
-     * 获取两个用户之间的消息历史
+     * 获取两个用户之间最近的消息
      * @param userId1 用户1 ID
      * @param userId2 用户2 ID
      * @param limit 限制数量
-     * @return 消息历史列表
+     * @return 消息历史列表，从新到旧
      */
     public List<Message> getMessageHistory(Long userId1, Long userId2, int limit) {
+        List<Message> messages = getMessagesBefore(userId1, userId2, null, limit);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * 按游标向前（更早）翻页获取两个用户之间的消息
+     * 以 (sent_at, _id) 为键排序: 同一毫秒内按自增的_id排序，因此顺序是确定的；
+     * 两个方向的会话各用一次 (sender, receiver, sent_at, _id) 索引上的范围扫描，再合并取前limit条，
+     * 翻页的代价与已翻过的页数无关
+     * @param userId1 用户1 ID
+     * @param userId2 用户2 ID
+     * @param before 只返回此游标之前的消息，null表示最新一页
+     * @param limit 限制数量
+     * @return 消息列表，从旧到新；少于limit条表示没有更早的消息
+     */
+    public List<Message> getMessagesBefore(Long userId1, Long userId2, Cursor before, int limit) {
+        List<Message> messages = queryConversation(userId1, userId2, before, false, limit);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * 按游标向后（更新）翻页获取两个用户之间的消息
+     * @param userId1 用户1 ID
+     * @param userId2 用户2 ID
+     * @param after 只返回此游标之后的消息，null表示从最早的消息开始
+     * @param limit 限制数量
+     * @return 消息列表，从旧到新；少于limit条表示已到最新
+     */
+    public List<Message> getMessagesAfter(Long userId1, Long userId2, Cursor after, int limit) {
+        return queryConversation(userId1, userId2, after, true, limit);
+    }
+
+    private List<Message> queryConversation(Long userId1, Long userId2, Cursor cursor, boolean ascending, int limit) {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT * FROM message WHERE " +
-                    "(sender = ? AND receiver = ?) OR (sender = ? AND receiver = ?) " +
-                    "ORDER BY ddate DESC LIMIT ?";
-        
+        String order = ascending ? " ORDER BY sent_at ASC, _id ASC" : " ORDER BY sent_at DESC, _id DESC";
+        String bound = "";
+        if (cursor != null) {
+            String op = ascending ? ">" : "<";
+            // 多余的 sent_at <= ?（或 >= ?）让优化器可以直接按索引范围定位，而不只是逐行过滤OR条件
+            bound = " AND sent_at " + op + "= ? AND (sent_at " + op + " ? OR (sent_at = ? AND _id " + op + " ?))";
+        }
+        String branch = "SELECT * FROM message WHERE sender = ? AND receiver = ?" + bound + order + " LIMIT ?";
+        boolean self = userId1.equals(userId2);
+        String sql = self ? branch : "(" + branch + ") UNION ALL (" + branch + ")" + order + " LIMIT ?";
+
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setLong(1, userId1);
-            pstmt.setLong(2, userId2);
-            pstmt.setLong(3, userId2);
-            pstmt.setLong(4, userId1);
-            pstmt.setInt(5, limit);
-            
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Message message = createMessageFromResultSet(rs);
-                messages.add(message);
+
+            int index = 1;
+            for (int i = 0; i < (self ? 1 : 2); i++) {
+                pstmt.setLong(index++, i == 0 ? userId1 : userId2);
+                pstmt.setLong(index++, i == 0 ? userId2 : userId1);
+                if (cursor != null) {
+                    Timestamp sentAt = Timestamp.valueOf(cursor.getSentAt());
+                    pstmt.setTimestamp(index++, sentAt);
+                    pstmt.setTimestamp(index++, sentAt);
+                    pstmt.setTimestamp(index++, sentAt);
+                    pstmt.setLong(index++, cursor.getId());
+                }
+                pstmt.setInt(index++, limit);
+            }
+            if (!self) {
+                pstmt.setInt(index, limit);
+            }
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(createMessageFromResultSet(rs));
+                }
             }
         } catch (SQLException e) {
             System.err.println("获取消息历史失败: " + e.getMessage());
             e.printStackTrace();
         }
-        
+
         return messages;
     }
 
     /**
-     * 标记消息为已送达
+     * 标记消息为已送达，客户端确认收到离线消息后调用
+     * 已送达的消息同时标记为已读，不再作为离线消息发送
      * @param messageIds 消息ID列表
      * @return 是否成功
      */
@@ -224,7 +368,7 @@ public class MessageDAO {
             return true;
         }
         
-        StringBuilder sql = new StringBuilder("UPDATE message SET reserved = 'delivered' WHERE _id IN (");
+        StringBuilder sql = new StringBuilder("UPDATE message SET `read` = 1, reserved = '" + DELIVERED + "' WHERE _id IN (");
         for (int i = 0; i < messageIds.size(); i++) {
             sql.append("?");
             if (i < messageIds.size() - 1) {
@@ -261,19 +405,59 @@ public class MessageDAO {
         message.setReceiverId(rs.getLong("receiver"));
         message.setContent(rs.getString("message"));
         
-        // 将Date转换为LocalDateTime
-        java.sql.Date date = rs.getDate("ddate");
-        if (date != null) {
-            message.setSentAt(date.toLocalDate().atStartOfDay());
+        // 毫秒精度的发送时间；迁移前的旧数据只有日期
+        Timestamp sentAt = rs.getTimestamp("sent_at");
+        if (sentAt != null) {
+            message.setSentAt(sentAt.toLocalDateTime());
+        } else {
+            java.sql.Date date = rs.getDate("ddate");
+            if (date != null) {
+                message.setSentAt(date.toLocalDate().atStartOfDay());
+            }
         }
         
         // 根据read字段设置已读状态
         int readStatus = rs.getInt("read");
         message.setRead(readStatus == 1);
         
-        // 由于新表没有is_delivered字段，默认设置为false
-        message.setDelivered(false);
+        // 客户端确认收到后reserved记为delivered
+        message.setDelivered(DELIVERED.equals(rs.getString("reserved")));
         
         return message;
     }
+
+    /**
+     * 消息历史的翻页游标: (sent_at, _id)
+     */
+    public static final class Cursor {
+        private final LocalDateTime sentAt;
+        private final long id;
+
+        public Cursor(LocalDateTime sentAt, long id) {
+            this.sentAt = sentAt;
+            this.id = id;
+        }
+
+        /**
+         * 以一条消息的位置作为游标
+         * @param message 由本类查询得到的消息
+         * @return 游标
+         */
+        public static Cursor of(Message message) {
+            return new Cursor(message.getSentAt(), message.getId());
+        }
+
+        public LocalDateTime getSentAt() {
+            return sentAt;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Cursor{" + sentAt + ", " + id + '}';
+        }
+    }
 }
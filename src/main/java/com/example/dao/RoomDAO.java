@@ -0,0 +1,115 @@
+package com.example.dao;
+
+import com.example.util.DBUtil;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * 房间成员数据访问对象
+ * 房间只有编号，用户加入后一直是成员，直到离开房间；在线的成员由 RoomRegistry 维护
+ */
+public class RoomDAO {
+
+    /**
+     * 加入房间，已经是成员时不做修改
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @return 是否成功（已经是成员也返回true）
+     */
+    public boolean addMember(long roomId, long userId) {
+        String sql = "INSERT INTO room_member (room_id, user_id, joined_at) VALUES (?, ?, ?)";
+
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, roomId);
+            pstmt.setLong(2, userId);
+            pstmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS)));
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLIntegrityConstraintViolationException e) {
+            // 主键冲突: 已经是成员
+            return true;
+        } catch (SQLException e) {
+            System.err.println("加入房间失败: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 离开房间
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @return 是否删除了成员记录
+     */
+    public boolean removeMember(long roomId, long userId) {
+        String sql = "DELETE FROM room_member WHERE room_id = ? AND user_id = ?";
+
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, roomId);
+            pstmt.setLong(2, userId);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("离开房间失败: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 获取用户加入的房间，登录时据此恢复房间
+     * @param userId 用户ID
+     * @return 房间ID列表，按房间ID排序
+     */
+    public List<Long> getRoomsOfUser(long userId) {
+        List<Long> rooms = new ArrayList<>();
+        String sql = "SELECT room_id FROM room_member WHERE user_id = ? ORDER BY room_id";
+
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, userId);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                rooms.add(rs.getLong("room_id"));
+            }
+        } catch (SQLException e) {
+            System.err.println("获取用户的房间失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return rooms;
+    }
+
+    /**
+     * 获取房间的所有成员（包括不在线的）
+     * @param roomId 房间ID
+     * @return 用户ID列表，按用户ID排序
+     */
+    public List<Long> getMembers(long roomId) {
+        List<Long> members = new ArrayList<>();
+        String sql = "SELECT user_id FROM room_member WHERE room_id = ? ORDER BY user_id";
+
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setLong(1, roomId);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                members.add(rs.getLong("user_id"));
+            }
+        } catch (SQLException e) {
+            System.err.println("获取房间成员失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return members;
+    }
+}
@@ -41,6 +41,19 @@ public class UserDAO {
     }
     // 在 UserDAO 类中添加
     public User getUserByName(String name) {
+        try {
+            return queryUserByName(name);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 按用户名查询用户，查询失败时抛出异常而不是返回null，
+     * 供缓存区分"用户不存在"和"数据库出错"
+     */
+    protected User queryUserByName(String name) throws SQLException {
         String sql = "SELECT * FROM user WHERE name = ?";
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -55,8 +68,6 @@ public class UserDAO {
                 user.setPassword(rs.getString("password"));
                 return user;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return null;
     }
@@ -82,6 +93,18 @@ public class UserDAO {
      * @return 所有用户列表
      */
     public List<User> getAllUsers() {
+        try {
+            return queryAllUsers();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * 查询所有用户，查询失败时抛出异常
+     */
+    protected List<User> queryAllUsers() throws SQLException {
         List<User> users = new ArrayList<>();
         String sql = "SELECT _id, name FROM user";
         
@@ -96,8 +119,6 @@ public class UserDAO {
                 user.setOnline(false); // 默认离线状态
                 users.add(user);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         
         return users;
@@ -109,6 +130,18 @@ public class UserDAO {
      * @return 用户名，如果未找到则返回null
      */
     public String getUserNameById(Long userId) {
+        try {
+            return queryUserNameById(userId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 按ID查询用户名，查询失败时抛出异常
+     */
+    protected String queryUserNameById(Long userId) throws SQLException {
         String sql = "SELECT name FROM user WHERE _id = ?";
         try (Connection conn = DBUtil.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -119,8 +152,6 @@ public class UserDAO {
             if (rs.next()) {
                 return rs.getString("name");
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return null;
     }
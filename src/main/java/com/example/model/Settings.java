@@ -6,22 +6,23 @@ import java.io.IOException;
 import java.util.Properties;
 
 public class Settings {
-    private static Settings instance;
     private String serverHost = "localhost";
     private int serverPort = 8888;
     private boolean startServerMode = false;
-    private Properties properties = new Properties();
+    private final Properties properties = new Properties();
     private static final String CONFIG_FILE_PATH = "src/main/resources/config.properties";
 
     private Settings() {
         loadProperties();
     }
 
-    public static synchronized Settings getInstance() {
-        if (instance == null) {
-            instance = new Settings();
-        }
-        return instance;
+    // 延迟加载的单例，避免synchronized在虚拟线程上固定载体线程
+    private static class Holder {
+        private static final Settings INSTANCE = new Settings();
+    }
+
+    public static Settings getInstance() {
+        return Holder.INSTANCE;
     }
 
     private void loadProperties() {
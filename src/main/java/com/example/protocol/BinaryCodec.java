@@ -0,0 +1,556 @@
+package com.example.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 二进制协议的编解码
+ *
+ * 帧格式: [帧体长度 varint][帧类型 1字节][字段...]
+ * 整数字段使用无符号varint（LEB128），字符串为 [字节数+1 varint][UTF-8字节]，0表示null。
+ * 各帧类型的字段顺序:
+ *   CHAT          id, name, text
+ *   PM            id, text
+ *   GET_USERS     无
+ *   GET_OFFLINE_MSG id
+ *   OFFLINE_ACK   id, count
+ *   PM_SEND       id, count, text
+ *   MSG_ACK       id, count
+ *   PRESENCE_SYNC id, count
+ *   ROOM_JOIN / ROOM_LEAVE  id
+ *   ROOM_MSG      id, count, name, text（客户端发送时count为0、name为null）
+ *   USER_LIST     数量, (id, name)*
+ *   USER_JOINED / USER_LEFT  id, name
+ *   OFFLINE_STAT  id, count
+ *   OFFLINE_MSG   id, text
+ *   OFFLINE_END   id, count
+ *   PM_SEQ        id, count, text
+ *   PM_SENT       id, count
+ *   PRESENCE_JOINED / PRESENCE_LEFT  id, count, name
+ *   PRESENCE_SNAPSHOT id, count, 数量, (与上一个id的差值, name)*
+ *                 id按升序排列时差值只占1-2个字节；差值按64位补码累加，乱序时仍能正确解码
+ *   PRESENCE_BATCH count, 数量, (|id|*2 + 是否上线, name)*
+ *   ROOM_MEMBERS  id, 数量, (id, name)*
+ *   ROOM_JOINED / ROOM_LEFT  id, count, name
+ *   NODE_HELLO    id, text
+ *   NODE_PRESENCE id, count, 数量, (|id|*2 + 是否上线, name)*
+ *   NODE_PM       id, count, text
+ *   NODE_CHAT     id, name, text
+ *   NODE_ROOM_MSG id, count, name, text
+ *   NODE_PM_ACK   id
+ *   HELLO_OK      text
+ */
+public final class BinaryCodec {
+    /** 协议版本，在握手中以 "BIN/版本" 协商 */
+    public static final int VERSION = 1;
+    /** 单帧帧体的最大字节数 */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    // int类型varint最多5个字节
+    private static final int MAX_LENGTH_PREFIX = 5;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * 将帧编码为带长度前缀的字节
+     * @param frame 帧
+     * @return 可直接写出的缓冲区（position到limit为完整一帧）
+     */
+    public static ByteBuffer encode(Frame frame) {
+        Writer writer = new Writer(64);
+        writer.pos = MAX_LENGTH_PREFIX;
+        writer.writeByte(frame.getOpcode().getCode());
+        switch (frame.getOpcode()) {
+            case CHAT:
+            case NODE_CHAT:
+                writer.writeVarLong(frame.getId());
+                writer.writeString(frame.getName());
+                writer.writeString(frame.getText());
+                break;
+            case PM:
+            case OFFLINE_MSG:
+                writer.writeVarLong(frame.getId());
+                writer.writeString(frame.getText());
+                break;
+            case PM_SEND:
+            case PM_SEQ:
+            case NODE_PM:
+                writer.writeVarLong(frame.getId());
+                writer.writeVarLong(frame.getCount());
+                writer.writeString(frame.getText());
+                break;
+            case GET_USERS:
+                break;
+            case NODE_HELLO:
+                writer.writeVarLong(frame.getId());
+                writer.writeString(frame.getText());
+                break;
+            case GET_OFFLINE_MSG:
+            case NODE_PM_ACK:
+            case ROOM_JOIN:
+            case ROOM_LEAVE:
+                writer.writeVarLong(frame.getId());
+                break;
+            case ROOM_MSG:
+            case NODE_ROOM_MSG:
+                writer.writeVarLong(frame.getId());
+                writer.writeVarLong(frame.getCount());
+                writer.writeString(frame.getName());
+                writer.writeString(frame.getText());
+                break;
+            case ROOM_MEMBERS: {
+                writer.writeVarLong(frame.getId());
+                long[] memberIds = frame.getUserIds();
+                String[] memberNames = frame.getUserNames();
+                writer.writeVarLong(memberIds.length);
+                for (int i = 0; i < memberIds.length; i++) {
+                    writer.writeVarLong(memberIds[i]);
+                    writer.writeString(memberNames[i]);
+                }
+                break;
+            }
+            case USER_LIST:
+                long[] userIds = frame.getUserIds();
+                String[] userNames = frame.getUserNames();
+                writer.writeVarLong(userIds.length);
+                for (int i = 0; i < userIds.length; i++) {
+                    writer.writeVarLong(userIds[i]);
+                    writer.writeString(userNames[i]);
+                }
+                break;
+            case PRESENCE_SNAPSHOT: {
+                writer.writeVarLong(frame.getId());
+                writer.writeVarLong(frame.getCount());
+                long[] snapshotIds = frame.getUserIds();
+                String[] snapshotNames = frame.getUserNames();
+                writer.writeVarLong(snapshotIds.length);
+                long previous = 0;
+                for (int i = 0; i < snapshotIds.length; i++) {
+                    writer.writeVarLong(snapshotIds[i] - previous);
+                    writer.writeString(snapshotNames[i]);
+                    previous = snapshotIds[i];
+                }
+                break;
+            }
+            case PRESENCE_BATCH:
+            case NODE_PRESENCE: {
+                if (frame.getOpcode() == Opcode.NODE_PRESENCE) {
+                    writer.writeVarLong(frame.getId());
+                }
+                writer.writeVarLong(frame.getCount());
+                long[] changedIds = frame.getUserIds();
+                String[] changedNames = frame.getUserNames();
+                writer.writeVarLong(changedIds.length);
+                for (int i = 0; i < changedIds.length; i++) {
+                    long id = changedIds[i];
+                    writer.writeVarLong(id >= 0 ? id << 1 | 1 : -id << 1);
+                    writer.writeString(changedNames[i]);
+                }
+                break;
+            }
+            case USER_JOINED:
+            case USER_LEFT:
+                writer.writeVarLong(frame.getId());
+                writer.writeString(frame.getName());
+                break;
+            case OFFLINE_STAT:
+            case OFFLINE_ACK:
+            case OFFLINE_END:
+            case MSG_ACK:
+            case PM_SENT:
+            case PRESENCE_SYNC:
+                writer.writeVarLong(frame.getId());
+                writer.writeVarLong(frame.getCount());
+                break;
+            case PRESENCE_JOINED:
+            case PRESENCE_LEFT:
+            case ROOM_JOINED:
+            case ROOM_LEFT:
+                writer.writeVarLong(frame.getId());
+                writer.writeVarLong(frame.getCount());
+                writer.writeString(frame.getName());
+                break;
+            case HELLO_OK:
+                writer.writeString(frame.getText());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported opcode: " + frame.getOpcode());
+        }
+
+        int bodyLength = writer.pos - MAX_LENGTH_PREFIX;
+        if (bodyLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frame too large: " + bodyLength);
+        }
+        // 长度前缀紧贴在帧体之前写入
+        int start = MAX_LENGTH_PREFIX - varIntSize(bodyLength);
+        int end = writer.pos;
+        writer.pos = start;
+        writer.writeVarLong(bodyLength);
+        return ByteBuffer.wrap(writer.buf, start, end - start);
+    }
+
+    /**
+     * 将帧写入输出流（不flush）
+     * @param frame 帧
+     * @param out 输出流
+     * @throws IOException 写入失败
+     */
+    public static void write(Frame frame, OutputStream out) throws IOException {
+        ByteBuffer encoded = encode(frame);
+        out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+    }
+
+    /**
+     * 从缓冲区解码一帧
+     * 数据不足一帧时不移动position并返回null，用于NIO增量读取
+     * @param buffer 读模式的缓冲区
+     * @return 帧，数据不足时返回null
+     * @throws ProtocolException 帧格式错误
+     */
+    public static Frame decode(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return null;
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift >= 7 * MAX_LENGTH_PREFIX) {
+                throw new ProtocolException("Malformed frame length");
+            }
+        }
+        checkLength(length);
+        if (buffer.remaining() < length) {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer body = buffer.slice();
+        body.limit(length);
+        buffer.position(buffer.position() + length);
+        return decodeBody(body);
+    }
+
+    /**
+     * 从阻塞输入流读取一帧
+     * @param in 输入流
+     * @return 帧，在帧边界处遇到流结束时返回null
+     * @throws IOException 读取失败或帧格式错误
+     */
+    public static Frame read(InputStream in) throws IOException {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Stream ended inside frame length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+            if (shift >= 7 * MAX_LENGTH_PREFIX) {
+                throw new ProtocolException("Malformed frame length");
+            }
+        }
+        checkLength(length);
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) {
+            throw new EOFException("Stream ended inside frame body");
+        }
+        return decodeBody(ByteBuffer.wrap(body));
+    }
+
+    private static void checkLength(int length) throws ProtocolException {
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+    }
+
+    private static Frame decodeBody(ByteBuffer body) throws ProtocolException {
+        try {
+            int code = body.get() & 0xFF;
+            Opcode opcode = Opcode.fromCode(code);
+            if (opcode == null) {
+                throw new ProtocolException("Unknown opcode: " + code);
+            }
+            Frame frame;
+            switch (opcode) {
+                case CHAT: {
+                    long id = readVarLong(body);
+                    String name = readString(body);
+                    String text = readString(body);
+                    frame = name == null && id == 0 ? Frame.chat(text) : Frame.chat(id, name, text);
+                    break;
+                }
+                case PM:
+                    frame = Frame.privateMessage(readVarLong(body), readString(body));
+                    break;
+                case GET_USERS:
+                    frame = Frame.getUsers();
+                    break;
+                case GET_OFFLINE_MSG:
+                    frame = Frame.getOfflineMessages(readVarLong(body));
+                    break;
+                case USER_LIST: {
+                    long count = readVarLong(body);
+                    // 每个用户至少占2个字节，防止恶意的数量字段导致分配过大的数组
+                    if (count < 0 || count > body.remaining() / 2) {
+                        throw new ProtocolException("Invalid user count: " + count);
+                    }
+                    long[] userIds = new long[(int) count];
+                    String[] userNames = new String[(int) count];
+                    for (int i = 0; i < count; i++) {
+                        userIds[i] = readVarLong(body);
+                        userNames[i] = readString(body);
+                    }
+                    frame = Frame.userList(userIds, userNames);
+                    break;
+                }
+                case PRESENCE_SNAPSHOT: {
+                    long epoch = readVarLong(body);
+                    long version = readVarLong(body);
+                    long count = readVarLong(body);
+                    if (count < 0 || count > body.remaining() / 2) {
+                        throw new ProtocolException("Invalid user count: " + count);
+                    }
+                    long[] userIds = new long[(int) count];
+                    String[] userNames = new String[(int) count];
+                    long previous = 0;
+                    for (int i = 0; i < count; i++) {
+                        previous += readVarLong(body);
+                        userIds[i] = previous;
+                        userNames[i] = readString(body);
+                    }
+                    frame = Frame.presenceSnapshot(epoch, version, userIds, userNames);
+                    break;
+                }
+                case PRESENCE_BATCH:
+                case NODE_PRESENCE: {
+                    long nodeId = opcode == Opcode.NODE_PRESENCE ? readVarLong(body) : 0;
+                    long firstVersion = readVarLong(body);
+                    long count = readVarLong(body);
+                    if (count < 0 || count > body.remaining() / 2) {
+                        throw new ProtocolException("Invalid user count: " + count);
+                    }
+                    long[] userIds = new long[(int) count];
+                    String[] userNames = new String[(int) count];
+                    for (int i = 0; i < count; i++) {
+                        long value = readVarLong(body);
+                        userIds[i] = (value & 1) != 0 ? value >>> 1 : -(value >>> 1);
+                        userNames[i] = readString(body);
+                    }
+                    frame = opcode == Opcode.NODE_PRESENCE
+                            ? Frame.nodePresence(nodeId, firstVersion != 0, userIds, userNames)
+                            : Frame.presenceBatch(firstVersion, userIds, userNames);
+                    break;
+                }
+                case NODE_HELLO:
+                    frame = Frame.nodeHello(readVarLong(body), readString(body));
+                    break;
+                case ROOM_JOIN:
+                    frame = Frame.joinRoom(readVarLong(body));
+                    break;
+                case ROOM_LEAVE:
+                    frame = Frame.leaveRoom(readVarLong(body));
+                    break;
+                case ROOM_MSG:
+                case NODE_ROOM_MSG: {
+                    long roomId = readVarLong(body);
+                    long senderId = readVarLong(body);
+                    String name = readString(body);
+                    String text = readString(body);
+                    if (opcode == Opcode.NODE_ROOM_MSG) {
+                        frame = Frame.nodeRoomMessage(roomId, senderId, name, text);
+                    } else {
+                        frame = senderId == 0 && name == null
+                                ? Frame.roomMessage(roomId, text) : Frame.roomMessage(roomId, senderId, name, text);
+                    }
+                    break;
+                }
+                case ROOM_MEMBERS: {
+                    long roomId = readVarLong(body);
+                    long count = readVarLong(body);
+                    if (count < 0 || count > body.remaining() / 2) {
+                        throw new ProtocolException("Invalid user count: " + count);
+                    }
+                    long[] userIds = new long[(int) count];
+                    String[] userNames = new String[(int) count];
+                    for (int i = 0; i < count; i++) {
+                        userIds[i] = readVarLong(body);
+                        userNames[i] = readString(body);
+                    }
+                    frame = Frame.roomMembers(roomId, userIds, userNames);
+                    break;
+                }
+                case ROOM_JOINED:
+                    frame = Frame.roomJoined(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case ROOM_LEFT:
+                    frame = Frame.roomLeft(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case NODE_PM:
+                    frame = Frame.nodeMessage(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case NODE_PM_ACK:
+                    frame = Frame.nodeMessageAck(readVarLong(body));
+                    break;
+                case NODE_CHAT:
+                    frame = Frame.nodeChat(readVarLong(body), readString(body), readString(body));
+                    break;
+                case USER_JOINED:
+                    frame = Frame.userJoined(readVarLong(body), readString(body));
+                    break;
+                case USER_LEFT:
+                    frame = Frame.userLeft(readVarLong(body), readString(body));
+                    break;
+                case OFFLINE_STAT:
+                    frame = Frame.offlineStat(readVarLong(body), readVarLong(body));
+                    break;
+                case OFFLINE_MSG:
+                    frame = Frame.offlineMessage(readVarLong(body), readString(body));
+                    break;
+                case OFFLINE_ACK:
+                    frame = Frame.offlineAck(readVarLong(body), readVarLong(body));
+                    break;
+                case OFFLINE_END:
+                    frame = Frame.offlineEnd(readVarLong(body), readVarLong(body));
+                    break;
+                case PM_SEND:
+                    frame = Frame.sendPrivateMessage(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case MSG_ACK:
+                    frame = Frame.messageAck(readVarLong(body), readVarLong(body));
+                    break;
+                case PRESENCE_SYNC:
+                    frame = Frame.presenceSync(readVarLong(body), readVarLong(body));
+                    break;
+                case PM_SEQ:
+                    frame = Frame.sequencedMessage(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case PM_SENT:
+                    frame = Frame.messageSent(readVarLong(body), readVarLong(body));
+                    break;
+                case PRESENCE_JOINED:
+                    frame = Frame.presenceJoined(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case PRESENCE_LEFT:
+                    frame = Frame.presenceLeft(readVarLong(body), readVarLong(body), readString(body));
+                    break;
+                case HELLO_OK:
+                    frame = Frame.helloOk(readString(body));
+                    break;
+                default:
+                    throw new ProtocolException("Unsupported opcode: " + opcode);
+            }
+            if (body.hasRemaining()) {
+                throw new ProtocolException("Trailing bytes in " + opcode + " frame");
+            }
+            return frame;
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated frame");
+        }
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws ProtocolException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer buffer) throws ProtocolException {
+        long length = readVarLong(buffer);
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        if (length > buffer.remaining()) {
+            throw new ProtocolException("String length exceeds frame: " + length);
+        }
+        if (!buffer.hasArray()) {
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                (int) length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + (int) length);
+        return value;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 可扩容的字节写入器
+     */
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 编码结果可共享的帧
+ * 每种线路协议最多编码一次，之后每个接收者拿到的都是同一份字节的只读副本（独立的position），
+ * 广播给N个用户时只需编码一次而不是N次
+ */
+public final class EncodedFrame {
+    private static final Charset TEXT_CHARSET = Charset.defaultCharset();
+
+    private final Frame frame;
+    private final boolean direct;
+    // 延迟编码；并发首次访问时可能重复编码，结果相同，不影响正确性
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+
+    private EncodedFrame(Frame frame, boolean direct) {
+        this.frame = frame;
+        this.direct = direct;
+    }
+
+    /**
+     * 只发给一个接收者的帧，编码到堆内存
+     * @param frame 帧
+     * @return 编码帧
+     */
+    public static EncodedFrame of(Frame frame) {
+        return new EncodedFrame(frame, false);
+    }
+
+    /**
+     * 广播给多个接收者的帧，编码到直接内存，NIO写出时无需再复制到临时直接缓冲区
+     * @param frame 帧
+     * @return 编码帧
+     */
+    public static EncodedFrame shared(Frame frame) {
+        return new EncodedFrame(frame, true);
+    }
+
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * 获取按指定协议编码的字节
+     * 握手应答总是文本行
+     * @param protocol 线路协议
+     * @return 只读副本，position为0，可直接写出
+     */
+    public ByteBuffer bytes(WireProtocol protocol) {
+        if (protocol == WireProtocol.BINARY && frame.getOpcode() != Opcode.HELLO_OK) {
+            ByteBuffer encoded = binary;
+            if (encoded == null) {
+                encoded = seal(BinaryCodec.encode(frame));
+                binary = encoded;
+            }
+            return encoded.duplicate();
+        }
+        ByteBuffer encoded = text;
+        if (encoded == null) {
+            encoded = seal(ByteBuffer.wrap((TextCodec.encode(frame) + "\n").getBytes(TEXT_CHARSET)));
+            text = encoded;
+        }
+        return encoded.duplicate();
+    }
+
+    private ByteBuffer seal(ByteBuffer encoded) {
+        if (direct) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(encoded.remaining());
+            copy.put(encoded);
+            copy.flip();
+            return copy.asReadOnlyBuffer();
+        }
+        return encoded.slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.protocol;
+
+import java.util.Arrays;
+
+/**
+ * 协议帧
+ * 文本协议和二进制协议解码后都得到该对象，各字段的含义由帧类型决定（见 {@link Opcode}）
+ */
+public final class Frame {
+    private static final long[] NO_IDS = new long[0];
+    private static final String[] NO_NAMES = new String[0];
+
+    private final Opcode opcode;
+    private final long id;
+    private final long count;
+    private final String name;
+    private final String text;
+    private final long[] userIds;
+    private final String[] userNames;
+
+    private Frame(Opcode opcode, long id, long count, String name, String text,
+                  long[] userIds, String[] userNames) {
+        this.opcode = opcode;
+        this.id = id;
+        this.count = count;
+        this.name = name;
+        this.text = text;
+        this.userIds = userIds;
+        this.userNames = userNames;
+    }
+
+    // 客户端 -> 服务器
+
+    public static Frame chat(String content) {
+        return new Frame(Opcode.CHAT, 0, 0, null, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame privateMessage(long peerId, String content) {
+        return new Frame(Opcode.PM, peerId, 0, null, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame getUsers() {
+        return new Frame(Opcode.GET_USERS, 0, 0, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame getOfflineMessages(long senderId) {
+        return new Frame(Opcode.GET_OFFLINE_MSG, senderId, 0, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame offlineAck(long senderId, long token) {
+        return new Frame(Opcode.OFFLINE_ACK, senderId, token, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame sendPrivateMessage(long receiverId, long clientMessageId, String content) {
+        return new Frame(Opcode.PM_SEND, receiverId, clientMessageId, null, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame messageAck(long senderId, long seq) {
+        return new Frame(Opcode.MSG_ACK, senderId, seq, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame presenceSync(long epoch, long version) {
+        return new Frame(Opcode.PRESENCE_SYNC, epoch, version, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame joinRoom(long roomId) {
+        return new Frame(Opcode.ROOM_JOIN, roomId, 0, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame leaveRoom(long roomId) {
+        return new Frame(Opcode.ROOM_LEAVE, roomId, 0, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame roomMessage(long roomId, String content) {
+        return new Frame(Opcode.ROOM_MSG, roomId, 0, null, content, NO_IDS, NO_NAMES);
+    }
+
+    // 服务器 -> 客户端
+
+    public static Frame chat(long senderId, String senderName, String content) {
+        return new Frame(Opcode.CHAT, senderId, 0, senderName, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame userList(long[] userIds, String[] userNames) {
+        return new Frame(Opcode.USER_LIST, 0, 0, null, null, userIds, userNames);
+    }
+
+    public static Frame userJoined(long userId, String userName) {
+        return new Frame(Opcode.USER_JOINED, userId, 0, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame userLeft(long userId, String userName) {
+        return new Frame(Opcode.USER_LEFT, userId, 0, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame offlineStat(long senderId, long count) {
+        return new Frame(Opcode.OFFLINE_STAT, senderId, count, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame offlineMessage(long senderId, String content) {
+        return new Frame(Opcode.OFFLINE_MSG, senderId, 0, null, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame offlineEnd(long senderId, long token) {
+        return new Frame(Opcode.OFFLINE_END, senderId, token, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame sequencedMessage(long senderId, long seq, String content) {
+        return new Frame(Opcode.PM_SEQ, senderId, seq, null, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame messageSent(long receiverId, long clientMessageId) {
+        return new Frame(Opcode.PM_SENT, receiverId, clientMessageId, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame presenceJoined(long userId, long version, String userName) {
+        return new Frame(Opcode.PRESENCE_JOINED, userId, version, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame presenceLeft(long userId, long version, String userName) {
+        return new Frame(Opcode.PRESENCE_LEFT, userId, version, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame presenceSnapshot(long epoch, long version, long[] userIds, String[] userNames) {
+        return new Frame(Opcode.PRESENCE_SNAPSHOT, epoch, version, null, null, userIds, userNames);
+    }
+
+    /**
+     * @param firstVersion 第一条变化的版本号，第i条为 firstVersion + i
+     * @param userIds 上线的用户ID，下线的用户以负数表示
+     * @param userNames 用户名
+     */
+    public static Frame presenceBatch(long firstVersion, long[] userIds, String[] userNames) {
+        return new Frame(Opcode.PRESENCE_BATCH, 0, firstVersion, null, null, userIds, userNames);
+    }
+
+    public static Frame roomMessage(long roomId, long senderId, String senderName, String content) {
+        return new Frame(Opcode.ROOM_MSG, roomId, senderId, senderName, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame roomMembers(long roomId, long[] userIds, String[] userNames) {
+        return new Frame(Opcode.ROOM_MEMBERS, roomId, 0, null, null, userIds, userNames);
+    }
+
+    public static Frame roomJoined(long roomId, long userId, String userName) {
+        return new Frame(Opcode.ROOM_JOINED, roomId, userId, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame roomLeft(long roomId, long userId, String userName) {
+        return new Frame(Opcode.ROOM_LEFT, roomId, userId, userName, null, NO_IDS, NO_NAMES);
+    }
+
+    // 集群节点 -> 集群节点
+
+    /**
+     * @param nodeId 本节点ID
+     * @param secret 集群共享密钥，接收方核对后才接受该连接
+     */
+    public static Frame nodeHello(long nodeId, String secret) {
+        return new Frame(Opcode.NODE_HELLO, nodeId, 0, null, secret, NO_IDS, NO_NAMES);
+    }
+
+    /**
+     * @param nodeId 用户所在的节点ID
+     * @param full 是否为该节点的完整用户列表，为true时接收方替换该节点原有的用户
+     * @param userIds 上线的用户ID，下线的用户以负数表示
+     * @param userNames 用户名
+     */
+    public static Frame nodePresence(long nodeId, boolean full, long[] userIds, String[] userNames) {
+        return new Frame(Opcode.NODE_PRESENCE, nodeId, full ? 1 : 0, null, null, userIds, userNames);
+    }
+
+    public static Frame nodeMessage(long receiverId, long senderId, String content) {
+        return new Frame(Opcode.NODE_PM, receiverId, senderId, null, content, NO_IDS, NO_NAMES);
+    }
+
+    /**
+     * @param count 本连接上已处理的 NODE_PM 总数，发送方据此移除已确认的转发
+     */
+    public static Frame nodeMessageAck(long count) {
+        return new Frame(Opcode.NODE_PM_ACK, count, 0, null, null, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame nodeChat(long senderId, String senderName, String content) {
+        return new Frame(Opcode.NODE_CHAT, senderId, 0, senderName, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame nodeRoomMessage(long roomId, long senderId, String senderName, String content) {
+        return new Frame(Opcode.NODE_ROOM_MSG, roomId, senderId, senderName, content, NO_IDS, NO_NAMES);
+    }
+
+    public static Frame helloOk(String protocol) {
+        return new Frame(Opcode.HELLO_OK, 0, 0, null, protocol, NO_IDS, NO_NAMES);
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * 用户ID / 对端ID / 发送者ID / 在线状态纪元 / 节点ID / 房间ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 离线消息数量 / 离线消息段的确认号 / 私聊消息的序号或客户端消息ID / 在线状态版本号 / 房间消息的发送者ID或房间成员ID
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 用户名 / 发送者名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 消息内容
+     */
+    public String getText() {
+        return text;
+    }
+
+    public long[] getUserIds() {
+        return userIds;
+    }
+
+    public String[] getUserNames() {
+        return userNames;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Frame frame = (Frame) o;
+        return opcode == frame.opcode && id == frame.id && count == frame.count &&
+                java.util.Objects.equals(name, frame.name) &&
+                java.util.Objects.equals(text, frame.text) &&
+                Arrays.equals(userIds, frame.userIds) &&
+                Arrays.equals(userNames, frame.userNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return java.util.Objects.hash(opcode, id, count, name, text);
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" +
+                "opcode=" + opcode +
+                ", id=" + id +
+                ", count=" + count +
+                ", name='" + name + '\'' +
+                ", text='" + text + '\'' +
+                ", users=" + userIds.length +
+                '}';
+    }
+}
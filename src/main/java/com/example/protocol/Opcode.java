@@ -0,0 +1,101 @@
+package com.example.protocol;
+
+/**
+ * 帧类型
+ * 每种类型对应文本协议中的一种前缀，二进制协议中以一个字节表示
+ */
+public enum Opcode {
+    /** 群聊消息 客户端->服务器: 内容; 服务器->客户端: 发送者ID、发送者名、内容 */
+    CHAT(0x01),
+    /** 私聊消息 客户端->服务器: 接收者ID、内容; 服务器->客户端: 发送者ID、内容 */
+    PM(0x02),
+    /** 请求在线用户列表 */
+    GET_USERS(0x03),
+    /** 请求来自某个发送者的离线消息 */
+    GET_OFFLINE_MSG(0x04),
+    /** 确认收到一段离线消息: 发送者ID、确认号 */
+    OFFLINE_ACK(0x05),
+    /** 带客户端消息ID的私聊消息: 接收者ID、客户端消息ID、内容 */
+    PM_SEND(0x06),
+    /** 确认收到某个会话的私聊消息: 发送者ID、已收到的最大序号 */
+    MSG_ACK(0x07),
+    /** 请求在线用户的增量: 客户端已知的在线状态纪元、版本号；无法补发增量时服务器发送快照 */
+    PRESENCE_SYNC(0x08),
+    /** 加入房间: 房间ID */
+    ROOM_JOIN(0x09),
+    /** 离开房间: 房间ID */
+    ROOM_LEAVE(0x0A),
+    /** 房间消息 客户端->服务器: 房间ID、内容; 服务器->客户端: 房间ID、发送者ID、发送者名、内容 */
+    ROOM_MSG(0x0B),
+    /** 在线用户列表 */
+    USER_LIST(0x10),
+    /** 用户上线 */
+    USER_JOINED(0x11),
+    /** 用户下线 */
+    USER_LEFT(0x12),
+    /** 离线消息统计: 发送者ID、数量 */
+    OFFLINE_STAT(0x13),
+    /** 离线消息: 发送者ID、内容 */
+    OFFLINE_MSG(0x14),
+    /** 一段离线消息结束，等待客户端确认: 发送者ID、确认号 */
+    OFFLINE_END(0x15),
+    /** 带服务器序号的私聊消息，等待客户端确认: 发送者ID、序号、内容 */
+    PM_SEQ(0x16),
+    /** 服务器已接收客户端的私聊消息: 接收者ID、客户端消息ID */
+    PM_SENT(0x17),
+    /** 带版本号的用户上线: 用户ID、在线状态版本号、用户名 */
+    PRESENCE_JOINED(0x18),
+    /** 带版本号的用户下线: 用户ID、在线状态版本号、用户名 */
+    PRESENCE_LEFT(0x19),
+    /** 带纪元和版本号的在线用户快照: 纪元、版本号、按ID排序的用户 */
+    PRESENCE_SNAPSHOT(0x1A),
+    /** 合并的在线状态变化: 第一条变化的版本号（之后依次加1）、用户ID（下线为负数）、用户名 */
+    PRESENCE_BATCH(0x1B),
+    /** 房间的在线成员，加入房间或登录恢复房间时发给该用户: 房间ID、成员 */
+    ROOM_MEMBERS(0x1C),
+    /** 房间成员上线或加入房间，只发给同一房间的成员: 房间ID、用户ID、用户名 */
+    ROOM_JOINED(0x1D),
+    /** 房间成员下线或离开房间，只发给同一房间的成员: 房间ID、用户ID、用户名 */
+    ROOM_LEFT(0x1E),
+    /** 节点间握手，只在集群节点之间使用，始终为二进制帧: 节点ID、集群共享密钥 */
+    NODE_HELLO(0x20),
+    /** 节点上的用户上线和下线: 节点ID、是否为完整列表（1表示替换该节点的所有用户）、用户ID（下线为负数）、用户名 */
+    NODE_PRESENCE(0x21),
+    /** 转发给另一个节点上的用户的私聊消息: 接收者ID、发送者ID、内容 */
+    NODE_PM(0x22),
+    /** 转发到其他节点的群聊消息: 发送者ID、发送者名、内容 */
+    NODE_CHAT(0x23),
+    /** 转发到其他节点的房间消息: 房间ID、发送者ID、发送者名、内容 */
+    NODE_ROOM_MSG(0x24),
+    /** 确认收到转发的私聊消息: 本连接上已处理的 NODE_PM 总数 */
+    NODE_PM_ACK(0x25),
+    /** 握手应答，始终以文本行发送 */
+    HELLO_OK(0x7F);
+
+    private static final Opcode[] BY_CODE = new Opcode[128];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final int code;
+
+    Opcode(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * 根据字节值查找帧类型
+     * @param code 字节值
+     * @return 帧类型，未知时返回null
+     */
+    public static Opcode fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
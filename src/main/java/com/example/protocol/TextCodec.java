@@ -0,0 +1,327 @@
+package com.example.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+
+/**
+ * 文本行协议的编解码
+ * 格式与原有协议保持一致，如 "PM:接收者ID:内容"、"USER_LIST:1:张三,2:李四"
+ */
+public final class TextCodec {
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private TextCodec() {
+    }
+
+    /**
+     * 将帧编码为一行文本（不含换行符）
+     * 内容中的换行符会被替换为空格，避免破坏按行分隔
+     * @param frame 帧
+     * @return 文本行
+     */
+    public static String encode(Frame frame) {
+        switch (frame.getOpcode()) {
+            case CHAT:
+                if (frame.getName() == null) {
+                    return singleLine(frame.getText());
+                }
+                return singleLine(frame.getName()) + ": " + singleLine(frame.getText());
+            case PM:
+                return "PM:" + frame.getId() + ":" + singleLine(frame.getText());
+            case GET_USERS:
+                return "GET_USERS";
+            case GET_OFFLINE_MSG:
+                return "GET_OFFLINE_MSG:" + frame.getId();
+            case OFFLINE_ACK:
+                return "OFFLINE_ACK:" + frame.getId() + ":" + frame.getCount();
+            case PM_SEND:
+                return "PM_SEND:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getText());
+            case MSG_ACK:
+                return "MSG_ACK:" + frame.getId() + ":" + frame.getCount();
+            case PRESENCE_SYNC:
+                return "PRESENCE_SYNC:" + frame.getId() + ":" + frame.getCount();
+            case ROOM_JOIN:
+                return "ROOM_JOIN:" + frame.getId();
+            case ROOM_LEAVE:
+                return "ROOM_LEAVE:" + frame.getId();
+            case ROOM_MSG:
+                if (frame.getName() == null) {
+                    return "ROOM_MSG:" + frame.getId() + ":" + singleLine(frame.getText());
+                }
+                return "ROOM_MSG:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getName())
+                        + ":" + singleLine(frame.getText());
+            case ROOM_MEMBERS:
+                return appendUsers(new StringBuilder("ROOM_MEMBERS:").append(frame.getId()).append(":"), frame)
+                        .toString();
+            case ROOM_JOINED:
+                return "ROOM_JOINED:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getName());
+            case ROOM_LEFT:
+                return "ROOM_LEFT:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getName());
+            case USER_LIST:
+                return appendUsers(new StringBuilder("USER_LIST:"), frame).toString();
+            case PRESENCE_SNAPSHOT:
+                return appendUsers(new StringBuilder("PRESENCE_SNAPSHOT:").append(frame.getId()).append(":")
+                        .append(frame.getCount()).append(":"), frame).toString();
+            case PRESENCE_BATCH:
+                return appendUsers(new StringBuilder("PRESENCE_BATCH:").append(frame.getCount()).append(":"), frame)
+                        .toString();
+            case USER_JOINED:
+                return "USER_JOINED:" + frame.getId() + ":" + singleLine(frame.getName());
+            case USER_LEFT:
+                return "USER_LEFT:" + frame.getId() + ":" + singleLine(frame.getName());
+            case OFFLINE_STAT:
+                return "OFFLINE_STAT:" + frame.getId() + ":" + frame.getCount();
+            case OFFLINE_MSG:
+                return "OFFLINE_MSG:" + frame.getId() + ":" + singleLine(frame.getText());
+            case OFFLINE_END:
+                return "OFFLINE_END:" + frame.getId() + ":" + frame.getCount();
+            case PM_SEQ:
+                return "PM_SEQ:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getText());
+            case PM_SENT:
+                return "PM_SENT:" + frame.getId() + ":" + frame.getCount();
+            case PRESENCE_JOINED:
+                return "PRESENCE_JOINED:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getName());
+            case PRESENCE_LEFT:
+                return "PRESENCE_LEFT:" + frame.getId() + ":" + frame.getCount() + ":" + singleLine(frame.getName());
+            case HELLO_OK:
+                return WireProtocol.HELLO_OK_PREFIX + frame.getText();
+            default:
+                throw new IllegalArgumentException("Unsupported opcode: " + frame.getOpcode());
+        }
+    }
+
+    // 用户列表格式: 1:张三,2:李四
+    private static StringBuilder appendUsers(StringBuilder line, Frame frame) {
+        long[] userIds = frame.getUserIds();
+        String[] userNames = frame.getUserNames();
+        for (int i = 0; i < userIds.length; i++) {
+            if (i > 0) {
+                line.append(",");
+            }
+            line.append(userIds[i]).append(":").append(singleLine(userNames[i]));
+        }
+        return line;
+    }
+
+    /**
+     * 解析客户端发给服务器的一行文本
+     * @param line 文本行
+     * @return 帧，格式错误时返回null
+     */
+    public static Frame decodeClientLine(String line) {
+        try {
+            if (line.equals("GET_USERS")) {
+                return Frame.getUsers();
+            } else if (line.startsWith("PM:")) {
+                // 私聊消息格式: PM:接收者ID:消息内容
+                String[] parts = line.substring(3).split(":", 2);
+                if (parts.length != 2) {
+                    return null;
+                }
+                return Frame.privateMessage(Long.parseLong(parts[0].trim()), parts[1]);
+            } else if (line.startsWith("GET_OFFLINE_MSG:")) {
+                // 兼容 "GET_OFFLINE_MSG::发送者ID" 的写法
+                String senderId = line.substring(16);
+                if (senderId.startsWith(":")) {
+                    senderId = senderId.substring(1);
+                }
+                return Frame.getOfflineMessages(Long.parseLong(senderId.trim()));
+            } else if (line.startsWith("OFFLINE_ACK:")) {
+                // 确认格式: OFFLINE_ACK:发送者ID:确认号
+                String[] parts = line.substring(12).split(":", 2);
+                if (parts.length != 2) {
+                    return null;
+                }
+                return Frame.offlineAck(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } else if (line.startsWith("PM_SEND:")) {
+                // 格式: PM_SEND:接收者ID:客户端消息ID:消息内容
+                String[] parts = line.substring(8).split(":", 3);
+                if (parts.length != 3) {
+                    return null;
+                }
+                return Frame.sendPrivateMessage(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()), parts[2]);
+            } else if (line.startsWith("MSG_ACK:")) {
+                // 确认格式: MSG_ACK:发送者ID:序号
+                String[] parts = line.substring(8).split(":", 2);
+                if (parts.length != 2) {
+                    return null;
+                }
+                return Frame.messageAck(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } else if (line.startsWith("PRESENCE_SYNC:")) {
+                // 格式: PRESENCE_SYNC:纪元:版本号
+                String[] parts = line.substring(14).split(":", 2);
+                if (parts.length != 2) {
+                    return null;
+                }
+                return Frame.presenceSync(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } else if (line.startsWith("ROOM_JOIN:")) {
+                return Frame.joinRoom(Long.parseLong(line.substring(10).trim()));
+            } else if (line.startsWith("ROOM_LEAVE:")) {
+                return Frame.leaveRoom(Long.parseLong(line.substring(11).trim()));
+            } else if (line.startsWith("ROOM_MSG:")) {
+                // 格式: ROOM_MSG:房间ID:消息内容
+                String[] parts = line.substring(9).split(":", 2);
+                if (parts.length != 2) {
+                    return null;
+                }
+                return Frame.roomMessage(Long.parseLong(parts[0].trim()), parts[1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("解析客户端消息失败: " + e.getMessage() + ", 原始消息: '" + line + "'");
+            return null;
+        }
+        return Frame.chat(line);
+    }
+
+    /**
+     * 解析服务器发给客户端的一行文本
+     * @param line 文本行
+     * @return 帧，格式错误时返回null
+     */
+    public static Frame decodeServerLine(String line) {
+        try {
+            if (line.startsWith("USER_LIST:")) {
+                return decodeUsers(Opcode.USER_LIST, 0, 0, line.substring(10));
+            } else if (line.startsWith("PRESENCE_SNAPSHOT:")) {
+                String[] parts = line.substring(18).split(":", 3);
+                return parts.length == 3 ? decodeUsers(Opcode.PRESENCE_SNAPSHOT,
+                        Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith("PRESENCE_BATCH:")) {
+                String[] parts = line.substring(15).split(":", 2);
+                return parts.length == 2
+                        ? decodeUsers(Opcode.PRESENCE_BATCH, 0, Long.parseLong(parts[0]), parts[1]) : null;
+            } else if (line.startsWith("USER_JOINED:")) {
+                String[] parts = line.substring(12).split(":", 2);
+                return parts.length == 2 ? Frame.userJoined(Long.parseLong(parts[0]), parts[1]) : null;
+            } else if (line.startsWith("USER_LEFT:")) {
+                String[] parts = line.substring(10).split(":", 2);
+                return parts.length == 2 ? Frame.userLeft(Long.parseLong(parts[0]), parts[1]) : null;
+            } else if (line.startsWith("PM:")) {
+                String[] parts = line.substring(3).split(":", 2);
+                return parts.length == 2 ? Frame.privateMessage(Long.parseLong(parts[0]), parts[1]) : null;
+            } else if (line.startsWith("OFFLINE_STAT:")) {
+                String[] parts = line.substring(13).split(":", 2);
+                return parts.length == 2 ? Frame.offlineStat(Long.parseLong(parts[0]), Long.parseLong(parts[1])) : null;
+            } else if (line.startsWith("OFFLINE_MSG:")) {
+                String[] parts = line.substring(12).split(":", 2);
+                return parts.length == 2 ? Frame.offlineMessage(Long.parseLong(parts[0]), parts[1]) : null;
+            } else if (line.startsWith("OFFLINE_END:")) {
+                String[] parts = line.substring(12).split(":", 2);
+                return parts.length == 2 ? Frame.offlineEnd(Long.parseLong(parts[0]), Long.parseLong(parts[1])) : null;
+            } else if (line.startsWith("PM_SEQ:")) {
+                String[] parts = line.substring(7).split(":", 3);
+                return parts.length == 3
+                        ? Frame.sequencedMessage(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith("PM_SENT:")) {
+                String[] parts = line.substring(8).split(":", 2);
+                return parts.length == 2 ? Frame.messageSent(Long.parseLong(parts[0]), Long.parseLong(parts[1])) : null;
+            } else if (line.startsWith("PRESENCE_JOINED:")) {
+                String[] parts = line.substring(16).split(":", 3);
+                return parts.length == 3
+                        ? Frame.presenceJoined(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith("PRESENCE_LEFT:")) {
+                String[] parts = line.substring(14).split(":", 3);
+                return parts.length == 3
+                        ? Frame.presenceLeft(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith("ROOM_MSG:")) {
+                // 发送者名在内容之前，不能包含冒号
+                String[] parts = line.substring(9).split(":", 4);
+                return parts.length == 4 ? Frame.roomMessage(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        parts[2], parts[3]) : null;
+            } else if (line.startsWith("ROOM_MEMBERS:")) {
+                String[] parts = line.substring(13).split(":", 2);
+                return parts.length == 2
+                        ? decodeUsers(Opcode.ROOM_MEMBERS, Long.parseLong(parts[0]), 0, parts[1]) : null;
+            } else if (line.startsWith("ROOM_JOINED:")) {
+                String[] parts = line.substring(12).split(":", 3);
+                return parts.length == 3
+                        ? Frame.roomJoined(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith("ROOM_LEFT:")) {
+                String[] parts = line.substring(10).split(":", 3);
+                return parts.length == 3
+                        ? Frame.roomLeft(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]) : null;
+            } else if (line.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+                return Frame.helloOk(line.substring(WireProtocol.HELLO_OK_PREFIX.length()));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("解析服务器消息失败: " + e.getMessage() + ", 原始消息: '" + line + "'");
+            return null;
+        }
+        // 普通群聊消息: 发送者名: 内容，文本协议中没有发送者ID
+        String[] parts = line.split(": ", 2);
+        if (parts.length == 2) {
+            return Frame.chat(0, parts[0], parts[1]);
+        }
+        return Frame.chat(0, null, line);
+    }
+
+    private static Frame decodeUsers(Opcode opcode, long epoch, long version, String body) {
+        String[] entries = body.isEmpty() ? new String[0] : body.split(",");
+        long[] userIds = new long[entries.length];
+        String[] userNames = new String[entries.length];
+        int count = 0;
+        for (String entry : entries) {
+            int colon = entry.indexOf(':');
+            if (colon > 0) {
+                userIds[count] = Long.parseLong(entry.substring(0, colon));
+                userNames[count] = entry.substring(colon + 1);
+                count++;
+            }
+        }
+        if (count < entries.length) {
+            userIds = java.util.Arrays.copyOf(userIds, count);
+            userNames = java.util.Arrays.copyOf(userNames, count);
+        }
+        switch (opcode) {
+            case PRESENCE_SNAPSHOT:
+                return Frame.presenceSnapshot(epoch, version, userIds, userNames);
+            case PRESENCE_BATCH:
+                return Frame.presenceBatch(version, userIds, userNames);
+            case ROOM_MEMBERS:
+                return Frame.roomMembers(epoch, userIds, userNames);
+            default:
+                return Frame.userList(userIds, userNames);
+        }
+    }
+
+    /**
+     * 从字节流中逐字节读取一行，不会多读换行符之后的数据
+     * 用于握手阶段，之后同一个流可能切换为二进制帧
+     * @param in 输入流
+     * @param charset 字符集
+     * @return 不含换行符的一行，流结束时返回null
+     * @throws IOException 读取失败或行过长
+     */
+    public static String readLine(InputStream in, Charset charset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, charset);
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long");
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static String singleLine(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return value.replace("\r\n", " ").replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.protocol;
+
+/**
+ * 连接使用的线路协议
+ *
+ * 握手: 旧客户端连接后直接发送用户ID行，使用文本协议；
+ * 新客户端发送 "HELLO:用户ID:BIN/1"，服务器以文本行 "HELLO_OK:协议" 应答后双方切换到选定的协议。
+ * 旧服务器无法解析HELLO行会直接断开，客户端据此回退为文本协议重新连接。
+ * 协议列表中还可以带有客户端支持的功能（如 OFFLINE_ACK），旧服务器会忽略无法识别的项。
+ * 需要双方都支持的功能（如 MSG_ACK）由服务器在应答中回显，"HELLO_OK:BIN/1,MSG_ACK"；
+ * 只有声明了该功能的客户端才会收到带功能列表的应答，旧客户端看到的应答不变。
+ * 功能项可以带值，如断线重连时的 "RESUME=令牌.在线状态版本号"。
+ */
+public enum WireProtocol {
+    /** 按行分隔的文本协议 */
+    TEXT("TEXT"),
+    /** 长度前缀的二进制协议，版本1 */
+    BINARY("BIN/" + BinaryCodec.VERSION);
+
+    public static final String HELLO_PREFIX = "HELLO:";
+    public static final String HELLO_OK_PREFIX = "HELLO_OK:";
+    /** 客户端支持按段确认离线消息（OFFLINE_END / OFFLINE_ACK） */
+    public static final String CAPABILITY_OFFLINE_ACK = "OFFLINE_ACK";
+    /** 私聊消息带客户端消息ID和服务器序号，按会话确认（PM_SEND / PM_SENT / PM_SEQ / MSG_ACK） */
+    public static final String CAPABILITY_MSG_ACK = "MSG_ACK";
+    /**
+     * 断线重连后恢复会话: 客户端声明 RESUME 或 RESUME=上次的令牌.已收到的在线状态版本号，
+     * 服务器应答 RESUME=新令牌.当前在线状态版本号，令牌有效时再加上 RESUMED
+     */
+    public static final String CAPABILITY_RESUME = "RESUME";
+    /** 服务器接受了客户端的恢复令牌，只补发错过的在线状态变化 */
+    public static final String RESUMED = "RESUMED";
+    /**
+     * 客户端支持带纪元的在线用户快照和增量（PRESENCE_SYNC / PRESENCE_SNAPSHOT）
+     * 服务器应答 PRESENCE=在线状态纪元
+     */
+    public static final String CAPABILITY_PRESENCE = "PRESENCE";
+    /** 客户端支持房间（ROOM_MEMBERS / ROOM_JOINED / ROOM_LEFT / ROOM_MSG），登录时重新加入上次加入的房间 */
+    public static final String CAPABILITY_ROOMS = "ROOMS";
+
+    private final String token;
+
+    WireProtocol(String token) {
+        this.token = token;
+    }
+
+    /**
+     * 握手中使用的协议标识
+     * @return 协议标识
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * 根据握手中的协议标识查找协议
+     * @param token 协议标识
+     * @return 协议，无法识别时返回null
+     */
+    public static WireProtocol fromToken(String token) {
+        for (WireProtocol protocol : values()) {
+            if (protocol.token.equalsIgnoreCase(token.trim())) {
+                return protocol;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析配置中的协议名，支持 text 和 binary
+     * @param value 配置值
+     * @return 协议，无法识别时使用二进制协议
+     */
+    public static WireProtocol fromConfig(String value) {
+        return "text".equalsIgnoreCase(value.trim()) ? TEXT : BINARY;
+    }
+
+    /**
+     * 构造客户端握手行
+     * @param userId 用户ID
+     * @param protocol 希望使用的协议
+     * @return 握手行，文本协议时为旧格式的用户ID行
+     */
+    public static String helloLine(long userId, WireProtocol protocol) {
+        return helloLine(userId, protocol, null);
+    }
+
+    /**
+     * 构造客户端握手行
+     * @param userId 用户ID
+     * @param protocol 希望使用的协议
+     * @param resume 上次会话的 "令牌.在线状态版本号"，第一次连接时为null
+     * @return 握手行，文本协议时为旧格式的用户ID行
+     */
+    public static String helloLine(long userId, WireProtocol protocol, String resume) {
+        if (protocol == TEXT) {
+            return String.valueOf(userId);
+        }
+        return HELLO_PREFIX + userId + ":" + protocol.token + "," + CAPABILITY_OFFLINE_ACK + "," + CAPABILITY_MSG_ACK
+                + "," + CAPABILITY_PRESENCE + "," + CAPABILITY_ROOMS + "," + (resume != null ? CAPABILITY_RESUME + "=" + resume : CAPABILITY_RESUME);
+    }
+
+    /**
+     * 构造服务器握手应答的内容（不含 HELLO_OK: 前缀）
+     * @param protocol 选定的协议
+     * @param capabilities 双方都支持、需要回显的功能
+     * @return 应答内容
+     */
+    public static String helloOkText(WireProtocol protocol, String... capabilities) {
+        StringBuilder text = new StringBuilder(protocol.token);
+        for (String capability : capabilities) {
+            text.append(",").append(capability);
+        }
+        return text.toString();
+    }
+
+    /**
+     * 解析服务器握手应答中选定的协议
+     * @param helloOkText 应答内容（不含 HELLO_OK: 前缀）
+     * @return 协议，无法识别时返回null
+     */
+    public static WireProtocol fromHelloOk(String helloOkText) {
+        return fromToken(helloOkText.split(",", 2)[0]);
+    }
+
+    /**
+     * 服务器握手应答中是否回显了某项功能
+     * @param helloOkText 应答内容（不含 HELLO_OK: 前缀）
+     * @param capability 功能标识
+     * @return 是否包含
+     */
+    public static boolean helloOkHasCapability(String helloOkText, String capability) {
+        return helloOkValue(helloOkText, capability) != null;
+    }
+
+    /**
+     * 握手行的协议列表中是否包含某项功能
+     * @param helloLine 客户端的第一行
+     * @param capability 功能标识
+     * @return 是否包含，旧格式的用户ID行返回false
+     */
+    public static boolean hasCapability(String helloLine, String capability) {
+        return capabilityValue(helloLine, capability) != null;
+    }
+
+    /**
+     * 获取握手行中某项功能的值
+     * @param helloLine 客户端的第一行
+     * @param capability 功能标识
+     * @return "功能=值" 中的值，没有值时为空字符串，未声明或旧格式的用户ID行返回null
+     */
+    public static String capabilityValue(String helloLine, String capability) {
+        if (!helloLine.startsWith(HELLO_PREFIX)) {
+            return null;
+        }
+        String[] parts = helloLine.substring(HELLO_PREFIX.length()).split(":", 2);
+        return parts.length == 2 ? findValue(parts[1].split(","), 0, capability) : null;
+    }
+
+    /**
+     * 获取服务器握手应答中某项功能的值
+     * @param helloOkText 应答内容（不含 HELLO_OK: 前缀）
+     * @param capability 功能标识
+     * @return "功能=值" 中的值，没有值时为空字符串，未回显时返回null
+     */
+    public static String helloOkValue(String helloOkText, String capability) {
+        return findValue(helloOkText.split(","), 1, capability);
+    }
+
+    private static String findValue(String[] tokens, int from, String capability) {
+        for (int i = from; i < tokens.length; i++) {
+            String token = tokens[i].trim();
+            int equals = token.indexOf('=');
+            String name = equals >= 0 ? token.substring(0, equals) : token;
+            if (capability.equalsIgnoreCase(name)) {
+                return equals >= 0 ? token.substring(equals + 1) : "";
+            }
+        }
+        return null;
+    }
+}
@@ -2,27 +2,152 @@ package com.example.service;
 
 import com.example.model.Settings;
 import okhttp3.*;
+import okio.BufferedSource;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
 import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
+/**
+ * AI翻译服务
+ * 进程内所有实例共用一个OkHttpClient（连接池、HTTP/2多路复用），
+ * 翻译结果经 {@link TranslationCache} 缓存，相同文本再次翻译不再请求接口；
+ * 多条消息可通过 {@link #translateBatch} 合并为一个请求，{@link #translateStreaming} 边生成边返回译文；
+ * 界面发起的翻译经 {@link #translateAsync} 交给 {@link TranslationScheduler} 排队，限制并发和速率
+ */
 public class AIService {
-    private static final String API_URL = "https://api.siliconflow.cn/v1/chat/completions";
+    private static final String DEFAULT_API_URL = "https://api.siliconflow.cn/v1/chat/completions";
+    private static final String DEFAULT_MODEL = "Qwen/QwQ-32B";
+    // config.properties 中的占位值，和未配置一样处理
+    private static final String PLACEHOLDER_API_KEY = "your_api_key";
     private static final int MAX_TOKENS = 1000;
+    private static final MediaType JSON = MediaType.parse("application/json");
     private final OkHttpClient httpClient;
-    private final Settings settings;
+    private final String apiUrl;
+    private final String apiKey;
+    private final String model;
+    private final TranslationCache cache;
+    private final TranslationScheduler scheduler;
+    private volatile int batchMaxSize;
+    private volatile int batchMaxTokens;
+    // 批量翻译的请求数，以及因结构错误改为逐条翻译的消息数
+    private final AtomicLong batchRequests = new AtomicLong();
+    private final AtomicLong batchFallbacks = new AtomicLong();
 
-    public AIService() {
-        // 创建带超时设置的HTTP客户端
-        this.httpClient = new OkHttpClient.Builder()
+    // 共用的HTTP客户端，第一次使用时创建
+    private static class SharedClient {
+        private static final OkHttpClient INSTANCE = new OkHttpClient.Builder()
                 .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
+                // HTTPS下通过ALPN协商HTTP/2，多个翻译请求复用同一个连接
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
                 .build();
-        
-        this.settings = Settings.getInstance();
+    }
+
+    private static class SharedCache {
+        private static final TranslationCache INSTANCE = TranslationCache.fromConfig();
+    }
+
+    private static class SharedScheduler {
+        private static final TranslationScheduler INSTANCE = TranslationScheduler.fromConfig();
+    }
+
+    private static class Holder {
+        private static final AIService INSTANCE = new AIService();
+    }
+
+    /**
+     * 获取共享实例
+     * @return 共享实例
+     */
+    public static AIService getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * 获取进程内共用的HTTP客户端
+     * @return HTTP客户端
+     */
+    public static OkHttpClient sharedClient() {
+        return SharedClient.INSTANCE;
+    }
+
+    /**
+     * 按 ai.* 配置创建，使用共用的HTTP客户端和翻译缓存
+     */
+    public AIService() {
+        this(SharedClient.INSTANCE, Settings.getInstance(), SharedCache.INSTANCE);
+    }
+
+    private AIService(OkHttpClient httpClient, Settings settings, TranslationCache cache) {
+        this(httpClient,
+                settings.getProperty("ai.api.url", DEFAULT_API_URL).trim(),
+                configuredApiKey(settings),
+                settings.getProperty("ai.model", DEFAULT_MODEL).trim(),
+                cache);
+    }
+
+    /**
+     * 读取 ai.api.key；没有默认密钥，未配置、为空或仍是占位值时返回空字符串，翻译请求直接返回"API密钥未配置"
+     */
+    private static String configuredApiKey(Settings settings) {
+        String key = settings.getProperty("ai.api.key", "").trim();
+        if (key.isEmpty() || PLACEHOLDER_API_KEY.equals(key)) {
+            System.err.println("未配置 ai.api.key，翻译功能不可用");
+            return "";
+        }
+        return key;
+    }
+
+    /**
+     * @param httpClient HTTP客户端
+     * @param apiUrl 接口地址（OpenAI兼容的chat/completions）
+     * @param apiKey API密钥
+     * @param model 模型名
+     * @param cache 翻译缓存
+     */
+    public AIService(OkHttpClient httpClient, String apiUrl, String apiKey, String model, TranslationCache cache) {
+        this(httpClient, apiUrl, apiKey, model, cache, null);
+    }
+
+    /**
+     * @param httpClient HTTP客户端
+     * @param apiUrl 接口地址（OpenAI兼容的chat/completions）
+     * @param apiKey API密钥
+     * @param model 模型名
+     * @param cache 翻译缓存
+     * @param scheduler {@link #translateAsync} 使用的调度器，null表示使用共用的调度器
+     */
+    public AIService(OkHttpClient httpClient, String apiUrl, String apiKey, String model, TranslationCache cache,
+                     TranslationScheduler scheduler) {
+        this.httpClient = httpClient;
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey != null ? apiKey : "";
+        this.model = model;
+        this.cache = cache;
+        this.scheduler = scheduler;
+        Settings settings = Settings.getInstance();
+        setBatchLimits(Integer.parseInt(settings.getProperty("ai.batch.maxSize", "20").trim()),
+                Integer.parseInt(settings.getProperty("ai.batch.maxTokens", "1500").trim()));
     }
 
     /**
@@ -36,80 +161,125 @@ public class AIService {
             System.out.println("准备翻译文本: " + text);
             System.out.println("目标语言: " + targetLang);
             
-            // 从配置中获取API密钥
-            String apiKey = settings.getProperty("ai.api.key", "sk-wpnpxicdnyofyfdqhykrbbqvxnxzujumikgnwchbldxijooh");
             if (apiKey.isEmpty()) {
                 System.err.println("API密钥为空");
                 return "翻译错误: API密钥未配置";
             }
             
-            System.out.println("使用API密钥: " + apiKey.substring(0, 5) + "...");
-            
-            // 构建请求JSON
-            JSONObject requestJson = new JSONObject();
-            requestJson.put("model", "Qwen/QwQ-32B");
-            
-            // 添加系统消息和用户消息
-            JSONArray messagesArray = new JSONArray();
-            
-            JSONObject systemMessage = new JSONObject();
-            systemMessage.put("role", "system");
-            systemMessage.put("content", "You are a translator. Translate the text to " + getLanguageName(targetLang) + 
-                              ". Only return the translated text without any explanations or additional text.");
-            messagesArray.put(systemMessage);
-            
-            JSONObject userMessage = new JSONObject();
-            userMessage.put("role", "user");
-            userMessage.put("content", text);
-            messagesArray.put(userMessage);
-            
-            requestJson.put("messages", messagesArray);
-            
-            // 设置最大令牌数
-            requestJson.put("max_tokens", MAX_TOKENS);
-            
-            System.out.println("请求JSON: " + requestJson.toString());
-            
-            // 创建请求体
-            RequestBody body = RequestBody.create(
-                MediaType.parse("application/json"), requestJson.toString());
-            
-            // 构建请求
-            Request request = new Request.Builder()
-                    .url(API_URL)
-                    .post(body)
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .build();
-
-            System.out.println("发送请求到: " + API_URL);
-            
-            // 执行请求
-            try (Response response = httpClient.newCall(request).execute()) {
-                String responseBody = response.body().string();
-                System.out.println("收到响应: " + responseBody);
-                
-                if (!response.isSuccessful()) {
-                    System.err.println("请求失败，状态码: " + response.code());
-                    return "翻译错误: " + response.code() + " - " + responseBody;
-                }
+            return cache.get(text, targetLang, () -> requestTranslation(text, targetLang));
+        } catch (ApiException e) {
+            System.err.println("请求失败，状态码: " + e.code);
+            return "翻译错误: " + e.getMessage();
+        } catch (IOException e) {
+            System.err.println("IO异常: " + e.getMessage());
+            e.printStackTrace();
+            return "翻译服务不可用: " + e.getMessage();
+        } catch (Exception e) {
+            System.err.println("翻译过程中出错: " + e.getMessage());
+            e.printStackTrace();
+            return "翻译过程中出错: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 请求接口翻译，失败时抛出异常（不会被缓存）
+     */
+    private String requestTranslation(String text, String targetLang) throws IOException {
+        String systemPrompt = "You are a translator. Translate the text to " + getLanguageName(targetLang) + 
+                ". Only return the translated text without any explanations or additional text.";
+        return complete(systemPrompt, text, MAX_TOKENS, null).trim();
+    }
 
-                // 解析响应
-                JSONObject jsonResponse = new JSONObject(responseBody);
-                
-                // 提取翻译结果
-                String translatedText = jsonResponse
-                    .getJSONArray("choices")
-                    .getJSONObject(0)
-                    .getJSONObject("message")
-                    .getString("content");
-                
-                System.out.println("解析出的翻译结果: " + translatedText);
-                return translatedText.trim();
+    /**
+     * 经调度器异步翻译，已缓存的翻译直接返回已完成的任务
+     * 调度器限制同时进行的请求数和请求速率，收到429/5xx时按Retry-After或退避时间重试；
+     * 任务被取消时排队中的请求不再发出，进行中的请求被中断
+     * @param text 要翻译的文本
+     * @param targetLang 目标语言代码
+     * @param visible 原文当前是否可见，排队时可见的优先
+     * @param listener 不为null时流式翻译，在调度器的线程上回调译文片段
+     * @return 翻译任务，失败时以异常结束（可用 {@link #errorMessage} 转为错误信息）
+     */
+    public TranslationScheduler.Task<String> translateAsync(String text, String targetLang,
+                                                             BooleanSupplier visible,
+                                                             StreamListener listener) {
+        String cached = cache.getIfPresent(text, targetLang);
+        if (cached != null) {
+            if (listener != null) {
+                listener.onDelta(cached);
+            }
+            return TranslationScheduler.Task.completed(cached);
+        }
+        if (apiKey.isEmpty()) {
+            System.err.println("API密钥为空");
+            return TranslationScheduler.Task.completed("翻译错误: API密钥未配置");
+        }
+        String systemPrompt = "You are a translator. Translate the text to " + getLanguageName(targetLang) +
+                ". Only return the translated text without any explanations or additional text.";
+        TranslationScheduler target = scheduler != null ? scheduler : SharedScheduler.INSTANCE;
+        return target.submit(visible, task -> {
+            cache.recordRemoteCall();
+            String translated = (listener != null
+                    ? completeStreaming(systemPrompt, text, MAX_TOKENS, listener, task)
+                    : complete(systemPrompt, text, MAX_TOKENS, task)).trim();
+            if (!translated.isEmpty()) {
+                cache.put(text, targetLang, translated);
             }
+            return translated;
+        });
+    }
+
+    /**
+     * 把翻译失败的异常转为与translateText相同的错误信息
+     * @param error 异常
+     * @return 错误信息
+     */
+    public static String errorMessage(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof ApiException) {
+            return "翻译错误: " + error.getMessage();
+        }
+        if (error instanceof IOException) {
+            return "翻译服务不可用: " + error.getMessage();
+        }
+        return "翻译过程中出错: " + error.getMessage();
+    }
+
+    /**
+     * 流式翻译: 请求时设置 stream=true，按服务器推送事件（SSE）逐块解析，每收到一段译文就回调listener
+     * 感知到的延迟是首个token到达的时间而不是整个回复的时间；已缓存的翻译直接一次性回调。
+     * 在调用线程上阻塞直到回复结束
+     * @param text 要翻译的文本
+     * @param targetLang 目标语言代码
+     * @param listener 接收译文片段，在调用线程上回调
+     * @return 完整的译文，失败时为错误信息（与translateText相同）
+     */
+    public String translateStreaming(String text, String targetLang, StreamListener listener) {
+        String cached = cache.getIfPresent(text, targetLang);
+        if (cached != null) {
+            listener.onDelta(cached);
+            return cached;
+        }
+        if (apiKey.isEmpty()) {
+            System.err.println("API密钥为空");
+            return "翻译错误: API密钥未配置";
+        }
+        try {
+            String systemPrompt = "You are a translator. Translate the text to " + getLanguageName(targetLang) +
+                    ". Only return the translated text without any explanations or additional text.";
+            cache.recordRemoteCall();
+            String translated = completeStreaming(systemPrompt, text, MAX_TOKENS, listener, null).trim();
+            if (!translated.isEmpty()) {
+                cache.put(text, targetLang, translated);
+            }
+            return translated;
+        } catch (ApiException e) {
+            System.err.println("请求失败，状态码: " + e.code);
+            return "翻译错误: " + e.getMessage();
         } catch (IOException e) {
             System.err.println("IO异常: " + e.getMessage());
-            e.printStackTrace();
             return "翻译服务不可用: " + e.getMessage();
         } catch (Exception e) {
             System.err.println("翻译过程中出错: " + e.getMessage());
@@ -118,6 +288,394 @@ public class AIService {
         }
     }
 
+    private String completeStreaming(String systemPrompt, String userContent, int maxTokens,
+                                     StreamListener listener, TranslationScheduler.Task<?> task)
+            throws IOException {
+        JSONObject requestJson = new JSONObject();
+        requestJson.put("model", model);
+        requestJson.put("messages", new JSONArray()
+                .put(new JSONObject().put("role", "system").put("content", systemPrompt))
+                .put(new JSONObject().put("role", "user").put("content", userContent)));
+        requestJson.put("max_tokens", maxTokens);
+        requestJson.put("stream", true);
+
+        Request request = new Request.Builder()
+                .url(apiUrl)
+                .post(RequestBody.create(requestJson.toString(), JSON))
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Accept", "text/event-stream")
+                .build();
+        System.out.println("发送流式请求到: " + apiUrl);
+
+        try (Response response = newCall(request, task).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful()) {
+                throw new ApiException(response, body.string());
+            }
+            MediaType type = body.contentType();
+            if (type == null || !"event-stream".equals(type.subtype())) {
+                // 服务器不支持流式输出，返回了普通的完整回复
+                String content = new JSONObject(body.string())
+                        .getJSONArray("choices")
+                        .getJSONObject(0)
+                        .getJSONObject("message")
+                        .getString("content");
+                listener.onDelta(content);
+                return content;
+            }
+
+            BufferedSource source = body.source();
+            StringBuilder content = new StringBuilder();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                // 只处理data行，忽略空行、注释(:)和event/id等字段
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                int start = line.length() > 5 && line.charAt(5) == ' ' ? 6 : 5;
+                if (line.startsWith("[DONE]", start)) {
+                    break;
+                }
+                int before = content.length();
+                if (appendDeltaContent(line, start, content) && content.length() > before) {
+                    listener.onDelta(content.substring(before));
+                }
+            }
+            System.out.println("流式翻译结果: " + content);
+            return content.toString();
+        }
+    }
+
+    /**
+     * 从一个流式回复块中取出 choices[0].delta.content 并追加到out
+     * 直接扫描JSON文本，不为每个块构造JSONObject；
+     * "reasoning_content" 等其他字段不会被误认（要求字段名前是引号）
+     * @param line data行
+     * @param from JSON开始的位置
+     * @param out 追加反转义后的内容
+     * @return 块中是否有content字段
+     */
+    static boolean appendDeltaContent(String line, int from, StringBuilder out) {
+        int delta = line.indexOf("\"delta\"", from);
+        if (delta < 0) {
+            return false;
+        }
+        int key = line.indexOf("\"content\"", delta);
+        if (key < 0) {
+            return false;
+        }
+        int i = key + 9;
+        int length = line.length();
+        while (i < length && (line.charAt(i) == ' ' || line.charAt(i) == ':')) {
+            i++;
+        }
+        if (i >= length || line.charAt(i) != '"') {
+            // null或格式不对
+            return false;
+        }
+        i++;
+        while (i < length) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                return true;
+            }
+            if (c != '\\' || i >= length) {
+                out.append(c);
+                continue;
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 <= length) {
+                        out.append((char) Integer.parseInt(line, i, i + 4, 16));
+                        i += 4;
+                    }
+                    break;
+                default:
+                    // \" \\ \/
+                    out.append(escaped);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批量翻译: 把多条短消息按JSON序号打包到一个请求中，再按序号拆分结果
+     * 每个请求最多 ai.batch.maxSize 条、估计不超过 ai.batch.maxTokens 个token，已缓存的消息不再请求；
+     * 模型返回的结构不正确（无法解析、缺少或重复序号）时，受影响的消息改为逐条翻译
+     * @param texts 要翻译的文本
+     * @param targetLang 目标语言代码
+     * @return 与texts一一对应的译文，翻译失败的位置为错误信息
+     */
+    public List<String> translateBatch(List<String> texts, String targetLang) {
+        String[] results = new String[texts.size()];
+        // 未缓存的文本 -> 在texts中的位置，相同的文本只翻译一次
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            String cached = text.isBlank() ? text : cache.getIfPresent(text, targetLang);
+            if (cached != null) {
+                results[i] = cached;
+            } else {
+                positions.computeIfAbsent(text, k -> new ArrayList<>()).add(i);
+            }
+        }
+        if (positions.isEmpty()) {
+            return Arrays.asList(results);
+        }
+        if (apiKey.isEmpty()) {
+            System.err.println("API密钥为空");
+            fill(results, positions, positions.keySet(), "翻译错误: API密钥未配置");
+            return Arrays.asList(results);
+        }
+
+        List<String> chunk = new ArrayList<>();
+        int chunkTokens = 0;
+        for (String text : positions.keySet()) {
+            int tokens = estimateTokens(text);
+            if (!chunk.isEmpty() && (chunk.size() >= batchMaxSize || chunkTokens + tokens > batchMaxTokens)) {
+                translateChunk(chunk, targetLang, positions, results);
+                chunk = new ArrayList<>();
+                chunkTokens = 0;
+            }
+            chunk.add(text);
+            chunkTokens += tokens;
+        }
+        translateChunk(chunk, targetLang, positions, results);
+        return Arrays.asList(results);
+    }
+
+    private void translateChunk(List<String> chunk, String targetLang, Map<String, List<Integer>> positions,
+                                String[] results) {
+        Map<Integer, String> translated = new HashMap<>();
+        if (chunk.size() > 1) {
+            try {
+                translated = requestBatch(chunk, targetLang);
+            } catch (ApiException e) {
+                System.err.println("批量翻译请求失败，状态码: " + e.code);
+                // 请求本身被拒绝（如过长）时逐条重试，服务端错误或限流时不再逐条请求
+                if (e.code < 400 || e.code >= 500 || e.code == 429) {
+                    fill(results, positions, chunk, "翻译错误: " + e.getMessage());
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("批量翻译IO异常: " + e.getMessage());
+                fill(results, positions, chunk, "翻译服务不可用: " + e.getMessage());
+                return;
+            }
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            String text = chunk.get(i);
+            String result = translated.get(i);
+            if (result != null) {
+                cache.put(text, targetLang, result);
+            } else {
+                if (chunk.size() > 1) {
+                    batchFallbacks.incrementAndGet();
+                }
+                result = translateText(text, targetLang);
+            }
+            for (int position : positions.get(text)) {
+                results[position] = result;
+            }
+        }
+    }
+
+    /**
+     * 发送一个批量翻译请求
+     * @return 序号 -> 译文，只包含结构正确的条目
+     */
+    private Map<Integer, String> requestBatch(List<String> chunk, String targetLang) throws IOException {
+        JSONArray items = new JSONArray();
+        int tokens = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            items.put(new JSONObject().put("i", i).put("t", chunk.get(i)));
+            tokens += estimateTokens(chunk.get(i));
+        }
+        String systemPrompt = "You are a translator. The user message is a JSON array of objects {\"i\": index, \"t\": text}. "
+                + "Translate every t to " + getLanguageName(targetLang) + ". "
+                + "Reply with only a JSON array of objects {\"i\": index, \"t\": translation} that contains every index exactly once, "
+                + "without any explanations or additional text.";
+        batchRequests.incrementAndGet();
+        cache.recordRemoteCall();
+        String content = complete(systemPrompt, items.toString(), Math.max(MAX_TOKENS, tokens * 2 + 16 * chunk.size()), null);
+        return parseBatch(content, chunk.size());
+    }
+
+    /**
+     * 解析批量翻译的结果，容忍代码块包裹等多余文本；序号越界、重复或译文为空的条目被丢弃
+     */
+    static Map<Integer, String> parseBatch(String content, int size) {
+        Map<Integer, String> result = new HashMap<>();
+        int start = content.indexOf('[');
+        int end = content.lastIndexOf(']');
+        if (start < 0 || end <= start) {
+            return result;
+        }
+        Set<Integer> duplicates = new HashSet<>();
+        try {
+            JSONArray array = new JSONArray(content.substring(start, end + 1));
+            for (int k = 0; k < array.length(); k++) {
+                JSONObject item = array.optJSONObject(k);
+                if (item == null || !item.has("i")) {
+                    continue;
+                }
+                int index = item.optInt("i", -1);
+                String text = item.optString("t", "").trim();
+                if (index < 0 || index >= size || text.isEmpty()) {
+                    continue;
+                }
+                if (result.put(index, text) != null) {
+                    duplicates.add(index);
+                }
+            }
+        } catch (JSONException e) {
+            System.err.println("批量翻译结果格式错误: " + e.getMessage());
+            return new HashMap<>();
+        }
+        result.keySet().removeAll(duplicates);
+        return result;
+    }
+
+    private static void fill(String[] results, Map<String, List<Integer>> positions, Collection<String> texts,
+                             String value) {
+        for (String text : texts) {
+            for (int position : positions.get(text)) {
+                results[position] = value;
+            }
+        }
+    }
+
+    /**
+     * 粗略估计token数: 中日韩字符约每个1个token，其他字符约每4个1个token，另加JSON包装的开销
+     */
+    static int estimateTokens(String text) {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x2E80) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4 + 8;
+    }
+
+    /**
+     * 发送一个chat/completions请求，返回模型回复的内容
+     */
+    private String complete(String systemPrompt, String userContent, int maxTokens, TranslationScheduler.Task<?> task)
+            throws IOException {
+        System.out.println("使用API密钥: " + apiKey.substring(0, Math.min(5, apiKey.length())) + "...");
+        
+        // 构建请求JSON
+        JSONObject requestJson = new JSONObject();
+        requestJson.put("model", model);
+        
+        // 添加系统消息和用户消息
+        JSONArray messagesArray = new JSONArray();
+        
+        JSONObject systemMessage = new JSONObject();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", systemPrompt);
+        messagesArray.put(systemMessage);
+        
+        JSONObject userMessage = new JSONObject();
+        userMessage.put("role", "user");
+        userMessage.put("content", userContent);
+        messagesArray.put(userMessage);
+        
+        requestJson.put("messages", messagesArray);
+        
+        // 设置最大令牌数
+        requestJson.put("max_tokens", maxTokens);
+        
+        System.out.println("请求JSON: " + requestJson.toString());
+        
+        // 构建请求
+        Request request = new Request.Builder()
+                .url(apiUrl)
+                .post(RequestBody.create(requestJson.toString(), JSON))
+                .header("Authorization", "Bearer " + apiKey)
+                .build();
+
+        System.out.println("发送请求到: " + apiUrl);
+        
+        // 执行请求
+        try (Response response = newCall(request, task).execute()) {
+            String responseBody = response.body().string();
+            System.out.println("收到响应: " + responseBody);
+            
+            if (!response.isSuccessful()) {
+                throw new ApiException(response, responseBody);
+            }
+
+            // 解析响应，提取模型回复
+            String content = new JSONObject(responseBody)
+                .getJSONArray("choices")
+                .getJSONObject(0)
+                .getJSONObject("message")
+                .getString("content");
+            
+            System.out.println("解析出的翻译结果: " + content);
+            return content;
+        }
+    }
+
+    /**
+     * 创建请求，经调度器发出的请求在任务取消时被中断
+     */
+    private Call newCall(Request request, TranslationScheduler.Task<?> task) {
+        Call call = httpClient.newCall(request);
+        if (task != null) {
+            task.onCancel(call::cancel);
+        }
+        return call;
+    }
+
+    /**
+     * 设置批量翻译每个请求的最大条数和token预算
+     * @param maxSize 最多条数
+     * @param maxTokens 估计的输入token上限
+     */
+    public void setBatchLimits(int maxSize, int maxTokens) {
+        this.batchMaxSize = Math.max(1, maxSize);
+        this.batchMaxTokens = Math.max(1, maxTokens);
+    }
+
+    public long getBatchRequestCount() {
+        return batchRequests.get();
+    }
+
+    public long getBatchFallbackCount() {
+        return batchFallbacks.get();
+    }
+
+    /**
+     * 获取翻译缓存
+     * @return 翻译缓存
+     */
+    public TranslationCache getCache() {
+        return cache;
+    }
+
     /**
      * 根据语言代码获取语言名称
      * @param langCode 语言代码
@@ -146,4 +704,53 @@ public class AIService {
                 return langCode;
         }
     }
+
+    /**
+     * 接口返回了非2xx状态码
+     */
+    static class ApiException extends IOException {
+        final int code;
+        // Retry-After头指定的等待时间，没有时为-1
+        final long retryAfterMs;
+
+        ApiException(Response response, String body) {
+            super(response.code() + " - " + body);
+            this.code = response.code();
+            this.retryAfterMs = parseRetryAfter(response.header("Retry-After"));
+        }
+    }
+
+    /**
+     * 解析Retry-After头: 秒数或HTTP日期
+     * @return 毫秒，无法解析时为-1
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException e) {
+            // 不是秒数，按HTTP日期解析
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 流式翻译的译文片段监听器
+     */
+    public interface StreamListener {
+        /**
+         * 收到一段新的译文
+         * @param delta 新增的文本
+         */
+        void onDelta(String delta);
+    }
 }
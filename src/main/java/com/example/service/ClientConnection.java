@@ -0,0 +1,82 @@
+package com.example.service;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.WireProtocol;
+
+/**
+ * 服务端持有的单个客户端连接
+ * 阻塞模式与NIO模式各自实现，SocketService只通过该接口向客户端写出
+ */
+public interface ClientConnection {
+
+    /**
+     * 向客户端发送一帧聊天类消息
+     * @param frame 帧
+     */
+    default void send(Frame frame) {
+        send(frame, OutboundQueue.FrameKind.MESSAGE);
+    }
+
+    /**
+     * 向单个客户端发送一帧，按该连接的协议单独编码
+     * @param frame 帧
+     * @param kind 帧种类
+     */
+    default void send(Frame frame, OutboundQueue.FrameKind kind) {
+        send(EncodedFrame.of(frame), kind);
+    }
+
+    /**
+     * 将一帧放入该连接的发送队列，由连接按协商的协议取出对应的编码写出
+     * 广播时所有连接共享同一个EncodedFrame，每种协议只编码一次
+     * 队列溢出时按配置的策略丢弃在线状态帧或断开连接
+     * @param frame 编码帧
+     * @param kind 帧种类
+     */
+    void send(EncodedFrame frame, OutboundQueue.FrameKind kind);
+
+    /**
+     * 登录期间暂停写出，发往该连接的帧先留在发送队列中
+     * 默认不暂停，仅用于不经网络写出的连接
+     */
+    default void holdWrites() {
+    }
+
+    /**
+     * 登录完成后发送握手应答并恢复写出，应答排在暂停期间入队的帧之前
+     * @param reply 握手应答
+     */
+    default void sendHandshakeReply(Frame reply) {
+        send(reply);
+    }
+
+    /**
+     * 获取握手后使用的线路协议
+     * @return 线路协议
+     */
+    WireProtocol getProtocol();
+
+    /**
+     * 设置握手后使用的线路协议，必须在发送握手应答之前调用
+     * @param protocol 线路协议
+     */
+    void setProtocol(WireProtocol protocol);
+
+    /**
+     * 获取发送队列，用于查看队列深度和丢帧统计
+     * @return 发送队列
+     */
+    OutboundQueue<?> getOutboundQueue();
+
+    /**
+     * 关闭连接
+     */
+    void close();
+
+    /**
+     * 连接是否仍然打开
+     * @return 是否打开
+     */
+    boolean isOpen();
+}
@@ -0,0 +1,677 @@
+package com.example.service;
+
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.protocol.WireProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 集群模式下的一个服务器节点
+ * 每个节点只持有连到自己的客户端，节点之间两两建立一条TCP连接（ID小的一方主动连接，断开后按固定间隔重连），
+ * 连接上使用二进制帧（NODE_*）:
+ * 1. 连接建立后双方先发送本节点的完整用户列表，之后逐条发送本节点用户的上线和下线，接收方据此维护路由表（用户ID -> 节点ID）
+ * 2. 私聊消息的接收者在其他节点上时转发到该节点，由该节点投递或存为离线消息（各节点共用同一个数据库），
+ *    该节点处理后以 NODE_PM_ACK 确认；连接断开时还未确认的消息由本节点投递或存为离线消息
+ * 3. 群聊消息转发到所有节点
+ * 连接断开时对方节点上的用户都视为下线，重新连接后由完整用户列表恢复
+ *
+ * 握手帧 NODE_HELLO 带有集群共享密钥，只接受已配置的节点ID且密钥一致的连接；
+ * 接受连接的一方先核对对方的握手再回复自己的握手，未通过认证的连接收不到本节点的密钥
+ */
+public class ClusterNode {
+    // 握手的读超时，连上后不发握手的连接不会一直占用线程
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+
+    private final SocketService service;
+    private final long nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final String secret;
+    private final byte[] secretBytes;
+    // 节点ID -> 地址
+    private final Map<Long, InetSocketAddress> peers;
+    private final long reconnectMs;
+    private final int linkCapacity;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "cluster-link");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 节点ID -> 当前连接
+    private final Map<Long, PeerLink> links = new ConcurrentHashMap<>();
+    // 路由表: 其他节点上的用户ID -> 所在节点，同一用户同时在多个节点上时指向最后上线的节点
+    private final Map<Long, RemoteUser> routes = new ConcurrentHashMap<>();
+    // 节点ID -> 该节点上的用户及用户名，和 routes 一起在 routeLock 内修改
+    private final Map<Long, Map<Long, String>> nodeUsers = new HashMap<>();
+    private final ReentrantLock routeLock = new ReentrantLock();
+    // 本节点用户的完整列表和增量在这把锁内发送，新连接不会先收到增量再收到更早的完整列表
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    // 统计
+    private final AtomicLong messagesForwarded = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong chatsForwarded = new AtomicLong();
+    private final AtomicLong roomMessagesForwarded = new AtomicLong();
+    private final AtomicLong presenceSent = new AtomicLong();
+
+    /**
+     * @param service 本节点的服务
+     * @param nodeId 本节点ID，集群内唯一
+     * @param bindAddress 节点间连接的监听地址，为空时监听所有网卡
+     * @param port 节点间连接的监听端口
+     * @param secret 集群共享密钥，所有节点必须一致，为空时不启动集群
+     * @param peers 其他节点: 节点ID -> 地址，见 {@link #parsePeers(String)}
+     * @param reconnectMs 连接断开或连接失败后重连的间隔
+     * @param linkCapacity 每条节点连接的发送队列容量，溢出时断开连接，重连后重新同步用户列表
+     */
+    ClusterNode(SocketService service, long nodeId, String bindAddress, int port, String secret,
+                Map<Long, InetSocketAddress> peers, long reconnectMs, int linkCapacity) {
+        this.service = service;
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress == null || bindAddress.trim().isEmpty() ? null : bindAddress.trim();
+        this.port = port;
+        this.secret = secret == null || secret.isEmpty() ? null : secret;
+        this.secretBytes = this.secret != null ? this.secret.getBytes(StandardCharsets.UTF_8) : null;
+        this.peers = peers;
+        this.reconnectMs = Math.max(1, reconnectMs);
+        this.linkCapacity = linkCapacity;
+    }
+
+    /**
+     * 解析节点列表
+     * @param value 格式为 "节点ID@主机:端口"，以逗号分隔，如 "2@localhost:9901,3@10.0.0.3:9900"
+     * @return 节点ID -> 地址，按配置顺序排列
+     */
+    static Map<Long, InetSocketAddress> parsePeers(String value) {
+        Map<Long, InetSocketAddress> peers = new LinkedHashMap<>();
+        if (value == null) {
+            return peers;
+        }
+        for (String item : value.split(",")) {
+            String peer = item.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int at = peer.indexOf('@');
+            int colon = peer.lastIndexOf(':');
+            if (at <= 0 || colon <= at + 1) {
+                throw new IllegalArgumentException("无效的集群节点: " + peer + "，格式应为 节点ID@主机:端口");
+            }
+            peers.put(Long.parseLong(peer.substring(0, at).trim()), InetSocketAddress.createUnresolved(
+                    peer.substring(at + 1, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim())));
+        }
+        return peers;
+    }
+
+    /**
+     * 开始监听节点连接，并连接ID比本节点大的节点
+     */
+    void start() {
+        if (secret == null) {
+            System.err.println("集群节点 " + nodeId + " 未配置 cluster.secret，不启动集群");
+            return;
+        }
+        running = true;
+        try {
+            serverSocket = new ServerSocket(port, 50, bindAddress != null ? InetAddress.getByName(bindAddress) : null);
+        } catch (IOException e) {
+            System.err.println("集群节点 " + nodeId + " 无法监听端口 " + port + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("集群节点 " + nodeId + " 在 " + serverSocket.getLocalSocketAddress() + " 上等待其他节点");
+        executor.submit(this::acceptLoop);
+        for (Map.Entry<Long, InetSocketAddress> peer : peers.entrySet()) {
+            if (peer.getKey() > nodeId) {
+                executor.submit(() -> dialLoop(peer.getKey(), peer.getValue()));
+            }
+        }
+    }
+
+    /**
+     * 停止监听并断开所有节点连接
+     */
+    void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭集群端口失败: " + e.getMessage());
+        }
+        for (PeerLink link : links.values()) {
+            link.connection.close();
+            // 在服务关闭离线消息写入之前转存，不等连接线程退出
+            redeliverUnacked(link);
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.submit(() -> runLink(socket, -1));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("集群节点 " + nodeId + " 接受连接失败: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    // 主动连接一个节点，断开后重连
+    private void dialLoop(long peerId, InetSocketAddress address) {
+        while (running) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), (int) reconnectMs);
+                runLink(socket, peerId);
+            } catch (IOException e) {
+                closeQuietly(socket);
+            }
+            try {
+                Thread.sleep(reconnectMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 在一条节点连接上握手，然后读取对方的帧直到连接断开
+     * @param socket 连接
+     * @param expectedPeer 主动连接时为对方的节点ID，接受的连接为-1
+     */
+    private void runLink(Socket socket, long expectedPeer) {
+        SocketClientConnection connection = null;
+        PeerLink link = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            connection = new SocketClientConnection(socket,
+                    new OutboundQueue<>(linkCapacity, OutboundQueue.OverflowPolicy.DISCONNECT, 0), executor);
+            connection.setProtocol(WireProtocol.BINARY);
+            if (expectedPeer >= 0) {
+                connection.send(Frame.nodeHello(nodeId, secret));
+            }
+            Frame hello = BinaryCodec.read(in);
+            if (!isValidHello(hello, expectedPeer)) {
+                // 不打印帧内容，其中可能有密钥
+                System.err.println("集群节点 " + nodeId + " 拒绝来自 " + socket.getRemoteSocketAddress() + " 的握手"
+                        + (hello != null ? "，节点ID " + hello.getId() : ""));
+                return;
+            }
+            if (expectedPeer < 0) {
+                connection.send(Frame.nodeHello(nodeId, secret));
+            }
+            socket.setSoTimeout(0);
+            link = new PeerLink(hello.getId(), connection);
+            attach(link);
+            Frame frame;
+            while ((frame = BinaryCodec.read(in)) != null && links.get(link.peerId) == link) {
+                handleFrame(link, frame);
+            }
+        } catch (IOException e) {
+            if (running && link != null) {
+                System.err.println("集群节点 " + nodeId + " 与节点 " + link.peerId + " 的连接断开: " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (connection != null) {
+                connection.close();
+            }
+            if (link != null) {
+                detach(link);
+                redeliverUnacked(link);
+            }
+        }
+    }
+
+    /**
+     * 核对对方的握手: 节点ID是已配置的其他节点（接受的连接只能来自ID更小的节点，主动连接时必须是要连接的节点），
+     * 且共享密钥一致
+     * @param hello 对方的第一帧
+     * @param expectedPeer 主动连接时为对方的节点ID，接受的连接为-1
+     * @return 是否接受该连接
+     */
+    private boolean isValidHello(Frame hello, long expectedPeer) {
+        if (hello == null || hello.getOpcode() != Opcode.NODE_HELLO) {
+            return false;
+        }
+        long peerId = hello.getId();
+        if (!peers.containsKey(peerId) || peerId == nodeId) {
+            return false;
+        }
+        if (expectedPeer >= 0 ? peerId != expectedPeer : peerId > nodeId) {
+            return false;
+        }
+        String text = hello.getText();
+        // 按固定时间比较，不从响应时间泄露密钥的前缀
+        return text != null && MessageDigest.isEqual(secretBytes, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 登记新连接并发送本节点的完整用户列表，同一节点的旧连接被替换
+    private void attach(PeerLink link) {
+        publishLock.lock();
+        try {
+            PeerLink previous = links.put(link.peerId, link);
+            if (previous != null) {
+                previous.connection.close();
+            }
+            Map<Long, String> users = service.localUsers();
+            long[] ids = new long[users.size()];
+            String[] names = new String[users.size()];
+            int i = 0;
+            for (Map.Entry<Long, String> user : users.entrySet()) {
+                ids[i] = user.getKey();
+                names[i++] = user.getValue();
+            }
+            link.connection.send(Frame.nodePresence(nodeId, true, ids, names), OutboundQueue.FrameKind.PRESENCE);
+        } finally {
+            publishLock.unlock();
+        }
+        System.out.println("集群节点 " + nodeId + " 已连接节点 " + link.peerId);
+    }
+
+    // 连接断开，对方节点上的用户都视为下线
+    private void detach(PeerLink link) {
+        if (!links.remove(link.peerId, link)) {
+            return;
+        }
+        System.out.println("集群节点 " + nodeId + " 与节点 " + link.peerId + " 断开");
+        applyPresence(link.peerId, true, new long[0], new String[0]);
+    }
+
+    /**
+     * 连接断开时对方还未确认的私聊消息已经回复过 PM_SENT，不能丢弃:
+     * 接收者已换到本节点时直接投递，否则存为离线消息。对方已投递但确认还未到达的消息会重复一次
+     * @param link 断开的连接
+     */
+    private void redeliverUnacked(PeerLink link) {
+        List<Frame> frames = link.close();
+        if (frames.isEmpty()) {
+            return;
+        }
+        System.err.println("集群节点 " + nodeId + " 转发到节点 " + link.peerId + " 的 " + frames.size()
+                + " 条私聊消息未确认，改为投递或存为离线消息");
+        for (Frame frame : frames) {
+            service.deliverForwardedMessage(frame.getCount(), frame.getId(), frame.getText());
+        }
+    }
+
+    private void handleFrame(PeerLink link, Frame frame) {
+        switch (frame.getOpcode()) {
+            case NODE_PRESENCE:
+                applyPresence(link.peerId, frame.getCount() != 0, frame.getUserIds(), frame.getUserNames());
+                break;
+            case NODE_PM:
+                messagesReceived.incrementAndGet();
+                service.deliverForwardedMessage(frame.getCount(), frame.getId(), frame.getText());
+                // 已投递或已放入离线消息队列，确认后对方不再保留
+                link.connection.send(Frame.nodeMessageAck(++link.received));
+                break;
+            case NODE_PM_ACK:
+                link.acknowledge(frame.getId());
+                break;
+            case NODE_CHAT:
+                service.deliverForwardedChat(frame.getId(), frame.getName(), frame.getText());
+                break;
+            case NODE_ROOM_MSG:
+                service.deliverForwardedRoomMessage(frame.getId(), frame.getCount(), frame.getName(), frame.getText());
+                break;
+            default:
+                System.err.println("集群节点 " + nodeId + " 忽略节点 " + link.peerId + " 发送的帧: " + frame);
+        }
+    }
+
+    /**
+     * 更新某个节点上的用户，并通知本节点的客户端路由发生变化的用户
+     * @param peerId 节点ID
+     * @param full 是否替换该节点原有的用户
+     * @param userIds 上线的用户ID，下线为负数
+     * @param userNames 用户名
+     */
+    private void applyPresence(long peerId, boolean full, long[] userIds, String[] userNames) {
+        List<RemoteUser> changed = new ArrayList<>();
+        routeLock.lock();
+        try {
+            Map<Long, String> users = nodeUsers.computeIfAbsent(peerId, id -> new HashMap<>());
+            Set<Long> touched = new HashSet<>();
+            Map<Long, String> names = new HashMap<>();
+            if (full) {
+                touched.addAll(users.keySet());
+                names.putAll(users);
+                users.clear();
+            }
+            for (int i = 0; i < userIds.length; i++) {
+                long userId = Math.abs(userIds[i]);
+                touched.add(userId);
+                names.put(userId, userNames[i]);
+                if (userIds[i] > 0) {
+                    users.put(userId, userNames[i]);
+                } else {
+                    users.remove(userId);
+                }
+            }
+            if (users.isEmpty()) {
+                nodeUsers.remove(peerId);
+            }
+            for (long userId : touched) {
+                RemoteUser before = routes.get(userId);
+                RemoteUser after = users.containsKey(userId)
+                        ? new RemoteUser(userId, peerId, users.get(userId))
+                        : before != null && before.nodeId != peerId ? before : findRoute(userId);
+                if (after != null) {
+                    routes.put(userId, after);
+                } else {
+                    routes.remove(userId);
+                }
+                if ((before == null) != (after == null)) {
+                    changed.add(after != null ? after : new RemoteUser(userId, peerId,
+                            before != null ? before.userName : names.get(userId)));
+                }
+            }
+        } finally {
+            routeLock.unlock();
+        }
+        for (RemoteUser user : changed) {
+            service.clusterPresenceChanged(user.userId, user.userName, routes.containsKey(user.userId));
+        }
+    }
+
+    // 用户离开了路由指向的节点，在其他节点上查找，调用者持有 routeLock
+    private RemoteUser findRoute(long userId) {
+        for (Map.Entry<Long, Map<Long, String>> entry : nodeUsers.entrySet()) {
+            String userName = entry.getValue().get(userId);
+            if (userName != null) {
+                return new RemoteUser(userId, entry.getKey(), userName);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 向所有节点发送本节点用户的上线或下线
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param joined 上线为true，下线为false
+     */
+    void publish(long userId, String userName, boolean joined) {
+        publishLock.lock();
+        try {
+            if (links.isEmpty()) {
+                return;
+            }
+            EncodedFrame frame = EncodedFrame.shared(Frame.nodePresence(nodeId, false,
+                    new long[] {joined ? userId : -userId}, new String[] {userName}));
+            for (PeerLink link : links.values()) {
+                link.connection.send(frame, OutboundQueue.FrameKind.PRESENCE);
+                presenceSent.incrementAndGet();
+            }
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * 把私聊消息转发到接收者所在的节点
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     * @return 是否已放入该节点连接的发送队列；接收者不在其他节点上或连接已断开时返回false
+     *         放入队列的消息在对方确认前保留，连接断开后由本节点投递或存为离线消息
+     */
+    boolean forwardMessage(long senderId, long receiverId, String content) {
+        RemoteUser route = routes.get(receiverId);
+        PeerLink link = route != null ? links.get(route.nodeId) : null;
+        if (link == null || !link.connection.isOpen()
+                || !link.forward(Frame.nodeMessage(receiverId, senderId, content))) {
+            return false;
+        }
+        messagesForwarded.incrementAndGet();
+        System.out.println("Private message from " + senderId + " to " + receiverId + " forwarded to node " + route.nodeId);
+        return true;
+    }
+
+    /**
+     * 把群聊消息转发到所有节点，每个节点连接共享同一份编码
+     * @param senderId 发送者ID
+     * @param senderName 发送者名
+     * @param content 消息内容
+     */
+    void broadcastChat(long senderId, String senderName, String content) {
+        if (links.isEmpty()) {
+            return;
+        }
+        EncodedFrame frame = EncodedFrame.shared(Frame.nodeChat(senderId, senderName, content));
+        for (PeerLink link : links.values()) {
+            link.connection.send(frame, OutboundQueue.FrameKind.MESSAGE);
+            chatsForwarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * 把房间消息转发到所有节点，由各节点发给本节点上的房间成员
+     * 节点之间不同步房间成员，没有该房间成员的节点收到后直接丢弃
+     * @param roomId 房间ID
+     * @param senderId 发送者ID
+     * @param senderName 发送者名
+     * @param content 消息内容
+     */
+    void broadcastRoomMessage(long roomId, long senderId, String senderName, String content) {
+        if (links.isEmpty()) {
+            return;
+        }
+        EncodedFrame frame = EncodedFrame.shared(Frame.nodeRoomMessage(roomId, senderId, senderName, content));
+        for (PeerLink link : links.values()) {
+            link.connection.send(frame, OutboundQueue.FrameKind.MESSAGE);
+            roomMessagesForwarded.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param userId 用户ID
+     * @return 用户是否在其他节点上在线
+     */
+    boolean isRemote(long userId) {
+        return routes.containsKey(userId);
+    }
+
+    /**
+     * @param userId 用户ID
+     * @return 用户所在的其他节点ID，不在其他节点上时为-1
+     */
+    public long routeOf(long userId) {
+        RemoteUser route = routes.get(userId);
+        return route != null ? route.nodeId : -1;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return 已连接的节点ID
+     */
+    public Set<Long> getConnectedNodes() {
+        return new HashSet<>(links.keySet());
+    }
+
+    /**
+     * @return 路由表中其他节点上的用户数
+     */
+    public int getRemoteUserCount() {
+        return routes.size();
+    }
+
+    /**
+     * @return 转发到其他节点的私聊消息数
+     */
+    public long getMessagesForwarded() {
+        return messagesForwarded.get();
+    }
+
+    /**
+     * @return 其他节点转发来的私聊消息数
+     */
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    /**
+     * @return 已转发、对方节点还未确认的私聊消息数
+     */
+    public int getUnackedForwards() {
+        int unacked = 0;
+        for (PeerLink link : links.values()) {
+            unacked += link.unackedCount();
+        }
+        return unacked;
+    }
+
+    /**
+     * @return 转发到其他节点的群聊消息数（每个节点计一次）
+     */
+    public long getChatsForwarded() {
+        return chatsForwarded.get();
+    }
+
+    /**
+     * @return 转发到其他节点的房间消息数（每个节点计一次）
+     */
+    public long getRoomMessagesForwarded() {
+        return roomMessagesForwarded.get();
+    }
+
+    /**
+     * @return 发送给其他节点的上线和下线数（每个节点计一次）
+     */
+    public long getPresenceSent() {
+        return presenceSent.get();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    private static final class PeerLink {
+        final long peerId;
+        final SocketClientConnection connection;
+        // 本连接上已处理的 NODE_PM 数，只在读线程上使用
+        long received;
+        // 已转发、对方还未确认的私聊消息，按发送顺序排列；入队和发送在同一把锁内，和对方处理的顺序一致
+        private final ArrayDeque<Frame> unacked = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private long acked;
+        private boolean closed;
+
+        PeerLink(long peerId, SocketClientConnection connection) {
+            this.peerId = peerId;
+            this.connection = connection;
+        }
+
+        /**
+         * @param frame NODE_PM帧
+         * @return 连接已断开时返回false
+         */
+        boolean forward(Frame frame) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return false;
+                }
+                unacked.addLast(frame);
+                connection.send(frame);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param count 对方在本连接上已处理的 NODE_PM 总数
+         */
+        void acknowledge(long count) {
+            lock.lock();
+            try {
+                while (acked < count && !unacked.isEmpty()) {
+                    unacked.pollFirst();
+                    acked++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int unackedCount() {
+            lock.lock();
+            try {
+                return unacked.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 连接断开，之后不再接受转发
+         * @return 还未确认的NODE_PM帧，只有第一次调用时返回
+         */
+        List<Frame> close() {
+            lock.lock();
+            try {
+                closed = true;
+                List<Frame> frames = new ArrayList<>(unacked);
+                unacked.clear();
+                return frames;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class RemoteUser {
+        final long userId;
+        final long nodeId;
+        final String userName;
+
+        RemoteUser(long userId, long nodeId, String userName) {
+            this.userId = userId;
+            this.nodeId = nodeId;
+            this.userName = userName;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 阻塞模式下客户端处理任务的执行策略
+ * 通过 config.properties 中的 server.executor 选择
+ */
+public enum ExecutorStrategy {
+    /** 无上限的平台线程池（原有行为） */
+    CACHED,
+    /** 固定上限的平台线程池，超出的连接排队等待 */
+    BOUNDED,
+    /** 每个连接一个虚拟线程 */
+    VIRTUAL;
+
+    /**
+     * 解析配置值，无法识别时使用CACHED
+     * @param value 配置值
+     * @return 执行策略
+     */
+    public static ExecutorStrategy fromConfig(String value) {
+        if (value == null) {
+            return CACHED;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("未知的执行策略: " + value + "，使用cached");
+            return CACHED;
+        }
+    }
+
+    /**
+     * 创建对应的线程池
+     * @param maxThreads BOUNDED策略的最大线程数
+     * @return 线程池
+     */
+    public ExecutorService create(int maxThreads) {
+        switch (this) {
+            case BOUNDED:
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), namedThreads("client-handler-"));
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            case VIRTUAL:
+                return Executors.newThreadPerTaskExecutor(
+                        Thread.ofVirtual().name("client-handler-vt-", 0).factory());
+            case CACHED:
+            default:
+                return Executors.newCachedThreadPool(namedThreads("client-handler-"));
+        }
+    }
+
+    /**
+     * 创建各连接写任务使用的线程池
+     * 写任务在连接的整个生命周期内阻塞等待发送队列，不能与处理任务共用有上限的线程池，
+     * 否则线程用满时写任务排队，已登录连接的应答永远发不出去。
+     * BOUNDED策略下写线程同样最多 maxThreads 个: 写任务在已获得处理线程的任务中启动，
+     * 每个正在处理的连接恰好占用一个写线程，总线程数不超过 2 * maxThreads
+     * @param maxThreads BOUNDED策略的最大线程数
+     * @return 线程池
+     */
+    public ExecutorService createWriters(int maxThreads) {
+        switch (this) {
+            case BOUNDED:
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), namedThreads("client-writer-"));
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            case VIRTUAL:
+                return Executors.newThreadPerTaskExecutor(
+                        Thread.ofVirtual().name("client-writer-vt-", 0).factory());
+            case CACHED:
+            default:
+                return Executors.newCachedThreadPool(namedThreads("client-writer-"));
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + counter.getAndIncrement());
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.service;
+
+import com.example.protocol.Frame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个接收者已发送、尚未确认的在线私聊消息（客户端在握手中声明 MSG_ACK 时使用）
+ * 每个会话（发送者）的消息按递增的序号以 PM_SEQ 发送，客户端回复 MSG_ACK 确认收到的最大序号后
+ * 才从发件箱移除。连接断开后发件箱保留一段时间，接收者重新登录时按原序号重发，客户端按每个会话
+ * 已收到的最大序号丢弃重复的消息；超时仍未重新登录时由 {@link SocketService} 转存为离线消息。
+ * 未确认的消息超过上限时断开这个慢客户端，超出的消息同样留在发件箱中，重新登录后按序号重发，
+ * 不会改存为离线消息而排到之后的在线消息后面。
+ * 编号、发送和重发都在同一把锁内完成，保证同一个连接上的序号按顺序到达
+ */
+final class MessageOutbox {
+    private final int capacity;
+    private final long firstSeq;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 发送者ID -> 会话；会话的序号在服务器运行期间一直保留，不会重新开始
+    private final Map<Long, Conversation> conversations = new HashMap<>();
+    private int size;
+    // 当前接收消息的连接，连接断开后为null
+    private ClientConnection connection;
+    // 连接断开后转存离线消息的定时任务
+    private ScheduledFuture<?> expiry;
+
+    /**
+     * @param capacity 最多保留的未确认消息数
+     * @param firstSeq 每个会话的起始序号
+     */
+    MessageOutbox(int capacity, long firstSeq) {
+        this.capacity = Math.max(1, capacity);
+        this.firstSeq = firstSeq;
+    }
+
+    /**
+     * 接收者以支持确认的连接登录，取消转存并按原序号重发未确认的消息
+     * @param connection 新连接
+     * @return 重发的消息数
+     */
+    int attach(ClientConnection connection) {
+        lock.lock();
+        try {
+            this.connection = connection;
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+            for (Conversation conversation : conversations.values()) {
+                for (Frame frame : conversation.unacked) {
+                    connection.send(frame);
+                }
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接断开
+     * @param connection 断开的连接
+     * @return 断开的是当前连接且还有未确认的消息
+     */
+    boolean detach(ClientConnection connection) {
+        lock.lock();
+        try {
+            if (this.connection != connection) {
+                return false;
+            }
+            this.connection = null;
+            return size > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 发件箱是否接在某个连接上
+     */
+    boolean isAttached() {
+        lock.lock();
+        try {
+            return connection != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 为消息分配序号并发送给当前连接
+     * 当前连接即使已经断开（下线处理尚未执行），消息也保留在发件箱中，下次登录时重发或到期转存为离线消息。
+     * 未确认的消息已达上限时消息只放入发件箱，并断开当前连接
+     * @param senderId 发送者ID
+     * @param content 消息内容
+     * @return 是否已放入发件箱；没有连接时返回false
+     */
+    boolean deliver(long senderId, String content) {
+        ClientConnection slow = null;
+        lock.lock();
+        try {
+            if (connection == null) {
+                return false;
+            }
+            Conversation conversation = conversations.computeIfAbsent(senderId, id -> new Conversation(firstSeq));
+            Frame frame = Frame.sequencedMessage(senderId, ++conversation.lastSeq, content);
+            conversation.unacked.addLast(frame);
+            if (size++ >= capacity) {
+                slow = connection;
+            } else {
+                connection.send(frame);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (slow != null && slow.isOpen()) {
+            // 下线处理取下发件箱并开始计时，重新登录后按序号重发
+            System.err.println("未确认的私聊消息超过 " + capacity + " 条，断开接收者的连接");
+            slow.close();
+        }
+        return true;
+    }
+
+    /**
+     * 客户端确认收到某个会话中序号不大于seq的消息
+     * @param senderId 发送者ID
+     * @param seq 已收到的最大序号
+     * @return 移除的消息数
+     */
+    int acknowledge(long senderId, long seq) {
+        lock.lock();
+        try {
+            Conversation conversation = conversations.get(senderId);
+            if (conversation == null) {
+                return 0;
+            }
+            int removed = 0;
+            while (!conversation.unacked.isEmpty() && conversation.unacked.peekFirst().getCount() <= seq) {
+                conversation.unacked.pollFirst();
+                removed++;
+            }
+            size -= removed;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录连接断开后转存离线消息的定时任务
+     * @param expiry 定时任务
+     */
+    void setExpiry(ScheduledFuture<?> expiry) {
+        lock.lock();
+        try {
+            if (this.expiry != null) {
+                this.expiry.cancel(false);
+            }
+            this.expiry = expiry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有连接时取出全部未确认的消息，用于转存为离线消息
+     * @return PM_SEQ帧，接收者已重新连接时为空
+     */
+    List<Frame> drainIfDetached() {
+        lock.lock();
+        try {
+            return connection != null ? new ArrayList<>() : drain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出全部未确认的消息，服务器关闭时使用
+     * @return PM_SEQ帧
+     */
+    List<Frame> drain() {
+        lock.lock();
+        try {
+            List<Frame> frames = new ArrayList<>(size);
+            for (Conversation conversation : conversations.values()) {
+                frames.addAll(conversation.unacked);
+                conversation.unacked.clear();
+            }
+            size = 0;
+            expiry = null;
+            return frames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 未确认的消息数
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Conversation {
+        private long lastSeq;
+        private final ArrayDeque<Frame> unacked = new ArrayDeque<>();
+
+        Conversation(long firstSeq) {
+            this.lastSeq = firstSeq - 1;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.example.service;
+
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Selector的非阻塞服务器
+ * 少量reactor线程负责accept、读取、按行或按二进制帧切分和写出，
+ * 协议处理（可能访问数据库）交给worker线程池，并按连接串行执行以保证消息顺序
+ */
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final SocketService service;
+    private final ExecutorService workers;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final Charset charset = Charset.defaultCharset();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    public NioServer(SocketService service, int reactorCount, ExecutorService workers) {
+        this.service = service;
+        this.workers = workers;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+    }
+
+    /**
+     * 绑定端口并启动reactor线程
+     * @param port 监听端口
+     * @throws IOException 绑定失败
+     */
+    public void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        running = true;
+
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        // 第一个reactor同时负责accept
+        serverChannel.register(reactors[0].selector, SelectionKey.OP_ACCEPT);
+        for (Reactor reactor : reactors) {
+            reactor.thread.start();
+        }
+    }
+
+    /**
+     * 获取实际监听的端口
+     * @return 端口号
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * 停止所有reactor并关闭监听端口
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭NIO监听端口失败: " + e.getMessage());
+        }
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                reactor.selector.wakeup();
+            }
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Reactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+                reactor.register(new NioClientConnection(channel, reactor));
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("NIO accept error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 单个reactor线程，持有一个Selector
+     */
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<NioClientConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        private final Queue<NioClientConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(NioClientConnection connection) {
+            pendingRegistrations.offer(connection);
+            selector.wakeup();
+        }
+
+        void requestWrite(NioClientConnection connection) {
+            pendingWrites.offer(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    processPending();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        NioClientConnection connection = (NioClientConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("NIO reactor error: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof NioClientConnection) {
+                        ((NioClientConnection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void processPending() {
+            NioClientConnection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            }
+            while ((connection = pendingWrites.poll()) != null) {
+                connection.writeRequested.set(false);
+                SelectionKey key = connection.key;
+                if (key != null && key.isValid() && !connection.outbound.isEmpty()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    /**
+     * NIO模式下的客户端连接
+     */
+    private final class NioClientConnection implements ClientConnection {
+        private final SocketChannel channel;
+        private final Reactor reactor;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final OutboundQueue<ByteBuffer> outbound = service.newOutboundQueue();
+        private final AtomicBoolean writeRequested = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // 按连接串行执行的协议处理任务
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile SelectionKey key;
+        private volatile WireProtocol protocol = WireProtocol.TEXT;
+        // 以下仅由reactor线程访问
+        private byte[] lineBuffer = new byte[256];
+        private int lineLength;
+        private boolean handshakeReceived;
+        private ByteBuffer frameBuffer;
+        // 仅由worker线程访问
+        private Long userId;
+
+        NioClientConnection(SocketChannel channel, Reactor reactor) {
+            this.channel = channel;
+            this.reactor = reactor;
+        }
+
+        /**
+         * 读取数据，按协商的协议切分为消息行或二进制帧
+         */
+        void onReadable() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (protocol == WireProtocol.BINARY) {
+                    readFrames();
+                    return;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength;
+                    if (length > 0 && lineBuffer[length - 1] == '\r') {
+                        length--;
+                    }
+                    String line = decoder.decode(ByteBuffer.wrap(lineBuffer, 0, length)).toString();
+                    lineLength = 0;
+                    onLine(line);
+                } else {
+                    if (lineLength == lineBuffer.length) {
+                        if (lineLength >= MAX_LINE_LENGTH) {
+                            throw new IOException("Line too long");
+                        }
+                        byte[] grown = new byte[Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH)];
+                        System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+                        lineBuffer = grown;
+                    }
+                    lineBuffer[lineLength++] = b;
+                }
+            }
+        }
+
+        private void onLine(String line) {
+            if (!handshakeReceived) {
+                // 在reactor线程上确定协议，紧随握手行之后的数据即可按新协议切分
+                handshakeReceived = true;
+                protocol = service.negotiateProtocol(line);
+                submit(() -> login(line));
+                return;
+            }
+            Frame frame = TextCodec.decodeClientLine(line);
+            if (frame != null) {
+                submit(() -> handleFrame(frame));
+            }
+        }
+
+        /**
+         * 将读取到的数据追加到帧缓冲区并解码出所有完整的帧
+         */
+        private void readFrames() throws IOException {
+            if (frameBuffer == null) {
+                frameBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            }
+            if (frameBuffer.remaining() < readBuffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(frameBuffer.capacity() * 2,
+                        frameBuffer.position() + readBuffer.remaining()));
+                frameBuffer.flip();
+                grown.put(frameBuffer);
+                frameBuffer = grown;
+            }
+            frameBuffer.put(readBuffer);
+            frameBuffer.flip();
+            Frame frame;
+            while ((frame = BinaryCodec.decode(frameBuffer)) != null) {
+                Frame decoded = frame;
+                submit(() -> handleFrame(decoded));
+            }
+            frameBuffer.compact();
+        }
+
+        /**
+         * 写出待发送数据，写完后取消写兴趣
+         */
+        void onWritable() throws IOException {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                outbound.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            // 清除写兴趣后可能有新数据入队
+            if (!outbound.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void login(String line) {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                userId = service.loginClient(this, line);
+            } catch (Exception e) {
+                System.err.println("Client error: " + e.getMessage());
+                close();
+            }
+        }
+
+        // 连接关闭后仍处理已读到的帧（和阻塞模式一样处理EOF之前的每一行），关闭后的回复由send丢弃
+        private void handleFrame(Frame frame) {
+            if (userId == null) {
+                return;
+            }
+            service.handleClientMessage(userId, frame);
+        }
+
+        private void submit(Runnable task) {
+            tasks.offer(task);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::drainTasks);
+                } catch (RuntimeException e) {
+                    // 线程池已关闭
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drainTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("Client error: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+            draining.set(false);
+            if (!tasks.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        @Override
+        public void send(EncodedFrame frame, OutboundQueue.FrameKind kind) {
+            if (closed.get()) {
+                return;
+            }
+            // 只读副本，多个连接共享同一份编码后的字节
+            ByteBuffer encoded = frame.bytes(protocol);
+            if (!outbound.offer(encoded, kind)) {
+                System.err.println("客户端发送队列溢出，断开连接: " + outbound);
+                close();
+                return;
+            }
+            if (writeRequested.compareAndSet(false, true)) {
+                reactor.requestWrite(this);
+            }
+        }
+
+        @Override
+        public void holdWrites() {
+            outbound.hold();
+        }
+
+        @Override
+        public void sendHandshakeReply(Frame reply) {
+            outbound.releaseWith(EncodedFrame.of(reply).bytes(protocol));
+            if (writeRequested.compareAndSet(false, true)) {
+                reactor.requestWrite(this);
+            }
+        }
+
+        @Override
+        public WireProtocol getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public void setProtocol(WireProtocol protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public OutboundQueue<?> getOutboundQueue() {
+            return outbound;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            outbound.close();
+            // 在该连接的任务队列末尾处理下线，保证之前的消息先处理完
+            submit(() -> service.logoutClient(userId, this));
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed.get();
+        }
+    }
+}
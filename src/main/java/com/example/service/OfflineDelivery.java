@@ -0,0 +1,108 @@
+package com.example.service;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.protocol.Frame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个连接上按段确认的离线消息发送（客户端在握手中声明 OFFLINE_ACK 时使用）
+ * 每个发送者同时最多有一段已发送、未确认的消息，这一段以 OFFLINE_END 结束；
+ * 客户端回复 OFFLINE_ACK 后才把这一段标记为已送达并发送下一段。
+ * 连接断开时未确认的一段保持未读，下次请求时从最早的未读消息继续发送
+ */
+final class OfflineDelivery {
+    private final ClientConnection connection;
+    private final OfflineMessageService offlineMessageService;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 发送者ID -> 已发送未确认的一段
+    private final Map<Long, Chunk> pending = new HashMap<>();
+
+    OfflineDelivery(ClientConnection connection, OfflineMessageService offlineMessageService) {
+        this.connection = connection;
+        this.offlineMessageService = offlineMessageService;
+    }
+
+    ClientConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 客户端请求某个发送者的离线消息，从最早的未读消息开始发送第一段
+     * 之前未确认的一段会被重新发送
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     */
+    void start(long receiverId, long senderId) {
+        lock.lock();
+        try {
+            pending.remove(senderId);
+            sendChunk(receiverId, senderId, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 客户端确认收到一段，标记为已送达并发送下一段
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param token 确认号
+     * @return 确认号是否与未确认的一段相符
+     */
+    boolean acknowledge(long receiverId, long senderId, long token) {
+        lock.lock();
+        try {
+            Chunk chunk = pending.get(senderId);
+            if (chunk == null || chunk.token != token) {
+                System.out.println("忽略过期的离线消息确认: 接收者 " + receiverId + " 发送者 " + senderId + " 确认号 " + token);
+                return false;
+            }
+            pending.remove(senderId);
+            offlineMessageService.markMessagesAsDelivered(chunk.messageIds);
+            if (chunk.hasMore) {
+                sendChunk(receiverId, senderId, chunk.cursor);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendChunk(long receiverId, long senderId, MessageDAO.Cursor after) {
+        List<Message> messages = offlineMessageService.getOfflineMessageChunk(receiverId, senderId, after);
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Long> messageIds = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            // 文本协议格式: OFFLINE_MSG:发送者ID:消息内容
+            connection.send(Frame.offlineMessage(senderId, message.getContent()));
+            messageIds.add(message.getId());
+        }
+        Message last = messages.get(messages.size() - 1);
+        // 以这一段最后一条消息的ID作为确认号
+        connection.send(Frame.offlineEnd(senderId, last.getId()));
+        pending.put(senderId, new Chunk(last.getId(), messageIds, MessageDAO.Cursor.of(last),
+                messages.size() >= offlineMessageService.getChunkSize()));
+    }
+
+    private static final class Chunk {
+        final long token;
+        final List<Long> messageIds;
+        final MessageDAO.Cursor cursor;
+        final boolean hasMore;
+
+        Chunk(long token, List<Long> messageIds, MessageDAO.Cursor cursor, boolean hasMore) {
+            this.token = token;
+            this.messageIds = messageIds;
+            this.cursor = cursor;
+            this.hasMore = hasMore;
+        }
+    }
+}
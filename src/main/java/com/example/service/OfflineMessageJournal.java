@@ -0,0 +1,203 @@
+package com.example.service;
+
+import com.example.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 离线消息的本地追加日志
+ * 消息在进入写入队列前先追加到日志（可选fsync），进程崩溃后启动时重放；
+ * 日志中的消息全部写入数据库后清空文件
+ *
+ * 记录格式: int 负载长度 | int CRC32 | long 发送者 | long 接收者 | long 发送时间(毫秒) | UTF-8内容
+ */
+class OfflineMessageJournal implements Closeable {
+    private static final int HEADER_SIZE = 8;
+    private static final int FIXED_PAYLOAD_SIZE = 24;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean fsync;
+    // 保护文件写入位置和appended计数
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 多个线程同时追加时只需一次force，后到的线程发现已被覆盖就直接返回
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private long appended;
+    private long forcedPosition;
+
+    OfflineMessageJournal(Path path, boolean fsync) throws IOException {
+        this.path = path;
+        this.fsync = fsync;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 读取上次运行遗留的消息，末尾不完整或校验失败的记录被截掉
+     * 返回的消息计入appended，需要写入数据库后才能清空日志
+     * @return 遗留的消息
+     */
+    List<Message> recover() throws IOException {
+        writeLock.lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            long size = channel.size();
+            if (size == 0) {
+                return messages;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+            channel.position(0);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // 读满为止
+            }
+            buffer.flip();
+
+            long valid = 0;
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt(buffer.position());
+                int checksum = buffer.getInt(buffer.position() + 4);
+                if (length < FIXED_PAYLOAD_SIZE || buffer.remaining() - HEADER_SIZE < length) {
+                    break;
+                }
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(buffer.position() + HEADER_SIZE).limit(buffer.position() + HEADER_SIZE + length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                messages.add(decode(payload, length));
+                buffer.position(buffer.position() + HEADER_SIZE + length);
+                valid += HEADER_SIZE + length;
+            }
+            if (valid < size) {
+                System.err.println("离线消息日志末尾有 " + (size - valid) + " 字节不完整记录，已截掉: " + path);
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+            forcedPosition = valid;
+            appended = messages.size();
+            return messages;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 追加一条消息，开启fsync时返回前保证已落盘
+     * @param message 离线消息
+     */
+    void append(Message message) throws IOException {
+        ByteBuffer record = encode(message);
+        long end;
+        writeLock.lock();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            appended++;
+            end = channel.position();
+        } finally {
+            writeLock.unlock();
+        }
+        if (fsync) {
+            force(end);
+        }
+    }
+
+    private void force(long end) throws IOException {
+        forceLock.lock();
+        try {
+            if (forcedPosition < end) {
+                long position = channel.position();
+                channel.force(false);
+                forcedPosition = position;
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    /**
+     * 日志中的消息已全部写入数据库时清空日志
+     * 有消息刚追加还没写入时persisted小于appended，不会清空
+     * @param persisted 已写入数据库的消息总数（包括重放的消息）
+     */
+    void truncateIfPersisted(long persisted) throws IOException {
+        writeLock.lock();
+        try {
+            if (persisted != appended || channel.size() == 0) {
+                return;
+            }
+            forceLock.lock();
+            try {
+                channel.truncate(0);
+                channel.position(0);
+                forcedPosition = 0;
+            } finally {
+                forceLock.unlock();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+    private static ByteBuffer encode(Message message) {
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        LocalDateTime sentAt = message.getSentAt() != null ? message.getSentAt() : LocalDateTime.now();
+        int length = FIXED_PAYLOAD_SIZE + content.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.putLong(message.getSenderId());
+        record.putLong(message.getReceiverId());
+        record.putLong(sentAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        record.put(content);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static Message decode(ByteBuffer payload, int length) {
+        long senderId = payload.getLong();
+        long receiverId = payload.getLong();
+        long sentAtMillis = payload.getLong();
+        byte[] content = new byte[length - FIXED_PAYLOAD_SIZE];
+        payload.get(content);
+        Message message = new Message(senderId, receiverId, new String(content, StandardCharsets.UTF_8));
+        message.setSentAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(sentAtMillis), ZoneId.systemDefault()));
+        return message;
+    }
+}
@@ -1,50 +1,96 @@
 package com.example.service;
 
 import com.example.dao.MessageDAO;
+import com.example.dao.CachedUserDAO;
 import com.example.dao.UserDAO;
 import com.example.model.Message;
+import com.example.model.Settings;
 import com.example.model.User;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
  * 离线消息服务类
  * 负责处理离线消息的同步、通知等功能
  */
 public class OfflineMessageService {
-    
+    // 读取离线消息前等待异步写入完成的最长时间
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
     private final MessageDAO messageDAO;
     private final UserDAO userDAO;
+    // 登录时只查询按发送者的未读数，消息内容等客户端请求时再分段读取
+    private final boolean lazySync;
+    // 分段读取离线消息时每段的条数
+    private final int chunkSize;
+    // 异步批量写入，第一次存储离线消息时按配置创建
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private volatile OfflineMessageWriter writer;
+    private boolean writerInitialized;
     
     public OfflineMessageService() {
-        this.messageDAO = new MessageDAO();
-        this.userDAO = new UserDAO();
+        this(new MessageDAO(), CachedUserDAO.getInstance(),
+                Boolean.parseBoolean(Settings.getInstance().getProperty("offline.sync.lazy", "true").trim()),
+                Integer.parseInt(Settings.getInstance().getProperty("offline.fetch.chunkSize", "200").trim()));
+    }
+
+    /**
+     * @param messageDAO 消息DAO
+     * @param userDAO 用户DAO
+     * @param lazySync 登录时是否只查询未读统计
+     * @param chunkSize 分段读取离线消息时每段的条数
+     */
+    public OfflineMessageService(MessageDAO messageDAO, UserDAO userDAO, boolean lazySync, int chunkSize) {
+        this.messageDAO = messageDAO;
+        this.userDAO = userDAO;
+        this.lazySync = lazySync;
+        this.chunkSize = Math.max(1, chunkSize);
     }
     
     /**
      * 用户登录时同步离线消息
+     * offline.sync.lazy=true（默认）时只执行一次按发送者分组的计数查询，不读取消息内容，
+     * 结果中的未读消息列表为空；否则读取全部未读消息并由它们得出统计
      * @param userId 用户ID
      * @return 离线消息同步结果
      */
     public OfflineMessageSyncResult syncOfflineMessages(Long userId) {
         try {
-            // 获取所有未读消息
-            List<Message> unreadMessages = messageDAO.getUnreadMessages(userId);
-            
-            // 获取离线消息统计
-            Map<Long, Integer> messageStats = messageDAO.getOfflineMessageStats(userId);
+            flushPendingMessages();
+
+            List<Message> unreadMessages;
+            Map<Long, Integer> messageStats;
+            if (lazySync) {
+                unreadMessages = Collections.emptyList();
+                messageStats = messageDAO.getOfflineMessageStats(userId);
+            } else {
+                unreadMessages = messageDAO.getUnreadMessages(userId);
+                messageStats = new HashMap<>();
+                for (Message message : unreadMessages) {
+                    messageStats.merge(message.getSenderId(), 1, Integer::sum);
+                }
+            }
+            int totalUnreadCount = 0;
+            for (Integer count : messageStats.values()) {
+                totalUnreadCount += count;
+            }
             
             // 创建同步结果
             OfflineMessageSyncResult result = new OfflineMessageSyncResult();
             result.setUserId(userId);
             result.setUnreadMessages(unreadMessages);
             result.setMessageStats(messageStats);
-            result.setTotalUnreadCount(unreadMessages.size());
+            result.setTotalUnreadCount(totalUnreadCount);
             result.setSuccess(true);
             
-            System.out.println("用户 " + userId + " 离线消息同步完成，共 " + unreadMessages.size() + " 条未读消息");
+            System.out.println("用户 " + userId + " 离线消息同步完成，共 " + totalUnreadCount + " 条未读消息");
             
             return result;
         } catch (Exception e) {
@@ -80,6 +126,65 @@ public class OfflineMessageService {
         }
     }
     
+    /**
+     * 异步存储离线消息，放入写入队列后立即返回，由后台线程批量写入数据库
+     * offline.writeBehind.enabled=false 时同步存储
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     * @return 是否已接收
+     */
+    public boolean queueOfflineMessage(Long senderId, Long receiverId, String content) {
+        OfflineMessageWriter current = getWriter();
+        if (current == null) {
+            return storeOfflineMessage(senderId, receiverId, content);
+        }
+        return current.submit(senderId, receiverId, content);
+    }
+
+    /**
+     * 等待已提交的离线消息写入数据库，读取离线消息前调用
+     */
+    private void flushPendingMessages() {
+        OfflineMessageWriter current = writer;
+        if (current != null && !current.flush(FLUSH_TIMEOUT_MS)) {
+            System.err.println("等待离线消息写入超时，读取结果可能不完整: " + current);
+        }
+    }
+
+    private OfflineMessageWriter getWriter() {
+        OfflineMessageWriter current = writer;
+        if (current != null) {
+            return current;
+        }
+        writerLock.lock();
+        try {
+            if (!writerInitialized) {
+                writer = OfflineMessageWriter.fromConfig(messageDAO);
+                writerInitialized = true;
+            }
+            return writer;
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * 写完队列中剩余的离线消息并停止后台写入线程
+     */
+    public void shutdown() {
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.shutdown(SHUTDOWN_TIMEOUT_MS);
+                writer = null;
+            }
+            writerInitialized = false;
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
     /**
      * 标记消息为已读
      * @param messageIds 消息ID列表
@@ -99,6 +204,25 @@ public class OfflineMessageService {
         }
     }
     
+    /**
+     * 标记消息为已送达（同时标记为已读），客户端确认收到后调用
+     * @param messageIds 消息ID列表
+     * @return 是否成功
+     */
+    public boolean markMessagesAsDelivered(List<Long> messageIds) {
+        try {
+            boolean success = messageDAO.markMessagesAsDelivered(messageIds);
+            if (success) {
+                System.out.println("已将 " + messageIds.size() + " 条消息标记为已送达");
+            }
+            return success;
+        } catch (Exception e) {
+            System.err.println("标记消息为已送达失败: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * 获取来自特定发送者的离线消息
      * @param receiverId 接收者ID
@@ -107,6 +231,8 @@ public class OfflineMessageService {
      */
     public List<Message> getOfflineMessagesFromSender(Long receiverId, Long senderId) {
         try {
+            flushPendingMessages();
+
             // 获取来自特定发送者的未读消息
             List<Message> messages = messageDAO.getOfflineMessagesFromSender(receiverId, senderId);
             
@@ -120,6 +246,75 @@ public class OfflineMessageService {
         }
     }
     
+    /**
+     * 读取来自特定发送者的一段离线消息，不标记为已读
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param after 只返回此游标之后的消息，null表示从最早的未读消息开始
+     * @return 最多 offline.fetch.chunkSize 条消息，从旧到新
+     */
+    public List<Message> getOfflineMessageChunk(Long receiverId, Long senderId, MessageDAO.Cursor after) {
+        try {
+            if (after == null) {
+                flushPendingMessages();
+            }
+            return messageDAO.getOfflineMessagesFromSender(receiverId, senderId, after, chunkSize);
+        } catch (Exception e) {
+            System.err.println("分段获取特定发送者的离线消息失败: " + e.getMessage());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return 分段读取离线消息时每段的条数
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 分段读取来自特定发送者的离线消息，每段交给handler发送后标记为已读
+     * 每次最多读取 offline.fetch.chunkSize 条，内存占用和标记已读的语句长度都与未读总数无关；
+     * handler返回false（例如连接已断开）时停止，未处理的消息保持未读，下次请求时从头继续
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param handler 处理一段消息，返回是否继续
+     * @return 已处理的消息数
+     */
+    public int streamOfflineMessagesFromSender(Long receiverId, Long senderId, Predicate<List<Message>> handler) {
+        int delivered = 0;
+        try {
+            flushPendingMessages();
+
+            MessageDAO.Cursor cursor = null;
+            while (true) {
+                List<Message> chunk = messageDAO.getOfflineMessagesFromSender(receiverId, senderId, cursor, chunkSize);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                if (!handler.test(chunk)) {
+                    break;
+                }
+                List<Long> messageIds = new ArrayList<>(chunk.size());
+                for (Message message : chunk) {
+                    messageIds.add(message.getId());
+                }
+                messageDAO.markMessagesAsRead(messageIds);
+                delivered += chunk.size();
+                if (chunk.size() < chunkSize) {
+                    break;
+                }
+                cursor = MessageDAO.Cursor.of(chunk.get(chunk.size() - 1));
+            }
+        } catch (Exception e) {
+            System.err.println("分段获取特定发送者的离线消息失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+        System.out.println("发送用户 " + receiverId + " 来自用户 " + senderId + " 的离线消息，共 " + delivered + " 条");
+        return delivered;
+    }
+    
     /**
      * 获取用户名
      * @param userId 用户ID
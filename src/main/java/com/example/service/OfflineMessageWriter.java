@@ -0,0 +1,330 @@
+package com.example.service;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.model.Settings;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 离线消息的异步批量写入（write-behind）
+ * 调用方只把消息放入有界队列后立即返回，后台写线程攒够batchSize条，
+ * 或最早的一条等待超过flushIntervalMs后，用一次JDBC批处理写入数据库
+ *
+ * 配置了日志文件时，消息入队前先追加到本地日志（journal.fsync=true时落盘后才返回），
+ * 进程崩溃后下次启动会重放日志中尚未写入数据库的消息
+ */
+public class OfflineMessageWriter {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MS = 200;
+
+    private final MessageDAO messageDAO;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int capacity;
+    private final OfflineMessageJournal journal;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final Thread writerThread;
+    private long submitted;
+    // 已处理的消息数（成功写入或重试后放弃）
+    private long handled;
+    // 成功写入数据库的消息数，和日志中的记录数比较决定能否清空日志
+    private long persisted;
+    private boolean flushRequested;
+    private boolean closed;
+
+    // 统计
+    private long batchCount;
+    private long failedCount;
+    private int maxBatch;
+
+    /**
+     * @param messageDAO 消息DAO
+     * @param batchSize 每批最多写入的消息数
+     * @param flushIntervalMs 不满一批时最长等待时间
+     * @param capacity 队列容量，满时调用方等待
+     * @param journalPath 本地日志文件路径，null或空表示不使用日志
+     * @param fsync 追加日志后是否fsync
+     */
+    public OfflineMessageWriter(MessageDAO messageDAO, int batchSize, long flushIntervalMs, int capacity,
+                                String journalPath, boolean fsync) {
+        this.messageDAO = messageDAO;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMs));
+        this.capacity = Math.max(this.batchSize, capacity);
+        this.journal = openJournal(journalPath, fsync);
+        this.writerThread = new Thread(this::writeLoop, "offline-message-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 按 offline.writeBehind.* 和 offline.journal.* 配置创建
+     * @param messageDAO 消息DAO
+     * @return 写入器，offline.writeBehind.enabled=false 时返回null
+     */
+    public static OfflineMessageWriter fromConfig(MessageDAO messageDAO) {
+        Settings settings = Settings.getInstance();
+        if (!Boolean.parseBoolean(settings.getProperty("offline.writeBehind.enabled", "true").trim())) {
+            return null;
+        }
+        return new OfflineMessageWriter(messageDAO,
+                Integer.parseInt(settings.getProperty("offline.writeBehind.batchSize", "100").trim()),
+                Long.parseLong(settings.getProperty("offline.writeBehind.flushIntervalMs", "50").trim()),
+                Integer.parseInt(settings.getProperty("offline.writeBehind.capacity", "10000").trim()),
+                settings.getProperty("offline.journal.path", "").trim(),
+                Boolean.parseBoolean(settings.getProperty("offline.journal.fsync", "true").trim()));
+    }
+
+    private OfflineMessageJournal openJournal(String journalPath, boolean fsync) {
+        if (journalPath == null || journalPath.isEmpty()) {
+            return null;
+        }
+        try {
+            OfflineMessageJournal opened = new OfflineMessageJournal(Paths.get(journalPath), fsync);
+            List<Message> recovered = opened.recover();
+            if (!recovered.isEmpty()) {
+                // 重放的消息已在日志中，直接入队
+                System.out.println("从离线消息日志重放 " + recovered.size() + " 条消息: " + journalPath);
+                queue.addAll(recovered);
+                submitted += recovered.size();
+            }
+            return opened;
+        } catch (IOException e) {
+            System.err.println("无法打开离线消息日志，不使用日志: " + journalPath + " " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 提交一条离线消息
+     * 已关闭或写日志失败时改为同步写入数据库
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     * @return 是否已接收（入队或同步写入成功）
+     */
+    public boolean submit(long senderId, long receiverId, String content) {
+        Message message = new Message(senderId, receiverId, content);
+        if (journal != null) {
+            try {
+                journal.append(message);
+            } catch (IOException e) {
+                System.err.println("写入离线消息日志失败，改为同步存储: " + e.getMessage());
+                return messageDAO.storeOfflineMessage(senderId, receiverId, content);
+            }
+        }
+        lock.lock();
+        try {
+            while (queue.size() >= capacity && !closed) {
+                notFull.await();
+            }
+            if (!closed) {
+                queue.addLast(message);
+                submitted++;
+                if (queue.size() == 1 || queue.size() >= batchSize) {
+                    notEmpty.signal();
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        return messageDAO.storeOfflineMessage(senderId, receiverId, content);
+    }
+
+    /**
+     * 立即写入队列中已有的消息，并等待写完
+     * 读取离线消息前调用，保证能读到刚提交的消息
+     * @param timeoutMs 最长等待时间
+     * @return 是否在超时前写完
+     */
+    public boolean flush(long timeoutMs) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            long target = submitted;
+            if (handled >= target) {
+                return true;
+            }
+            flushRequested = true;
+            notEmpty.signal();
+            while (handled < target) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = flushed.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止接收新消息，写完队列中剩余的消息后关闭日志
+     * @param timeoutMs 等待写线程结束的最长时间
+     */
+    public void shutdown(long timeoutMs) {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            System.err.println("离线消息写入未在 " + timeoutMs + "ms 内完成，剩余消息保留在日志中: " + this);
+            return;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("关闭离线消息日志失败: " + e.getMessage());
+            }
+        }
+        System.out.println("离线消息写入器已关闭: " + this);
+    }
+
+    private void writeLoop() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    notEmpty.await();
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                // 等待攒够一批，关闭或有人等待flush时不再等
+                long remaining = flushIntervalNanos;
+                while (queue.size() < batchSize && !closed && !flushRequested && remaining > 0) {
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+                while (batch.size() < batchSize && !queue.isEmpty()) {
+                    batch.add(queue.pollFirst());
+                }
+                if (queue.isEmpty()) {
+                    flushRequested = false;
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                // 只有关闭时会中断，队列中的消息仍在日志里
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean stored = store(batch);
+
+            lock.lock();
+            try {
+                handled += batch.size();
+                batchCount++;
+                maxBatch = Math.max(maxBatch, batch.size());
+                if (stored) {
+                    persisted += batch.size();
+                } else {
+                    failedCount += batch.size();
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (stored && journal != null) {
+                try {
+                    journal.truncateIfPersisted(persistedCount());
+                } catch (IOException e) {
+                    System.err.println("清空离线消息日志失败: " + e.getMessage());
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 写入一批消息，失败时重试，仍失败的消息留在日志里等下次启动重放
+     */
+    private boolean store(List<Message> batch) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (messageDAO.storeOfflineMessages(batch)) {
+                return true;
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        System.err.println("离线消息写入失败，放弃 " + batch.size() + " 条"
+                + (journal != null ? "（保留在日志中）" : ""));
+        return false;
+    }
+
+    private long persistedCount() {
+        lock.lock();
+        try {
+            return persisted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 队列中等待写入的消息数
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "OfflineMessageWriter{pending=" + queue.size()
+                    + ", submitted=" + submitted
+                    + ", persisted=" + persisted
+                    + ", failed=" + failedCount
+                    + ", batches=" + batchCount
+                    + ", avgBatch=" + String.format("%.1f", batchCount == 0 ? 0.0 : (double) handled / batchCount)
+                    + ", maxBatch=" + maxBatch
+                    + ", journal=" + (journal != null ? journal : "off")
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个连接的有界发送队列
+ * 广播线程只负责入队，由连接自己的写线程（或reactor）取出写入Socket，
+ * 慢客户端只会填满自己的队列，不会阻塞其他用户的广播
+ *
+ * @param <T> 帧类型（编码帧或已编码的字节）
+ */
+public class OutboundQueue<T> {
+
+    /**
+     * 帧的种类，溢出时只有在线状态类的帧可以被丢弃
+     */
+    public enum FrameKind {
+        MESSAGE,
+        PRESENCE
+    }
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 丢弃队列中最旧的在线状态帧；没有可丢弃的帧时断开连接 */
+        DROP_OLDEST_PRESENCE,
+        /** 直接断开慢客户端 */
+        DISCONNECT,
+        /** 阻塞发送方直到有空位，超时后断开连接 */
+        BLOCK;
+
+        public static OverflowPolicy fromConfig(String value) {
+            if (value == null) {
+                return DROP_OLDEST_PRESENCE;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("未知的队列溢出策略: " + value + "，使用drop_oldest_presence");
+                return DROP_OLDEST_PRESENCE;
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        final T frame;
+        final FrameKind kind;
+
+        Entry(T frame, FrameKind kind) {
+            this.frame = frame;
+            this.kind = kind;
+        }
+    }
+
+    private final ArrayDeque<Entry<T>> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private boolean closed;
+    // 登录完成前暂停写出，期间入队的帧留在队列中
+    private boolean held;
+    // 丢弃过在线状态帧且还未重新同步，之后的增量补不上丢掉的变化
+    private boolean presenceDropped;
+    private volatile Runnable presenceDropListener;
+
+    // 统计
+    private final AtomicLong enqueuedFrames = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile int maxDepth;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * 入队一帧
+     * @param frame 帧
+     * @param kind 帧种类
+     * @return false表示按策略应当断开该连接
+     */
+    public boolean offer(T frame, FrameKind kind) {
+        boolean accepted;
+        boolean firstDrop;
+        lock.lock();
+        try {
+            boolean dropped = presenceDropped;
+            accepted = enqueue(frame, kind);
+            firstDrop = !dropped && presenceDropped;
+        } finally {
+            lock.unlock();
+        }
+        // 只在第一次丢弃时通知，重新同步之前再丢弃的变化也包含在同一次同步中
+        Runnable listener = presenceDropListener;
+        if (firstDrop && listener != null) {
+            listener.run();
+        }
+        return accepted;
+    }
+
+    // 调用时已持有锁
+    private boolean enqueue(T frame, FrameKind kind) {
+        if (closed) {
+            return true;
+        }
+        if (queue.size() >= capacity && !makeRoom(kind)) {
+            return false;
+        }
+        if (closed) {
+            return true;
+        }
+        if (queue.size() >= capacity) {
+            // DROP_OLDEST_PRESENCE下新帧本身就是被丢弃的在线状态帧
+            droppedFrames.incrementAndGet();
+            presenceDropped = true;
+            return true;
+        }
+        queue.addLast(new Entry<>(frame, kind));
+        enqueuedFrames.incrementAndGet();
+        if (queue.size() > maxDepth) {
+            maxDepth = queue.size();
+        }
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * 设置丢弃在线状态帧时的回调，由发送方补发一次完整的在线状态
+     * 回调在入队的线程上、释放队列的锁之后执行，每次 {@link #clearPresenceDropped()} 之后第一次丢弃时调用一次
+     * @param listener 回调
+     */
+    public void setPresenceDropListener(Runnable listener) {
+        this.presenceDropListener = listener;
+    }
+
+    /**
+     * 准备重新同步在线状态，清除丢弃标记
+     * @return 清除前是否丢弃过在线状态帧
+     */
+    public boolean clearPresenceDropped() {
+        lock.lock();
+        try {
+            boolean dropped = presenceDropped;
+            presenceDropped = false;
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用时已持有锁，返回false表示应断开连接
+    private boolean makeRoom(FrameKind kind) {
+        switch (policy) {
+            case DROP_OLDEST_PRESENCE:
+                Iterator<Entry<T>> it = queue.iterator();
+                while (it.hasNext()) {
+                    if (it.next().kind == FrameKind.PRESENCE) {
+                        it.remove();
+                        droppedFrames.incrementAndGet();
+                        presenceDropped = true;
+                        return true;
+                    }
+                }
+                // 队列里全是聊天消息：新的在线状态帧可以直接丢弃，聊天消息则不能静默丢失
+                return kind == FrameKind.PRESENCE;
+            case BLOCK:
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                    while (queue.size() >= capacity && !closed) {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DISCONNECT:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 暂停写出: 之后入队的帧照常排队，但写线程和reactor取不到，直到 {@link #releaseWith(Object)}
+     * 用于登录期间，握手应答要在登录完成后才发出，又必须排在其他帧之前
+     */
+    public void hold() {
+        lock.lock();
+        try {
+            held = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把一帧放在队首并恢复写出
+     * @param frame 最先写出的帧（握手应答）
+     */
+    public void releaseWith(T frame) {
+        lock.lock();
+        try {
+            held = false;
+            if (closed) {
+                return;
+            }
+            queue.addFirst(new Entry<>(frame, FrameKind.MESSAGE));
+            enqueuedFrames.incrementAndGet();
+            if (queue.size() > maxDepth) {
+                maxDepth = queue.size();
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞等待下一帧，供专用写线程使用
+     * @return 下一帧，队列关闭时返回null
+     * @throws InterruptedException 被中断
+     */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while ((queue.isEmpty() || held) && !closed) {
+                notEmpty.await();
+            }
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 非阻塞取出下一帧
+     * @return 下一帧，队列为空时返回null
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 查看队首帧但不取出，供NIO写出部分数据时使用
+     * @return 队首帧，队列为空时返回null
+     */
+    public T peek() {
+        lock.lock();
+        try {
+            Entry<T> head = held ? null : queue.peekFirst();
+            return head != null ? head.frame : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T pollLocked() {
+        if (held) {
+            return null;
+        }
+        Entry<T> head = queue.pollFirst();
+        if (head == null) {
+            return null;
+        }
+        sentFrames.incrementAndGet();
+        notFull.signal();
+        return head.frame;
+    }
+
+    /**
+     * @return 是否没有可以写出的帧（暂停写出时为true）
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return held || queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭队列并丢弃未发送的帧，唤醒所有等待的线程
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 统计信息
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueuedFrames() {
+        return enqueuedFrames.get();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundQueue{" +
+                "depth=" + getDepth() +
+                ", maxDepth=" + maxDepth +
+                ", capacity=" + capacity +
+                ", enqueued=" + enqueuedFrames.get() +
+                ", sent=" + sentFrames.get() +
+                ", dropped=" + droppedFrames.get() +
+                ", policy=" + policy +
+                '}';
+    }
+}
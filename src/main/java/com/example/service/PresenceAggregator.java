@@ -0,0 +1,207 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 合并一个时间窗口内的上线和下线
+ * 第一条变化到达后 windowMs 内的变化按用户合并，只保留每个用户最后的状态，窗口结束或用户数达到 maxBatch 时
+ * 由 {@link SocketService} 取出，与已发布的状态相同的（窗口内上线又下线、下线又上线）不再发送。
+ * 网络抖动后大量用户同时重连时，每个接收者收到一个 PRESENCE_BATCH 而不是每个用户一帧
+ */
+public final class PresenceAggregator {
+    private final long windowMs;
+    private final int maxBatch;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable flusher;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 用户ID -> 窗口内最后的状态，按最后一次变化的顺序排列
+    private final Map<Long, Change> pending = new LinkedHashMap<>();
+    private int pendingEvents;
+    private ScheduledFuture<?> scheduled;
+
+    // 统计
+    private final AtomicLong changesReceived = new AtomicLong();
+    private final AtomicLong changesCancelled = new AtomicLong();
+    private final AtomicLong changesPublished = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesSaved = new AtomicLong();
+
+    /**
+     * @param windowMs 合并窗口，0表示不合并，每条变化立即发送
+     * @param maxBatch 一个窗口内最多合并的用户数，达到后立即发送
+     * @param scheduler 窗口结束时执行发送的调度器
+     * @param flusher 发送合并结果，由调用者在自己的锁内调用 {@link #drain()}
+     */
+    PresenceAggregator(long windowMs, int maxBatch, ScheduledExecutorService scheduler, Runnable flusher) {
+        this.windowMs = Math.max(0, windowMs);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.scheduler = scheduler;
+        this.flusher = flusher;
+    }
+
+    /**
+     * @return 是否按窗口合并
+     */
+    boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * 不合并时把一条变化单独作为一批
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param joined 上线为true，下线为false
+     * @return 只含这条变化的一批
+     */
+    Batch single(long userId, String userName, boolean joined) {
+        changesReceived.incrementAndGet();
+        List<Change> changes = new ArrayList<>(1);
+        changes.add(new Change(userId, userName, joined));
+        return new Batch(changes, 1);
+    }
+
+    /**
+     * 加入一条在线状态变化
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param joined 上线为true，下线为false
+     * @return 是否已达到 maxBatch，需要调用者立即发送
+     */
+    boolean add(long userId, String userName, boolean joined) {
+        changesReceived.incrementAndGet();
+        lock.lock();
+        try {
+            // 先移除再放入，顺序按用户最后一次变化排列
+            pending.remove(userId);
+            pending.put(userId, new Change(userId, userName, joined));
+            pendingEvents++;
+            if (pending.size() >= maxBatch) {
+                return true;
+            }
+            if (scheduled == null && !scheduler.isShutdown()) {
+                scheduled = scheduler.schedule(flusher, windowMs, TimeUnit.MILLISECONDS);
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出窗口内合并后的变化，并取消尚未执行的定时发送
+     * @return 每个用户最后的状态，按最后一次变化的顺序排列
+     */
+    Batch drain() {
+        lock.lock();
+        try {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            Batch batch = new Batch(new ArrayList<>(pending.values()), pendingEvents);
+            pending.clear();
+            pendingEvents = 0;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录一次发送的结果
+     * @param events 合并前的变化数
+     * @param published 实际发送的变化数
+     * @param batches 发送的 PRESENCE_BATCH 数
+     * @param frames 实际发送的帧数
+     * @param unbatchedFrames 不合并时需要发送的帧数
+     */
+    void recordFlush(int events, int published, int batches, long frames, long unbatchedFrames) {
+        changesCancelled.addAndGet(events - published);
+        changesPublished.addAndGet(published);
+        batchesSent.addAndGet(batches);
+        framesSent.addAndGet(frames);
+        framesSaved.addAndGet(unbatchedFrames - frames);
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * @return 收到的上线和下线次数
+     */
+    public long getChangesReceived() {
+        return changesReceived.get();
+    }
+
+    /**
+     * @return 合并后不需要发送的变化数（同一用户的多次变化、窗口内上线又下线）
+     */
+    public long getChangesCancelled() {
+        return changesCancelled.get();
+    }
+
+    /**
+     * @return 实际发送的变化数
+     */
+    public long getChangesPublished() {
+        return changesPublished.get();
+    }
+
+    /**
+     * @return 发送的 PRESENCE_BATCH 帧数（每个接收者计一次）
+     */
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /**
+     * @return 实际发送的在线状态帧数
+     */
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    /**
+     * @return 与每条变化单独广播相比少发送的帧数
+     */
+    public long getFramesSaved() {
+        return framesSaved.get();
+    }
+
+    static final class Change {
+        final long userId;
+        final String userName;
+        final boolean joined;
+
+        Change(long userId, String userName, boolean joined) {
+            this.userId = userId;
+            this.userName = userName;
+            this.joined = joined;
+        }
+    }
+
+    static final class Batch {
+        final List<Change> changes;
+        // 合并前的变化数
+        final int events;
+
+        Batch(List<Change> changes, int events) {
+            this.changes = changes;
+            this.events = events;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.service;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 在线用户及最近的在线状态变化
+ * 每次用户上线或下线分配一个递增的版本号，环形缓冲区保留最近 capacity 条；
+ * 客户端报告已收到的纪元和版本号，服务器只补发之后的变化，纪元不同或太旧时改发完整的快照。
+ * 纪元在每个服务器实例启动时随机生成，切换服务器或服务器重启后客户端的版本号不会被误用。
+ * 快照在两次变化之间只生成一次，由所有请求共享
+ */
+final class PresenceLog {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long epoch = RANDOM.nextInt(Integer.MAX_VALUE) + 1L;
+    private final long[] versions;
+    private final long[] userIds;
+    private final String[] userNames;
+    private final boolean[] joined;
+    // 用户ID -> 用户名，按ID排序，快照中的ID可按差值编码
+    private final Map<Long, String> members = new TreeMap<>();
+    private long version;
+    // 最近一次生成的快照，版本号变化后重新生成
+    private Snapshot snapshot;
+    private long snapshotBuilds;
+
+    /**
+     * @param capacity 保留的变化条数
+     */
+    PresenceLog(int capacity) {
+        int size = Math.max(1, capacity);
+        this.versions = new long[size];
+        this.userIds = new long[size];
+        this.userNames = new String[size];
+        this.joined = new boolean[size];
+    }
+
+    /**
+     * 记录一次在线状态变化
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param isJoined 上线为true，下线为false
+     * @return 这次变化的版本号
+     */
+    long record(long userId, String userName, boolean isJoined) {
+        lock.lock();
+        try {
+            version++;
+            int slot = (int) (version % versions.length);
+            versions[slot] = version;
+            userIds[slot] = userId;
+            userNames[slot] = userName;
+            joined[slot] = isJoined;
+            if (isJoined) {
+                members.put(userId, userName);
+            } else {
+                members.remove(userId);
+            }
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param userId 用户ID
+     * @return 已发布的状态中该用户是否在线
+     */
+    boolean isMember(long userId) {
+        lock.lock();
+        try {
+            return members.containsKey(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 本服务器实例的在线状态纪元
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return 最新的版本号，还没有变化时为0
+     */
+    long currentVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取某个版本号之后的全部变化
+     * @param after 客户端已收到的版本号
+     * @return 按版本号排列的变化；需要的变化已被覆盖或版本号无效时返回null
+     */
+    List<Entry> since(long after) {
+        lock.lock();
+        try {
+            if (after < 0 || after > version || version - after > versions.length) {
+                return null;
+            }
+            List<Entry> entries = new ArrayList<>((int) (version - after));
+            for (long v = after + 1; v <= version; v++) {
+                int slot = (int) (v % versions.length);
+                entries.add(new Entry(versions[slot], userIds[slot], userNames[slot], joined[slot]));
+            }
+            return entries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取客户端从某个纪元和版本号追上当前状态需要的变化
+     * @param clientEpoch 客户端已知的纪元
+     * @param after 客户端已收到的版本号
+     * @return 按版本号排列的变化；纪元不同或变化已被覆盖时返回null，需要发送快照
+     */
+    List<Entry> since(long clientEpoch, long after) {
+        return clientEpoch == epoch ? since(after) : null;
+    }
+
+    /**
+     * 获取当前在线用户的快照
+     * 版本号没有变化时返回上一次的快照，编码结果也一起共享
+     * @return 快照
+     */
+    Snapshot snapshot() {
+        lock.lock();
+        try {
+            if (snapshot == null || snapshot.version != version) {
+                long[] ids = new long[members.size()];
+                String[] names = new String[ids.length];
+                int i = 0;
+                for (Map.Entry<Long, String> member : members.entrySet()) {
+                    ids[i] = member.getKey();
+                    names[i] = member.getValue();
+                    i++;
+                }
+                snapshot = new Snapshot(epoch, version, ids, names);
+                snapshotBuilds++;
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 生成过的快照数，请求数远大于该值说明快照被共享
+     */
+    long getSnapshotBuilds() {
+        lock.lock();
+        try {
+            return snapshotBuilds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static final class Entry {
+        final long version;
+        final long userId;
+        final String userName;
+        final boolean joined;
+
+        Entry(long version, long userId, String userName, boolean joined) {
+            this.version = version;
+            this.userId = userId;
+            this.userName = userName;
+            this.joined = joined;
+        }
+    }
+
+    /**
+     * 某个版本号时的在线用户，生成后不再修改
+     */
+    static final class Snapshot {
+        final long epoch;
+        final long version;
+        final long[] userIds;
+        final String[] userNames;
+        // 延迟创建；并发首次访问时可能重复创建，结果相同，不影响正确性
+        private volatile EncodedFrame frame;
+        private volatile EncodedFrame userList;
+
+        Snapshot(long epoch, long version, long[] userIds, String[] userNames) {
+            this.epoch = epoch;
+            this.version = version;
+            this.userIds = userIds;
+            this.userNames = userNames;
+        }
+
+        /**
+         * @return 支持增量的客户端使用的 PRESENCE_SNAPSHOT
+         */
+        EncodedFrame frame() {
+            EncodedFrame encoded = frame;
+            if (encoded == null) {
+                encoded = EncodedFrame.shared(Frame.presenceSnapshot(epoch, version, userIds, userNames));
+                frame = encoded;
+            }
+            return encoded;
+        }
+
+        /**
+         * @return 旧客户端使用的 USER_LIST
+         */
+        EncodedFrame userList() {
+            EncodedFrame encoded = userList;
+            if (encoded == null) {
+                encoded = EncodedFrame.shared(Frame.userList(userIds, userNames));
+                userList = encoded;
+            }
+            return encoded;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.service;
+
+import java.security.SecureRandom;
+
+/**
+ * 一个用户可恢复的会话（客户端在握手中声明 RESUME 时使用）
+ * 每次登录分配新的随机令牌，连接断开后令牌在 server.resume.ttlMs 内有效；
+ * 客户端以该令牌重连时服务器只补发错过的在线状态变化，未确认的私聊消息由 {@link MessageOutbox} 重发
+ */
+final class ResumeSession {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String token;
+    // 当前连接，断开后为null
+    private volatile ClientConnection connection;
+    private volatile long detachedAt;
+
+    ResumeSession(ClientConnection connection) {
+        this.token = Long.toHexString(RANDOM.nextLong());
+        this.connection = connection;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * 连接断开
+     * @param connection 断开的连接
+     * @return 断开的是否为当前连接
+     */
+    boolean detach(ClientConnection connection) {
+        if (this.connection != connection) {
+            return false;
+        }
+        this.connection = null;
+        detachedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * 客户端提供的令牌是否可以恢复该会话
+     * 旧连接可能还没有被发现断开，此时同样允许恢复
+     * @param token 令牌
+     * @param ttlMs 断开后令牌的有效期
+     * @return 是否有效
+     */
+    boolean accepts(String token, long ttlMs) {
+        if (!this.token.equals(token)) {
+            return false;
+        }
+        return connection != null || System.currentTimeMillis() - detachedAt <= ttlMs;
+    }
+
+    /**
+     * @param ttlMs 断开后令牌的有效期
+     * @return 连接已断开且超过有效期
+     */
+    boolean isExpired(long ttlMs) {
+        return connection == null && System.currentTimeMillis() - detachedAt > ttlMs;
+    }
+}
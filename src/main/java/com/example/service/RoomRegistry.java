@@ -0,0 +1,332 @@
+package com.example.service;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 房间的在线成员索引
+ * 每个房间保存一个成员数组，加入和离开时在房间的锁内复制出新数组再替换（写时复制），
+ * 发送房间消息时读取当前数组直接遍历，不加锁也不复制；一条消息的开销只与房间人数有关。
+ * 房间的最后一个成员离开后删除该房间。
+ * 加入和离开时的 ROOM_JOINED / ROOM_MEMBERS / ROOM_LEFT 在房间的锁内按成员变化的顺序排入该房间的通知队列，
+ * 由一个线程在锁外依次发出: 每个成员收到的通知和成员变化的顺序一致，发送时（BLOCK策略下可能等待）不持有任何锁，
+ * 慢成员只会推迟同一房间的通知，不影响其他房间的加入和离开。
+ * 这里只有在线的成员，加入过的房间由 {@link com.example.dao.RoomDAO} 持久化，登录时重新加入
+ */
+public final class RoomRegistry {
+    private static final Member[] NO_MEMBERS = new Member[0];
+
+    private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+    // 用户ID -> 在线加入的房间，下线时据此离开所有房间
+    // 同一用户可能同时在不同房间的锁内加入和离开，集合只在 compute/computeIfPresent 内修改，删除空集合和向其中添加不会交错
+    private final Map<Long, Set<Long>> userRooms = new ConcurrentHashMap<>();
+
+    /**
+     * 房间中的一个在线成员，创建后不再修改
+     */
+    public static final class Member {
+        private final long userId;
+        private final String userName;
+        private final ClientConnection connection;
+
+        Member(long userId, String userName, ClientConnection connection) {
+            this.userId = userId;
+            this.userName = userName;
+            this.connection = connection;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public ClientConnection getConnection() {
+            return connection;
+        }
+    }
+
+    private static final class Room {
+        private final ReentrantLock lock = new ReentrantLock();
+        // 只在lock内替换，读取时不加锁
+        private volatile Member[] members = NO_MEMBERS;
+        // 已从索引中删除，加入时需要重新创建房间
+        private boolean closed;
+        // 以下两个字段只在lock内访问: 待发出的通知，以及是否已有线程在发出
+        private final ArrayDeque<Runnable> notices = new ArrayDeque<>();
+        private boolean notifying;
+    }
+
+    /**
+     * 用户加入房间；已在房间中时换成新的连接
+     * 新成员加入时通知房间中的其他成员（ROOM_JOINED），并向该连接发送房间的在线成员（ROOM_MEMBERS）
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param connection 用户的连接
+     * @return 是否是新加入的成员（换连接时返回false）
+     */
+    public boolean join(long roomId, long userId, String userName, ClientConnection connection) {
+        Member member = new Member(userId, userName, connection);
+        while (true) {
+            Room room = rooms.computeIfAbsent(roomId, id -> new Room());
+            boolean added;
+            room.lock.lock();
+            try {
+                if (room.closed) {
+                    continue;
+                }
+                Member[] members = room.members;
+                int index = indexOf(members, userId);
+                Member[] updated;
+                if (index >= 0) {
+                    updated = members.clone();
+                    updated[index] = member;
+                } else {
+                    updated = Arrays.copyOf(members, members.length + 1);
+                    updated[members.length] = member;
+                    userRooms.compute(userId, (id, joined) -> {
+                        Set<Long> set = joined != null ? joined : ConcurrentHashMap.newKeySet();
+                        set.add(roomId);
+                        return set;
+                    });
+                }
+                room.members = updated;
+                added = index < 0;
+                // 成员数组创建后不再修改，通知发出时使用这一刻的成员
+                Member[] current = updated;
+                if (added) {
+                    room.notices.addLast(() -> publish(current,
+                            EncodedFrame.shared(Frame.roomJoined(roomId, userId, userName)),
+                            OutboundQueue.FrameKind.PRESENCE, userId));
+                }
+                room.notices.addLast(() -> connection.send(membersFrame(roomId, current)));
+            } finally {
+                room.lock.unlock();
+            }
+            notifyMembers(room);
+            return added;
+        }
+    }
+
+    /**
+     * 用户离开房间，通知房间中的其他成员（ROOM_LEFT）
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @param connection 只有成员仍使用该连接时才离开（用户已用新连接重新加入时不离开），为null时不检查
+     * @return 离开的成员，不在房间中时返回null
+     */
+    public Member leave(long roomId, long userId, ClientConnection connection) {
+        return leave(roomId, userId, connection, false);
+    }
+
+    /**
+     * 用户离开房间，通知房间中的其他成员（ROOM_LEFT）
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @param connection 只有成员仍使用该连接时才离开（用户已用新连接重新加入时不离开），为null时不检查
+     * @param confirm 是否同时向离开的成员发送 ROOM_LEFT 确认，排在该房间之前的通知之后
+     * @return 离开的成员，不在房间中时返回null
+     */
+    public Member leave(long roomId, long userId, ClientConnection connection, boolean confirm) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            return null;
+        }
+        Member left;
+        room.lock.lock();
+        try {
+            Member[] members = room.members;
+            int index = indexOf(members, userId);
+            if (index < 0 || (connection != null && members[index].connection != connection)) {
+                return null;
+            }
+            Member[] updated = new Member[members.length - 1];
+            System.arraycopy(members, 0, updated, 0, index);
+            System.arraycopy(members, index + 1, updated, index, members.length - index - 1);
+            room.members = updated;
+            if (updated.length == 0) {
+                room.closed = true;
+                rooms.remove(roomId, room);
+            }
+            userRooms.computeIfPresent(userId, (id, joined) -> {
+                joined.remove(roomId);
+                return joined.isEmpty() ? null : joined;
+            });
+            left = members[index];
+            room.notices.addLast(() -> {
+                EncodedFrame frame = EncodedFrame.shared(Frame.roomLeft(roomId, userId, left.userName));
+                publish(updated, frame, OutboundQueue.FrameKind.PRESENCE, userId);
+                if (confirm) {
+                    left.connection.send(frame, OutboundQueue.FrameKind.MESSAGE);
+                }
+            });
+        } finally {
+            room.lock.unlock();
+        }
+        notifyMembers(room);
+        return left;
+    }
+
+    /**
+     * 重新向成员发送房间的在线成员，用于该连接丢弃过房间内的上线和下线之后
+     * @param roomId 房间ID
+     * @param connection 成员的连接
+     * @return 该连接是否是房间成员
+     */
+    public boolean resendMembers(long roomId, ClientConnection connection) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            return false;
+        }
+        room.lock.lock();
+        try {
+            Member[] members = room.members;
+            boolean member = false;
+            for (Member m : members) {
+                if (m.connection == connection) {
+                    member = true;
+                    break;
+                }
+            }
+            if (!member) {
+                return false;
+            }
+            room.notices.addLast(() -> connection.send(membersFrame(roomId, members)));
+        } finally {
+            room.lock.unlock();
+        }
+        notifyMembers(room);
+        return true;
+    }
+
+    /**
+     * 房间当前的在线成员，返回的数组不能修改
+     * @param roomId 房间ID
+     * @return 成员数组，房间不存在时为空数组
+     */
+    public Member[] members(long roomId) {
+        Room room = rooms.get(roomId);
+        return room != null ? room.members : NO_MEMBERS;
+    }
+
+    /**
+     * 用户是否在线加入了房间
+     * @param roomId 房间ID
+     * @param userId 用户ID
+     * @return 是否是成员
+     */
+    public boolean isMember(long roomId, long userId) {
+        return indexOf(members(roomId), userId) >= 0;
+    }
+
+    /**
+     * 用户在线加入的房间
+     * @param userId 用户ID
+     * @return 房间ID列表
+     */
+    public List<Long> roomsOf(long userId) {
+        Set<Long> joined = userRooms.get(userId);
+        return joined != null ? new ArrayList<>(joined) : new ArrayList<>();
+    }
+
+    /**
+     * 把一帧发给房间的所有在线成员，所有成员共享同一个编码结果
+     * @param roomId 房间ID
+     * @param frame 已编码的帧
+     * @param kind 帧类型，房间内的在线状态按 PRESENCE 发送，队列满时可以丢弃
+     * @param excludeUserId 不发送的用户（通常是发送者），没有时传0
+     * @return 发送的成员数
+     */
+    public int publish(long roomId, EncodedFrame frame, OutboundQueue.FrameKind kind, long excludeUserId) {
+        return publish(members(roomId), frame, kind, excludeUserId);
+    }
+
+    private static int publish(Member[] members, EncodedFrame frame, OutboundQueue.FrameKind kind, long excludeUserId) {
+        int sent = 0;
+        for (Member member : members) {
+            if (member.userId != excludeUserId) {
+                member.connection.send(frame, kind);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * @return 有在线成员的房间数
+     */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * @return 在线加入了房间的用户数
+     */
+    public int getUserCount() {
+        return userRooms.size();
+    }
+
+    /**
+     * 在锁外依次发出房间的通知；已有线程在发出时只返回，新排入的通知由该线程发出
+     */
+    private static void notifyMembers(Room room) {
+        room.lock.lock();
+        try {
+            if (room.notifying) {
+                return;
+            }
+            room.notifying = true;
+        } finally {
+            room.lock.unlock();
+        }
+        while (true) {
+            Runnable notice;
+            room.lock.lock();
+            try {
+                notice = room.notices.pollFirst();
+                if (notice == null) {
+                    room.notifying = false;
+                    return;
+                }
+            } finally {
+                room.lock.unlock();
+            }
+            try {
+                notice.run();
+            } catch (RuntimeException e) {
+                System.err.println("发送房间通知失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Frame membersFrame(long roomId, Member[] members) {
+        long[] memberIds = new long[members.length];
+        String[] memberNames = new String[members.length];
+        for (int i = 0; i < members.length; i++) {
+            memberIds[i] = members[i].userId;
+            memberNames[i] = members[i].userName;
+        }
+        return Frame.roomMembers(roomId, memberIds, memberNames);
+    }
+
+    private static int indexOf(Member[] members, long userId) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].userId == userId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.service;
+
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.WireProtocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 阻塞模式下的客户端连接
+ * 发送方只把消息放入有界队列，由专用写任务取出并写入Socket
+ */
+public class SocketClientConnection implements ClientConnection {
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final OutboundQueue<EncodedFrame> outbound;
+    // 仅由写线程访问，攒够一批或队列为空时写入Socket
+    private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+    private int writePosition;
+    private volatile WireProtocol protocol = WireProtocol.TEXT;
+
+    public SocketClientConnection(Socket socket, OutboundQueue<EncodedFrame> outbound,
+                                  ExecutorService writerExecutor) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.outbound = outbound;
+        writerExecutor.submit(this::writeLoop);
+    }
+
+    /**
+     * 写线程：取出队列中的消息写入Socket，队列暂时为空时再flush，减少系统调用
+     * 帧已经编码好，这里只把共享字节复制到本连接的写缓冲区
+     */
+    private void writeLoop() {
+        try {
+            EncodedFrame frame;
+            while ((frame = outbound.take()) != null) {
+                write(frame.bytes(protocol));
+                if (outbound.isEmpty()) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            // 客户端已断开
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (writePosition == writeBuffer.length) {
+                flush();
+            }
+            int n = Math.min(bytes.remaining(), writeBuffer.length - writePosition);
+            bytes.get(writeBuffer, writePosition, n);
+            writePosition += n;
+        }
+    }
+
+    private void flush() throws IOException {
+        if (writePosition > 0) {
+            out.write(writeBuffer, 0, writePosition);
+            writePosition = 0;
+        }
+    }
+
+    @Override
+    public void send(EncodedFrame frame, OutboundQueue.FrameKind kind) {
+        if (!outbound.offer(frame, kind)) {
+            System.err.println("客户端发送队列溢出，断开连接: " + outbound);
+            close();
+        }
+    }
+
+    @Override
+    public void holdWrites() {
+        outbound.hold();
+    }
+
+    @Override
+    public void sendHandshakeReply(Frame reply) {
+        outbound.releaseWith(EncodedFrame.of(reply));
+    }
+
+    @Override
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public void setProtocol(WireProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public OutboundQueue<?> getOutboundQueue() {
+        return outbound;
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+}
@@ -1,24 +1,97 @@
 package com.example.service;
 
+import com.example.dao.CachedUserDAO;
+import com.example.dao.RoomDAO;
 import com.example.dao.UserDAO;
 import com.example.model.Message;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.EncodedFrame;
+import com.example.protocol.Frame;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
 import com.example.service.OfflineMessageService.OfflineMessageSyncResult;
+import com.example.util.LruCache;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SocketService {
     private static final int PORT = 8888;
     private static final int DISCOVERY_PORT = 8889;
+    // 服务器自身的accept循环和发现服务
     private final ExecutorService threadPool = Executors.newCachedThreadPool();
-    private final Map<Long, Socket> onlineUsers = new ConcurrentHashMap<>();
-    private final Map<Long, PrintWriter> userWriters = new ConcurrentHashMap<>();
+    // 阻塞模式下每个客户端连接的处理任务
+    private final ExecutorService clientExecutor;
+    // 阻塞模式下每个连接的写任务，单独的线程池，不占用处理任务的线程上限
+    private final ExecutorService writerExecutor;
+    private final Map<Long, ClientConnection> onlineUsers = new ConcurrentHashMap<>();
     private final Map<Long, String> userNames = new ConcurrentHashMap<>();
+    // 支持按段确认离线消息的连接
+    private final Map<Long, OfflineDelivery> offlineDeliveries = new ConcurrentHashMap<>();
+    // 接收者ID -> 未确认的在线私聊消息，用户下线后保留，序号不会重新开始
+    private final Map<Long, MessageOutbox> outboxes = new ConcurrentHashMap<>();
+    // 最近接收的 "发送者ID:客户端消息ID"，客户端重发同一条消息时不再投递
+    private final LruCache<String, Boolean> recentClientMessages;
+    // 用户ID -> 可恢复的会话，断线重连时凭令牌只补发错过的在线状态变化
+    private final Map<Long, ResumeSession> resumeSessions = new ConcurrentHashMap<>();
+    private final PresenceLog presenceLog;
+    // 接收带版本号的在线状态变化的连接（握手中声明了 PRESENCE 或 RESUME）
+    private final Set<ClientConnection> versionedPresence = ConcurrentHashMap.newKeySet();
+    // 接收合并后的 PRESENCE_BATCH 的连接（握手中声明了 PRESENCE）
+    private final Set<ClientConnection> batchedPresence = ConcurrentHashMap.newKeySet();
+    // 在线状态的记录和发送、快照和补发都在这把锁内完成，保证每个连接上快照和增量按版本号顺序到达
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    // 合并时间窗口内的上线和下线，窗口结束时一起发送
+    private final PresenceAggregator presenceAggregator;
+    private final ScheduledExecutorService presenceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "presence-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 连接断开后到期转存未确认的消息
+    private final ScheduledExecutorService deliveryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "message-outbox-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
     private ServerSocket serverSocket;
     private DatagramSocket discoverySocket;
-    private boolean isRunning = false;
+    private volatile boolean isRunning = false;
+    private volatile int serverPort;
+
+    // IO模式: blocking 每连接一个线程; nio 由少量reactor线程处理所有连接
+    private final String ioMode;
+    private NioServer nioServer;
+    private ExecutorService nioWorkers;
+
+    // 每个连接的发送队列配置
+    private final int outboundCapacity;
+    private final OutboundQueue.OverflowPolicy overflowPolicy;
+    private final long outboundBlockTimeoutMs;
+
+    // 是否允许客户端在握手中协商二进制协议
+    private final boolean binaryProtocolEnabled;
+
+    // 私聊消息确认的配置
+    private final int outboxCapacity;
+    private final long outboxRetainMs;
+    // 会话序号从服务器启动时间（毫秒）开始，重启后新的序号仍大于客户端记录的最大序号
+    private final long firstSeq = System.currentTimeMillis();
+    // 断开后恢复令牌的有效期
+    private final long resumeTtlMs;
+
+    // 集群模式下与其他节点的连接和路由表，单机运行时为null
+    private final ClusterNode cluster;
+
+    // 房间的在线成员，房间消息和房间内的上线下线只发给成员；
+    // ROOM_MEMBERS / ROOM_JOINED / ROOM_LEFT 由 RoomRegistry 按房间排序发出
+    private final RoomRegistry rooms = new RoomRegistry();
+    private final RoomDAO roomDAO;
 
     // 添加离线消息服务和用户DAO
     private final OfflineMessageService offlineMessageService;
@@ -26,14 +99,122 @@ public class SocketService {
 
     // 构造函数
     public SocketService() {
-        this.offlineMessageService = new OfflineMessageService();
-        this.userDAO = new UserDAO();
+        this(new OfflineMessageService(), CachedUserDAO.getInstance());
+    }
+
+    public SocketService(OfflineMessageService offlineMessageService, UserDAO userDAO) {
+        this(offlineMessageService, userDAO, new RoomDAO());
+    }
+
+    public SocketService(OfflineMessageService offlineMessageService, UserDAO userDAO, RoomDAO roomDAO) {
+        this.offlineMessageService = offlineMessageService;
+        this.userDAO = userDAO;
+        this.roomDAO = roomDAO;
+        Settings settings = Settings.getInstance();
+        this.ioMode = settings.getProperty("server.io.mode", "blocking").trim();
+
+        ExecutorStrategy strategy = ExecutorStrategy.fromConfig(settings.getProperty("server.executor", "cached"));
+        int maxThreads = Integer.parseInt(settings.getProperty("server.executor.maxThreads", "200").trim());
+        this.clientExecutor = strategy.create(maxThreads);
+        this.writerExecutor = strategy.createWriters(maxThreads);
+        System.out.println("Client executor strategy: " + strategy);
+
+        this.outboundCapacity = Integer.parseInt(settings.getProperty("server.outbound.capacity", "1024").trim());
+        this.overflowPolicy = OutboundQueue.OverflowPolicy.fromConfig(
+                settings.getProperty("server.outbound.policy", "drop_oldest_presence"));
+        this.outboundBlockTimeoutMs = Long.parseLong(settings.getProperty("server.outbound.blockTimeoutMs", "2000").trim());
+        this.binaryProtocolEnabled = Boolean.parseBoolean(settings.getProperty("server.protocol.binary", "true").trim());
+        this.outboxCapacity = Integer.parseInt(settings.getProperty("server.delivery.maxUnacked", "1000").trim());
+        this.outboxRetainMs = Long.parseLong(settings.getProperty("server.delivery.retainMs", "30000").trim());
+        this.resumeTtlMs = Long.parseLong(settings.getProperty("server.resume.ttlMs", "60000").trim());
+        this.presenceLog = new PresenceLog(Integer.parseInt(settings.getProperty("server.resume.presenceLog", "4096").trim()));
+        this.presenceAggregator = new PresenceAggregator(
+                Long.parseLong(settings.getProperty("server.presence.batchWindowMs", "100").trim()),
+                Integer.parseInt(settings.getProperty("server.presence.maxBatch", "500").trim()),
+                presenceScheduler, this::flushPresence);
+        this.recentClientMessages = new LruCache<>("recentClientMessages",
+                Integer.parseInt(settings.getProperty("server.delivery.dedupSize", "100000").trim()),
+                Long.parseLong(settings.getProperty("server.delivery.dedupTtlMs", "600000").trim()), 0);
+        if (Boolean.parseBoolean(settings.getProperty("cluster.enabled", "false").trim())) {
+            this.cluster = new ClusterNode(this,
+                    Long.parseLong(settings.getProperty("cluster.nodeId", "1").trim()),
+                    settings.getProperty("cluster.bindAddress", ""),
+                    Integer.parseInt(settings.getProperty("cluster.port", "9900").trim()),
+                    settings.getProperty("cluster.secret", "").trim(),
+                    ClusterNode.parsePeers(settings.getProperty("cluster.peers", "")),
+                    Long.parseLong(settings.getProperty("cluster.reconnectMs", "1000").trim()),
+                    Integer.parseInt(settings.getProperty("cluster.link.capacity", "65536").trim()));
+        } else {
+            this.cluster = null;
+        }
+    }
+
+    /**
+     * 为新连接创建发送队列
+     * @param <T> 帧类型
+     * @return 按配置创建的有界队列
+     */
+    <T> OutboundQueue<T> newOutboundQueue() {
+        return new OutboundQueue<>(outboundCapacity, overflowPolicy, outboundBlockTimeoutMs);
+    }
+
+    /**
+     * 获取每个在线连接的发送队列统计（队列深度、丢帧数等）
+     * @return 用户ID -> 发送队列
+     */
+    public Map<Long, OutboundQueue<?>> getConnectionMetrics() {
+        Map<Long, OutboundQueue<?>> metrics = new HashMap<>();
+        for (Map.Entry<Long, ClientConnection> entry : onlineUsers.entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().getOutboundQueue());
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取在线状态合并的统计（合并掉的变化数、少发送的帧数等）
+     * @return 在线状态合并器
+     */
+    public PresenceAggregator getPresenceAggregator() {
+        return presenceAggregator;
+    }
+
+    /**
+     * 获取集群节点，用于查看路由表和转发统计
+     * @return 集群节点，未启用集群时为null
+     */
+    public ClusterNode getClusterNode() {
+        return cluster;
+    }
+
+    /**
+     * 获取房间的在线成员索引
+     * @return 房间索引
+     */
+    public RoomRegistry getRoomRegistry() {
+        return rooms;
+    }
+
+    /**
+     * 获取生成过的在线用户快照数
+     * 快照在两次在线状态变化之间共享，该值远小于用户列表请求数
+     * @return 快照数
+     */
+    public long getPresenceSnapshotBuilds() {
+        return presenceLog.getSnapshotBuilds();
     }
 
     // Start the server with automatic discovery service
     public void startServer(int port) {
-        final int serverPort = port > 0 ? port : PORT;
+        serverPort = port > 0 ? port : PORT;
         isRunning = true;
+        if (cluster != null) {
+            cluster.start();
+        }
+
+        if ("nio".equalsIgnoreCase(ioMode)) {
+            startNioServer();
+            return;
+        }
         
         // Start TCP server
         threadPool.submit(() -> {
@@ -58,6 +239,25 @@ public class SocketService {
         });
     }
     
+    // Start the selector based server, protocol work runs on a small worker pool
+    private void startNioServer() {
+        Settings settings = Settings.getInstance();
+        int reactors = Integer.parseInt(settings.getProperty("server.nio.reactors", "2").trim());
+        int workers = Integer.parseInt(settings.getProperty("server.nio.workers", "4").trim());
+
+        nioWorkers = Executors.newFixedThreadPool(Math.max(1, workers));
+        nioServer = new NioServer(this, reactors, nioWorkers);
+        try {
+            nioServer.start(serverPort);
+            System.out.println("NIO server started on port " + serverPort +
+                              " (" + reactors + " reactors, " + workers + " workers)");
+            startDiscoveryService();
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+            shutdown();
+        }
+    }
+
     // Start UDP discovery service to allow clients to find the server
     private void startDiscoveryService() {
         threadPool.submit(() -> {
@@ -75,7 +275,7 @@ public class SocketService {
                     if ("DISCOVER_SERVER".equals(message)) {
                         // Get server's IP address
                         String serverIP = InetAddress.getLocalHost().getHostAddress();
-                        String response = serverIP + ":" + serverSocket.getLocalPort();
+                        String response = serverIP + ":" + serverPort;
                         
                         // Send response back to client
                         byte[] responseData = response.getBytes();
@@ -104,54 +304,35 @@ public class SocketService {
     }
     
     private void handleClientConnection(Socket socket) {
-        threadPool.submit(() -> {
+        clientExecutor.submit(() -> {
             Long userId = null;
-            String userName = null;
+            ClientConnection connection = null;
             try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+                InputStream in = new BufferedInputStream(socket.getInputStream())
             ) {
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                // 写任务在获得处理线程之后才启动，BOUNDED策略下排队的连接不占用写线程
+                connection = new SocketClientConnection(socket, newOutboundQueue(), writerExecutor);
 
-                String idLine = in.readLine();
+                // 握手行逐字节读取，之后同一个流按协商的协议继续读取
+                String idLine = TextCodec.readLine(in, Charset.defaultCharset());
                 if (idLine == null) throw new IOException("Client disconnected");
 
-                userId = Long.parseLong(idLine);
-                
-                // 从数据库获取真实用户名
-                userName = getUserNameFromDatabase(userId);
-                if (userName == null || userName.isEmpty()) {
-                    userName = "User" + userId;
-                }
-                
-                onlineUsers.put(userId, socket);
-                userWriters.put(userId, out);
-                
-                // 保存用户名到映射中
-                userNames.put(userId, userName);
-
-                // 同步离线消息
-                syncOfflineMessagesForUser(userId, out);
+                connection.setProtocol(negotiateProtocol(idLine));
+                userId = loginClient(connection, idLine);
 
-                // 通知所有用户有新用户加入
-                broadcastUserJoined(userId, userName);
-
-                String message;
-                while ((message = in.readLine()) != null) {
-                    System.out.println("收到用户 " + userId + " 的消息: " + message);
-                    
-                    if (message.equals("GET_USERS")) {
-                        // 发送用户列表给请求的客户端
-                        sendUserList(userId);
-                    } else if (message.startsWith("PM:")) {
-                        // 处理私聊消息
-                        handlePrivateMessage(userId, message.substring(3));
-                    } else if (message.startsWith("GET_OFFLINE_MSG:")) {
-                        // 处理获取离线消息请求
-                        String senderIdStr = message.substring(15);
-                        System.out.println("收到获取离线消息请求，发送者ID字符串: '" + senderIdStr + "'");
-                        handleGetOfflineMessages(userId, senderIdStr);
-                    } else {
-                        broadcastMessage(userId, message);
+                if (connection.getProtocol() == WireProtocol.BINARY) {
+                    Frame frame;
+                    while ((frame = BinaryCodec.read(in)) != null) {
+                        handleClientMessage(userId, frame);
+                    }
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                    String message;
+                    while ((message = reader.readLine()) != null) {
+                        Frame frame = TextCodec.decodeClientLine(message);
+                        if (frame != null) {
+                            handleClientMessage(userId, frame);
+                        }
                     }
                 }
 
@@ -159,35 +340,368 @@ public class SocketService {
                 System.err.println("Client error: " + e.getMessage());
                 e.printStackTrace();
             } finally {
-                if (userId != null) {
-                    onlineUsers.remove(userId);
-                    userWriters.remove(userId);
-                    userNames.remove(userId);
-                    // 通知所有用户该用户已离开
-                    broadcastUserLeft(userId, userName != null ? userName : "User" + userId);
-                    System.out.println("User " + userId + " disconnected");
+                logoutClient(userId, connection);
+                if (connection != null) {
+                    // 同时结束该连接的写任务
+                    connection.close();
+                } else {
+                    closeSocket(socket);
                 }
-                closeSocket(socket);
             }
         });
     }
 
+    /**
+     * 根据客户端的第一行决定线路协议
+     * 旧客户端直接发送用户ID，使用文本协议；新客户端发送 HELLO:用户ID:协议列表
+     * @param idLine 第一行
+     * @return 线路协议
+     */
+    WireProtocol negotiateProtocol(String idLine) {
+        if (!binaryProtocolEnabled || !idLine.startsWith(WireProtocol.HELLO_PREFIX)) {
+            return WireProtocol.TEXT;
+        }
+        String[] parts = idLine.substring(WireProtocol.HELLO_PREFIX.length()).split(":", 2);
+        if (parts.length == 2) {
+            for (String token : parts[1].split(",")) {
+                if (WireProtocol.fromToken(token) == WireProtocol.BINARY) {
+                    return WireProtocol.BINARY;
+                }
+            }
+        }
+        return WireProtocol.TEXT;
+    }
+
+    /**
+     * 处理客户端发送的第一行（用户ID或握手行），完成上线流程
+     * 调用前需先通过 {@link #negotiateProtocol(String)} 设置连接的协议
+     * @param connection 客户端连接
+     * @param idLine 用户ID行
+     * @return 用户ID
+     */
+    Long loginClient(ClientConnection connection, String idLine) {
+        Long userId;
+        // 恢复会话时客户端已收到的在线状态版本号，-1表示不是恢复
+        long resumeFrom = -1;
+        // 握手应答，登录登记完成后才发出
+        Frame helloOk = null;
+        if (idLine.startsWith(WireProtocol.HELLO_PREFIX)) {
+            String[] parts = idLine.substring(WireProtocol.HELLO_PREFIX.length()).split(":", 2);
+            userId = Long.parseLong(parts[0].trim());
+            // 客户端收到握手应答即认为已上线，应答发出前其他用户发来的消息必须已能送达该连接；
+            // 登记期间发往该连接的帧先留在队列中，排在应答之后
+            connection.holdWrites();
+            List<String> capabilities = new ArrayList<>();
+            // 只向声明了 MSG_ACK 的客户端回显该功能
+            if (acknowledgesMessages(idLine)) {
+                capabilities.add(WireProtocol.CAPABILITY_MSG_ACK);
+            }
+            if (WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_PRESENCE)) {
+                capabilities.add(WireProtocol.CAPABILITY_PRESENCE + "=" + presenceLog.getEpoch());
+            }
+            String resume = WireProtocol.capabilityValue(idLine, WireProtocol.CAPABILITY_RESUME);
+            if (resume != null || WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_PRESENCE)) {
+                versionedPresence.add(connection);
+            }
+            if (WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_PRESENCE)) {
+                batchedPresence.add(connection);
+            }
+            if (WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_ROOMS)) {
+                capabilities.add(WireProtocol.CAPABILITY_ROOMS);
+            }
+            if (resume != null) {
+                resumeFrom = resumeFrom(userId, resume);
+                ResumeSession session = new ResumeSession(connection);
+                resumeSessions.put(userId, session);
+                capabilities.add(WireProtocol.CAPABILITY_RESUME + "=" + session.getToken() + "." + presenceLog.currentVersion());
+                if (resumeFrom >= 0) {
+                    capabilities.add(WireProtocol.RESUMED);
+                }
+            }
+            helloOk = Frame.helloOk(WireProtocol.helloOkText(connection.getProtocol(),
+                    capabilities.toArray(new String[0])));
+        } else {
+            userId = Long.parseLong(idLine.trim());
+        }
+
+        // 从数据库获取真实用户名
+        String userName = getUserNameFromDatabase(userId);
+        if (userName == null || userName.isEmpty()) {
+            userName = "User" + userId;
+        }
+
+        // 先接上发件箱再上线，之后发给该用户的私聊消息都带序号，排在重发的消息之后
+        if (acknowledgesMessages(idLine)) {
+            MessageOutbox outbox = outboxes.computeIfAbsent(userId, id -> new MessageOutbox(outboxCapacity, firstSeq));
+            int resent = outbox.attach(connection);
+            if (resent > 0) {
+                System.out.println("向用户 " + userId + " 重发 " + resent + " 条未确认的私聊消息");
+            }
+        } else {
+            // 旧客户端不会确认，保留的消息转存为离线消息，下面的同步会统计到
+            expireOutbox(userId, false);
+        }
+        long loggedIn = userId;
+        connection.getOutboundQueue().setPresenceDropListener(() -> resyncPresenceLater(loggedIn, connection));
+        onlineUsers.put(userId, connection);
+        if (WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_OFFLINE_ACK)) {
+            offlineDeliveries.put(userId, new OfflineDelivery(connection, offlineMessageService));
+        } else {
+            offlineDeliveries.remove(userId);
+        }
+
+        // 保存用户名到映射中
+        userNames.put(userId, userName);
+
+        // 握手应答必须是该连接发出的第一帧
+        if (helloOk != null) {
+            connection.sendHandshakeReply(helloOk);
+        }
+
+        // 同步离线消息
+        syncOfflineMessagesForUser(userId, connection);
+
+        // 通知所有用户有新用户加入
+        broadcastUserJoined(userId, userName);
+
+        // 重新加入上次加入的房间，旧客户端不处理房间帧，不查询
+        if (WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_ROOMS)) {
+            restoreRooms(userId, userName, connection);
+        }
+
+        // 恢复会话时只补发错过的在线状态变化，不需要客户端再请求完整的用户列表
+        if (resumeFrom >= 0) {
+            replayPresence(userId, connection, resumeFrom);
+        }
+        return userId;
+    }
+
+    /**
+     * 处理已登录客户端发送的一帧消息
+     * @param userId 用户ID
+     * @param frame 已解码的帧
+     */
+    void handleClientMessage(long userId, Frame frame) {
+        System.out.println("收到用户 " + userId + " 的消息: " + frame);
+
+        switch (frame.getOpcode()) {
+            case GET_USERS:
+                // 发送用户列表给请求的客户端
+                sendUserList(userId);
+                break;
+            case PRESENCE_SYNC:
+                // 客户端报告已知的纪元和版本号，只补发之后的变化
+                syncPresence(userId, frame.getId(), frame.getCount());
+                break;
+            case PM:
+                // 处理私聊消息
+                handlePrivateMessage(userId, frame.getId(), frame.getText());
+                break;
+            case PM_SEND:
+                // 带客户端消息ID的私聊消息，接收后回复 PM_SENT
+                handleSendPrivateMessage(userId, frame.getId(), frame.getCount(), frame.getText());
+                break;
+            case MSG_ACK:
+                // 客户端确认收到某个会话的私聊消息
+                handleMessageAck(userId, frame.getId(), frame.getCount());
+                break;
+            case GET_OFFLINE_MSG:
+                // 处理获取离线消息请求
+                handleGetOfflineMessages(userId, frame.getId());
+                break;
+            case OFFLINE_ACK:
+                // 客户端确认收到一段离线消息
+                handleOfflineAck(userId, frame.getId(), frame.getCount());
+                break;
+            case CHAT:
+                broadcastMessage(userId, frame.getText());
+                break;
+            case ROOM_JOIN:
+                handleJoinRoom(userId, frame.getId());
+                break;
+            case ROOM_LEAVE:
+                handleLeaveRoom(userId, frame.getId());
+                break;
+            case ROOM_MSG:
+                // 房间消息只发给房间的成员
+                handleRoomMessage(userId, frame.getId(), frame.getText());
+                break;
+            default:
+                System.err.println("忽略客户端发送的帧: " + frame);
+        }
+    }
+
+    /**
+     * 客户端断开后的下线流程
+     * @param userId 用户ID，未完成登录时为null
+     * @param connection 断开的连接
+     */
+    void logoutClient(Long userId, ClientConnection connection) {
+        if (userId == null) {
+            return;
+        }
+        // 未确认的离线消息保持未读
+        OfflineDelivery delivery = offlineDeliveries.get(userId);
+        if (delivery != null && delivery.getConnection() == connection) {
+            offlineDeliveries.remove(userId, delivery);
+        }
+        // 未确认的私聊消息保留一段时间，期间重新登录时重发，否则转存为离线消息
+        MessageOutbox outbox = outboxes.get(userId);
+        if (outbox != null && outbox.detach(connection) && !deliveryScheduler.isShutdown()) {
+            outbox.setExpiry(deliveryScheduler.schedule(() -> expireOutbox(userId, false),
+                    outboxRetainMs, TimeUnit.MILLISECONDS));
+        }
+        // 恢复令牌在有效期内保留，过期后删除
+        ResumeSession session = resumeSessions.get(userId);
+        if (session != null && session.detach(connection) && !deliveryScheduler.isShutdown()) {
+            deliveryScheduler.schedule(() -> {
+                if (session.isExpired(resumeTtlMs)) {
+                    resumeSessions.remove(userId, session);
+                }
+            }, resumeTtlMs + 1, TimeUnit.MILLISECONDS);
+        }
+        if (connection != null) {
+            versionedPresence.remove(connection);
+            batchedPresence.remove(connection);
+            // 离开在线加入的房间，成员记录保留，下次登录时恢复
+            leaveRooms(userId, connection);
+        }
+        // 同一用户可能已经用新连接重新登录，只移除当前连接
+        if (connection != null && !onlineUsers.remove(userId, connection)) {
+            return;
+        }
+        String userName = userNames.remove(userId);
+        // 通知所有用户该用户已离开
+        broadcastUserLeft(userId, userName != null ? userName : "User" + userId);
+        System.out.println("User " + userId + " disconnected");
+    }
+
     private void broadcastMessage(long senderId, String content) {
         // 使用真实用户名
         String senderName = userNames.getOrDefault(senderId, "User" + senderId);
-        String formattedMessage = senderName + ": " + content;
+        if (cluster != null) {
+            cluster.broadcastChat(senderId, senderName, content);
+        }
+        sendChat(senderId, senderName, content);
+    }
+
+    /**
+     * 其他节点转发来的群聊消息，只发给本节点的用户
+     * @param senderId 发送者ID
+     * @param senderName 发送者名
+     * @param content 消息内容
+     */
+    void deliverForwardedChat(long senderId, String senderName, String content) {
+        sendChat(senderId, senderName, content);
+    }
+
+    private void sendChat(long senderId, String senderName, String content) {
+        // 只编码一次，所有接收者共享编码结果
+        EncodedFrame frame = EncodedFrame.shared(Frame.chat(senderId, senderName, content));
         
-        for (Map.Entry<Long, PrintWriter> entry : userWriters.entrySet()) {
+        for (Map.Entry<Long, ClientConnection> entry : onlineUsers.entrySet()) {
             if (entry.getKey() != senderId) {
-                sendMessage(entry.getKey(), formattedMessage);
+                entry.getValue().send(frame, OutboundQueue.FrameKind.MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * 加入房间: 保存成员记录，发送房间的在线成员，并通知房间中的其他成员
+     * @param userId 用户ID
+     * @param roomId 房间ID
+     */
+    private void handleJoinRoom(long userId, long roomId) {
+        ClientConnection connection = onlineUsers.get(userId);
+        if (connection == null) {
+            return;
+        }
+        if (!roomDAO.addMember(roomId, userId)) {
+            System.err.println("用户 " + userId + " 加入房间 " + roomId + " 失败");
+            return;
+        }
+        joinRoom(roomId, userId, userNames.getOrDefault(userId, "User" + userId), connection);
+        System.out.println("用户 " + userId + " 加入房间 " + roomId);
+    }
+
+    /**
+     * 离开房间: 删除成员记录，通知房间中的其他成员，并向该用户确认
+     * @param userId 用户ID
+     * @param roomId 房间ID
+     */
+    private void handleLeaveRoom(long userId, long roomId) {
+        roomDAO.removeMember(roomId, userId);
+        // 在线成员的确认和其他成员的通知一起按房间的顺序发出；不在房间中时直接确认
+        if (rooms.leave(roomId, userId, null, true) == null) {
+            ClientConnection connection = onlineUsers.get(userId);
+            if (connection != null) {
+                connection.send(Frame.roomLeft(roomId, userId, userNames.getOrDefault(userId, "User" + userId)));
             }
         }
+        System.out.println("用户 " + userId + " 离开房间 " + roomId);
+    }
+
+    private void handleRoomMessage(long senderId, long roomId, String content) {
+        if (!rooms.isMember(roomId, senderId)) {
+            System.err.println("用户 " + senderId + " 不在房间 " + roomId + " 中，忽略房间消息");
+            return;
+        }
+        String senderName = userNames.getOrDefault(senderId, "User" + senderId);
+        if (cluster != null) {
+            cluster.broadcastRoomMessage(roomId, senderId, senderName, content);
+        }
+        sendRoomMessage(roomId, senderId, senderName, content);
+    }
+
+    /**
+     * 其他节点转发来的房间消息，只发给本节点上的房间成员
+     * @param roomId 房间ID
+     * @param senderId 发送者ID
+     * @param senderName 发送者名
+     * @param content 消息内容
+     */
+    void deliverForwardedRoomMessage(long roomId, long senderId, String senderName, String content) {
+        sendRoomMessage(roomId, senderId, senderName, content);
+    }
+
+    private void sendRoomMessage(long roomId, long senderId, String senderName, String content) {
+        // 只编码一次，房间的所有成员共享编码结果
+        rooms.publish(roomId, EncodedFrame.shared(Frame.roomMessage(roomId, senderId, senderName, content)),
+                OutboundQueue.FrameKind.MESSAGE, senderId);
+    }
+
+    /**
+     * 登录时重新加入上次加入的房间
+     */
+    private void restoreRooms(long userId, String userName, ClientConnection connection) {
+        List<Long> roomIds = roomDAO.getRoomsOfUser(userId);
+        for (Long roomId : roomIds) {
+            joinRoom(roomId, userId, userName, connection);
+        }
+        if (!roomIds.isEmpty()) {
+            System.out.println("用户 " + userId + " 重新加入 " + roomIds.size() + " 个房间");
+        }
+    }
+
+    private void joinRoom(long roomId, long userId, String userName, ClientConnection connection) {
+        // 同一用户用新连接重新加入时不再通知其他成员，只向新连接发送成员列表
+        rooms.join(roomId, userId, userName, connection);
+    }
+
+    /**
+     * 连接断开时离开该连接加入的所有房间，通知房间中的其他成员
+     */
+    private void leaveRooms(long userId, ClientConnection connection) {
+        for (Long roomId : rooms.roomsOf(userId)) {
+            rooms.leave(roomId, userId, connection);
+        }
     }
 
     public void sendMessage(long userId, String content) {
-        PrintWriter writer = userWriters.get(userId);
-        if (writer != null) {
-            writer.println(content);
+        ClientConnection connection = onlineUsers.get(userId);
+        Frame frame = TextCodec.decodeServerLine(content);
+        if (connection != null && frame != null) {
+            connection.send(frame);
         }
     }
 
@@ -209,19 +723,39 @@ public class SocketService {
                 discoverySocket.close();
             }
             
-            // Close all client connections
-            for (Socket socket : onlineUsers.values()) {
-                closeSocket(socket);
-            }
-            onlineUsers.clear();
-            userWriters.clear();
-
             // Close server socket
+            // 先停止接受新连接，否则自动重连的客户端可能在关闭过程中连回这个服务器
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            // 其他节点在连接断开后把本节点的用户都视为下线
+            if (cluster != null) {
+                cluster.stop();
+            }
+
+            // Close all client connections
+            for (ClientConnection connection : onlineUsers.values()) {
+                connection.close();
+            }
+            onlineUsers.clear();
+            if (nioServer != null) {
+                nioServer.stop();
+            }
+            if (nioWorkers != null) {
+                nioWorkers.shutdownNow();
+            }
             
+            clientExecutor.shutdownNow();
+            writerExecutor.shutdownNow();
             threadPool.shutdownNow();
+            // 还未确认的私聊消息转存为离线消息，不等保留期结束
+            deliveryScheduler.shutdownNow();
+            presenceScheduler.shutdownNow();
+            for (Long userId : outboxes.keySet()) {
+                expireOutbox(userId, true);
+            }
+            // 连接都已关闭，不会再有新的离线消息，写完队列中剩余的
+            offlineMessageService.shutdown();
             System.out.println("Server shutdown complete");
         } catch (IOException e) {
             System.err.println("Error during shutdown: " + e.getMessage());
@@ -229,69 +763,417 @@ public class SocketService {
     }
 
     // 向特定用户发送在线用户列表
+    // 快照在两次在线状态变化之间只生成和编码一次，所有请求共享同一份字节
     private void sendUserList(long requestingUserId) {
-        PrintWriter writer = userWriters.get(requestingUserId);
-        if (writer != null) {
-            StringBuilder userListStr = new StringBuilder("USER_LIST:");
-            boolean first = true;
-            
-            for (Long userId : onlineUsers.keySet()) {
-                if (!first) {
-                    userListStr.append(",");
-                }
-                first = false;
-                
-                // 使用真实用户名
-                String userName = userNames.getOrDefault(userId, "User" + userId);
-                userListStr.append(userId).append(":").append(userName);
+        ClientConnection connection = onlineUsers.get(requestingUserId);
+        if (connection != null) {
+            presenceLock.lock();
+            try {
+                PresenceLog.Snapshot snapshot = presenceLog.snapshot();
+                connection.send(versionedPresence.contains(connection) ? snapshot.frame() : snapshot.userList(),
+                        OutboundQueue.FrameKind.MESSAGE);
+            } finally {
+                presenceLock.unlock();
             }
-            
-            writer.println(userListStr.toString());
+        }
+    }
+
+    /**
+     * 客户端报告已知的在线状态纪元和版本号
+     * 纪元相同且需要的变化仍在日志中时只补发之后的变化，否则发送快照
+     * @param userId 用户ID
+     * @param epoch 客户端已知的纪元，没有时为0
+     * @param version 客户端已收到的版本号
+     */
+    private void syncPresence(long userId, long epoch, long version) {
+        ClientConnection connection = onlineUsers.get(userId);
+        if (connection == null) {
+            return;
+        }
+        presenceLock.lock();
+        try {
+            List<PresenceLog.Entry> missed = presenceLog.since(epoch, version);
+            if (missed == null) {
+                sendUserList(userId);
+                return;
+            }
+            sendPresenceChanges(userId, connection, missed);
+        } finally {
+            presenceLock.unlock();
         }
     }
 
     // Broadcast to all users that a new user has joined
     private void broadcastUserJoined(long userId, String userName) {
-        String joinMessage = "USER_JOINED:" + userId + ":" + userName;
-        for (Map.Entry<Long, PrintWriter> entry : userWriters.entrySet()) {
-            if (entry.getKey() != userId) { // Don't send to the user who joined
-                entry.getValue().println(joinMessage);
-            }
+        if (cluster != null) {
+            cluster.publish(userId, userName, true);
         }
+        broadcastPresence(userId, userName, true);
     }
 
     // Broadcast to all users that a user has left
     private void broadcastUserLeft(long userId, String userName) {
-        String leftMessage = "USER_LEFT:" + userId + ":" + userName;
-        for (PrintWriter writer : userWriters.values()) {
-            writer.println(leftMessage);
+        if (cluster != null) {
+            cluster.publish(userId, userName, false);
         }
+        broadcastPresence(userId, userName, false);
     }
 
-    // 处理私聊消息
-    private void handlePrivateMessage(long senderId, String message) {
-        // 私聊消息格式: 接收者ID:消息内容
-        String[] parts = message.split(":", 2);
-        if (parts.length == 2) {
-            long receiverId = Long.parseLong(parts[0]);
-            String content = parts[1];
-
-            // 向接收者发送私聊消息
-            PrintWriter receiverWriter = userWriters.get(receiverId);
-            if (receiverWriter != null) {
-                // 接收者在线，直接发送消息
-                receiverWriter.println("PM:" + senderId + ":" + content);
-                System.out.println("Private message from " + senderId + " to " + receiverId + ": " + content);
-            } else {
-                // 接收者离线，存储为离线消息
-                boolean stored = offlineMessageService.storeOfflineMessage(senderId, receiverId, content);
-                if (stored) {
-                    System.out.println("Offline message stored from " + senderId + " to " + receiverId + ": " + content);
-                } else {
-                    System.err.println("Failed to store offline message from " + senderId + " to " + receiverId);
+    /**
+     * 其他节点上的用户上线或下线，只通知本节点的用户
+     * @param userId 用户ID
+     * @param userName 用户名
+     * @param joined 上线为true，下线为false
+     */
+    void clusterPresenceChanged(long userId, String userName, boolean joined) {
+        broadcastPresence(userId, userName, joined);
+    }
+
+    /**
+     * @return 本节点的在线用户及用户名，发送给新连接的节点
+     */
+    Map<Long, String> localUsers() {
+        Map<Long, String> users = new HashMap<>();
+        for (Long userId : onlineUsers.keySet()) {
+            users.put(userId, userNames.getOrDefault(userId, "User" + userId));
+        }
+        return users;
+    }
+
+    /**
+     * @param userId 用户ID
+     * @return 用户是否在本节点或集群的其他节点上在线
+     */
+    private boolean isOnline(long userId) {
+        return onlineUsers.containsKey(userId) || (cluster != null && cluster.isRemote(userId));
+    }
+
+    // 合并窗口为0时立即发送，否则放入合并窗口
+    private void broadcastPresence(long userId, String userName, boolean joined) {
+        if (!presenceAggregator.isEnabled()) {
+            presenceLock.lock();
+            try {
+                publishPresence(presenceAggregator.single(userId, userName, joined));
+            } finally {
+                presenceLock.unlock();
+            }
+        } else if (presenceAggregator.add(userId, userName, joined)) {
+            flushPresence();
+        }
+    }
+
+    // 发送合并窗口内的变化，在锁内取出，先取出的一批一定先发布
+    private void flushPresence() {
+        presenceLock.lock();
+        try {
+            publishPresence(presenceAggregator.drain());
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    /**
+     * 发送一批在线状态变化，调用者需持有 presenceLock
+     * 每个用户按发送时是否在线（本节点或集群的其他节点）决定上线还是下线，而不是按事件本身: 同一用户的旧连接下线和
+     * 新连接上线由不同线程或不同节点通知，到达顺序可能与实际相反。与已发布的状态相同的被丢弃，其余的依次分配版本号。支持 PRESENCE 的客户端收到一个 PRESENCE_BATCH，
+     * 只有一条变化时收到 PRESENCE_JOINED/PRESENCE_LEFT；只支持 RESUME 的客户端逐条收到带版本号的帧，
+     * 其他客户端逐条收到原来的 USER_JOINED/USER_LEFT。用户不会逐条收到自己上线的通知
+     */
+    private void publishPresence(PresenceAggregator.Batch batch) {
+        if (batch.events == 0) {
+            return;
+        }
+        List<PresenceAggregator.Change> changes = new ArrayList<>(batch.changes.size());
+        for (PresenceAggregator.Change change : batch.changes) {
+            boolean online = isOnline(change.userId);
+            if (presenceLog.isMember(change.userId) != online) {
+                changes.add(online == change.joined ? change : new PresenceAggregator.Change(change.userId,
+                        userNames.getOrDefault(change.userId, change.userName), online));
+            }
+        }
+        long frames = 0;
+        int batches = 0;
+        if (!changes.isEmpty()) {
+            int size = changes.size();
+            long[] ids = new long[size];
+            String[] names = new String[size];
+            EncodedFrame[] versioned = new EncodedFrame[size];
+            EncodedFrame[] legacy = new EncodedFrame[size];
+            long firstVersion = 0;
+            for (int i = 0; i < size; i++) {
+                PresenceAggregator.Change change = changes.get(i);
+                long version = presenceLog.record(change.userId, change.userName, change.joined);
+                if (i == 0) {
+                    firstVersion = version;
+                }
+                ids[i] = change.joined ? change.userId : -change.userId;
+                names[i] = change.userName;
+                versioned[i] = EncodedFrame.shared(change.joined
+                        ? Frame.presenceJoined(change.userId, version, change.userName)
+                        : Frame.presenceLeft(change.userId, version, change.userName));
+                legacy[i] = EncodedFrame.shared(change.joined
+                        ? Frame.userJoined(change.userId, change.userName)
+                        : Frame.userLeft(change.userId, change.userName));
+            }
+            EncodedFrame batchFrame = size > 1 ? EncodedFrame.shared(Frame.presenceBatch(firstVersion, ids, names)) : null;
+            for (Map.Entry<Long, ClientConnection> entry : onlineUsers.entrySet()) {
+                ClientConnection connection = entry.getValue();
+                if (batchFrame != null && batchedPresence.contains(connection)) {
+                    connection.send(batchFrame, OutboundQueue.FrameKind.PRESENCE);
+                    frames++;
+                    batches++;
+                    continue;
+                }
+                EncodedFrame[] encoded = versionedPresence.contains(connection) ? versioned : legacy;
+                for (int i = 0; i < size; i++) {
+                    if (changes.get(i).userId != entry.getKey()) { // Don't send to the user who joined
+                        connection.send(encoded[i], OutboundQueue.FrameKind.PRESENCE);
+                        frames++;
+                    }
                 }
             }
         }
+        presenceAggregator.recordFlush(batch.events, changes.size(), batches, frames,
+                (long) batch.events * onlineUsers.size());
+    }
+
+    /**
+     * 检查客户端的恢复令牌
+     * @param userId 用户ID
+     * @param resume 握手中 RESUME 的值: "令牌.在线状态版本号"，第一次连接时为空
+     * @return 令牌有效时客户端已收到的在线状态版本号，否则为-1
+     */
+    private long resumeFrom(long userId, String resume) {
+        int dot = resume.indexOf('.');
+        if (dot <= 0) {
+            return -1;
+        }
+        ResumeSession previous = resumeSessions.get(userId);
+        if (previous == null || !previous.accepts(resume.substring(0, dot), resumeTtlMs)) {
+            System.out.println("用户 " + userId + " 的恢复令牌无效或已过期，按新会话登录");
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(resume.substring(dot + 1)));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 向恢复会话的客户端补发断线期间的在线状态变化
+     * 需要的变化已不在日志中时改发完整的用户列表
+     * @param userId 用户ID
+     * @param connection 新连接
+     * @param after 客户端已收到的在线状态版本号
+     */
+    private void replayPresence(long userId, ClientConnection connection, long after) {
+        presenceLock.lock();
+        try {
+            List<PresenceLog.Entry> missed = presenceLog.since(after);
+            if (missed == null) {
+                System.out.println("用户 " + userId + " 错过的在线状态变化已不在日志中，发送完整的用户列表");
+                sendUserList(userId);
+                return;
+            }
+            sendPresenceChanges(userId, connection, missed);
+            System.out.println("用户 " + userId + " 恢复会话，补发 " + missed.size() + " 条在线状态变化");
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    /**
+     * 连接的发送队列溢出时丢弃了在线状态帧，客户端的版本号随后的增量越过了缺口，PRESENCE_SYNC 和恢复会话都不会再补发；
+     * 在presence线程上重新发送一次完整的用户列表
+     * @param userId 用户ID
+     * @param connection 丢弃了在线状态帧的连接
+     */
+    private void resyncPresenceLater(long userId, ClientConnection connection) {
+        try {
+            presenceScheduler.execute(() -> resyncPresence(userId, connection));
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭
+        }
+    }
+
+    private void resyncPresence(long userId, ClientConnection connection) {
+        presenceLock.lock();
+        try {
+            if (!connection.getOutboundQueue().clearPresenceDropped() || !connection.isOpen()) {
+                return;
+            }
+            // 快照在锁内生成，之后的增量按版本号排在它后面
+            PresenceLog.Snapshot snapshot = presenceLog.snapshot();
+            connection.send(versionedPresence.contains(connection) ? snapshot.frame() : snapshot.userList(),
+                    OutboundQueue.FrameKind.MESSAGE);
+            // 放入快照时挤掉的都是更早的在线状态，已包含在快照中，不需要再同步
+            connection.getOutboundQueue().clearPresenceDropped();
+        } finally {
+            presenceLock.unlock();
+        }
+        // 房间内的加入和离开同样可能被丢弃，按各房间通知的顺序重新发送该连接所在房间的成员列表
+        for (Long roomId : rooms.roomsOf(userId)) {
+            rooms.resendMembers(roomId, connection);
+        }
+        System.out.println("用户 " + userId + " 的发送队列丢弃了在线状态，已重新发送完整的用户列表");
+    }
+
+    // 补发在线状态变化，跳过用户自己的上线和下线
+    private void sendPresenceChanges(long userId, ClientConnection connection, List<PresenceLog.Entry> changes) {
+        for (PresenceLog.Entry entry : changes) {
+            if (entry.userId != userId) {
+                connection.send(entry.joined
+                        ? Frame.presenceJoined(entry.userId, entry.version, entry.userName)
+                        : Frame.presenceLeft(entry.userId, entry.version, entry.userName),
+                        OutboundQueue.FrameKind.PRESENCE);
+            }
+        }
+    }
+
+    /**
+     * 断开某个用户的当前连接，如管理员踢出或模拟网络中断
+     * 支持恢复会话的客户端会自动重连
+     * @param userId 用户ID
+     * @return 用户是否在线
+     */
+    public boolean disconnectUser(long userId) {
+        ClientConnection connection = onlineUsers.get(userId);
+        if (connection == null) {
+            return false;
+        }
+        connection.close();
+        return true;
+    }
+
+    /**
+     * 处理私聊消息
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     * @return 是否已发送、转发或存储
+     */
+    private boolean handlePrivateMessage(long senderId, long receiverId, String content) {
+        return deliverPrivateMessage(senderId, receiverId, content, true);
+    }
+
+    /**
+     * 其他节点转发来的私聊消息，接收者已不在本节点上时存为离线消息，不再转发
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param content 消息内容
+     */
+    void deliverForwardedMessage(long senderId, long receiverId, String content) {
+        deliverPrivateMessage(senderId, receiverId, content, false);
+    }
+
+    /**
+     * @param forward 接收者不在本节点上时是否转发到接收者所在的节点
+     * @return 是否已发送、转发或存储
+     */
+    private boolean deliverPrivateMessage(long senderId, long receiverId, String content, boolean forward) {
+        // 接收者以支持确认的连接登录时经发件箱发送: 发件箱接在哪个连接上就发到哪个连接，
+        // 重新连接期间 onlineUsers 中可能还是已断开的旧连接，不能直接发给它
+        MessageOutbox outbox = outboxes.get(receiverId);
+        if (outbox != null && outbox.isAttached()) {
+            // 带序号发送，确认前保留在发件箱中，连接断开后重发或转存为离线消息；
+            // 未确认的消息过多时断开接收者，消息留在发件箱中重发，不存为离线消息以免和之后的消息乱序
+            if (outbox.deliver(senderId, content)) {
+                System.out.println("Private message from " + senderId + " to " + receiverId + ": " + content);
+                return true;
+            }
+            System.err.println("用户 " + receiverId + " 的发件箱已断开，存为离线消息");
+        } else {
+            ClientConnection receiver = onlineUsers.get(receiverId);
+            if (receiver != null) {
+                // 接收者不支持确认，直接发送消息
+                receiver.send(Frame.privateMessage(senderId, content));
+                System.out.println("Private message from " + senderId + " to " + receiverId + ": " + content);
+                return true;
+            }
+        }
+        // 接收者在集群的其他节点上
+        if (forward && cluster != null && cluster.forwardMessage(senderId, receiverId, content)) {
+            return true;
+        }
+        // 接收者离线，存储为离线消息
+        // 放入异步写入队列，不在读线程上等待数据库
+        boolean stored = offlineMessageService.queueOfflineMessage(senderId, receiverId, content);
+        if (stored) {
+            System.out.println("Offline message queued from " + senderId + " to " + receiverId + ": " + content);
+        } else {
+            System.err.println("Failed to store offline message from " + senderId + " to " + receiverId);
+        }
+        return stored;
+    }
+
+    /**
+     * 处理带客户端消息ID的私聊消息
+     * 客户端在收到 PM_SENT 之前断开会重发同一条消息，已接收过的消息ID只回复 PM_SENT，不再投递
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param clientMessageId 客户端消息ID
+     * @param content 消息内容
+     */
+    private void handleSendPrivateMessage(long senderId, long receiverId, long clientMessageId, String content) {
+        String key = senderId + ":" + clientMessageId;
+        if (recentClientMessages.getIfPresent(key) != null) {
+            System.out.println("忽略重复的私聊消息: 发送者 " + senderId + " 消息ID " + clientMessageId);
+        } else if (handlePrivateMessage(senderId, receiverId, content)) {
+            recentClientMessages.put(key, Boolean.TRUE);
+        } else {
+            // 没有回复 PM_SENT，客户端稍后重发
+            return;
+        }
+        ClientConnection sender = onlineUsers.get(senderId);
+        if (sender != null) {
+            sender.send(Frame.messageSent(receiverId, clientMessageId));
+        }
+    }
+
+    /**
+     * 处理客户端对某个会话私聊消息的确认
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param seq 已收到的最大序号
+     */
+    private void handleMessageAck(long receiverId, long senderId, long seq) {
+        MessageOutbox outbox = outboxes.get(receiverId);
+        if (outbox == null) {
+            System.err.println("用户 " + receiverId + " 未声明支持私聊消息确认，忽略: " + seq);
+            return;
+        }
+        outbox.acknowledge(senderId, seq);
+    }
+
+    /**
+     * 用户没有以支持确认的连接重新登录，未确认的私聊消息转存为离线消息
+     * 客户端可能已经收到其中的部分消息但确认未到达，这些消息会再以离线消息送达一次
+     * @param userId 接收者ID
+     * @param force 服务器关闭时为true，不论连接是否还在
+     */
+    private void expireOutbox(long userId, boolean force) {
+        MessageOutbox outbox = outboxes.get(userId);
+        if (outbox == null) {
+            return;
+        }
+        List<Frame> frames = force ? outbox.drain() : outbox.drainIfDetached();
+        for (Frame frame : frames) {
+            if (!offlineMessageService.queueOfflineMessage(frame.getId(), userId, frame.getText())) {
+                System.err.println("Failed to store offline message from " + frame.getId() + " to " + userId);
+            }
+        }
+        if (!frames.isEmpty()) {
+            System.out.println("用户 " + userId + " 的 " + frames.size() + " 条未确认私聊消息已转存为离线消息");
+        }
+    }
+
+    /**
+     * @param idLine 客户端的第一行
+     * @return 客户端是否支持私聊消息确认
+     */
+    private boolean acknowledgesMessages(String idLine) {
+        return WireProtocol.hasCapability(idLine, WireProtocol.CAPABILITY_MSG_ACK);
     }
 
     // 从数据库获取用户名的方法
@@ -308,22 +1190,22 @@ public class SocketService {
     /**
      * 为用户同步离线消息
      * @param userId 用户ID
-     * @param out 输出流
+     * @param out 客户端连接
      */
-    private void syncOfflineMessagesForUser(Long userId, PrintWriter out) {
+    private void syncOfflineMessagesForUser(Long userId, ClientConnection out) {
         try {
             OfflineMessageService.OfflineMessageSyncResult syncResult =
                 offlineMessageService.syncOfflineMessages(userId);
 
-            if (syncResult.isSuccess() && !syncResult.getUnreadMessages().isEmpty()) {
+            if (syncResult.isSuccess() && syncResult.getTotalUnreadCount() > 0) {
                 // 发送离线消息统计信息
                 Map<Long, Integer> stats = syncResult.getMessageStats();
                 for (Map.Entry<Long, Integer> entry : stats.entrySet()) {
                     Long senderId = entry.getKey();
                     Integer count = entry.getValue();
                     
-                    // 发送格式: OFFLINE_STAT:发送者ID:消息数量
-                    out.println("OFFLINE_STAT:" + senderId + ":" + count);
+                    // 文本协议格式: OFFLINE_STAT:发送者ID:消息数量
+                    out.send(Frame.offlineStat(senderId, count));
                 }
                 
                 System.out.println("已为用户 " + userId + " 同步离线消息统计，共 " +
@@ -338,43 +1220,46 @@ public class SocketService {
     /**
      * 处理获取离线消息请求
      * @param receiverId 接收者ID
-     * @param senderIdStr 发送者ID字符串
+     * @param senderId 发送者ID
      */
-    private void handleGetOfflineMessages(Long receiverId, String senderIdStr) {
-        try {
-            // 去除可能存在的冒号前缀
-            if (senderIdStr.startsWith(":")) {
-                senderIdStr = senderIdStr.substring(1);
-            }
-            
-            Long senderId = Long.parseLong(senderIdStr);
-            System.out.println("处理获取离线消息请求: 接收者 " + receiverId + " 请求来自发送者 " + senderId + " 的消息");
-            
-            // 获取来自特定发送者的离线消息
-            List<Message> messages = offlineMessageService.getOfflineMessagesFromSender(receiverId, senderId);
-            
-            // 获取接收者的写入器
-            PrintWriter writer = userWriters.get(receiverId);
-            if (writer != null && !messages.isEmpty()) {
-                System.out.println("发送 " + messages.size() + " 条离线消息给用户 " + receiverId);
-                
-                // 发送离线消息
-                for (Message msg : messages) {
-                    // 发送格式: OFFLINE_MSG:发送者ID:消息内容
-                    writer.println("OFFLINE_MSG:" + senderId + ":" + msg.getContent());
-                }
-                
-                // 标记消息为已读
-                List<Long> messageIds = new ArrayList<>();
-                for (Message msg : messages) {
-                    messageIds.add(msg.getId());
-                }
-                offlineMessageService.markMessagesAsRead(messageIds);
-            } else {
-                System.out.println("没有找到离线消息或用户不在线");
+    private void handleGetOfflineMessages(Long receiverId, long senderId) {
+        System.out.println("处理获取离线消息请求: 接收者 " + receiverId + " 请求来自发送者 " + senderId + " 的消息");
+        
+        ClientConnection writer = onlineUsers.get(receiverId);
+        if (writer == null) {
+            System.out.println("用户不在线: " + receiverId);
+            return;
+        }
+
+        // 支持确认的客户端: 每段确认后才标记为已读并发送下一段
+        OfflineDelivery delivery = offlineDeliveries.get(receiverId);
+        if (delivery != null && delivery.getConnection() == writer) {
+            delivery.start(receiverId, senderId);
+            return;
+        }
+
+        // 旧客户端: 分段读取并发送，每段发送后标记为已读；连接断开时剩余的消息保持未读
+        offlineMessageService.streamOfflineMessagesFromSender(receiverId, senderId, chunk -> {
+            for (Message msg : chunk) {
+                // 文本协议格式: OFFLINE_MSG:发送者ID:消息内容
+                writer.send(Frame.offlineMessage(senderId, msg.getContent()));
             }
-        } catch (NumberFormatException e) {
-            System.err.println("解析发送者ID失败: " + e.getMessage() + ", 原始字符串: '" + senderIdStr + "'");
+            return writer.isOpen();
+        });
+    }
+
+    /**
+     * 处理客户端对一段离线消息的确认
+     * @param receiverId 接收者ID
+     * @param senderId 发送者ID
+     * @param token 确认号
+     */
+    private void handleOfflineAck(Long receiverId, long senderId, long token) {
+        OfflineDelivery delivery = offlineDeliveries.get(receiverId);
+        if (delivery == null) {
+            System.err.println("用户 " + receiverId + " 未声明支持离线消息确认，忽略: " + token);
+            return;
         }
+        delivery.acknowledge(receiverId, senderId, token);
     }
 }
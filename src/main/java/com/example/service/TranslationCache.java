@@ -0,0 +1,200 @@
+package com.example.service;
+
+import com.example.model.Settings;
+import com.example.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 翻译结果缓存
+ * 以 (原文的SHA-256, 目标语言) 为键：内存中是有容量上限的LRU，
+ * 可选的磁盘层（ai.cache.file）在重启后仍然有效，并且可以比内存层保存更多条目。
+ * 同一段文本的并发翻译只请求一次，翻译失败的结果不缓存
+ */
+public class TranslationCache {
+    private final LruCache<String, String> memory;
+    private final TranslationDiskStore disk;
+
+    // 统计
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong remoteCalls = new AtomicLong();
+
+    /**
+     * @param maxSize 内存中最多缓存的翻译数
+     * @param ttlMs 内存条目的有效期
+     * @param diskFile 磁盘缓存文件，null表示不使用磁盘层
+     * @param diskMaxEntries 磁盘层最多保存的翻译数
+     * @throws IOException 打开磁盘缓存文件失败
+     */
+    public TranslationCache(int maxSize, long ttlMs, File diskFile, int diskMaxEntries) throws IOException {
+        this.memory = new LruCache<>("translations", maxSize, ttlMs, 0);
+        this.disk = diskFile != null ? new TranslationDiskStore(diskFile, diskMaxEntries) : null;
+    }
+
+    /**
+     * 按 ai.cache.* 配置创建，磁盘缓存文件无法打开时只使用内存层
+     * @return 翻译缓存
+     */
+    public static TranslationCache fromConfig() {
+        Settings settings = Settings.getInstance();
+        int maxSize = Integer.parseInt(settings.getProperty("ai.cache.maxSize", "2000").trim());
+        long ttlMs = Long.parseLong(settings.getProperty("ai.cache.ttlMs", "604800000").trim());
+        String path = settings.getProperty("ai.cache.file", "").trim();
+        int diskMaxEntries = Integer.parseInt(settings.getProperty("ai.cache.diskMaxEntries", "50000").trim());
+        if (!path.isEmpty()) {
+            try {
+                return new TranslationCache(maxSize, ttlMs, new File(path), diskMaxEntries);
+            } catch (IOException e) {
+                System.err.println("无法打开翻译缓存文件 " + path + "，只使用内存缓存: " + e.getMessage());
+            }
+        }
+        try {
+            return new TranslationCache(maxSize, ttlMs, null, 0);
+        } catch (IOException e) {
+            // 不使用磁盘层时不会发生
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 获取缓存的翻译，没有时调用translator翻译并缓存结果
+     * @param text 原文
+     * @param targetLang 目标语言
+     * @param translator 实际的翻译请求
+     * @return 译文
+     * @throws IOException 翻译请求失败
+     */
+    public String get(String text, String targetLang, Translator translator) throws IOException {
+        String key = key(text, targetLang);
+        try {
+            return memory.get(key, k -> load(k, translator));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 获取已缓存的翻译（内存层，其次磁盘层），不发起翻译
+     * @param text 原文
+     * @param targetLang 目标语言
+     * @return 译文，未缓存时返回null
+     */
+    public String getIfPresent(String text, String targetLang) {
+        String key = key(text, targetLang);
+        String cached = memory.getIfPresent(key);
+        if (cached == null && disk != null) {
+            cached = disk.read(key);
+            if (cached != null) {
+                diskHits.incrementAndGet();
+                memory.put(key, cached);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * 放入一条翻译结果（如批量翻译拆分出的结果）
+     * @param text 原文
+     * @param targetLang 目标语言
+     * @param translated 译文
+     */
+    public void put(String text, String targetLang, String translated) {
+        String key = key(text, targetLang);
+        memory.put(key, translated);
+        if (disk != null) {
+            disk.write(key, translated);
+        }
+    }
+
+    /**
+     * 记录一次不经过get的接口请求（批量翻译）
+     */
+    void recordRemoteCall() {
+        remoteCalls.incrementAndGet();
+    }
+
+    private String load(String key, Translator translator) {
+        if (disk != null) {
+            String cached = disk.read(key);
+            if (cached != null) {
+                diskHits.incrementAndGet();
+                return cached;
+            }
+        }
+        String translated;
+        try {
+            remoteCalls.incrementAndGet();
+            translated = translator.translate();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (disk != null && translated != null) {
+            disk.write(key, translated);
+        }
+        return translated;
+    }
+
+    /**
+     * 清空内存层，磁盘层保留
+     */
+    public void invalidateMemory() {
+        memory.invalidateAll();
+    }
+
+    /**
+     * 关闭磁盘缓存文件
+     */
+    public void close() {
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getRemoteCalls() {
+        return remoteCalls.get();
+    }
+
+    static String key(String text, String targetLang) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2 + targetLang.length() + 1);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(':').append(targetLang.toLowerCase()).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TranslationCache{" + memory
+                + ", diskHits=" + diskHits
+                + ", remoteCalls=" + remoteCalls
+                + (disk != null ? ", " + disk : "")
+                + '}';
+    }
+
+    /**
+     * 实际的翻译请求
+     */
+    public interface Translator {
+        /**
+         * @return 译文
+         * @throws IOException 请求失败，结果不会被缓存
+         */
+        String translate() throws IOException;
+    }
+}
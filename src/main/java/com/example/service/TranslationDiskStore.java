@@ -0,0 +1,214 @@
+package com.example.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 翻译缓存的磁盘层
+ * 追加写入的记录文件，内存中只保存 键 -> 记录位置 的索引；超过条目上限时淘汰最早写入的条目，
+ * 文件中失效的记录过多时整理（重写到临时文件再替换）。
+ * 每条记录: 键长度(int) + 值长度(int) + CRC32(int) + 键(UTF-8) + 值(UTF-8)，
+ * 打开时校验，末尾不完整的记录（写入时进程退出）被截掉
+ */
+class TranslationDiskStore {
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_FIELD_LENGTH = 1 << 20;
+
+    private final File file;
+    private final int maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 按写入顺序排列，最早写入的在最前面
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>();
+    private RandomAccessFile raf;
+    // 文件中的记录数，包括已被覆盖或淘汰的
+    private int recordCount;
+    private long compactions;
+
+    TranslationDiskStore(File file, int maxEntries) throws IOException {
+        this.file = file;
+        this.maxEntries = Math.max(1, maxEntries);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        load();
+    }
+
+    private void load() throws IOException {
+        long length = raf.length();
+        long position = 0;
+        raf.seek(0);
+        while (position + HEADER_SIZE <= length) {
+            int keyLength = raf.readInt();
+            int valueLength = raf.readInt();
+            int crc = raf.readInt();
+            if (keyLength <= 0 || keyLength > MAX_FIELD_LENGTH || valueLength < 0 || valueLength > MAX_FIELD_LENGTH
+                    || position + HEADER_SIZE + keyLength + valueLength > length) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            byte[] value = new byte[valueLength];
+            raf.readFully(key);
+            raf.readFully(value);
+            if (crc(key, value) != crc) {
+                break;
+            }
+            put(new String(key, StandardCharsets.UTF_8), position);
+            recordCount++;
+            position += HEADER_SIZE + keyLength + valueLength;
+        }
+        if (position < length) {
+            System.err.println("翻译缓存文件末尾有 " + (length - position) + " 字节不完整的记录，已截断");
+            raf.setLength(position);
+        }
+    }
+
+    /**
+     * @param key 键
+     * @return 缓存的译文，没有或读取失败时返回null
+     */
+    String read(String key) {
+        lock.lock();
+        try {
+            Long position = index.get(key);
+            if (position == null) {
+                return null;
+            }
+            return readValue(position);
+        } catch (IOException e) {
+            System.err.println("读取翻译缓存失败: " + e.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 追加一条记录，写入失败只打印错误
+     * @param key 键
+     * @param value 译文
+     */
+    void write(String key, String value) {
+        lock.lock();
+        try {
+            long position = append(raf, key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+            index.remove(key);
+            put(key, position);
+            recordCount++;
+            if (recordCount > 2 * maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("写入翻译缓存失败: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String key, long position) {
+        index.put(key, position);
+        Iterator<String> it = index.keySet().iterator();
+        while (index.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private String readValue(long position) throws IOException {
+        raf.seek(position);
+        int keyLength = raf.readInt();
+        int valueLength = raf.readInt();
+        raf.readInt();
+        raf.seek(position + HEADER_SIZE + keyLength);
+        byte[] value = new byte[valueLength];
+        raf.readFully(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 只保留索引中的条目，写入临时文件后替换原文件
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        List<Map.Entry<String, Long>> live = new ArrayList<>(index.entrySet());
+        LinkedHashMap<String, Long> newIndex = new LinkedHashMap<>();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            for (Map.Entry<String, Long> entry : live) {
+                byte[] value = readValue(entry.getValue()).getBytes(StandardCharsets.UTF_8);
+                newIndex.put(entry.getKey(), append(out, entry.getKey().getBytes(StandardCharsets.UTF_8), value));
+            }
+            out.getFD().sync();
+        }
+        raf.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        raf = new RandomAccessFile(file, "rw");
+        index.clear();
+        index.putAll(newIndex);
+        recordCount = index.size();
+        compactions++;
+    }
+
+    private static long append(RandomAccessFile out, byte[] key, byte[] value) throws IOException {
+        long position = out.length();
+        byte[] record = new byte[HEADER_SIZE + key.length + value.length];
+        writeInt(record, 0, key.length);
+        writeInt(record, 4, value.length);
+        writeInt(record, 8, crc(key, value));
+        System.arraycopy(key, 0, record, HEADER_SIZE, key.length);
+        System.arraycopy(value, 0, record, HEADER_SIZE + key.length, value.length);
+        out.seek(position);
+        out.write(record);
+        return position;
+    }
+
+    private static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    private static int crc(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            raf.close();
+        } catch (IOException e) {
+            System.err.println("关闭翻译缓存文件失败: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "disk{entries=" + index.size() + "/" + maxEntries
+                    + ", records=" + recordCount
+                    + ", compactions=" + compactions
+                    + ", file=" + file + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
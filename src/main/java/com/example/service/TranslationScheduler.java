@@ -0,0 +1,478 @@
+package com.example.service;
+
+import com.example.model.Settings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 翻译请求调度器
+ * 同时进行的请求数受窗口限制，发出请求的速率受令牌桶限制；
+ * 窗口按AIMD调整: 每个成功的请求使窗口增加 1/窗口（约每轮加一），
+ * 收到429或5xx时减半（同一轮拥塞只减一次），429的Retry-After期间暂停发出新请求。
+ * 排队中的请求优先发出可见的（visible返回true），其余按提交顺序；已取消的请求不再发出，进行中的被中断
+ */
+public class TranslationScheduler {
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final String name;
+    private final int maxWindow;
+    private final int maxRetries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // 按提交顺序排列
+    private final List<Task<?>> queue = new ArrayList<>();
+    private final ExecutorService executor;
+    private final AtomicInteger taskSeq = new AtomicInteger();
+    private Thread dispatcher;
+    private boolean shutdown;
+
+    // 并发窗口
+    private double window;
+    private int inFlight;
+    private long lastDecreaseNanos;
+    // 收到429后暂停到这个时间
+    private long pausedUntilNanos;
+
+    // 令牌桶
+    private final double ratePerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    // 统计
+    private long started;
+    private long succeeded;
+    private long failed;
+    private long cancelled;
+    private long rateLimited;
+    private long serverErrors;
+    private long retries;
+
+    /**
+     * @param name 名称，用于线程名和统计输出
+     * @param initialWindow 初始并发窗口
+     * @param maxWindow 并发窗口上限
+     * @param ratePerSecond 每秒最多发出的请求数
+     * @param burst 令牌桶容量（允许的突发请求数）
+     * @param maxRetries 429/5xx时的最多重试次数
+     */
+    public TranslationScheduler(String name, int initialWindow, int maxWindow, double ratePerSecond, int burst,
+                                int maxRetries) {
+        this.name = name;
+        this.maxWindow = Math.max(1, maxWindow);
+        this.window = Math.max(1, Math.min(initialWindow, this.maxWindow));
+        this.ratePerNano = Math.max(0.001, ratePerSecond) / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.maxRetries = Math.max(0, maxRetries);
+        AtomicInteger threadSeq = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, name + "-" + threadSeq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 按 ai.scheduler.* 配置创建
+     * @return 调度器
+     */
+    public static TranslationScheduler fromConfig() {
+        Settings settings = Settings.getInstance();
+        return new TranslationScheduler("translation",
+                Integer.parseInt(settings.getProperty("ai.scheduler.initialConcurrency", "2").trim()),
+                Integer.parseInt(settings.getProperty("ai.scheduler.maxConcurrency", "8").trim()),
+                Double.parseDouble(settings.getProperty("ai.scheduler.ratePerSecond", "5").trim()),
+                Integer.parseInt(settings.getProperty("ai.scheduler.burst", "5").trim()),
+                Integer.parseInt(settings.getProperty("ai.scheduler.maxRetries", "4").trim()));
+    }
+
+    /**
+     * 提交一个请求
+     * @param visible 请求对应的内容当前是否可见，排队时可见的优先；为null表示不可见
+     * @param attempt 实际的请求，429/5xx时会被再次调用
+     * @param <T> 结果类型
+     * @return 任务，可取消
+     */
+    public <T> Task<T> submit(BooleanSupplier visible, Attempt<T> attempt) {
+        Task<T> task = new Task<>(this, taskSeq.incrementAndGet(), visible, attempt);
+        lock.lock();
+        try {
+            if (shutdown) {
+                task.future.completeExceptionally(new IllegalStateException(name + " 已关闭"));
+                return task;
+            }
+            queue.add(task);
+            if (dispatcher == null) {
+                dispatcher = new Thread(this::dispatchLoop, name + "-dispatcher");
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return task;
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            Task<?> task;
+            lock.lock();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    long wait = Long.MAX_VALUE;
+                    if (!queue.isEmpty() && inFlight < (int) window) {
+                        if (now - pausedUntilNanos < 0) {
+                            wait = pausedUntilNanos - now;
+                        } else {
+                            long readyWait = earliestReadyWait(now);
+                            if (readyWait > 0) {
+                                wait = readyWait;
+                            } else {
+                                long tokenWait = acquireToken(now);
+                                if (tokenWait == 0) {
+                                    task = pick(now);
+                                    break;
+                                }
+                                wait = tokenWait;
+                            }
+                        }
+                    }
+                    if (wait == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.awaitNanos(wait);
+                    }
+                }
+                inFlight++;
+                started++;
+                task.startedNanos = System.nanoTime();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            Task<?> running = task;
+            executor.execute(() -> run(running));
+        }
+    }
+
+    /**
+     * 丢弃已取消的任务，返回最早一个可以发出的任务还需等待的时间，0表示已有可以发出的任务
+     */
+    private long earliestReadyWait(long now) {
+        long wait = Long.MAX_VALUE;
+        Iterator<Task<?>> it = queue.iterator();
+        while (it.hasNext()) {
+            Task<?> task = it.next();
+            if (task.isCancelled()) {
+                it.remove();
+                cancelled++;
+                continue;
+            }
+            long remaining = task.readyAtNanos - now;
+            if (remaining <= 0) {
+                return 0;
+            }
+            wait = Math.min(wait, remaining);
+        }
+        return wait;
+    }
+
+    /**
+     * 取出第一个可见且可以发出的任务，没有可见的则取最早提交的
+     */
+    private Task<?> pick(long now) {
+        Task<?> first = null;
+        for (Task<?> task : queue) {
+            if (task.readyAtNanos - now > 0) {
+                continue;
+            }
+            if (task.isVisible()) {
+                first = task;
+                break;
+            }
+            if (first == null) {
+                first = task;
+            }
+        }
+        queue.remove(first);
+        return first;
+    }
+
+    /**
+     * 取一个令牌，返回0表示成功，否则返回需要等待的时间
+     */
+    private long acquireToken(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerNano);
+        lastRefillNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / ratePerNano));
+    }
+
+    private <T> void run(Task<T> task) {
+        T result;
+        try {
+            if (task.isCancelled()) {
+                throw new CancellationException();
+            }
+            result = task.attempt.run(task);
+        } catch (AIService.ApiException e) {
+            if ((e.code == 429 || e.code >= 500) && task.attempts < maxRetries && !task.isCancelled()) {
+                retry(task, e);
+            } else {
+                finish(task, null, e);
+            }
+            return;
+        } catch (IOException | RuntimeException e) {
+            finish(task, null, task.isCancelled() ? new CancellationException() : e);
+            return;
+        }
+        finish(task, result, null);
+    }
+
+    /**
+     * 收到429或5xx: 窗口减半，429按Retry-After暂停，5xx按指数退避重试该任务
+     */
+    private void retry(Task<?> task, AIService.ApiException e) {
+        lock.lock();
+        try {
+            inFlight--;
+            retries++;
+            long now = System.nanoTime();
+            // 同一轮拥塞（在上次减小之前发出的请求）只减小一次
+            if (task.startedNanos - lastDecreaseNanos > 0) {
+                window = Math.max(1, window / 2);
+                lastDecreaseNanos = now;
+            }
+            task.attempts++;
+            if (e.code == 429) {
+                rateLimited++;
+                long retryAfterMs = e.retryAfterMs >= 0 ? e.retryAfterMs : DEFAULT_RETRY_AFTER_MS;
+                long until = now + TimeUnit.MILLISECONDS.toNanos(Math.min(retryAfterMs, MAX_BACKOFF_MS));
+                if (until - pausedUntilNanos > 0) {
+                    pausedUntilNanos = until;
+                }
+            } else {
+                serverErrors++;
+                long backoffMs = Math.min(MAX_BACKOFF_MS, 250L << Math.min(task.attempts, 10));
+                task.readyAtNanos = now + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+            }
+            // 按提交顺序放回队列
+            int index = 0;
+            while (index < queue.size() && queue.get(index).seq < task.seq) {
+                index++;
+            }
+            queue.add(index, task);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> void finish(Task<T> task, T result, Throwable error) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (error == null) {
+                succeeded++;
+                // 加性增长: 每个窗口的请求都成功后窗口约加一
+                window = Math.min(maxWindow, window + 1.0 / window);
+            } else if (error instanceof CancellationException) {
+                cancelled++;
+            } else {
+                failed++;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (error == null) {
+            task.future.complete(result);
+        } else if (error instanceof CancellationException) {
+            task.future.cancel(false);
+        } else {
+            task.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * 排队中的任务被取消时唤醒调度线程，使其尽快从队列中移除
+     */
+    private void onCancelled() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止调度，排队中的任务被取消
+     */
+    public void shutdown() {
+        List<Task<?>> pending;
+        lock.lock();
+        try {
+            shutdown = true;
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Task<?> task : pending) {
+            task.future.cancel(false);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * @return 当前的并发窗口
+     */
+    public int getWindow() {
+        lock.lock();
+        try {
+            return (int) window;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return name + "{window=" + String.format("%.2f", window) + "/" + maxWindow
+                    + ", inFlight=" + inFlight
+                    + ", queued=" + queue.size()
+                    + ", started=" + started
+                    + ", succeeded=" + succeeded
+                    + ", failed=" + failed
+                    + ", cancelled=" + cancelled
+                    + ", rateLimited=" + rateLimited
+                    + ", serverErrors=" + serverErrors
+                    + ", retries=" + retries
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 实际的请求
+     * @param <T> 结果类型
+     */
+    public interface Attempt<T> {
+        /**
+         * @param task 所属的任务，可通过 {@link Task#onCancel} 注册中断请求的操作
+         * @return 结果
+         * @throws IOException 请求失败，429/5xx（{@link AIService.ApiException}）会重试
+         */
+        T run(Task<T> task) throws IOException;
+    }
+
+    /**
+     * 提交给调度器的任务
+     * @param <T> 结果类型
+     */
+    public static final class Task<T> {
+        private final TranslationScheduler scheduler;
+        private final int seq;
+        private final BooleanSupplier visible;
+        private final Attempt<T> attempt;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private volatile Runnable canceller;
+        // 以下字段在调度器的锁内访问
+        private int attempts;
+        private long readyAtNanos = System.nanoTime();
+        private long startedNanos;
+
+        private Task(TranslationScheduler scheduler, int seq, BooleanSupplier visible, Attempt<T> attempt) {
+            this.scheduler = scheduler;
+            this.seq = seq;
+            this.visible = visible;
+            this.attempt = attempt;
+        }
+
+        /**
+         * 创建一个已完成的任务（如命中缓存）
+         * @param result 结果
+         * @param <T> 结果类型
+         * @return 任务
+         */
+        public static <T> Task<T> completed(T result) {
+            Task<T> task = new Task<>(null, 0, null, null);
+            task.future.complete(result);
+            return task;
+        }
+
+        /**
+         * 注册取消时执行的操作（如中断进行中的HTTP请求）；已取消时立即执行
+         * @param canceller 取消操作
+         */
+        public void onCancel(Runnable canceller) {
+            this.canceller = canceller;
+            if (isCancelled()) {
+                canceller.run();
+            }
+        }
+
+        /**
+         * 取消任务: 排队中的不再发出，进行中的请求被中断
+         */
+        public void cancel() {
+            if (future.cancel(false)) {
+                Runnable c = canceller;
+                if (c != null) {
+                    c.run();
+                }
+                if (scheduler != null) {
+                    scheduler.onCancelled();
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        boolean isVisible() {
+            try {
+                return visible != null && visible.getAsBoolean();
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return 结果，取消时以CancellationException结束
+         */
+        public CompletableFuture<T> future() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,682 @@
+package com.example.util;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * 有界的JDBC连接池
+ * DAO每次调用都从池中借出连接，close()时归还而不是关闭物理连接
+ *
+ * 配置项（均可在config.properties中设置）:
+ *   db.pool.maxSize                    最大连接数
+ *   db.pool.minIdle                    保持的最少连接数
+ *   db.pool.connectionTimeoutMs        借出连接的最长等待时间
+ *   db.pool.validationTimeoutSeconds   借出时校验连接的超时
+ *   db.pool.validationBypassMs         最近这段时间内用过的连接借出时不再校验
+ *   db.pool.idleTimeoutMs              空闲超过该时间的连接被回收
+ *   db.pool.maxLifetimeMs              连接的最长存活时间，到期后归还时关闭
+ *   db.pool.leakDetectionThresholdMs   借出超过该时间未归还时打印借出位置，0表示关闭
+ *   db.pool.housekeepingIntervalMs     后台回收和泄漏检查的间隔
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long connectionTimeoutMs;
+    private final int validationTimeoutSeconds;
+    private final long validationBypassMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakDetectionThresholdMs;
+
+    // 最近使用的连接放在队首，回收时从队尾开始
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ScheduledExecutorService housekeeper;
+    // 已创建和正在创建的物理连接数，受lock保护
+    private int total;
+    private int waiting;
+    private boolean closed;
+
+    // 统计
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+
+    private PrintWriter logWriter;
+
+    public ConnectionPool(Properties prop) {
+        this.url = prop.getProperty("db.url");
+        this.user = prop.getProperty("db.user");
+        this.password = prop.getProperty("db.password");
+        this.maxSize = Math.max(1, intProperty(prop, "db.pool.maxSize", 10));
+        this.minIdle = Math.min(maxSize, Math.max(0, intProperty(prop, "db.pool.minIdle", 0)));
+        this.connectionTimeoutMs = longProperty(prop, "db.pool.connectionTimeoutMs", 5000);
+        this.validationTimeoutSeconds = intProperty(prop, "db.pool.validationTimeoutSeconds", 2);
+        this.validationBypassMs = longProperty(prop, "db.pool.validationBypassMs", 500);
+        this.idleTimeoutMs = longProperty(prop, "db.pool.idleTimeoutMs", 600_000);
+        this.maxLifetimeMs = longProperty(prop, "db.pool.maxLifetimeMs", 1_800_000);
+        this.leakDetectionThresholdMs = longProperty(prop, "db.pool.leakDetectionThresholdMs", 0);
+        long housekeepingIntervalMs = longProperty(prop, "db.pool.housekeepingIntervalMs", 30_000);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep,
+                housekeepingIntervalMs, housekeepingIntervalMs, TimeUnit.MILLISECONDS);
+        if (minIdle > 0) {
+            housekeeper.execute(this::fillMinIdle);
+        }
+    }
+
+    private static int intProperty(Properties prop, String key, int defaultValue) {
+        return Integer.parseInt(prop.getProperty(key, String.valueOf(defaultValue)).trim());
+    }
+
+    private static long longProperty(Properties prop, String key, long defaultValue) {
+        return Long.parseLong(prop.getProperty(key, String.valueOf(defaultValue)).trim());
+    }
+
+    /**
+     * 借出一个连接，使用完毕后调用close()归还
+     * @return 连接
+     * @throws SQLException 等待超时、连接池已关闭或无法创建连接
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMs);
+        while (true) {
+            PooledConnection pooled = takeIdleOrReserve(deadline);
+            if (pooled == null) {
+                // 已预留名额，在锁外创建物理连接
+                pooled = create();
+            } else if (!isUsable(pooled)) {
+                destroy(pooled);
+                continue;
+            }
+
+            long waited = System.nanoTime() - start;
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowTrace = leakDetectionThresholdMs > 0 ? new Exception("连接借出位置") : null;
+            pooled.leakReported = false;
+            active.add(pooled);
+            return pooled.newHandle();
+        }
+    }
+
+    /**
+     * 取出一个空闲连接；没有空闲连接但未达上限时预留一个名额并返回null；否则等待
+     */
+    private PooledConnection takeIdleOrReserve(long deadline) throws SQLException {
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                PooledConnection pooled = idle.pollFirst();
+                if (pooled != null) {
+                    return pooled;
+                }
+                if (total < maxSize) {
+                    total++;
+                    return null;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeoutCount.incrementAndGet();
+                    throw new SQLTransientConnectionException("获取数据库连接超时(" + connectionTimeoutMs +
+                            "ms)，连接池状态: " + this);
+                }
+                waiting++;
+                try {
+                    available.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("等待数据库连接时被中断", e);
+                } finally {
+                    waiting--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        try {
+            Connection physical = DriverManager.getConnection(url, user, password);
+            createdCount.incrementAndGet();
+            return new PooledConnection(physical);
+        } catch (SQLException | RuntimeException e) {
+            releaseSlot();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pooled, now)) {
+            return false;
+        }
+        if (now - pooled.lastUsedAt < validationBypassMs) {
+            return true;
+        }
+        try {
+            if (pooled.physical.isValid(validationTimeoutSeconds)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // 按无效处理
+        }
+        validationFailures.incrementAndGet();
+        return false;
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return maxLifetimeMs > 0 && now - pooled.createdAt >= maxLifetimeMs;
+    }
+
+    /**
+     * 归还连接：回滚未提交的事务，关闭调用方遗留的Statement，然后放回空闲队列
+     */
+    private void release(PooledConnection pooled) {
+        active.remove(pooled);
+        pooled.borrowTrace = null;
+        boolean reusable = pooled.resetState();
+        pooled.lastUsedAt = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            if (!closed && reusable && !isExpired(pooled, pooled.lastUsedAt)) {
+                idle.addFirst(pooled);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        destroy(pooled);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("关闭数据库连接失败: " + e.getMessage());
+        }
+        closedCount.incrementAndGet();
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 后台任务：回收空闲过久或到期的连接，补足最少连接数，检查泄漏
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            List<PooledConnection> evicted = new ArrayList<>();
+            lock.lock();
+            try {
+                Iterator<PooledConnection> it = idle.descendingIterator();
+                while (it.hasNext()) {
+                    PooledConnection pooled = it.next();
+                    boolean idleTooLong = idleTimeoutMs > 0 && now - pooled.lastUsedAt >= idleTimeoutMs
+                            && total - evicted.size() > minIdle;
+                    if (idleTooLong || isExpired(pooled, now)) {
+                        it.remove();
+                        evicted.add(pooled);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (PooledConnection pooled : evicted) {
+                destroy(pooled);
+            }
+
+            if (leakDetectionThresholdMs > 0) {
+                for (PooledConnection pooled : active) {
+                    Exception trace = pooled.borrowTrace;
+                    if (trace != null && !pooled.leakReported && now - pooled.borrowedAt >= leakDetectionThresholdMs) {
+                        pooled.leakReported = true;
+                        leakCount.incrementAndGet();
+                        System.err.println("疑似数据库连接泄漏: 已借出 " + (now - pooled.borrowedAt) + "ms 未归还");
+                        trace.printStackTrace();
+                    }
+                }
+            }
+
+            fillMinIdle();
+        } catch (RuntimeException e) {
+            System.err.println("连接池维护任务出错: " + e.getMessage());
+        }
+    }
+
+    private void fillMinIdle() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || total >= minIdle) {
+                    return;
+                }
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                PooledConnection pooled = create();
+                lock.lock();
+                try {
+                    if (!closed) {
+                        idle.addLast(pooled);
+                        available.signal();
+                        continue;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                destroy(pooled);
+                return;
+            } catch (SQLException e) {
+                System.err.println("预创建数据库连接失败: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 关闭连接池和所有空闲连接，借出中的连接在归还时关闭
+     */
+    @Override
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pooled : toClose) {
+            destroy(pooled);
+        }
+    }
+
+    // 统计信息
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTotalCount() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * 平均借出等待时间（含新建连接的时间）
+     * @return 毫秒
+     */
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / borrows;
+    }
+
+    /**
+     * 最长借出等待时间
+     * @return 毫秒
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", total=" + getTotalCount() +
+                ", max=" + maxSize +
+                ", waiting=" + getWaitingCount() +
+                ", borrows=" + borrowCount.get() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                ", timeouts=" + timeoutCount.get() +
+                ", created=" + createdCount.get() +
+                ", closed=" + closedCount.get() +
+                ", validationFailures=" + validationFailures.get() +
+                ", leaks=" + leakCount.get() +
+                '}';
+    }
+
+    // DataSource
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("连接池使用配置中的用户名和密码");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 池中的一个物理连接
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+        private volatile long borrowedAt;
+        private volatile Exception borrowTrace;
+        private volatile boolean leakReported;
+        // 当前借用期间创建的Statement，归还时关闭未关闭的
+        private final List<Statement> statements = new ArrayList<>();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, new Handle(this));
+        }
+
+        void track(Statement statement) throws SQLException {
+            // 长时间借用时清理已经关闭的Statement，避免列表无限增长
+            if (statements.size() >= 32) {
+                Iterator<Statement> it = statements.iterator();
+                while (it.hasNext()) {
+                    if (it.next().isClosed()) {
+                        it.remove();
+                    }
+                }
+            }
+            statements.add(statement);
+        }
+
+        /**
+         * 恢复连接的默认状态
+         * @return 连接是否还能复用
+         */
+        boolean resetState() {
+            try {
+                for (Statement statement : statements) {
+                    if (!statement.isClosed()) {
+                        statement.close();
+                    }
+                }
+                statements.clear();
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (physical.isReadOnly()) {
+                    physical.setReadOnly(false);
+                }
+                return !physical.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 交给调用方的连接代理，close()时归还到连接池，之后的调用都会失败
+     */
+    private final class Handle implements InvocationHandler {
+        private PooledConnection pooled;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (pooled != null) {
+                        PooledConnection returning = pooled;
+                        pooled = null;
+                        release(returning);
+                    }
+                    return null;
+                case "isClosed":
+                    return pooled == null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection@" + Integer.toHexString(System.identityHashCode(proxy)) +
+                            (pooled == null ? " (returned)" : "");
+                default:
+                    break;
+            }
+            if (pooled == null) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (result instanceof Statement) {
+                    pooled.track((Statement) result);
+                }
+                return wrapChild(result, method.getReturnType(), (Connection) proxy, null);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * 把物理连接创建的Statement、DatabaseMetaData、ResultSet包装为代理，
+     * 使其 getConnection() 返回连接代理而不是物理连接
+     * @param result 物理对象
+     * @param type 方法声明的返回类型
+     * @param connection 连接代理
+     * @param statement 创建该ResultSet的Statement代理，其他情况为null
+     * @return 代理，不需要包装的类型原样返回
+     */
+    private static Object wrapChild(Object result, Class<?> type, Connection connection, Object statement) {
+        if (result == null || !(type == Statement.class || type == PreparedStatement.class
+                || type == CallableStatement.class || type == DatabaseMetaData.class || type == ResultSet.class)) {
+            return result;
+        }
+        return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] {type},
+                new ChildHandle(result, connection, type == ResultSet.class ? statement : null));
+    }
+
+    /**
+     * 连接代理创建的JDBC对象的代理
+     * 调用方通过 getConnection() / getStatement() 拿到的仍是代理，关闭它只会归还连接，不会关闭池中的物理连接
+     */
+    private static final class ChildHandle implements InvocationHandler {
+        private final Object target;
+        private final Connection connection;
+        // ResultSet.getStatement() 的返回值，为null时由物理对象决定
+        private final Object statement;
+
+        ChildHandle(Object target, Connection connection, Object statement) {
+            this.target = target;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (args == null || args.length == 0) {
+                switch (method.getName()) {
+                    case "getConnection":
+                        return connection;
+                    case "getStatement":
+                        if (statement != null) {
+                            return statement;
+                        }
+                        break;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return target.toString();
+                    default:
+                        break;
+                }
+            } else if ("equals".equals(method.getName()) && args.length == 1) {
+                return proxy == args[0];
+            }
+            try {
+                Object result = method.invoke(target, args);
+                return wrapChild(result, method.getReturnType(), connection, proxy instanceof Statement ? proxy : null);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -1,32 +1,110 @@
 package com.example.util;
 
+import java.io.InputStream;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DBUtil {
     private static final String PROP_FILE = "/config.properties";
-    private static String url;
-    private static String user;
-    private static String password;
+    private static final ReentrantLock initLock = new ReentrantLock();
+    private static volatile Properties config;
+    // db.pool.enabled=false 时为null，每次直接通过DriverManager创建连接
+    private static volatile ConnectionPool pool;
 
-    static {
+    /**
+     * 获取数据库连接，使用完毕后必须close()（归还到连接池）
+     * @return 连接
+     * @throws SQLException 获取失败
+     */
+    public static Connection getConnection() throws SQLException {
+        Properties prop = ensureConfigured();
+        ConnectionPool current = pool;
+        if (current != null) {
+            return current.getConnection();
+        }
+        return DriverManager.getConnection(prop.getProperty("db.url"),
+                prop.getProperty("db.user"), prop.getProperty("db.password"));
+    }
+
+    /**
+     * 使用指定配置重新初始化，关闭之前的连接池
+     * 可用于连接嵌入式或内存数据库（如 jdbc:h2:mem:...）
+     * @param prop 包含 db.url、db.user、db.password 及 db.pool.* 的配置
+     */
+    public static void configure(Properties prop) {
+        initLock.lock();
         try {
-            Properties prop = new Properties();
-            prop.load(DBUtil.class.getResourceAsStream(PROP_FILE));
+            ConnectionPool previous = pool;
+            String driver = prop.getProperty("db.driver");
+            if (driver != null && !driver.trim().isEmpty()) {
+                try {
+                    Class.forName(driver.trim());
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("JDBC driver not found: " + driver, e);
+                }
+            }
+            boolean pooled = Boolean.parseBoolean(prop.getProperty("db.pool.enabled", "true").trim());
+            pool = pooled ? new ConnectionPool(prop) : null;
+            config = prop;
+            if (previous != null) {
+                previous.close();
+            }
+        } finally {
+            initLock.unlock();
+        }
+    }
 
-            url = prop.getProperty("db.url");
-            user = prop.getProperty("db.user");
-            password = prop.getProperty("db.password");
+    /**
+     * 获取当前的连接池，用于查看统计信息
+     * @return 连接池，未启用连接池时返回null
+     */
+    public static ConnectionPool getPool() {
+        ensureConfigured();
+        return pool;
+    }
 
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (Exception e) {
-            throw new ExceptionInInitializerError("Failed to load DB configuration");
+    /**
+     * 关闭连接池
+     */
+    public static void shutdown() {
+        initLock.lock();
+        try {
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
+        } finally {
+            initLock.unlock();
         }
     }
 
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+    private static Properties ensureConfigured() {
+        Properties prop = config;
+        if (prop != null) {
+            return prop;
+        }
+        initLock.lock();
+        try {
+            if (config == null) {
+                configure(loadDefaultConfig());
+            }
+            return config;
+        } finally {
+            initLock.unlock();
+        }
+    }
+
+    private static Properties loadDefaultConfig() {
+        try (InputStream in = DBUtil.class.getResourceAsStream(PROP_FILE)) {
+            Properties prop = new Properties();
+            prop.load(in);
+            if (prop.getProperty("db.driver") == null) {
+                prop.setProperty("db.driver", "com.mysql.cj.jdbc.Driver");
+            }
+            return prop;
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError("Failed to load DB configuration");
+        }
     }
 }
@@ -0,0 +1,307 @@
+package com.example.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 有容量上限的LRU缓存，条目按TTL过期
+ * 加载结果为null时按较短的negativeTtl缓存，避免反复查询不存在的键；
+ * 同一个键同时只有一个线程执行加载，其他线程等待同一个结果
+ *
+ * @param <K> 键类型
+ * @param <V> 值类型
+ */
+public class LruCache<K, V> {
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 按访问顺序排列，最久未访问的在最前面
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, CompletableFuture<V>> loading = new HashMap<>();
+    // 每次失效加一，加载期间发生失效时不缓存加载结果
+    private long generation;
+
+    // 统计
+    private long hitCount;
+    private long negativeHitCount;
+    private long missCount;
+    // 等待其他线程加载同一个键的次数
+    private long coalescedCount;
+    private long loadFailureCount;
+    private long evictionCount;
+    private long expirationCount;
+
+    /**
+     * @param name 名称，用于统计输出
+     * @param maxSize 最多缓存的条目数
+     * @param ttlMs 条目有效期
+     * @param negativeTtlMs 不存在的键的有效期，0表示不缓存
+     */
+    public LruCache(String name, int maxSize, long ttlMs, long negativeTtlMs) {
+        this.name = name;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = ttlMs * 1_000_000L;
+        this.negativeTtlNanos = negativeTtlMs * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 获取缓存的值，未命中或已过期时调用loader加载
+     * @param key 键
+     * @param loader 加载函数，返回null表示不存在
+     * @return 值，不存在时返回null
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        CompletableFuture<V> future;
+        boolean owner = false;
+        long loadGeneration = 0;
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt - System.nanoTime() > 0) {
+                    if (entry.value == null) {
+                        negativeHitCount++;
+                    } else {
+                        hitCount++;
+                    }
+                    return entry.value;
+                }
+                entries.remove(key);
+                expirationCount++;
+            }
+            future = loading.get(key);
+            if (future != null) {
+                // 已有线程在加载这个键，等待它的结果
+                coalescedCount++;
+            } else {
+                missCount++;
+                owner = true;
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+                loadGeneration = generation;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (owner) {
+            return load(key, loader, future, loadGeneration);
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private V load(K key, Function<? super K, ? extends V> loader, CompletableFuture<V> future,
+                   long loadGeneration) {
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                loading.remove(key);
+                loadFailureCount++;
+            } finally {
+                lock.unlock();
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        lock.lock();
+        try {
+            loading.remove(key);
+            long ttl = value == null ? negativeTtlNanos : ttlNanos;
+            if (ttl > 0 && loadGeneration == generation) {
+                entries.put(key, new Entry<>(value, System.nanoTime() + ttl));
+                evictIfNeeded();
+            }
+        } finally {
+            lock.unlock();
+        }
+        future.complete(value);
+        return value;
+    }
+
+    /**
+     * 获取已缓存且未过期的值，不加载
+     * @param key 键
+     * @return 值，未缓存时返回null
+     */
+    public V getIfPresent(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                expirationCount++;
+                entry = null;
+            }
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            if (entry.value == null) {
+                negativeHitCount++;
+            } else {
+                hitCount++;
+            }
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 直接放入一个值
+     * @param key 键
+     * @param value 值
+     */
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使一个键失效
+     * @param key 键
+     */
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除所有缓存的"不存在"结果
+     */
+    public void invalidateNegatives() {
+        lock.lock();
+        try {
+            entries.values().removeIf(entry -> entry.value == null);
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictionCount++;
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hitCount + negativeHitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 命中率，没有请求时为0
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            long requests = hitCount + negativeHitCount + missCount;
+            return requests == 0 ? 0 : (double) (hitCount + negativeHitCount) / requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            long requests = hitCount + negativeHitCount + missCount;
+            return name + "{size=" + entries.size() + "/" + maxSize
+                    + ", hits=" + hitCount
+                    + ", negativeHits=" + negativeHitCount
+                    + ", misses=" + missCount
+                    + ", coalesced=" + coalescedCount
+                    + ", hitRate=" + String.format("%.3f", requests == 0 ? 0.0 : (double) (hitCount + negativeHitCount) / requests)
+                    + ", evictions=" + evictionCount
+                    + ", expirations=" + expirationCount
+                    + ", loadFailures=" + loadFailureCount
+                    + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.util;
+
+import com.example.model.Settings;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 数据库结构的版本化迁移
+ * 已执行的迁移记录在 schema_version 表中，启动时（db.migrate.onStartup）或通过命令行按版本号依次执行未执行的迁移。
+ * MySQL的DDL不在事务中，每个迁移都写成可重复执行的: 建表用 IF NOT EXISTS，加列和建索引前先查元数据，
+ * 中途失败后再次执行会从失败的地方继续。多个进程同时启动时用MySQL的命名锁保证只有一个在迁移
+ *
+ * 用法: java com.example.util.SchemaMigrator [migrate|status] [目标版本]
+ */
+public class SchemaMigrator {
+    private static final String LOCK_NAME = "nettalk_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 600;
+    // 回填新列时每个事务更新的行数范围
+    private static final int BACKFILL_CHUNK = 10000;
+
+    private final List<Migration> migrations;
+
+    public SchemaMigrator() {
+        this(defaultMigrations());
+    }
+
+    /**
+     * @param migrations 迁移，版本号必须递增
+     */
+    public SchemaMigrator(List<Migration> migrations) {
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).getVersion() <= migrations.get(i - 1).getVersion()) {
+                throw new IllegalArgumentException("迁移版本号必须递增: " + migrations.get(i).getVersion());
+            }
+        }
+        this.migrations = Collections.unmodifiableList(new ArrayList<>(migrations));
+    }
+
+    /**
+     * 启动时按 db.migrate.onStartup 配置执行迁移，失败时只打印错误
+     */
+    public static void migrateOnStartup() {
+        String enabled = Settings.getInstance().getProperty("db.migrate.onStartup", "true");
+        if (!Boolean.parseBoolean(enabled.trim())) {
+            return;
+        }
+        try {
+            new SchemaMigrator().migrate();
+        } catch (SQLException e) {
+            System.err.println("数据库迁移失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 执行所有未执行的迁移
+     * @return 本次执行的迁移数
+     * @throws SQLException 迁移失败，已完成的迁移保留
+     */
+    public int migrate() throws SQLException {
+        return migrate(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 执行版本号不超过targetVersion的未执行迁移
+     * @param targetVersion 目标版本
+     * @return 本次执行的迁移数
+     * @throws SQLException 迁移失败，已完成的迁移保留
+     */
+    public int migrate(int targetVersion) throws SQLException {
+        try (Connection conn = DBUtil.getConnection()) {
+            boolean mysql = isMySql(conn);
+            if (mysql) {
+                acquireLock(conn);
+            }
+            try {
+                ensureVersionTable(conn);
+                int current = currentVersion(conn);
+                int applied = 0;
+                for (Migration migration : migrations) {
+                    if (migration.getVersion() <= current || migration.getVersion() > targetVersion) {
+                        continue;
+                    }
+                    System.out.println("执行数据库迁移 V" + migration.getVersion() + ": " + migration.getDescription());
+                    long start = System.currentTimeMillis();
+                    migration.apply(conn, mysql);
+                    long elapsed = System.currentTimeMillis() - start;
+                    recordVersion(conn, migration, elapsed);
+                    System.out.println("数据库迁移 V" + migration.getVersion() + " 完成，耗时 " + elapsed + " ms");
+                    applied++;
+                }
+                return applied;
+            } finally {
+                if (mysql) {
+                    releaseLock(conn);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 当前的结构版本，没有执行过迁移时为0
+     * @throws SQLException 查询失败
+     */
+    public int currentVersion() throws SQLException {
+        try (Connection conn = DBUtil.getConnection()) {
+            ensureVersionTable(conn);
+            return currentVersion(conn);
+        }
+    }
+
+    /**
+     * @return 已知的最新版本
+     */
+    public int latestVersion() {
+        return migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+    }
+
+    private static void ensureVersionTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INT NOT NULL PRIMARY KEY, "
+                    + "description VARCHAR(200) NOT NULL, "
+                    + "installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+                    + "execution_ms BIGINT NOT NULL)");
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void recordVersion(Connection conn, Migration migration, long elapsedMs) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO schema_version (version, description, execution_ms) VALUES (?, ?, ?)")) {
+            pstmt.setInt(1, migration.getVersion());
+            pstmt.setString(2, migration.getDescription());
+            pstmt.setLong(3, elapsedMs);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void acquireLock(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("等待其他进程完成数据库迁移超时");
+                }
+            }
+        }
+    }
+
+    private static void releaseLock(Connection conn) {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            pstmt.setString(1, LOCK_NAME);
+            pstmt.executeQuery().close();
+        } catch (SQLException e) {
+            System.err.println("释放迁移锁失败: " + e.getMessage());
+        }
+    }
+
+    static boolean isMySql(Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+        return product.contains("mysql") || product.contains("mariadb");
+    }
+
+    /**
+     * 按数据库保存标识符的大小写查找表名
+     */
+    private static String metaName(DatabaseMetaData meta, String name) throws SQLException {
+        if (meta.storesUpperCaseIdentifiers()) {
+            return name.toUpperCase(Locale.ROOT);
+        }
+        if (meta.storesLowerCaseIdentifiers()) {
+            return name.toLowerCase(Locale.ROOT);
+        }
+        return name;
+    }
+
+    static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, metaName(meta, table), null)) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, metaName(meta, table), false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void createIndex(Connection conn, String table, String index, String columns) throws SQLException {
+        if (indexExists(conn, table, index)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    private static void dropIndex(Connection conn, boolean mysql, String table, String index) throws SQLException {
+        if (!indexExists(conn, table, index)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(mysql ? "ALTER TABLE " + table + " DROP INDEX " + index : "DROP INDEX " + index);
+        }
+    }
+
+    /**
+     * 已知的迁移
+     */
+    private static List<Migration> defaultMigrations() {
+        List<Migration> list = new ArrayList<>();
+
+        list.add(new Migration(1, "初始结构: user 和 message 表") {
+            @Override
+            protected void apply(Connection conn, boolean mysql) throws SQLException {
+                String engine = mysql ? " ENGINE=InnoDB DEFAULT CHARSET=utf8" : "";
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS user ("
+                            + "_id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                            + "name VARCHAR(40) NOT NULL UNIQUE, "
+                            + "password VARCHAR(255) NOT NULL, "
+                            + "photo " + (mysql ? "LONGBLOB" : "BLOB") + ", "
+                            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)" + engine);
+                    stmt.execute("CREATE TABLE IF NOT EXISTS message ("
+                            + "_id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                            + "sender BIGINT NOT NULL, "
+                            + "receiver BIGINT NOT NULL, "
+                            + "message VARCHAR(200) NOT NULL, "
+                            + "ddate DATE NOT NULL, "
+                            + "`read` INT NOT NULL, "
+                            + "reserved VARCHAR(200), "
+                            + "FOREIGN KEY (sender) REFERENCES user(_id), "
+                            + "FOREIGN KEY (receiver) REFERENCES user(_id))" + engine);
+                }
+            }
+        });
+
+        list.add(new Migration(2, "message.sent_at: 毫秒精度的发送时间，按ddate回填已有的消息") {
+            @Override
+            protected void apply(Connection conn, boolean mysql) throws SQLException {
+                if (!columnExists(conn, "message", "sent_at")) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("ALTER TABLE message ADD COLUMN sent_at DATETIME(3) NULL");
+                    }
+                }
+                // 按主键分段回填，避免一个事务锁住整张表
+                long maxId;
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(_id), 0) FROM message")) {
+                    rs.next();
+                    maxId = rs.getLong(1);
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(
+                        "UPDATE message SET sent_at = ddate WHERE _id > ? AND _id <= ? AND sent_at IS NULL")) {
+                    for (long from = 0; from < maxId; from += BACKFILL_CHUNK) {
+                        pstmt.setLong(1, from);
+                        pstmt.setLong(2, from + BACKFILL_CHUNK);
+                        pstmt.executeUpdate();
+                    }
+                }
+            }
+        });
+
+        list.add(new Migration(3, "message的索引: 按接收者的未读、按发送者的未读、会话历史") {
+            @Override
+            protected void apply(Connection conn, boolean mysql) throws SQLException {
+                // 未读列表按它定位并且不用排序；带上sender，未读统计 (GROUP BY sender) 只读索引
+                createIndex(conn, "message", "idx_message_unread", "receiver, `read`, sent_at, _id, sender");
+                // 某个发送者的未读消息，按发送时间有序
+                createIndex(conn, "message", "idx_message_sender_unread", "receiver, sender, `read`, sent_at, _id");
+                // 会话历史按 (sent_at, _id) 分页，代替按ddate的索引
+                createIndex(conn, "message", "idx_message_history", "sender, receiver, sent_at, _id");
+                dropIndex(conn, mysql, "message", "idx_message_conversation");
+                // 更新统计信息，否则优化器可能仍按外键的单列索引执行
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("ANALYZE TABLE message");
+                }
+            }
+        });
+
+        list.add(new Migration(4, "room_member: 房间成员，按用户查询加入的房间") {
+            @Override
+            protected void apply(Connection conn, boolean mysql) throws SQLException {
+                String engine = mysql ? " ENGINE=InnoDB DEFAULT CHARSET=utf8" : "";
+                // 房间只有编号，没有单独的表；主键即按房间列出成员的索引
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS room_member ("
+                            + "room_id BIGINT NOT NULL, "
+                            + "user_id BIGINT NOT NULL, "
+                            + "joined_at TIMESTAMP NOT NULL, "
+                            + "PRIMARY KEY (room_id, user_id))" + engine);
+                }
+                // 登录时恢复用户加入的房间
+                createIndex(conn, "room_member", "idx_room_member_user", "user_id, room_id");
+            }
+        });
+
+        return list;
+    }
+
+    /**
+     * 命令行: migrate 执行迁移（可指定目标版本），status 显示当前版本
+     */
+    public static void main(String[] args) throws SQLException {
+        String command = args.length > 0 ? args[0] : "migrate";
+        SchemaMigrator migrator = new SchemaMigrator();
+        try {
+            switch (command) {
+                case "status":
+                    System.out.println("当前版本: " + migrator.currentVersion() + "，最新版本: " + migrator.latestVersion());
+                    break;
+                case "migrate":
+                    int target = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+                    int applied = migrator.migrate(target);
+                    System.out.println("执行了 " + applied + " 个迁移，当前版本: " + migrator.currentVersion());
+                    break;
+                default:
+                    System.err.println("用法: java com.example.util.SchemaMigrator [migrate|status] [目标版本]");
+                    break;
+            }
+        } finally {
+            DBUtil.shutdown();
+        }
+    }
+
+    /**
+     * 一个迁移
+     */
+    public abstract static class Migration {
+        private final int version;
+        private final String description;
+
+        protected Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * 执行迁移，必须可以重复执行
+         * @param conn 连接
+         * @param mysql 是否是MySQL（否则按H2等嵌入式数据库处理）
+         * @throws SQLException 执行失败
+         */
+        protected abstract void apply(Connection conn, boolean mysql) throws SQLException;
+    }
+}
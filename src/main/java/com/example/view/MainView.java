@@ -1,9 +1,13 @@
 package com.example.view;
 
+import com.example.component.ChatClient;
 import com.example.component.ChatPanel;
+import com.example.component.EventBatcher;
 import com.example.model.User;
 import com.example.model.Settings;
+import com.example.dao.CachedUserDAO;
 import com.example.dao.UserDAO;
+import com.example.protocol.Frame;
 
 import javax.swing.*;
 import java.awt.*;
@@ -12,7 +16,6 @@ import java.awt.event.WindowEvent;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.io.*;
-import java.net.Socket;
 import javax.swing.border.AbstractBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -21,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.function.BiConsumer;
@@ -47,10 +51,7 @@ public class MainView extends JFrame {
     private JScrollPane scrollPane;
     private JPanel inputPanel;
     private User currentUser;
-    private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
-    private Thread listeningThread;
+    private ChatClient chatClient;
     // Add new field for user list
     private JPanel userListPanel;
     private DefaultListModel<User> userListModel;
@@ -68,12 +69,17 @@ public class MainView extends JFrame {
     // Add UserDAO field
     private UserDAO userDAO;
 
+    // 接收线程收到的帧先进入队列，在事件分发线程上按帧率批量处理
+    // 会话对端ID -> 已显示的最大序号，只在事件分发线程上访问
+    private final Map<Long, Long> displayedSeqs = new HashMap<>();
+    private final Set<Long> unacknowledgedConversations = new LinkedHashSet<>();
+    private final EventBatcher<Frame> inboundFrames = EventBatcher.fromConfig("inboundFrames", this::handleServerFrames);
+
     public MainView(User user) {
         this.currentUser = user;
-        this.userDAO = new UserDAO();
+        this.userDAO = CachedUserDAO.getInstance();
         initUI();
         connectToServer();
-        startMessageListening();
 
         // 添加窗口关闭监听器以强制结束进程
         addWindowListener(new WindowAdapter() {
@@ -387,137 +393,206 @@ public class MainView extends JFrame {
     private void connectToServer() {
         try {
             Settings settings = Settings.getInstance();
-            clientSocket = new Socket(settings.getServerHost(), settings.getServerPort());
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            
-            // Send user ID to server
-            out.println(currentUser.getId());
-            updateConnectionStatus(true); // 连接成功
+            openClient(settings.getServerHost(), settings.getServerPort());
             
             // Add current user to the list first
             addUserToList(currentUser);
             
             // Request user list from server after connection is established
-            out.println("GET_USERS");
+            chatClient.requestUsers();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "无法连接到服务器: " + e.getMessage());
             updateConnectionStatus(false); // 连接失败
+            // 在后台按退避间隔继续尝试，连上后请求用户列表
+            Settings settings = Settings.getInstance();
+            if (chatClient != null) {
+                chatClient.reconnect(settings.getServerHost(), settings.getServerPort());
+            }
         }
     }
 
+    // 创建客户端并连接，监听器在连接前注册，避免丢失登录后立即到达的消息
+    private void openClient(String host, int port) throws IOException {
+        ChatClient client = new ChatClient(currentUser.getId());
+        startMessageListening(client);
+        chatClient = client;
+        client.open(host, port);
+    }
+
     private void closeConnection() {
         System.out.println("正在关闭连接...");
-        try {
-            if (listeningThread != null) {
-                listeningThread.interrupt(); // 中断监听线程
-                listeningThread = null;
-            }
-
-            if (out != null) {
-                out.close();
-                out = null;
-            }
-
-            if (in != null) {
-                in.close();
-                in = null;
-            }
-
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
-                clientSocket = null;
-            }
-
-            System.out.println("连接已关闭");
-            updateConnectionStatus(false);
-        } catch (IOException e) {
-            System.err.println("关闭连接时出错: " + e.getMessage());
+        ChatClient client = chatClient;
+        // 先清除引用，主动断开时不再提示连接断开
+        chatClient = null;
+        inboundFrames.clear();
+        if (client != null) {
+            client.disconnect();
         }
+        System.out.println("连接已关闭");
+        updateConnectionStatus(false);
     }
 
     // 添加连接状态更新方法
     private void updateConnectionStatus(boolean isConnected) {
         // 可以在这里更新UI显示连接状态
-        String status = isConnected ? "已连接服务器" : "未连接服务器";
+        ChatClient client = chatClient;
+        String status = isConnected ? "已连接服务器"
+                : client != null && client.isReconnecting() ? "正在重新连接服务器" : "未连接服务器";
         SwingUtilities.invokeLater(() -> {
             setTitle("通信软件 - " + currentUser.getName() + " (" + status + ")");
         });
     }
 
     // 添加消息监听方法实现
-    private void startMessageListening() {
-        // If there's already a listening thread, stop it
-        if (listeningThread != null) {
-            listeningThread.interrupt();
+    private void startMessageListening(ChatClient client) {
+        client.setFrameListener(frame -> {
+            System.out.println("收到服务器消息: " + frame);
+            inboundFrames.submit(frame);
+        });
+        client.setConnectionStatusListener(connected -> {
+            updateConnectionStatus(connected);
+            // 只有当前连接意外断开且不会自动重连时才提示
+            if (!connected && client == chatClient && !client.isReconnecting()) {
+                SwingUtilities.invokeLater(() ->
+                    JOptionPane.showMessageDialog(MainView.this, "服务器连接断开"));
+            }
+        });
+        client.setReconnectListener(resumed -> {
+            // 恢复会话时服务器已补发错过的在线状态变化，否则重新请求，同一个服务器只补发增量
+            if (!resumed && client == chatClient) {
+                client.requestUsers();
+            }
+        });
+    }
+
+    /**
+     * 在事件分发线程上处理一批服务器消息
+     * 用户列表在整批处理完后只刷新一次，聊天面板的修改在同一个事件中完成，只布局一次
+     */
+    private void handleServerFrames(List<Frame> frames) {
+        boolean userListChanged = false;
+        for (Frame frame : frames) {
+            userListChanged |= handleServerFrame(frame);
         }
-        
-        listeningThread = new Thread(() -> {
-            String message;
-            try {
-                while ((message = in.readLine()) != null) {
-                    System.out.println("收到服务器消息: " + message);
-                    
-                    if (message.startsWith("USER_LIST:")) {
-                        // 处理用户列表更新
-                        handleUserListUpdate(message.substring(10));
-                    } else if (message.startsWith("USER_JOINED:")) {
-                        // 处理新用户加入
-                        handleUserJoined(message.substring(12));
-                    } else if (message.startsWith("USER_LEFT:")) {
-                        // 处理用户离开
-                        handleUserLeft(message.substring(10));
-                    } else if (message.startsWith("PM:")) {
-                        // 处理私聊消息
-                        handlePrivateMessage(message.substring(3));
-                    } else if (message.startsWith("OFFLINE_STAT:")) {
-                        // 处理离线消息统计
-                        handleOfflineMessageStat(message.substring(13));
-                    } else if (message.startsWith("OFFLINE_MSG:")) {
-                        // 处理离线消息
-                        handleOfflineMessage(message.substring(12));
-                    } else {
-                        // 处理普通消息
-                        addMessageBubble(message, false);
+        if (userListChanged) {
+            refreshUserList();
+        }
+        acknowledgeMessages();
+    }
+
+    /**
+     * 整批消息显示完后，每个会话只确认一次已显示的最大序号
+     */
+    private void acknowledgeMessages() {
+        if (unacknowledgedConversations.isEmpty()) {
+            return;
+        }
+        ChatClient client = chatClient;
+        if (client != null) {
+            for (Long peerId : unacknowledgedConversations) {
+                client.send(Frame.messageAck(peerId, displayedSeqs.get(peerId)));
+            }
+        }
+        unacknowledgedConversations.clear();
+    }
+
+    // 按帧类型分发服务器消息，返回用户列表是否需要刷新
+    private boolean handleServerFrame(Frame frame) {
+        switch (frame.getOpcode()) {
+            case USER_LIST:
+            case PRESENCE_SNAPSHOT:
+                // 处理用户列表更新
+                handleUserListUpdate(frame.getUserIds(), frame.getUserNames());
+                return true;
+            case USER_JOINED:
+            case PRESENCE_JOINED:
+                // 处理新用户加入
+                handleUserJoined(frame.getId(), frame.getName());
+                return true;
+            case USER_LEFT:
+            case PRESENCE_LEFT:
+                // 处理用户离开
+                handleUserLeft(frame.getId(), frame.getName());
+                return true;
+            case PRESENCE_BATCH:
+                // 合并的上线和下线，下线的用户ID为负数；合并中包含自己上线的通知
+                long[] changedIds = frame.getUserIds();
+                for (int i = 0; i < changedIds.length; i++) {
+                    if (changedIds[i] > 0 && changedIds[i] != currentUser.getId()) {
+                        handleUserJoined(changedIds[i], frame.getUserNames()[i]);
+                    } else if (changedIds[i] < 0) {
+                        handleUserLeft(-changedIds[i], frame.getUserNames()[i]);
                     }
                 }
-            } catch (IOException e) {
-                if (!Thread.currentThread().isInterrupted() && clientSocket != null && !clientSocket.isClosed()) {
-                    JOptionPane.showMessageDialog(MainView.this, "服务器连接断开: " + e.getMessage());
-                    updateConnectionStatus(false);
+                return true;
+            case PM:
+                // 处理私聊消息
+                handlePrivateMessage(frame.getId(), frame.getText());
+                break;
+            case PM_SEQ:
+                // 带序号的私聊消息，显示后在整批结束时确认
+                handlePrivateMessage(frame.getId(), frame.getText());
+                displayedSeqs.merge(frame.getId(), frame.getCount(), Math::max);
+                unacknowledgedConversations.add(frame.getId());
+                break;
+            case OFFLINE_STAT:
+                // 处理离线消息统计
+                handleOfflineMessageStat(frame.getId(), frame.getCount());
+                break;
+            case OFFLINE_MSG:
+                // 处理离线消息
+                handleOfflineMessage(frame.getId(), frame.getText());
+                break;
+            case OFFLINE_END:
+                // 这一段离线消息已显示，确认后服务器标记为已读并发送下一段；
+                // 批量回调可能在退出登录或断开后才执行，连接已不在时不确认，重新登录后服务器会再次发送
+                ChatClient client = chatClient;
+                if (client != null) {
+                    client.send(Frame.offlineAck(frame.getId(), frame.getCount()));
                 }
-            }
-        });
-        listeningThread.start();
+                break;
+            case CHAT:
+                // 处理普通消息
+                String message = frame.getName() != null
+                        ? frame.getName() + ": " + frame.getText() : frame.getText();
+                addMessageBubble(message, false);
+                break;
+            case ROOM_MSG:
+                // 房间消息，标出所在的房间
+                addMessageBubble("[房间 " + frame.getId() + "] " + frame.getName() + ": " + frame.getText(), false);
+                break;
+            default:
+                break;
+        }
+        return false;
     }
 
+    // 在事件分发线程上调用
     private void addMessageBubble(String message, boolean isOwnMessage) {
-        SwingUtilities.invokeLater(() -> {
-            // 解析消息
-            String[] parts = message.split(": ", 2);
-            String username = parts[0];
-            String content = parts.length > 1 ? parts[1] : message;
+        // 解析消息
+        String[] parts = message.split(": ", 2);
+        String username = parts[0];
+        String content = parts.length > 1 ? parts[1] : message;
 
-            // 如果是系统生成的用户名格式 (User + 数字)，尝试查找真实用户名
-            if (!isOwnMessage && username.matches("User\\d+")) {
-                try {
-                    // 从用户名中提取用户ID
-                    long userId = Long.parseLong(username.substring(4));
-                    
-                    // 在用户列表中查找对应的用户
-                    User user = findUserById(userId);
-                    if (user != null) {
-                        username = user.getName();
-                    }
-                } catch (NumberFormatException | IndexOutOfBoundsException e) {
-                    // 如果解析失败，保留原始用户名
-                    System.err.println("无法解析用户ID: " + e.getMessage());
+        // 如果是系统生成的用户名格式 (User + 数字)，尝试查找真实用户名
+        if (!isOwnMessage && username.matches("User\\d+")) {
+            try {
+                // 从用户名中提取用户ID
+                long userId = Long.parseLong(username.substring(4));
+                
+                // 在用户列表中查找对应的用户
+                User user = findUserById(userId);
+                if (user != null) {
+                    username = user.getName();
                 }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // 如果解析失败，保留原始用户名
+                System.err.println("无法解析用户ID: " + e.getMessage());
             }
+        }
 
-            // 使用ChatPanel添加消息
-            chatPanel.addMessage(content, isOwnMessage, isOwnMessage ? currentUser.getName() : username);
-        });
+        // 使用ChatPanel添加消息
+        chatPanel.addMessage(content, isOwnMessage, isOwnMessage ? currentUser.getName() : username);
     }
 
     // 创建消息行
@@ -618,8 +693,8 @@ public class MainView extends JFrame {
     // 添加发送消息方法
     private void sendMessage() {
         String message = inputField.getText().trim();
-        if (!message.isEmpty() && out != null) {
-            out.println(message);
+        if (!message.isEmpty() && chatClient != null) {
+            chatClient.send(Frame.chat(message));
             addMessageBubble(currentUser.getName() + ": " + message, true);
             resetInputField();
         }
@@ -927,86 +1002,40 @@ public class MainView extends JFrame {
         }
     }
 
-    private void handleUserListUpdate(String userListStr) {
-        SwingUtilities.invokeLater(() -> {
-            // Clear the online users set
-            onlineUserIds.clear();
+    // 以下三个方法在事件分发线程上调用，只更新数据，列表由handleServerFrames统一刷新
+    private void handleUserListUpdate(long[] userIds, String[] userNames) {
+        // Clear the online users set
+        onlineUserIds.clear();
+        
+        // Add current user to online users
+        onlineUserIds.add(currentUser.getId());
+        
+        // Update online status for all users
+        for (User user : allUsers) {
+            user.setOnline(user.getId() == currentUser.getId());
+        }
+        
+        // Add other users
+        for (int i = 0; i < userIds.length; i++) {
+            long userId = userIds[i];
+            String userName = userNames[i];
             
-            // Add current user to online users
-            onlineUserIds.add(currentUser.getId());
+            // Add to online users set
+            onlineUserIds.add(userId);
             
-            // Update online status for all users
+            // Update online status for this user
             for (User user : allUsers) {
-                user.setOnline(user.getId() == currentUser.getId());
-            }
-            
-            // If the list is empty, don't process further
-            if (!userListStr.isEmpty()) {
-                // Parse and add other users
-                String[] userInfos = userListStr.split(",");
-                for (String userInfo : userInfos) {
-                    String[] parts = userInfo.split(":");
-                    if (parts.length == 2) {
-                        long userId = Long.parseLong(parts[0]);
-                        String userName = parts[1];
-                        
-                        // Add to online users set
-                        onlineUserIds.add(userId);
-                        
-                        // Update online status for this user
-                        for (User user : allUsers) {
-                            if (user.getId() == userId) {
-                                user.setOnline(true);
-                                break;
-                            }
-                        }
-                        
-                        // Check if user exists in all users list
-                        boolean userExists = false;
-                        for (User user : allUsers) {
-                            if (user.getId() == userId) {
-                                userExists = true;
-                                break;
-                            }
-                        }
-                        
-                        // If user doesn't exist, add to all users list
-                        if (!userExists) {
-                            User user = new User(userId, userName);
-                            user.setOnline(true);
-                            allUsers.add(user);
-                        }
-                    }
+                if (user.getId() == userId) {
+                    user.setOnline(true);
+                    break;
                 }
             }
             
-            // Update the user list based on current mode
-            if (showingAllUsers) {
-                updateUserListWithAllUsers();
-            } else {
-                updateUserListWithOnlineUsers();
-            }
-        });
-    }
-
-    private void handleUserJoined(String userInfo) {
-        String[] parts = userInfo.split(":");
-        if (parts.length == 2) {
-            long userId = Long.parseLong(parts[0]);
-            String userName = parts[1];
-            
-            // Add to online users set
-            onlineUserIds.add(userId);
-            
             // Check if user exists in all users list
             boolean userExists = false;
-            User existingUser = null;
-            
             for (User user : allUsers) {
                 if (user.getId() == userId) {
                     userExists = true;
-                    existingUser = user;
-                    user.setOnline(true);
                     break;
                 }
             }
@@ -1016,42 +1045,53 @@ public class MainView extends JFrame {
                 User user = new User(userId, userName);
                 user.setOnline(true);
                 allUsers.add(user);
-            } else if (!existingUser.getName().equals(userName)) {
-                // If the name has changed, update it
-                existingUser.setName(userName);
             }
-            
-            // Update the user list based on current mode
-            if (showingAllUsers) {
-                updateUserListWithAllUsers();
-            } else {
-                updateUserListWithOnlineUsers();
+        }
+    }
+
+    private void handleUserJoined(long userId, String userName) {
+        // Add to online users set
+        onlineUserIds.add(userId);
+        
+        // Check if user exists in all users list
+        boolean userExists = false;
+        User existingUser = null;
+        
+        for (User user : allUsers) {
+            if (user.getId() == userId) {
+                userExists = true;
+                existingUser = user;
+                user.setOnline(true);
+                break;
             }
-            
-            // Add system message
-            addSystemMessage(userName + " 已加入聊天");
         }
+        
+        // If user doesn't exist, add to all users list
+        if (!userExists) {
+            User user = new User(userId, userName);
+            user.setOnline(true);
+            allUsers.add(user);
+        } else if (!existingUser.getName().equals(userName)) {
+            // If the name has changed, update it
+            existingUser.setName(userName);
+        }
+        
+        // Add system message
+        chatPanel.addSystemMessage(userName + " 已加入聊天");
     }
 
-    private void handleUserLeft(String userInfo) {
-        String[] parts = userInfo.split(":");
-        if (parts.length == 2) {
-            long userId = Long.parseLong(parts[0]);
-            String userName = parts[1];
-            
-            // Remove from online users set
-            onlineUserIds.remove(userId);
-            
-            // Update the user list based on current mode
-            if (showingAllUsers) {
-                updateUserListWithAllUsers();
-            } else {
-                updateUserListWithOnlineUsers();
+    private void handleUserLeft(long userId, String userName) {
+        // Remove from online users set
+        onlineUserIds.remove(userId);
+        for (User user : allUsers) {
+            if (user.getId() == userId) {
+                user.setOnline(false);
+                break;
             }
-            
-            // Add system message
-            addSystemMessage(userName + " 已离开聊天");
         }
+        
+        // Add system message
+        chatPanel.addSystemMessage(userName + " 已离开聊天");
     }
 
     private void addUserToList(User user) {
@@ -1083,6 +1123,18 @@ public class MainView extends JFrame {
         });
     }
 
+    // 按当前模式重建用户列表，在事件分发线程上调用，整个列表只触发一次变更事件
+    private void refreshUserList() {
+        List<User> visible = new ArrayList<>(allUsers.size());
+        for (User user : allUsers) {
+            if (showingAllUsers || onlineUserIds.contains(user.getId())) {
+                visible.add(user);
+            }
+        }
+        userListModel.clear();
+        userListModel.addAll(visible);
+    }
+
     // Debug method to print current user list
     private void printUserList() {
         System.out.println("Current user list:");
@@ -1099,15 +1151,13 @@ public class MainView extends JFrame {
     private void openPrivateChat(User targetUser) {
         // 检查是否已经有与该用户的聊天窗口
         if (!privateChatWindows.containsKey(targetUser.getId())) {
-            PrivateChatView chatView = new PrivateChatView(currentUser, targetUser, clientSocket);
+            PrivateChatView chatView = new PrivateChatView(currentUser, targetUser, chatClient);
             privateChatWindows.put(targetUser.getId(), chatView);
             
             // 获取与该用户的离线消息
-            if (out != null) {
-                // 发送获取离线消息的命令: GET_OFFLINE_MSG:发送者ID (不带冒号)
-                String command = "GET_OFFLINE_MSG:" + targetUser.getId();
-                System.out.println("发送获取离线消息命令: " + command);
-                out.println(command);
+            if (chatClient != null) {
+                System.out.println("发送获取离线消息命令: 发送者ID=" + targetUser.getId());
+                chatClient.send(Frame.getOfflineMessages(targetUser.getId()));
             }
             
             chatView.setVisible(true);
@@ -1126,35 +1176,26 @@ public class MainView extends JFrame {
     }
 
     // 处理私聊消息
-    private void handlePrivateMessage(String message) {
-        // 私聊消息格式: 发送者ID:消息内容
-        String[] parts = message.split(":", 2);
-        if (parts.length == 2) {
-            long senderId = Long.parseLong(parts[0]);
-            String content = parts[1];
-
-            // 查找发送者
-            User sender = findUserById(senderId);
-            if (sender != null) {
-                SwingUtilities.invokeLater(() -> {
-                    // 检查是否已有与该用户的聊天窗口
-                    if (privateChatWindows.containsKey(senderId)) {
-                        // 如果有，直接在窗口中显示消息
-                        privateChatWindows.get(senderId).receiveMessage(content);
-                    } else {
-                        // 如果没有，创建新窗口并显示消息
-                        PrivateChatView chatView = new PrivateChatView(currentUser, sender, clientSocket);
-                        privateChatWindows.put(senderId, chatView);
-                        chatView.setVisible(true);
-                        chatView.receiveMessage(content);
-
-                        // 当窗口关闭时从映射中移除
-                        chatView.addWindowListener(new WindowAdapter() {
-                            @Override
-                            public void windowClosed(WindowEvent e) {
-                                privateChatWindows.remove(senderId);
-                            }
-                        });
+    private void handlePrivateMessage(long senderId, String content) {
+        // 查找发送者
+        User sender = findUserById(senderId);
+        if (sender != null) {
+            // 检查是否已有与该用户的聊天窗口
+            if (privateChatWindows.containsKey(senderId)) {
+                // 如果有，直接在窗口中显示消息
+                privateChatWindows.get(senderId).receiveMessage(content);
+            } else {
+                // 如果没有，创建新窗口并显示消息
+                PrivateChatView chatView = new PrivateChatView(currentUser, sender, chatClient);
+                privateChatWindows.put(senderId, chatView);
+                chatView.setVisible(true);
+                chatView.receiveMessage(content);
+
+                // 当窗口关闭时从映射中移除
+                chatView.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                        privateChatWindows.remove(senderId);
                     }
                 });
             }
@@ -1169,6 +1210,12 @@ public class MainView extends JFrame {
                 return user;
             }
         }
+        // 同一批消息中刚加入的用户还没有刷新到列表中
+        for (User user : allUsers) {
+            if (user.getId() == userId) {
+                return user;
+            }
+        }
         return null;
     }
 
@@ -1213,23 +1260,14 @@ public class MainView extends JFrame {
                 
                 // 连接到新服务器
                 try {
-                    clientSocket = new Socket(host, port);
-                    in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                    out = new PrintWriter(clientSocket.getOutputStream(), true);
-                    
-                    // 发送用户ID
-                    out.println(currentUser.getId());
-                    updateConnectionStatus(true);
+                    openClient(host, port);
                     
                     // 清空并重新添加当前用户到列表
                     userListModel.clear();
                     addUserToList(currentUser);
                     
                     // 请求用户列表
-                    out.println("GET_USERS");
-                    
-                    // 重新启动消息监听
-                    startMessageListening();
+                    chatClient.requestUsers();
                     
                     // 更新设置中的服务器地址和端口
                     Settings settings = Settings.getInstance();
@@ -1378,10 +1416,8 @@ public class MainView extends JFrame {
      * @param targetUser 目标用户
      */
     private void forwardMessage(String content, User targetUser) {
-        if (out != null) {
-            // 发送私聊消息格式: PM:接收者ID:消息内容
-            String pmCommand = "PM:" + targetUser.getId() + ":" + content;
-            out.println(pmCommand);
+        if (chatClient != null) {
+            chatClient.sendPrivateMessage(targetUser.getId(), content);
             
             // 显示转发成功提示
             chatPanel.addSystemMessage("已转发消息给 " + targetUser.getName());
@@ -1395,79 +1431,57 @@ public class MainView extends JFrame {
 
     /**
      * 处理离线消息
-     * @param message 离线消息内容
+     * @param senderId 发送者ID
+     * @param content 消息内容
      */
-    private void handleOfflineMessage(String message) {
-        System.out.println("处理离线消息: " + message);
-        
-        // 离线消息格式: 发送者ID:消息内容
-        String[] parts = message.split(":", 2);
-        if (parts.length == 2) {
-            try {
-                long senderId = Long.parseLong(parts[0]);
-                String content = parts[1];
-                
-                System.out.println("解析离线消息: 发送者ID=" + senderId + ", 内容=" + content);
-
-                // 查找发送者
-                User sender = findUserById(senderId);
-                if (sender != null) {
-                    // 检查是否已有与该用户的聊天窗口
-                    if (privateChatWindows.containsKey(senderId)) {
-                        // 如果有，直接在窗口中显示离线消息
-                        System.out.println("在现有私聊窗口显示离线消息");
-                        privateChatWindows.get(senderId).receiveOfflineMessage(content);
-                    } else {
-                        // 如果没有，创建新窗口并显示离线消息
-                        System.out.println("创建新私聊窗口并显示离线消息");
-                        PrivateChatView chatView = new PrivateChatView(currentUser, sender, clientSocket);
-                        privateChatWindows.put(senderId, chatView);
-                        chatView.setVisible(true);
-                        chatView.receiveOfflineMessage(content);
-
-                        // 当窗口关闭时从映射中移除
-                        chatView.addWindowListener(new WindowAdapter() {
-                            @Override
-                            public void windowClosed(WindowEvent e) {
-                                privateChatWindows.remove(senderId);
-                            }
-                        });
+    private void handleOfflineMessage(long senderId, String content) {
+        System.out.println("处理离线消息: 发送者ID=" + senderId + ", 内容=" + content);
+
+        // 查找发送者
+        User sender = findUserById(senderId);
+        if (sender != null) {
+            // 检查是否已有与该用户的聊天窗口
+            if (privateChatWindows.containsKey(senderId)) {
+                // 如果有，直接在窗口中显示离线消息
+                System.out.println("在现有私聊窗口显示离线消息");
+                privateChatWindows.get(senderId).receiveOfflineMessage(content);
+            } else {
+                // 如果没有，创建新窗口并显示离线消息
+                System.out.println("创建新私聊窗口并显示离线消息");
+                PrivateChatView chatView = new PrivateChatView(currentUser, sender, chatClient);
+                privateChatWindows.put(senderId, chatView);
+                chatView.setVisible(true);
+                chatView.receiveOfflineMessage(content);
+
+                // 当窗口关闭时从映射中移除
+                chatView.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                        privateChatWindows.remove(senderId);
                     }
-                } else {
-                    System.err.println("找不到发送者: ID=" + senderId);
-                }
-            } catch (NumberFormatException e) {
-                System.err.println("解析发送者ID失败: " + e.getMessage());
+                });
             }
         } else {
-            System.err.println("离线消息格式错误: " + message);
+            System.err.println("找不到发送者: ID=" + senderId);
         }
     }
 
     /**
      * 处理离线消息统计
-     * @param message 离线消息统计内容
+     * @param senderId 发送者ID
+     * @param count 消息数量
      */
-    private void handleOfflineMessageStat(String message) {
-        // 离线消息统计格式: 发送者ID:消息数量
-        String[] parts = message.split(":", 2);
-        if (parts.length == 2) {
-            long senderId = Long.parseLong(parts[0]);
-            int count = Integer.parseInt(parts[1]);
+    private void handleOfflineMessageStat(long senderId, long count) {
+        // 查找发送者
+        User sender = findUserById(senderId);
+        if (sender != null) {
+            String senderName = sender.getName();
             
-            // 查找发送者
-            User sender = findUserById(senderId);
-            if (sender != null) {
-                String senderName = sender.getName();
-                
-                // 添加系统消息提示有离线消息
-                SwingUtilities.invokeLater(() -> {
-                    chatPanel.addSystemMessage("您有 " + count + " 条来自 " + senderName + " 的未读消息");
-                });
-                
-                // 可以选择自动打开私聊窗口或者高亮显示用户列表中的该用户
-                // 这里选择添加一个提示，让用户手动点击打开私聊
-            }
+            // 添加系统消息提示有离线消息
+            chatPanel.addSystemMessage("您有 " + count + " 条来自 " + senderName + " 的未读消息");
+            
+            // 可以选择自动打开私聊窗口或者高亮显示用户列表中的该用户
+            // 这里选择添加一个提示，让用户手动点击打开私聊
         }
     }
 }
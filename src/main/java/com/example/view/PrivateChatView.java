@@ -1,13 +1,15 @@
 package com.example.view;
 
+import com.example.component.ChatClient;
 import com.example.component.ChatPanel;
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.model.Settings;
 import com.example.model.User;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.*;
-import java.net.Socket;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.util.List;
@@ -28,28 +30,35 @@ public class PrivateChatView extends JFrame {
     private static final Color SUCCESS_COLOR = new Color(40, 167, 69);
     private static final Font CHINESE_FONT = new Font("微软雅黑", Font.PLAIN, 14);
     private static final Font CHINESE_FONT_BOLD = new Font("微软雅黑", Font.BOLD, 14);
+    // 距离顶部小于这个距离（像素）时加载更早的历史
+    private static final int HISTORY_PRELOAD_DISTANCE = 200;
     
     // 成员变量
     private User currentUser;
     private User targetUser;
-    private Socket clientSocket;
-    private PrintWriter out;
+    private ChatClient chatClient;
     private JTextArea inputField;
     private JButton sendButton;
     private ChatPanel chatPanel;
     
-    public PrivateChatView(User currentUser, User targetUser, Socket clientSocket) {
+    // 消息历史分页: 已加载的最早一条消息的位置，向上滚动到顶部附近时加载它之前的一页
+    private final MessageDAO messageDAO = new MessageDAO();
+    private final int historyPageSize;
+    private MessageDAO.Cursor oldestLoaded;
+    private boolean loadingHistory;
+    private boolean hasMoreHistory = true;
+    
+    public PrivateChatView(User currentUser, User targetUser, ChatClient chatClient) {
         this.currentUser = currentUser;
         this.targetUser = targetUser;
-        this.clientSocket = clientSocket;
-        
-        try {
-            this.out = new PrintWriter(clientSocket.getOutputStream(), true);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        this.chatClient = chatClient;
+        this.historyPageSize = Integer.parseInt(
+                Settings.getInstance().getProperty("client.history.pageSize", "50").trim());
         
         initUI();
+        
+        // 打开时加载最近的一页历史
+        loadOlderHistory();
     }
     
     private void initUI() {
@@ -170,6 +179,13 @@ public class PrivateChatView extends JFrame {
         JScrollPane scrollPane = chatPanel.getScrollPane();
         add(scrollPane, BorderLayout.CENTER);
         
+        // 滚动到顶部附近时加载更早的历史
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (e.getValue() < HISTORY_PRELOAD_DISTANCE) {
+                loadOlderHistory();
+            }
+        });
+        
         // 设置转发消息监听器
         chatPanel.setForwardMessageListener((content, isOwnMessage) -> {
             // 获取可转发的用户列表
@@ -183,6 +199,50 @@ public class PrivateChatView extends JFrame {
         });
     }
     
+    /**
+     * 在后台加载已加载部分之前的一页历史，插入到聊天面板顶部
+     * 同一时间只有一个加载请求；已加载的消息不会再次查询
+     */
+    private void loadOlderHistory() {
+        if (loadingHistory || !hasMoreHistory) {
+            return;
+        }
+        loadingHistory = true;
+        MessageDAO.Cursor before = oldestLoaded;
+        new SwingWorker<List<Message>, Void>() {
+            @Override
+            protected List<Message> doInBackground() {
+                return messageDAO.getMessagesBefore(currentUser.getId(), targetUser.getId(), before, historyPageSize);
+            }
+            
+            @Override
+            protected void done() {
+                loadingHistory = false;
+                List<Message> page;
+                try {
+                    page = get();
+                } catch (Exception e) {
+                    System.err.println("加载消息历史失败: " + e.getMessage());
+                    return;
+                }
+                if (page.size() < historyPageSize) {
+                    hasMoreHistory = false;
+                }
+                if (page.isEmpty()) {
+                    return;
+                }
+                oldestLoaded = MessageDAO.Cursor.of(page.get(0));
+                chatPanel.prependHistory(page, currentUser.getId(), currentUser.getName(), targetUser.getName());
+                
+                // 内容还不满一屏时没有滚动条，无法通过滚动触发，继续加载
+                JScrollBar verticalBar = chatPanel.getScrollPane().getVerticalScrollBar();
+                if (verticalBar.getMaximum() - verticalBar.getMinimum() <= verticalBar.getVisibleAmount()) {
+                    loadOlderHistory();
+                }
+            }
+        }.execute();
+    }
+    
     private void initInputPanel() {
         JPanel inputPanel = new JPanel(new BorderLayout());
         inputPanel.setBorder(BorderFactory.createEmptyBorder(15, 20, 20, 20));
@@ -295,10 +355,8 @@ public class PrivateChatView extends JFrame {
     
     private void sendPrivateMessage() {
         String message = inputField.getText().trim();
-        if (!message.isEmpty() && out != null) {
-            // 发送私聊消息格式: PM:接收者ID:消息内容
-            String pmCommand = "PM:" + targetUser.getId() + ":" + message;
-            out.println(pmCommand);
+        if (!message.isEmpty() && chatClient != null) {
+            chatClient.sendPrivateMessage(targetUser.getId(), message);
             
             // 在自己的聊天窗口显示消息，传递当前用户名
             chatPanel.addMessage(message, true, currentUser.getName());
@@ -354,10 +412,8 @@ public class PrivateChatView extends JFrame {
      * @param targetUser 目标用户
      */
     private void forwardMessage(String content, User targetUser) {
-        if (out != null) {
-            // 发送私聊消息格式: PM:接收者ID:消息内容
-            String pmCommand = "PM:" + targetUser.getId() + ":" + content;
-            out.println(pmCommand);
+        if (chatClient != null) {
+            chatClient.sendPrivateMessage(targetUser.getId(), content);
             
             // 显示转发成功提示
             chatPanel.addSystemMessage("已转发消息给 " + targetUser.getName());
@@ -369,10 +425,8 @@ public class PrivateChatView extends JFrame {
      * @param message 消息内容
      */
     public void sendMessage(String message) {
-        if (!message.isEmpty() && out != null) {
-            // 发送私聊消息格式: PM:接收者ID:消息内容
-            String pmCommand = "PM:" + targetUser.getId() + ":" + message;
-            out.println(pmCommand);
+        if (!message.isEmpty() && chatClient != null) {
+            chatClient.sendPrivateMessage(targetUser.getId(), message);
             
             // 在自己的聊天窗口显示消息，传递当前用户名
             chatPanel.addMessage(message, true, currentUser.getName());
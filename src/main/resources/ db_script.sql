@@ -14,6 +14,27 @@ CREATE TABLE IF NOT EXISTS message (
                                        ddate DATE NOT NULL,
                                        `read` INT NOT NULL,
                                        reserved VARCHAR(200),
+                                       -- 毫秒精度的发送时间
+                                       sent_at DATETIME(3) NULL,
                                        FOREIGN KEY (sender) REFERENCES user(_id),
-                                       FOREIGN KEY (receiver) REFERENCES user(_id)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
+                                       FOREIGN KEY (receiver) REFERENCES user(_id),
+                                       -- 按接收者的未读列表和未读统计
+                                       INDEX idx_message_unread (receiver, `read`, sent_at, _id, sender),
+                                       -- 某个发送者的未读消息
+                                       INDEX idx_message_sender_unread (receiver, sender, `read`, sent_at, _id),
+                                       -- 会话历史按 (sent_at, _id) 分页，每个方向一次范围扫描
+                                       INDEX idx_message_history (sender, receiver, sent_at, _id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 房间成员，房间只有编号
+CREATE TABLE IF NOT EXISTS room_member (
+                                           room_id BIGINT NOT NULL,
+                                           user_id BIGINT NOT NULL,
+                                           joined_at TIMESTAMP NOT NULL,
+                                           PRIMARY KEY (room_id, user_id),
+                                           -- 登录时恢复用户加入的房间
+                                           INDEX idx_room_member_user (user_id, room_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- 这是最新的表结构；已有的库由 com.example.util.SchemaMigrator 升级（启动时自动执行，或命令行执行），
+-- 用本脚本新建的库第一次启动时迁移只会补记 schema_version
@@ -0,0 +1,330 @@
+package com.example;
+
+import com.example.component.ChatClient;
+import com.example.dao.MessageDAO;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.service.ClusterNode;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 集群模式的验证程序
+ * 在本机的不同端口上启动 3 个节点（共用一个H2内存库），每个节点连接一个 ChatClient:
+ * 1. 节点两两连接，每个客户端的在线列表包含其他节点上的用户
+ * 2. 私聊消息转发到接收者所在的节点，群聊消息发到所有节点的用户
+ * 3. 一个节点关闭后，其他节点的用户看到该节点上的用户下线，发给他们的私聊消息存为离线消息；
+ *    节点重启后重新连接，用户重新上线并收到离线消息统计
+ * 4. 用户从一个节点换到另一个节点时不会被看作下线，私聊消息发到新的节点
+ * 5. 房间消息转发到其他节点，只发给这些节点上的房间成员
+ * 6. 密钥错误或节点ID未配置的握手被拒绝，不会收到本节点的握手
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.ClusterTest -Dexec.classpathScope=test
+ *       java com.example.ClusterTest [第一个客户端端口=18960] [第一个集群端口=19960]
+ */
+public class ClusterTest {
+    private static final int NODES = 3;
+    private static final long ROOM = 7;
+    private static final long RECONNECT_MS = 200;
+    private static final String SECRET = "cluster-test-secret";
+    // 等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+    private static final long TIMEOUT_MS = 5000;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18960;
+        int clusterPort = args.length > 1 ? Integer.parseInt(args[1]) : 19960;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("client.protocol", "binary");
+        settings.setProperty("client.reconnect.enabled", "false");
+        settings.setProperty("cluster.enabled", "true");
+        settings.setProperty("cluster.reconnectMs", String.valueOf(RECONNECT_MS));
+        settings.setProperty("cluster.bindAddress", "127.0.0.1");
+        settings.setProperty("cluster.secret", SECRET);
+        StringBuilder peers = new StringBuilder();
+        for (int i = 1; i <= NODES; i++) {
+            peers.append(peers.length() > 0 ? "," : "").append(i).append("@localhost:").append(clusterPort + i - 1);
+        }
+        settings.setProperty("cluster.peers", peers.toString());
+
+        SocketService[] nodes = new SocketService[NODES + 1];
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 1; i <= NODES; i++) {
+                nodes[i] = startNode(i, port, clusterPort);
+            }
+
+            // 1. 节点互连，在线列表包含其他节点上的用户
+            check("节点两两连接", waitFor(() -> {
+                for (int i = 1; i <= NODES; i++) {
+                    if (nodes[i].getClusterNode().getConnectedNodes().size() != NODES - 1) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+            Client a = new Client(1, port);
+            Client b = new Client(2, port + 1);
+            Client c = new Client(3, port + 2);
+            clients.add(a);
+            clients.add(b);
+            clients.add(c);
+            Set<Long> everyone = Set.of(1L, 2L, 3L);
+            check("每个客户端的在线列表包含其他节点上的用户",
+                    waitFor(() -> a.online.equals(everyone) && b.online.equals(everyone) && c.online.equals(everyone)));
+            check("节点 1 的路由表: 用户 2 在节点 2，用户 3 在节点 3",
+                    nodes[1].getClusterNode().routeOf(2) == 2 && nodes[1].getClusterNode().routeOf(3) == 3);
+
+            // 2. 私聊和群聊
+            a.client.sendPrivateMessage(2, "跨节点私聊");
+            check("私聊消息转发到接收者所在的节点", waitFor(() -> b.received(Opcode.PM_SEQ, 1, "跨节点私聊")));
+            check("节点 1 转发 1 条、节点 2 收到 1 条",
+                    nodes[1].getClusterNode().getMessagesForwarded() == 1
+                            && nodes[2].getClusterNode().getMessagesReceived() == 1);
+            check("节点 2 确认后节点 1 不再保留转发的私聊消息",
+                    waitFor(() -> nodes[1].getClusterNode().getUnackedForwards() == 0));
+            c.client.sendMessage("大家好");
+            check("群聊消息发到所有节点的用户",
+                    waitFor(() -> a.received(Opcode.CHAT, 3, "大家好") && b.received(Opcode.CHAT, 3, "大家好")));
+            Thread.sleep(QUIET_MS);
+            check("发送者没有收到自己的群聊消息", !c.received(Opcode.CHAT, 3, "大家好"));
+
+            // 3. 节点关闭与重启
+            nodes[3].shutdown();
+            Set<Long> survivors = Set.of(1L, 2L);
+            check("节点 3 关闭后其他节点的用户看到用户 3 下线",
+                    waitFor(() -> a.online.equals(survivors) && b.online.equals(survivors)));
+            check("节点 1 的路由表中不再有用户 3", nodes[1].getClusterNode().routeOf(3) == -1);
+            long forwarded = nodes[1].getClusterNode().getMessagesForwarded();
+            a.client.sendPrivateMessage(3, "节点关闭期间");
+            Thread.sleep(QUIET_MS);
+            check("用户 3 离线时私聊消息不再转发", nodes[1].getClusterNode().getMessagesForwarded() == forwarded);
+            nodes[3] = startNode(3, port, clusterPort);
+            check("节点 3 重启后重新连接其他节点",
+                    waitFor(() -> nodes[3].getClusterNode().getConnectedNodes().size() == NODES - 1));
+            Client c2 = new Client(3, port + 2);
+            clients.add(c2);
+            check("用户 3 重新上线，所有节点的用户都看到",
+                    waitFor(() -> a.online.equals(everyone) && b.online.equals(everyone) && c2.online.equals(everyone)));
+            check("节点关闭期间的私聊消息以离线消息统计送达",
+                    waitFor(() -> c2.received(Opcode.OFFLINE_STAT, 1, null)));
+
+            // 4. 用户换到另一个节点
+            a.frames.clear();
+            Client b2 = new Client(2, port + 2);
+            clients.add(b2);
+            check("用户 2 登录节点 3 后路由指向节点 3", waitFor(() -> nodes[1].getClusterNode().routeOf(2) == 3));
+            b.client.disconnect();
+            Thread.sleep(QUIET_MS);
+            check("断开节点 2 上的旧连接后用户 2 仍然在线",
+                    a.online.equals(everyone) && nodes[1].getClusterNode().routeOf(2) == 3
+                            && a.count(Opcode.PRESENCE_LEFT) == 0);
+            a.client.sendPrivateMessage(2, "换节点之后");
+            check("私聊消息发到用户 2 的新节点", waitFor(() -> b2.received(Opcode.PM_SEQ, 1, "换节点之后")));
+            Thread.sleep(QUIET_MS);
+            check("旧连接没有收到", !b.received(Opcode.PM_SEQ, 1, "换节点之后"));
+
+            // 5. 跨节点的房间消息
+            a.client.joinRoom(ROOM);
+            c2.client.joinRoom(ROOM);
+            check("用户 1 和用户 3 在各自的节点上加入房间",
+                    waitFor(() -> a.received(Opcode.ROOM_MEMBERS, ROOM, null) && c2.received(Opcode.ROOM_MEMBERS, ROOM, null)));
+            a.client.sendRoomMessage(ROOM, "跨节点房间消息");
+            check("房间消息发给其他节点上的房间成员",
+                    waitFor(() -> c2.received(Opcode.ROOM_MSG, ROOM, "跨节点房间消息")));
+            Thread.sleep(QUIET_MS);
+            check("其他节点上不在房间中的用户没有收到", !b2.received(Opcode.ROOM_MSG, ROOM, "跨节点房间消息"));
+
+            // 6. 握手认证
+            int node3Port = clusterPort + 2;
+            check("密钥错误的握手被拒绝", rejectsHello(node3Port, Frame.nodeHello(2, "wrong-secret")));
+            check("未配置的节点ID被拒绝", rejectsHello(node3Port, Frame.nodeHello(9, SECRET)));
+            check("接受的连接只能来自ID更小的节点", rejectsHello(clusterPort, Frame.nodeHello(2, SECRET)));
+            check("被拒绝的握手不影响已有的节点连接",
+                    nodes[3].getClusterNode().getConnectedNodes().size() == NODES - 1
+                            && nodes[1].getClusterNode().routeOf(2) == 3);
+        } finally {
+            for (Client client : clients) {
+                client.client.disconnect();
+            }
+            for (int i = 1; i <= NODES; i++) {
+                if (nodes[i] != null) {
+                    nodes[i].shutdown();
+                }
+            }
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    private static SocketService startNode(int nodeId, int port, int clusterPort) throws InterruptedException {
+        Settings settings = Settings.getInstance();
+        settings.setProperty("cluster.nodeId", String.valueOf(nodeId));
+        settings.setProperty("cluster.port", String.valueOf(clusterPort + nodeId - 1));
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new SocketLoadTest.StubUserDAO(), true, 200),
+                new SocketLoadTest.StubUserDAO());
+        ClusterNode cluster = service.getClusterNode();
+        if (cluster == null || cluster.getNodeId() != nodeId) {
+            throw new IllegalStateException("集群模式未启用");
+        }
+        service.startServer(port + nodeId - 1);
+        waitForServer(port + nodeId - 1);
+        return service;
+    }
+
+    /**
+     * ChatClient 及按收到的帧维护的在线列表
+     */
+    private static final class Client {
+        private final ChatClient client;
+        private final Set<Long> online = ConcurrentHashMap.newKeySet();
+        private final List<Frame> frames = new CopyOnWriteArrayList<>();
+
+        Client(long userId, int port) throws IOException {
+            client = new ChatClient(userId);
+            client.setFrameListener(this::apply);
+            client.open("localhost", port);
+            client.requestUsers();
+        }
+
+        private void apply(Frame frame) {
+            frames.add(frame);
+            switch (frame.getOpcode()) {
+                case PRESENCE_SNAPSHOT:
+                    Set<Long> users = new HashSet<>();
+                    for (long id : frame.getUserIds()) {
+                        users.add(id);
+                    }
+                    online.retainAll(users);
+                    online.addAll(users);
+                    break;
+                case PRESENCE_JOINED:
+                    online.add(frame.getId());
+                    break;
+                case PRESENCE_LEFT:
+                    online.remove(frame.getId());
+                    break;
+                case PRESENCE_BATCH:
+                    for (long id : frame.getUserIds()) {
+                        if (id > 0) {
+                            online.add(id);
+                        } else {
+                            online.remove(-id);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        boolean received(Opcode opcode, long id, String text) {
+            for (Frame frame : frames) {
+                if (frame.getOpcode() == opcode && frame.getId() == id
+                        && (text == null || text.equals(frame.getText()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int count(Opcode opcode) {
+            int count = 0;
+            for (Frame frame : frames) {
+                if (frame.getOpcode() == opcode) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    /**
+     * 以伪造的握手连接集群端口
+     * @return 节点没有回复握手就断开了连接
+     */
+    private static boolean rejectsHello(int clusterPort, Frame hello) throws IOException {
+        try (Socket socket = new Socket("localhost", clusterPort)) {
+            socket.setSoTimeout((int) TIMEOUT_MS);
+            ByteBuffer buffer = BinaryCodec.encode(hello);
+            socket.getOutputStream().write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return socket.getInputStream().read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private static boolean waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.holds()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.holds();
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
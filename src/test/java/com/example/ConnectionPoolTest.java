@@ -0,0 +1,166 @@
+package com.example;
+
+import com.example.dao.UserDAO;
+import com.example.model.User;
+import com.example.util.ConnectionPool;
+import com.example.util.DBUtil;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池验证程序
+ * 默认使用H2内存数据库，不需要MySQL；也可以传入其他JDBC URL
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.ConnectionPoolTest -Dexec.classpathScope=test
+ *       java com.example.ConnectionPoolTest [jdbcUrl] [user] [password]
+ */
+public class ConnectionPoolTest {
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0]
+                : "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER";
+        String user = args.length > 1 ? args[1] : "sa";
+        String password = args.length > 2 ? args[2] : "";
+
+        Properties prop = new Properties();
+        prop.setProperty("db.url", url);
+        prop.setProperty("db.user", user);
+        prop.setProperty("db.password", password);
+        prop.setProperty("db.pool.maxSize", "4");
+        DBUtil.configure(prop);
+        ConnectionPool pool = DBUtil.getPool();
+
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS user (_id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "name VARCHAR(64), password VARCHAR(64))");
+        }
+
+        // 1. 并发访问: 16个线程共用最多4个连接
+        UserDAO userDAO = new UserDAO();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        AtomicInteger found = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < 16; i++) {
+            int thread = i;
+            executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    String name = "user" + thread + "_" + j;
+                    User newUser = new User();
+                    newUser.setName(name);
+                    newUser.setPassword("pw");
+                    userDAO.register(newUser);
+                    if (userDAO.getUserByName(name) != null) {
+                        found.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        check("并发注册和查询 " + found.get() + "/800，耗时 " + elapsedMs + "ms",
+                found.get() == 800 && pool.getTotalCount() <= 4);
+        System.out.println("   " + pool);
+
+        // 以下验证使用很短的超时和回收时间
+        prop.setProperty("db.pool.connectionTimeoutMs", "300");
+        prop.setProperty("db.pool.validationBypassMs", "0");
+        prop.setProperty("db.pool.maxLifetimeMs", "1500");
+        prop.setProperty("db.pool.idleTimeoutMs", "800");
+        prop.setProperty("db.pool.leakDetectionThresholdMs", "200");
+        prop.setProperty("db.pool.housekeepingIntervalMs", "100");
+        DBUtil.configure(prop);
+        pool = DBUtil.getPool();
+
+        // 2. 借满后等待超时
+        Connection[] held = new Connection[4];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = DBUtil.getConnection();
+        }
+        long timeouts = pool.getTimeoutCount();
+        try (Connection extra = DBUtil.getConnection()) {
+            check("连接池已满时应等待超时", false);
+        } catch (SQLTransientConnectionException e) {
+            check("连接池已满时等待超时", pool.getTimeoutCount() == timeouts + 1);
+        }
+
+        // 3. 泄漏检测: 持有超过阈值后由后台任务报告
+        Thread.sleep(400);
+        check("泄漏检测报告了 " + pool.getLeakCount() + " 个连接", pool.getLeakCount() >= 4);
+        for (Connection conn : held) {
+            conn.close();
+        }
+        check("归还后连接不可再用", isUnusable(held[0]));
+
+        // 4. 借出时校验: 空闲的物理连接被关闭后，下次借出时校验失败并换成新连接
+        Connection physical;
+        try (Connection conn = DBUtil.getConnection()) {
+            physical = conn.unwrap(Connection.class);
+        }
+        // 空闲队列后进先出，下面借出的就是这个连接
+        physical.close();
+        long validationFailures = pool.getValidationFailureCount();
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("SELECT 1");
+            check("失效连接在借出时被发现并替换", conn.unwrap(Connection.class) != physical);
+        } catch (SQLException e) {
+            check("失效连接在借出时被发现并替换: " + e.getMessage(), false);
+        }
+        check("校验失败次数增加 1", pool.getValidationFailureCount() == validationFailures + 1);
+
+        // 5. 经Statement、DatabaseMetaData、ResultSet取得的连接仍是代理，关闭时归还而不是关闭物理连接
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1")) {
+            check("Statement.getConnection() 返回连接代理", stmt.getConnection() == conn
+                    && conn.getMetaData().getConnection() == conn && rs.getStatement() == stmt);
+            stmt.getConnection().close();
+            check("经Statement关闭连接后归还连接池", conn.isClosed() && pool.getActiveCount() == 0);
+        }
+
+        // 6. 空闲回收和最长存活时间
+        long created = pool.getCreatedCount();
+        Thread.sleep(2000);
+        check("空闲/到期连接被回收，剩余 " + pool.getTotalCount(), pool.getTotalCount() == 0);
+        try (Connection conn = DBUtil.getConnection()) {
+            check("回收后按需重新创建连接", pool.getCreatedCount() == created + 1);
+        }
+
+        System.out.println("   " + pool);
+        DBUtil.shutdown();
+        if (failures == 0) {
+            System.out.println("✅ 连接池验证全部通过");
+        } else {
+            System.out.println("❌ " + failures + " 项验证失败");
+            System.exit(1);
+        }
+    }
+
+    private static boolean isUnusable(Connection conn) {
+        try {
+            conn.createStatement();
+            return false;
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example;
+
+import com.example.component.ChatClient;
+import com.example.dao.MessageDAO;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 私聊消息确认、重发与去重的验证程序
+ * 在H2内存库上启动服务器，用原始socket和 ChatClient 模拟客户端:
+ * 1. 声明 MSG_ACK 的客户端在握手应答中看到该功能，旧客户端的应答不变
+ * 2. PM_SEND 收到 PM_SENT，以同一客户端消息ID重发时接收者不会收到第二次
+ * 3. 接收者确认部分消息后断开，保留期内重新连接只按原序号重发未确认的消息
+ * 4. 保留期内没有重新连接，未确认的消息转存为离线消息；确认离线消息后标记为已送达
+ * 5. ChatClient 重新连接后丢弃重发的已收到消息并再次确认；断开期间发送的消息连接后重发，只送达一次
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.MessageAckTest -Dexec.classpathScope=test
+ *       java com.example.MessageAckTest [端口=18891]
+ */
+public class MessageAckTest {
+    private static final long SENDER = 1;
+    private static final long RECEIVER = 1000;
+    private static final long CLIENT_RECEIVER = 1001;
+    private static final long RETAIN_MS = 1000;
+    // 等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18891;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:messageack;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("server.delivery.retainMs", String.valueOf(RETAIN_MS));
+        settings.setProperty("client.protocol", "binary");
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new SocketLoadTest.StubUserDAO(), true, 200),
+                new SocketLoadTest.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+
+        try {
+            // 1. 握手
+            try (RawClient client = new RawClient(port, SENDER)) {
+                check("声明 MSG_ACK 的客户端收到 " + client.reply,
+                        WireProtocol.helloOkHasCapability(client.reply, WireProtocol.CAPABILITY_MSG_ACK));
+            }
+            check("只声明 OFFLINE_ACK 的客户端收到的应答不变", "BIN/1".equals(legacyReply(port)));
+
+            try (RawClient sender = new RawClient(port, SENDER)) {
+                // 2. 发送与去重
+                List<Frame> delivered;
+                long firstSeq;
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    sender.send(Frame.sendPrivateMessage(RECEIVER, 1, "消息 0"));
+                    check("发送者收到 PM_SENT", isSent(sender.read(Opcode.PM_SENT), 1));
+                    sender.send(Frame.sendPrivateMessage(RECEIVER, 1, "消息 0"));
+                    check("重发同一客户端消息ID仍收到 PM_SENT", isSent(sender.read(Opcode.PM_SENT), 1));
+                    delivered = receiver.readAll(Opcode.PM_SEQ);
+                    check("接收者只收到一次 (" + delivered.size() + ")", delivered.size() == 1);
+                    firstSeq = delivered.isEmpty() ? 0 : delivered.get(0).getCount();
+
+                    // 3. 确认一部分后断开
+                    for (int i = 1; i < 5; i++) {
+                        sender.send(Frame.sendPrivateMessage(RECEIVER, 1 + i, "消息 " + i));
+                    }
+                    delivered = receiver.readAll(Opcode.PM_SEQ);
+                    check("接收者收到后续 4 条 (" + delivered.size() + ")", delivered.size() == 4);
+                    check("同一会话的序号连续递增", isConsecutive(delivered, firstSeq + 1));
+                    receiver.send(Frame.messageAck(SENDER, firstSeq + 2));
+                    Thread.sleep(QUIET_MS);
+                }
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    List<Frame> resent = receiver.readAll(Opcode.PM_SEQ);
+                    check("保留期内重新连接只按原序号重发未确认的 2 条 (" + resent.size() + ")",
+                            resent.size() == 2 && isConsecutive(resent, firstSeq + 3));
+                    receiver.send(Frame.messageAck(SENDER, firstSeq + 4));
+                    Thread.sleep(QUIET_MS);
+                }
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    check("全部确认后重新连接不再重发", receiver.readAll(Opcode.PM_SEQ).isEmpty());
+                }
+
+                // 4. 保留期结束后转存为离线消息
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    sender.send(Frame.sendPrivateMessage(RECEIVER, 10, "未确认 1"));
+                    sender.send(Frame.sendPrivateMessage(RECEIVER, 11, "未确认 2"));
+                    check("接收者收到 2 条但不确认", receiver.readAll(Opcode.PM_SEQ).size() == 2);
+                }
+                Thread.sleep(RETAIN_MS + QUIET_MS);
+                check("保留期结束后未确认的 2 条转存为离线消息 (" + count("`read` = 2") + ")", count("`read` = 2") == 2);
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    Frame stat = receiver.read(Opcode.OFFLINE_STAT);
+                    check("重新登录后收到离线消息统计", stat != null && stat.getId() == SENDER && stat.getCount() == 2);
+                    check("转存后不再以 PM_SEQ 重发", receiver.readAll(Opcode.PM_SEQ).isEmpty());
+                    receiver.send(Frame.getOfflineMessages(SENDER));
+                    Frame end = receiver.read(Opcode.OFFLINE_END);
+                    check("收到一段离线消息", end != null);
+                    if (end != null) {
+                        receiver.send(Frame.offlineAck(SENDER, end.getCount()));
+                    }
+                    Thread.sleep(QUIET_MS);
+                }
+                check("确认后离线消息标记为已送达 (" + count("reserved = 'delivered'") + ")",
+                        count("reserved = 'delivered'") == 2 && count("`read` = 2") == 0);
+
+                // 5. ChatClient 的去重和重发
+                List<Frame> received = new CopyOnWriteArrayList<>();
+                ChatClient client = new ChatClient(CLIENT_RECEIVER);
+                client.setFrameListener(frame -> {
+                    if (frame.getOpcode() == Opcode.PM_SEQ) {
+                        received.add(frame);
+                    }
+                });
+                client.open("localhost", port);
+                for (int i = 0; i < 3; i++) {
+                    sender.send(Frame.sendPrivateMessage(CLIENT_RECEIVER, 20 + i, "客户端消息 " + i));
+                }
+                Thread.sleep(QUIET_MS);
+                long highWaterMark = client.getHighWaterMark(SENDER);
+                check("ChatClient 收到 3 条 (" + received.size() + ")", received.size() == 3);
+                // 监听器不确认，重新连接后服务器重发这 3 条
+                client.disconnect();
+                Thread.sleep(QUIET_MS);
+                client.open("localhost", port);
+                Thread.sleep(QUIET_MS);
+                check("重新连接后重发的消息被丢弃 (" + received.size() + ")", received.size() == 3);
+                client.disconnect();
+                Thread.sleep(QUIET_MS);
+                client.open("localhost", port);
+                Thread.sleep(QUIET_MS);
+                check("丢弃时已再次确认，之后不再重发", received.size() == 3 && client.getHighWaterMark(SENDER) == highWaterMark);
+                client.disconnect();
+
+                ChatClient senderClient = new ChatClient(SENDER + 1);
+                senderClient.open("localhost", port);
+                senderClient.disconnect();
+                check("断开时发送的消息保留待重发", senderClient.sendPrivateMessage(RECEIVER, "断开时发送")
+                        && senderClient.getPendingMessageCount() == 1);
+                try (RawClient receiver = new RawClient(port, RECEIVER)) {
+                    senderClient.open("localhost", port);
+                    Thread.sleep(QUIET_MS);
+                    check("连接后重发并收到 PM_SENT", senderClient.getPendingMessageCount() == 0);
+                    check("接收者只收到一次", receiver.readAll(Opcode.PM_SEQ).size() == 1);
+                    senderClient.disconnect();
+                }
+            }
+        } finally {
+            service.shutdown();
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * 以二进制协议握手并声明支持确认的客户端
+     */
+    private static final class RawClient implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final String reply;
+
+        RawClient(int port, long userId) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write((WireProtocol.helloLine(userId, WireProtocol.BINARY) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            if (line == null || !line.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+                throw new IOException("握手失败: " + line);
+            }
+            reply = line.substring(WireProtocol.HELLO_OK_PREFIX.length());
+        }
+
+        void send(Frame frame) throws IOException {
+            BinaryCodec.write(frame, out);
+            out.flush();
+        }
+
+        /**
+         * 读取下一个指定类型的帧，跳过其他帧
+         * @return 帧，超时没有数据时返回null
+         */
+        Frame read(Opcode opcode) throws IOException {
+            socket.setSoTimeout(2000);
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    if (frame.getOpcode() == opcode) {
+                        return frame;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // 没有更多数据
+            }
+            return null;
+        }
+
+        /**
+         * 读取一段时间内到达的全部指定类型的帧
+         */
+        List<Frame> readAll(Opcode opcode) throws IOException {
+            List<Frame> frames = new ArrayList<>();
+            socket.setSoTimeout(QUIET_MS);
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    if (frame.getOpcode() == opcode) {
+                        frames.add(frame);
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // 没有更多数据
+            }
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * 只声明 OFFLINE_ACK 的客户端收到的握手应答
+     */
+    private static String legacyReply(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(2000);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write((WireProtocol.HELLO_PREFIX + (SENDER + 2) + ":" + WireProtocol.BINARY.getToken() + ","
+                    + WireProtocol.CAPABILITY_OFFLINE_ACK + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            return line != null ? line.substring(WireProtocol.HELLO_OK_PREFIX.length()) : null;
+        }
+    }
+
+    private static boolean isSent(Frame frame, long clientMessageId) {
+        return frame != null && frame.getId() == RECEIVER && frame.getCount() == clientMessageId;
+    }
+
+    private static boolean isConsecutive(List<Frame> frames, long firstSeq) {
+        for (int i = 0; i < frames.size(); i++) {
+            if (frames.get(i).getId() != SENDER || frames.get(i).getCount() != firstSeq + i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int count(String condition) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM message WHERE receiver = " + RECEIVER
+                     + " AND " + condition)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
@@ -0,0 +1,286 @@
+package com.example;
+
+import com.example.dao.MessageDAO;
+import com.example.model.Message;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 按段确认的离线消息发送验证程序
+ * 在H2内存库上启动服务器，用原始socket模拟客户端:
+ * 1. 声明 OFFLINE_ACK 的客户端每段最多收到 chunkSize 条，未确认前服务器不发送下一段
+ * 2. 确认两段后断开，第三段未确认: 只有确认过的两段标记为已读
+ * 3. 重新连接后从第一条未读消息继续，全部确认后没有未读消息，没有遗漏
+ * 4. 旧的文本协议客户端不发送确认，仍然收到全部离线消息
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.OfflineChunkDeliveryTest -Dexec.classpathScope=test
+ *       java com.example.OfflineChunkDeliveryTest [未读消息数=5000] [每段=200] [端口=18890]
+ */
+public class OfflineChunkDeliveryTest {
+    private static final long RECEIVER = 1000;
+    private static final long LEGACY_RECEIVER = 1001;
+    private static final long SENDER = 1;
+    // 确认前等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int unread = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18890;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:offlinechunk;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        MessageDAO messageDAO = new MessageDAO();
+        fill(messageDAO, RECEIVER, unread);
+        fill(messageDAO, LEGACY_RECEIVER, unread);
+
+        Settings.getInstance().setProperty("server.io.mode", "blocking");
+        SocketService service = new SocketService(
+                new OfflineMessageService(messageDAO, new SocketLoadTest.StubUserDAO(), true, chunkSize),
+                new SocketLoadTest.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+
+        try {
+            Set<String> received = new HashSet<>();
+
+            // 1、2. 确认两段后断开
+            try (AckClient client = new AckClient(port, RECEIVER)) {
+                client.send(Frame.getOfflineMessages(SENDER));
+                for (int chunk = 1; chunk <= 3; chunk++) {
+                    List<String> contents = new ArrayList<>();
+                    Frame end = client.readChunk(contents);
+                    received.addAll(contents);
+                    check("第 " + chunk + " 段 " + contents.size() + " 条，不超过 " + chunkSize,
+                            end != null && contents.size() == Math.min(chunkSize, unread - (chunk - 1) * chunkSize));
+                    check("第 " + chunk + " 段确认前服务器不再发送", client.isQuiet());
+                    if (chunk < 3 && end != null) {
+                        client.send(Frame.offlineAck(SENDER, end.getCount()));
+                    }
+                }
+            }
+            Thread.sleep(QUIET_MS);
+            check("断开后只有确认过的 " + (2 * chunkSize) + " 条标记为已读 (未读 " + unread(RECEIVER) + ")",
+                    unread(RECEIVER) == unread - 2 * chunkSize);
+
+            // 3. 重新连接，从未确认的一段继续
+            long start = System.nanoTime();
+            int chunks = 0;
+            int resent = 0;
+            long elapsed = 0;
+            try (AckClient client = new AckClient(port, RECEIVER)) {
+                client.send(Frame.getOfflineMessages(SENDER));
+                while (true) {
+                    List<String> contents = new ArrayList<>();
+                    Frame end = client.readChunk(contents);
+                    if (end == null) {
+                        break;
+                    }
+                    chunks++;
+                    for (String content : contents) {
+                        if (!received.add(content)) {
+                            resent++;
+                        }
+                    }
+                    client.send(Frame.offlineAck(SENDER, end.getCount()));
+                    elapsed = System.nanoTime() - start;
+                }
+            }
+            System.out.printf("重新连接后收到 %d 段，重发未确认的 %d 条，到最后一次确认耗时 %.1f ms%n",
+                    chunks, resent, elapsed / 1e6);
+            check("重新连接后只重发未确认的一段", resent == Math.min(chunkSize, Math.max(0, unread - 2 * chunkSize)));
+            check("两次连接共收到全部 " + unread + " 条 (" + received.size() + ")", received.size() == unread);
+            check("全部确认后没有未读消息", unread(RECEIVER) == 0);
+
+            // 4. 旧客户端
+            int legacy = 0;
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(2000);
+                OutputStream out = socket.getOutputStream();
+                out.write((LEGACY_RECEIVER + "\n" + TextCodec.encode(Frame.getOfflineMessages(SENDER)) + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null && legacy < unread) {
+                        if (line.startsWith("OFFLINE_MSG:")) {
+                            legacy++;
+                        } else if (line.startsWith("OFFLINE_END:")) {
+                            check("旧客户端不会收到 OFFLINE_END", false);
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    // 没有更多数据
+                }
+            }
+            Thread.sleep(QUIET_MS);
+            check("旧客户端收到全部 " + unread + " 条 (" + legacy + ")", legacy == unread);
+            check("旧客户端的离线消息全部标记为已读", unread(LEGACY_RECEIVER) == 0);
+        } finally {
+            service.shutdown();
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * 以二进制协议握手并声明支持离线消息确认的客户端
+     */
+    private static final class AckClient implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        AckClient(int port, long userId) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write((WireProtocol.helloLine(userId, WireProtocol.BINARY) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String reply = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            if (reply == null || !reply.startsWith(WireProtocol.HELLO_OK_PREFIX + WireProtocol.BINARY.getToken())) {
+                throw new IOException("握手失败: " + reply);
+            }
+        }
+
+        void send(Frame frame) throws IOException {
+            BinaryCodec.write(frame, out);
+            out.flush();
+        }
+
+        /**
+         * 读取一段离线消息，跳过在线状态等其他帧
+         * @return 这一段的 OFFLINE_END，超时没有数据时返回null
+         */
+        Frame readChunk(List<String> contents) throws IOException {
+            socket.setSoTimeout(2000);
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    if (frame.getOpcode() == Opcode.OFFLINE_MSG) {
+                        contents.add(frame.getText());
+                    } else if (frame.getOpcode() == Opcode.OFFLINE_END) {
+                        return frame;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // 没有更多的段
+            }
+            return null;
+        }
+
+        /**
+         * @return 一段时间内没有收到新的离线消息
+         */
+        boolean isQuiet() throws IOException {
+            socket.setSoTimeout(QUIET_MS);
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    if (frame.getOpcode() == Opcode.OFFLINE_MSG || frame.getOpcode() == Opcode.OFFLINE_END) {
+                        return false;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                return true;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static void fill(MessageDAO messageDAO, long receiver, int unread) {
+        LocalDateTime first = LocalDateTime.now().minusDays(1).truncatedTo(ChronoUnit.SECONDS);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < unread; i++) {
+            Message message = new Message(SENDER, receiver, "离线消息 " + i);
+            // 每10条的发送时间相同
+            message.setSentAt(first.plus(i / 10, ChronoUnit.MILLIS));
+            batch.add(message);
+            if (batch.size() == 1000) {
+                messageDAO.storeOfflineMessages(batch);
+                batch.clear();
+            }
+        }
+        messageDAO.storeOfflineMessages(batch);
+    }
+
+    private static int unread(long receiver) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM message WHERE receiver = " + receiver
+                     + " AND `read` = 2")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
@@ -0,0 +1,310 @@
+package com.example;
+
+import com.example.component.ChatClient;
+import com.example.dao.MessageDAO;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 带纪元的在线用户快照和增量的验证程序
+ * 启动服务器后用原始socket模拟客户端:
+ * 1. 支持 PRESENCE 的客户端收到按ID排序、差值编码的 PRESENCE_SNAPSHOT，比同样内容的 USER_LIST 更小
+ * 2. 在线状态没有变化时，多个客户端的请求共享同一个快照
+ * 3. 报告同一纪元的版本号时只补发之后的变化；纪元不同或变化已不在日志中时改发快照
+ * 4. 旧客户端的 GET_USERS 仍然收到 USER_LIST
+ * 5. ChatClient 会话未恢复时按之前的纪元和版本号请求，同一个服务器上只收到增量
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.PresenceSyncTest -Dexec.classpathScope=test
+ *       java com.example.PresenceSyncTest [在线用户数=1000] [端口=18893]
+ */
+public class PresenceSyncTest {
+    private static final long FIRST_BACKGROUND_USER = 3000;
+    private static final long FIRST_CLIENT = 100;
+    private static final int REQUESTS = 50;
+    private static final int LOG_CAPACITY = 64;
+    // 等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int others = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 18893;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:presence;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("client.protocol", "binary");
+        settings.setProperty("client.reconnect.enabled", "false");
+        settings.setProperty("server.resume.presenceLog", String.valueOf(LOG_CAPACITY));
+        // 恢复令牌断开后立即失效，重新连接时走 PRESENCE_SYNC
+        settings.setProperty("server.resume.ttlMs", "0");
+        // 逐条记录在线状态变化，否则立即断开的登录在合并窗口内互相抵消，不会写满日志
+        settings.setProperty("server.presence.batchWindowMs", "0");
+
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new SocketLoadTest.StubUserDAO(), true, 200),
+                new SocketLoadTest.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+        List<Socket> background = new ArrayList<>();
+        List<RawClient> clients = new ArrayList<>();
+        ChatClient chatClient = null;
+        try {
+            for (int i = 0; i < others; i++) {
+                background.add(legacyLogin(port, FIRST_BACKGROUND_USER + i));
+            }
+
+            // 1. 快照
+            RawClient first = new RawClient(port, FIRST_CLIENT, true);
+            clients.add(first);
+            check("握手应答回显在线状态纪元", first.epoch > 0);
+            first.send(Frame.presenceSync(0, 0));
+            List<Frame> frames = first.readFrames();
+            Frame snapshot = only(frames, Opcode.PRESENCE_SNAPSHOT);
+            check("未知纪元时收到快照", snapshot != null && snapshot.getId() == first.epoch);
+            if (snapshot == null) {
+                return;
+            }
+            int snapshotBytes = BinaryCodec.encode(snapshot).remaining();
+            int userListBytes = BinaryCodec.encode(Frame.userList(snapshot.getUserIds(), snapshot.getUserNames())).remaining();
+            System.out.printf("快照 %d 人 %d 字节，同样内容的 USER_LIST %d 字节%n",
+                    snapshot.getUserIds().length, snapshotBytes, userListBytes);
+            check("快照包含全部在线用户", snapshot.getUserIds().length == others + 1);
+            check("快照按ID排序", isSorted(snapshot.getUserIds()));
+            check("快照比 USER_LIST 小", snapshotBytes < userListBytes);
+
+            // 2. 共享快照
+            long buildsBefore = service.getPresenceSnapshotBuilds();
+            for (int i = 0; i < REQUESTS; i++) {
+                first.send(Frame.getUsers());
+            }
+            frames = first.readFrames();
+            boolean same = frames.size() == REQUESTS;
+            for (Frame frame : frames) {
+                same &= frame.equals(snapshot);
+            }
+            long builds = service.getPresenceSnapshotBuilds() - buildsBefore;
+            System.out.printf("%d 次请求生成了 %d 个快照%n", REQUESTS, builds);
+            check("在线状态没有变化时 " + REQUESTS + " 次请求共享同一个快照", same && builds == 0);
+
+            // 3. 增量
+            long version = snapshot.getCount();
+            background.remove(0).close();
+            background.add(legacyLogin(port, FIRST_BACKGROUND_USER + others));
+            Thread.sleep(QUIET_MS);
+            first.readFrames();
+            RawClient second = new RawClient(port, FIRST_CLIENT + 1, true);
+            clients.add(second);
+            second.send(Frame.presenceSync(first.epoch, version));
+            frames = second.readFrames();
+            int deltaBytes = 0;
+            for (Frame frame : frames) {
+                deltaBytes += BinaryCodec.encode(frame).remaining();
+            }
+            System.out.printf("同一纪元补发 %d 帧 %d 字节（快照 %d 字节）%n", frames.size(), deltaBytes, snapshotBytes);
+            check("同一纪元只补发之后的 2 条变化，跳过自己的上线",
+                    frames.size() == 2 && frames.get(0).getOpcode() == Opcode.PRESENCE_LEFT
+                            && frames.get(0).getId() == FIRST_BACKGROUND_USER
+                            && frames.get(1).getOpcode() == Opcode.PRESENCE_JOINED
+                            && frames.get(1).getId() == FIRST_BACKGROUND_USER + others
+                            && frames.get(0).getCount() == version + 1);
+            second.send(Frame.presenceSync(first.epoch + 1, version));
+            check("纪元不同时收到快照", only(second.readFrames(), Opcode.PRESENCE_SNAPSHOT) != null);
+            for (int i = 0; i < LOG_CAPACITY; i++) {
+                legacyLogin(port, FIRST_BACKGROUND_USER + others + 1 + i).close();
+            }
+            Thread.sleep(QUIET_MS);
+            second.readFrames();
+            second.send(Frame.presenceSync(first.epoch, version));
+            Frame fallback = only(second.readFrames(), Opcode.PRESENCE_SNAPSHOT);
+            check("变化已不在日志中时收到快照", fallback != null && fallback.getUserIds().length == others + 2);
+
+            // 4. 旧客户端
+            RawClient legacy = new RawClient(port, FIRST_CLIENT + 2, false);
+            clients.add(legacy);
+            legacy.send(Frame.getUsers());
+            Frame list = only(legacy.readFrames(), Opcode.USER_LIST);
+            check("旧客户端的 GET_USERS 收到 USER_LIST", list != null && list.getUserIds().length == others + 3);
+
+            // 5. ChatClient 重新连接
+            List<Frame> received = new CopyOnWriteArrayList<>();
+            chatClient = new ChatClient(FIRST_CLIENT + 3);
+            chatClient.setFrameListener(received::add);
+            chatClient.open("localhost", port);
+            chatClient.requestUsers();
+            Thread.sleep(QUIET_MS);
+            check("ChatClient 第一次请求收到快照", count(received, Opcode.PRESENCE_SNAPSHOT) == 1
+                    && chatClient.getPresenceEpoch() == first.epoch);
+            chatClient.disconnect();
+            background.remove(0).close();
+            Thread.sleep(50);
+            received.clear();
+            chatClient.open("localhost", port);
+            chatClient.requestUsers();
+            Thread.sleep(QUIET_MS);
+            check("会话未恢复", !chatClient.isResumed());
+            check("同一个服务器上重新连接后只收到断开期间的变化",
+                    count(received, Opcode.PRESENCE_SNAPSHOT) == 0 && count(received, Opcode.PRESENCE_LEFT) == 1);
+        } finally {
+            if (chatClient != null) {
+                chatClient.disconnect();
+            }
+            for (RawClient client : clients) {
+                client.close();
+            }
+            for (Socket socket : background) {
+                socket.close();
+            }
+            service.shutdown();
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * 只发送用户ID的旧客户端，不读取服务器发来的数据
+     */
+    private static Socket legacyLogin(int port, long userId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.getOutputStream().write((userId + "\n").getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    /**
+     * 以二进制协议握手的客户端，同步读取服务器发来的帧
+     */
+    private static final class RawClient implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final long epoch;
+
+        RawClient(int port, long userId, boolean presence) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            String hello = WireProtocol.HELLO_PREFIX + userId + ":" + WireProtocol.BINARY.getToken()
+                    + (presence ? "," + WireProtocol.CAPABILITY_PRESENCE : "");
+            out.write((hello + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            if (line == null || !line.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+                throw new IOException("握手失败: " + line);
+            }
+            String value = WireProtocol.helloOkValue(line.substring(WireProtocol.HELLO_OK_PREFIX.length()),
+                    WireProtocol.CAPABILITY_PRESENCE);
+            epoch = value != null && !value.isEmpty() ? Long.parseLong(value) : 0;
+            // 丢弃登录时的离线消息统计和其他用户的上线通知
+            readFrames();
+        }
+
+        void send(Frame frame) throws IOException {
+            BinaryCodec.write(frame, out);
+            out.flush();
+        }
+
+        /**
+         * 读取帧直到服务器 QUIET_MS 内不再发送
+         */
+        List<Frame> readFrames() throws IOException {
+            List<Frame> frames = new ArrayList<>();
+            socket.setSoTimeout(QUIET_MS);
+            try {
+                Frame frame;
+                while ((frame = BinaryCodec.read(in)) != null) {
+                    frames.add(frame);
+                }
+            } catch (SocketTimeoutException e) {
+                // 没有更多数据
+            }
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static Frame only(List<Frame> frames, Opcode opcode) {
+        return frames.size() == 1 && frames.get(0).getOpcode() == opcode ? frames.get(0) : null;
+    }
+
+    private static int count(List<Frame> frames, Opcode opcode) {
+        int count = 0;
+        for (Frame frame : frames) {
+            if (frame.getOpcode() == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSorted(long[] ids) {
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i - 1] >= ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
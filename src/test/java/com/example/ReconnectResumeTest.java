@@ -0,0 +1,311 @@
+package com.example;
+
+import com.example.component.ChatClient;
+import com.example.dao.MessageDAO;
+import com.example.model.Settings;
+import com.example.protocol.BinaryCodec;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.protocol.TextCodec;
+import com.example.protocol.WireProtocol;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自动重连与会话恢复的验证程序
+ * 在H2内存库上启动服务器，用 ChatClient 和原始socket模拟客户端:
+ * 1. 服务器断开连接后 ChatClient 按退避间隔自动重连并恢复会话，只收到断线期间的在线状态变化，
+ *    不再收到完整的用户列表；未确认的私聊消息重发后被去重，断线期间的消息以离线消息统计送达
+ * 2. 服务器重启后恢复令牌失效，按新会话登录，重连监听器收到未恢复的通知
+ * 3. 退避间隔在上限的一半到上限之间，上限按指数增长且不超过最大值
+ * 4. 主动断开后不再重连
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.ReconnectResumeTest -Dexec.classpathScope=test
+ *       java com.example.ReconnectResumeTest [其他在线用户数=500] [端口=18892]
+ */
+public class ReconnectResumeTest {
+    private static final long CLIENT = 10;
+    private static final long SENDER = 1;
+    private static final long FIRST_BACKGROUND_USER = 2000;
+    private static final long INITIAL_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = 2000;
+    // 等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int others = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 18892;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:reconnect;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("client.protocol", "binary");
+        settings.setProperty("client.reconnect.enabled", "true");
+        settings.setProperty("client.reconnect.initialDelayMs", String.valueOf(INITIAL_DELAY_MS));
+        settings.setProperty("client.reconnect.maxDelayMs", String.valueOf(MAX_DELAY_MS));
+
+        SocketService service = startServer(port);
+        List<Socket> background = new ArrayList<>();
+        ChatClient client = null;
+        try {
+            for (int i = 0; i < others; i++) {
+                background.add(legacyLogin(port, FIRST_BACKGROUND_USER + i));
+            }
+            // 旧客户端登录没有应答，等服务器登记完所有用户、合并窗口内的上线都已发布再请求用户列表
+            SocketService first = service;
+            check("其他 " + others + " 个用户已上线", waitFor(() -> first.getConnectionMetrics().size() == others
+                    && first.getPresenceAggregator().getChangesPublished() >= others, 10000));
+            List<Frame> frames = new CopyOnWriteArrayList<>();
+            List<Boolean> reconnects = new CopyOnWriteArrayList<>();
+            client = new ChatClient(CLIENT);
+            client.setFrameListener(frames::add);
+            client.setReconnectListener(reconnects::add);
+            client.open("localhost", port);
+            client.requestUsers();
+
+            try (RawClient sender = new RawClient(port, SENDER)) {
+                sender.send(Frame.sendPrivateMessage(CLIENT, 1, "已确认"));
+                sender.send(Frame.sendPrivateMessage(CLIENT, 2, "未确认"));
+                Thread.sleep(QUIET_MS);
+                Frame list = last(frames, Opcode.PRESENCE_SNAPSHOT);
+                int listBytes = list != null ? BinaryCodec.encode(list).remaining() : 0;
+                // 客户端自己的上线可能还在合并窗口中，只检查其他用户都在列表中
+                check("第一次连接收到完整的用户列表 (" + (list != null ? list.getUserIds().length : 0) + " 人, "
+                        + listBytes + " 字节)", list != null && countBackground(list.getUserIds(), others) == others);
+                check("收到 2 条带序号的私聊消息", count(frames, Opcode.PM_SEQ) == 2);
+                // 只确认第一条
+                client.send(Frame.messageAck(SENDER, first(frames, Opcode.PM_SEQ).getCount()));
+                Thread.sleep(QUIET_MS);
+
+                // 1. 服务器断开连接，断线期间一个用户离开、一个用户加入、收到一条私聊消息
+                frames.clear();
+                long start = System.nanoTime();
+                check("服务器断开客户端的连接", service.disconnectUser(CLIENT));
+                background.remove(0).close();
+                background.add(legacyLogin(port, FIRST_BACKGROUND_USER + others));
+                check("断线期间一个用户离开、一个用户加入", waitFor(() -> {
+                    Map<Long, ?> users = first.getConnectionMetrics();
+                    return !users.containsKey(FIRST_BACKGROUND_USER) && users.containsKey(FIRST_BACKGROUND_USER + others);
+                }, 2000));
+                sender.send(Frame.sendPrivateMessage(CLIENT, 3, "断线期间"));
+                check("断开后进入自动重连", waitFor(client::isReconnecting, 2000));
+                check("自动重连成功", waitFor(() -> reconnects.size() == 1, 10000));
+                long elapsed = System.nanoTime() - start;
+                Thread.sleep(QUIET_MS);
+                int replayBytes = 0;
+                for (Frame frame : frames) {
+                    replayBytes += BinaryCodec.encode(frame).remaining();
+                }
+                System.out.printf("断线到重连成功 %.0f ms，重连后收到 %d 帧 %d 字节（完整用户列表 %d 字节）%n",
+                        elapsed / 1e6, frames.size(), replayBytes, listBytes);
+                check("恢复了上次的会话", client.isResumed() && Boolean.TRUE.equals(reconnects.get(0)));
+                check("没有收到完整的用户列表", count(frames, Opcode.USER_LIST) == 0
+                        && count(frames, Opcode.PRESENCE_SNAPSHOT) == 0);
+                check("只收到断线期间的 2 条在线状态变化 ("
+                                + count(frames, Opcode.PRESENCE_LEFT) + " 离开, " + count(frames, Opcode.PRESENCE_JOINED) + " 加入)",
+                        count(frames, Opcode.PRESENCE_LEFT) == 1 && count(frames, Opcode.PRESENCE_JOINED) == 1
+                                && first(frames, Opcode.PRESENCE_LEFT).getId() == FIRST_BACKGROUND_USER
+                                && first(frames, Opcode.PRESENCE_JOINED).getId() == FIRST_BACKGROUND_USER + others);
+                check("重发的未确认私聊消息已收到过，被丢弃", count(frames, Opcode.PM_SEQ) == 0);
+                Frame stat = first(frames, Opcode.OFFLINE_STAT);
+                check("断线期间的私聊消息以离线消息统计送达", stat != null && stat.getId() == SENDER && stat.getCount() == 1);
+            }
+
+            // 2. 服务器重启
+            frames.clear();
+            service.shutdown();
+            service = startServer(port);
+            check("服务器重启后自动重连", waitFor(() -> reconnects.size() == 2, 15000));
+            check("恢复令牌失效，按新会话登录", !client.isResumed() && Boolean.FALSE.equals(reconnects.get(1)));
+
+            // 3. 退避间隔
+            boolean inRange = true;
+            System.out.printf("%-8s %10s %10s %10s%n", "attempt", "cap(ms)", "min(ms)", "max(ms)");
+            for (int attempt = 0; attempt < 8; attempt++) {
+                long cap = Math.min(MAX_DELAY_MS, INITIAL_DELAY_MS << attempt);
+                long min = Long.MAX_VALUE;
+                long max = 0;
+                for (int i = 0; i < 1000; i++) {
+                    long delay = ChatClient.backoffDelay(attempt, INITIAL_DELAY_MS, MAX_DELAY_MS);
+                    min = Math.min(min, delay);
+                    max = Math.max(max, delay);
+                }
+                inRange &= min >= cap / 2 && max <= cap;
+                System.out.printf("%-8d %10d %10d %10d%n", attempt, cap, min, max);
+            }
+            check("退避间隔在上限的一半到上限之间，上限不超过 " + MAX_DELAY_MS + " ms", inRange);
+
+            // 4. 主动断开
+            client.disconnect();
+            Thread.sleep(MAX_DELAY_MS + QUIET_MS);
+            check("主动断开后不再重连", !client.isConnected() && !client.isReconnecting() && reconnects.size() == 2);
+        } finally {
+            if (client != null) {
+                client.disconnect();
+            }
+            for (Socket socket : background) {
+                socket.close();
+            }
+            service.shutdown();
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    private static SocketService startServer(int port) throws InterruptedException {
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new SocketLoadTest.StubUserDAO(), true, 200),
+                new SocketLoadTest.StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+        return service;
+    }
+
+    /**
+     * 只发送用户ID的旧客户端，不读取服务器发来的数据
+     */
+    private static Socket legacyLogin(int port, long userId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.getOutputStream().write((userId + "\n").getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    /**
+     * 以二进制协议握手的发送者，只写不读
+     */
+    private static final class RawClient implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+
+        RawClient(int port, long userId) throws IOException {
+            socket = new Socket("localhost", port);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write((WireProtocol.helloLine(userId, WireProtocol.BINARY) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String line = TextCodec.readLine(in, StandardCharsets.UTF_8);
+            if (line == null || !line.startsWith(WireProtocol.HELLO_OK_PREFIX)) {
+                throw new IOException("握手失败: " + line);
+            }
+        }
+
+        void send(Frame frame) throws IOException {
+            BinaryCodec.write(frame, out);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static boolean waitFor(Condition condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.holds()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.holds();
+    }
+
+    private static int countBackground(long[] userIds, int others) {
+        int count = 0;
+        for (long userId : userIds) {
+            if (userId >= FIRST_BACKGROUND_USER && userId < FIRST_BACKGROUND_USER + others) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int count(List<Frame> frames, Opcode opcode) {
+        AtomicInteger count = new AtomicInteger();
+        frames.forEach(frame -> {
+            if (frame.getOpcode() == opcode) {
+                count.incrementAndGet();
+            }
+        });
+        return count.get();
+    }
+
+    private static Frame first(List<Frame> frames, Opcode opcode) {
+        for (Frame frame : frames) {
+            if (frame.getOpcode() == opcode) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static Frame last(List<Frame> frames, Opcode opcode) {
+        Frame found = null;
+        for (Frame frame : frames) {
+            if (frame.getOpcode() == opcode) {
+                found = frame;
+            }
+        }
+        return found;
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
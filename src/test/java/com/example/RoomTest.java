@@ -0,0 +1,223 @@
+package com.example;
+
+import com.example.component.ChatClient;
+import com.example.dao.MessageDAO;
+import com.example.dao.RoomDAO;
+import com.example.model.Settings;
+import com.example.protocol.Frame;
+import com.example.protocol.Opcode;
+import com.example.service.OfflineMessageService;
+import com.example.service.RoomRegistry;
+import com.example.service.SocketService;
+import com.example.util.DBUtil;
+import com.example.util.SchemaMigrator;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 房间的验证程序
+ * 1. 加入房间后收到房间的在线成员，房间中的其他成员收到 ROOM_JOINED
+ * 2. 房间消息只发给房间的其他成员，不在房间中的用户发送的房间消息被忽略
+ * 3. 成员下线时其他成员收到 ROOM_LEFT，重新登录后自动回到房间（成员记录保存在数据库中）
+ * 4. 离开房间后收到确认，成员记录删除，再次登录不再回到房间；最后一个成员离开后删除房间
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.RoomTest -Dexec.classpathScope=test
+ *       java com.example.RoomTest [端口=18970]
+ */
+public class RoomTest {
+    private static final long ROOM = 100;
+    // 等待服务器是否多发数据的时间
+    private static final int QUIET_MS = 300;
+    private static final long TIMEOUT_MS = 5000;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18970;
+        Properties prop = new Properties();
+        prop.setProperty("db.url", "jdbc:h2:mem:rooms;DB_CLOSE_DELAY=-1;NON_KEYWORDS=USER");
+        prop.setProperty("db.user", "sa");
+        prop.setProperty("db.password", "");
+        DBUtil.configure(prop);
+        execute("CREATE TABLE IF NOT EXISTS message (_id BIGINT AUTO_INCREMENT PRIMARY KEY, sender BIGINT NOT NULL, "
+                + "receiver BIGINT NOT NULL, message VARCHAR(200) NOT NULL, ddate DATE NOT NULL, "
+                + "`read` INT NOT NULL, reserved VARCHAR(200))");
+        new SchemaMigrator().migrate();
+
+        Settings settings = Settings.getInstance();
+        settings.setProperty("server.io.mode", "blocking");
+        settings.setProperty("client.protocol", "binary");
+        settings.setProperty("client.reconnect.enabled", "false");
+        RoomDAO roomDAO = new RoomDAO();
+        SocketService service = new SocketService(
+                new OfflineMessageService(new MessageDAO(), new SocketLoadTest.StubUserDAO(), true, 200),
+                new SocketLoadTest.StubUserDAO(), roomDAO);
+        RoomRegistry registry = service.getRoomRegistry();
+        List<Client> clients = new ArrayList<>();
+        try {
+            service.startServer(port);
+            waitForServer(port);
+            Client a = new Client(1, port);
+            Client b = new Client(2, port);
+            Client c = new Client(3, port);
+            clients.add(a);
+            clients.add(b);
+            clients.add(c);
+            check("服务器支持房间", a.client.isRoomsSupported());
+
+            // 1. 加入房间
+            a.client.joinRoom(ROOM);
+            check("用户 1 加入后收到房间成员 [1]", waitFor(() -> a.members(ROOM, Set.of(1L))));
+            b.client.joinRoom(ROOM);
+            check("用户 2 加入后收到房间成员 [1, 2]", waitFor(() -> b.members(ROOM, Set.of(1L, 2L))));
+            check("用户 1 收到用户 2 加入", waitFor(() -> a.count(Opcode.ROOM_JOINED, 2) == 1));
+            Thread.sleep(QUIET_MS);
+            check("不在房间中的用户 3 没有收到房间的通知", c.count(Opcode.ROOM_JOINED, 2) == 0);
+
+            // 2. 房间消息
+            a.client.sendRoomMessage(ROOM, "房间消息");
+            check("房间消息发给房间的其他成员", waitFor(() -> b.receivedMessage(ROOM, 1, "房间消息")));
+            c.client.sendRoomMessage(ROOM, "不是成员");
+            Thread.sleep(QUIET_MS);
+            check("不在房间中的用户没有收到房间消息", !c.receivedMessage(ROOM, 1, "房间消息"));
+            check("发送者没有收到自己的房间消息", !a.receivedMessage(ROOM, 1, "房间消息"));
+            check("不在房间中的用户发送的房间消息被忽略",
+                    !a.receivedMessage(ROOM, 3, "不是成员") && !b.receivedMessage(ROOM, 3, "不是成员"));
+
+            // 3. 下线与重新登录
+            b.client.disconnect();
+            check("用户 2 下线后用户 1 收到 ROOM_LEFT", waitFor(() -> a.count(Opcode.ROOM_LEFT, 2) == 1));
+            check("房间的在线成员只剩用户 1", registry.members(ROOM).length == 1);
+            Client b2 = new Client(2, port);
+            clients.add(b2);
+            check("用户 2 重新登录后自动回到房间", waitFor(() -> b2.members(ROOM, Set.of(1L, 2L))));
+            check("用户 1 再次收到用户 2 加入", waitFor(() -> a.count(Opcode.ROOM_JOINED, 2) == 2));
+            a.client.sendRoomMessage(ROOM, "欢迎回来");
+            check("重新登录后收到房间消息", waitFor(() -> b2.receivedMessage(ROOM, 1, "欢迎回来")));
+
+            // 4. 离开房间
+            b2.client.leaveRoom(ROOM);
+            check("离开房间后收到确认", waitFor(() -> b2.count(Opcode.ROOM_LEFT, 2) == 1));
+            check("用户 1 收到用户 2 离开", waitFor(() -> a.count(Opcode.ROOM_LEFT, 2) == 2));
+            check("成员记录只剩用户 1", roomDAO.getMembers(ROOM).equals(List.of(1L)));
+            b2.client.disconnect();
+            Client b3 = new Client(2, port);
+            clients.add(b3);
+            Thread.sleep(QUIET_MS);
+            check("离开后再次登录不再回到房间", b3.count(Opcode.ROOM_MEMBERS, ROOM) == 0);
+            a.client.leaveRoom(ROOM);
+            check("最后一个成员离开后删除房间", waitFor(() -> registry.getRoomCount() == 0));
+        } finally {
+            for (Client client : clients) {
+                client.client.disconnect();
+            }
+            service.shutdown();
+            DBUtil.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * ChatClient 及收到的帧
+     */
+    private static final class Client {
+        private final ChatClient client;
+        private final List<Frame> frames = new CopyOnWriteArrayList<>();
+
+        Client(long userId, int port) throws IOException {
+            client = new ChatClient(userId);
+            client.setFrameListener(frames::add);
+            client.open("localhost", port);
+        }
+
+        boolean members(long roomId, Set<Long> expected) {
+            for (Frame frame : frames) {
+                if (frame.getOpcode() == Opcode.ROOM_MEMBERS && frame.getId() == roomId) {
+                    Set<Long> members = new HashSet<>();
+                    for (long id : frame.getUserIds()) {
+                        members.add(id);
+                    }
+                    if (members.equals(expected)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean receivedMessage(long roomId, long senderId, String text) {
+            for (Frame frame : frames) {
+                if (frame.getOpcode() == Opcode.ROOM_MSG && frame.getId() == roomId
+                        && frame.getCount() == senderId && text.equals(frame.getText())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * ROOM_JOINED / ROOM_LEFT 按用户ID计数，ROOM_MEMBERS 按房间ID计数
+         */
+        int count(Opcode opcode, long id) {
+            int count = 0;
+            for (Frame frame : frames) {
+                if (frame.getOpcode() == opcode
+                        && (opcode == Opcode.ROOM_MEMBERS ? frame.getId() : frame.getCount()) == id) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static boolean waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.holds()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.holds();
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static void execute(String sql) throws Exception {
+        try (Connection conn = DBUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}
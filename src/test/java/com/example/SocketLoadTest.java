@@ -0,0 +1,189 @@
+package com.example;
+
+import com.example.dao.UserDAO;
+import com.example.model.Settings;
+import com.example.service.OfflineMessageService;
+import com.example.service.SocketService;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 服务器连接数负载测试
+ * 分别以blocking和nio模式启动服务器，逐级增加客户端连接数，输出线程数和堆内存的增长
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.SocketLoadTest -Dexec.classpathScope=test -Dexec.args="[端口] [连接数1,连接数2,...]"
+ */
+public class SocketLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18888;
+        String steps = args.length > 1 ? args[1] : "100,500,1000,2000";
+
+        System.out.printf("%-10s %12s %10s %14s%n", "mode", "connections", "threads", "heapUsed(MB)");
+        for (String mode : new String[] {"blocking", "nio"}) {
+            runMode(mode, port++, steps);
+        }
+    }
+
+    private static void runMode(String mode, int port, String steps) throws Exception {
+        Settings.getInstance().setProperty("server.io.mode", mode);
+        SocketService service = new SocketService(new StubOfflineMessageService(), new StubUserDAO());
+        service.startServer(port);
+        waitForServer(port);
+
+        ClientDrainer drainer = new ClientDrainer();
+        drainer.start();
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            report(mode, 0);
+            long nextId = 1;
+            for (String step : steps.split(",")) {
+                int target = Integer.parseInt(step.trim());
+                while (clients.size() < target) {
+                    SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+                    channel.write(ByteBuffer.wrap((nextId++ + "\n").getBytes(StandardCharsets.UTF_8)));
+                    clients.add(channel);
+                    drainer.add(channel);
+                }
+                // 等待服务器处理完上线广播
+                Thread.sleep(2000);
+                report(mode, clients.size());
+            }
+        } finally {
+            for (SocketChannel channel : clients) {
+                channel.close();
+            }
+            drainer.stop();
+            service.shutdown();
+        }
+    }
+
+    private static void report(String mode, int connections) {
+        System.gc();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapUsed = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+        System.out.printf("%-10s %12d %10d %14d%n", mode, connections, threads.getThreadCount(), heapUsed);
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    /**
+     * 单线程读取并丢弃所有客户端收到的数据，避免服务器因TCP缓冲区写满而阻塞
+     */
+    private static class ClientDrainer implements Runnable {
+        private final Selector selector;
+        private final List<SocketChannel> pending = Collections.synchronizedList(new ArrayList<>());
+        private final Thread thread = new Thread(this, "load-test-drainer");
+        private volatile boolean running = true;
+
+        ClientDrainer() throws IOException {
+            selector = Selector.open();
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void stop() throws IOException {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            try {
+                while (running) {
+                    selector.select(100);
+                    synchronized (pending) {
+                        for (SocketChannel channel : pending) {
+                            channel.configureBlocking(false);
+                            channel.register(selector, SelectionKey.OP_READ);
+                        }
+                        pending.clear();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        buffer.clear();
+                        try {
+                            if (((SocketChannel) key.channel()).read(buffer) < 0) {
+                                key.cancel();
+                            }
+                        } catch (IOException e) {
+                            key.cancel();
+                        }
+                    }
+                }
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Drainer error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 不访问数据库的用户DAO，供负载测试使用
+     */
+    static class StubUserDAO extends UserDAO {
+        @Override
+        public String getUserNameById(Long userId) {
+            return "User" + userId;
+        }
+    }
+
+    /**
+     * 不访问数据库的离线消息服务，供负载测试使用
+     */
+    static class StubOfflineMessageService extends OfflineMessageService {
+        @Override
+        public OfflineMessageSyncResult syncOfflineMessages(Long userId) {
+            OfflineMessageSyncResult result = new OfflineMessageSyncResult();
+            result.setUserId(userId);
+            result.setUnreadMessages(Collections.emptyList());
+            result.setSuccess(true);
+            return result;
+        }
+
+        @Override
+        public boolean queueOfflineMessage(Long senderId, Long receiverId, String content) {
+            return true;
+        }
+
+        @Override
+        public boolean storeOfflineMessage(Long senderId, Long receiverId, String content) {
+            return true;
+        }
+    }
+}
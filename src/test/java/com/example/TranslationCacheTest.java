@@ -0,0 +1,187 @@
+package com.example;
+
+import com.example.service.AIService;
+import com.example.service.TranslationCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 翻译服务的HTTP连接复用和翻译缓存验证程序
+ * 在本机启动一个模拟的chat/completions接口（JDK自带的HttpServer），不访问真实的翻译服务
+ *
+ * 用法: mvn exec:java -Dexec.mainClass=com.example.TranslationCacheTest -Dexec.classpathScope=test
+ */
+public class TranslationCacheTest {
+    private static int failures;
+
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    // 为true时模拟接口返回500
+    private static volatile boolean failing;
+    private static volatile long delayMs;
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", TranslationCacheTest::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+        File dir = Files.createTempDirectory("translation-cache").toFile();
+        File cacheFile = new File(dir, "translations.bin");
+
+        try {
+            TranslationCache cache = new TranslationCache(100, 60000, cacheFile, 1000);
+            AIService service = new AIService(AIService.sharedClient(), url, "sk-test", "test-model", cache);
+
+            // 1. 相同文本第二次翻译命中缓存
+            String first = service.translateText("你好", "en");
+            String second = service.translateText("你好", "en");
+            check("翻译结果 '" + first + "'", "[English] 你好".equals(first));
+            check("相同文本只请求一次接口 (" + requests.get() + ")", first.equals(second) && requests.get() == 1);
+
+            // 2. 目标语言不同时是不同的键
+            service.translateText("你好", "ja");
+            check("不同目标语言重新请求", requests.get() == 2);
+
+            // 3. 顺序请求复用同一个连接
+            for (int i = 0; i < 20; i++) {
+                service.translateText("消息" + i, "en");
+            }
+            check("22次请求使用了 " + clientPorts.size() + " 个连接", clientPorts.size() == 1);
+
+            // 4. 接口出错时返回错误信息，错误不缓存
+            failing = true;
+            String error = service.translateText("失败的文本", "en");
+            failing = false;
+            String retried = service.translateText("失败的文本", "en");
+            check("接口出错: " + error, error.startsWith("翻译错误: 500"));
+            check("出错后重试成功", "[English] 失败的文本".equals(retried));
+
+            // 5. 并发翻译同一段文本只请求一次
+            int before = requests.get();
+            delayMs = 200;
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            CountDownLatch done = new CountDownLatch(16);
+            AtomicInteger correct = new AtomicInteger();
+            for (int i = 0; i < 16; i++) {
+                executor.submit(() -> {
+                    if ("[English] 同时翻译".equals(service.translateText("同时翻译", "en"))) {
+                        correct.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            }
+            done.await(30, TimeUnit.SECONDS);
+            executor.shutdown();
+            delayMs = 0;
+            check("16个并发翻译请求接口 " + (requests.get() - before) + " 次",
+                    correct.get() == 16 && requests.get() - before == 1);
+            System.out.println("   " + cache);
+            cache.close();
+
+            // 6. 重启后（新的内存缓存）从磁盘层读取
+            TranslationCache reopened = new TranslationCache(100, 60000, cacheFile, 1000);
+            AIService restarted = new AIService(AIService.sharedClient(), url, "sk-test", "test-model", reopened);
+            before = requests.get();
+            String fromDisk = restarted.translateText("你好", "ja");
+            check("重启后从磁盘读取翻译", "[Japanese] 你好".equals(fromDisk)
+                    && requests.get() == before && reopened.getDiskHits() == 1);
+            reopened.close();
+
+            // 7. 磁盘层超过上限时整理文件，末尾不完整的记录被截掉
+            TranslationCache small = new TranslationCache(10, 60000, cacheFile, 5);
+            AIService smallService = new AIService(AIService.sharedClient(), url, "sk-test", "test-model", small);
+            for (int i = 0; i < 30; i++) {
+                smallService.translateText("整理" + i, "en");
+            }
+            small.close();
+            long length = cacheFile.length();
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+                raf.seek(length);
+                raf.write(new byte[] {0, 0, 0, 10, 0, 0});
+            }
+            TranslationCache truncated = new TranslationCache(10, 60000, cacheFile, 5);
+            check("整理后文件只保留最近的条目: " + truncated,
+                    cacheFile.length() == length && truncated.toString().contains("entries=5/5"));
+            before = requests.get();
+            AIService truncatedService = new AIService(AIService.sharedClient(), url, "sk-test", "test-model", truncated);
+            truncatedService.translateText("整理29", "en");
+            truncatedService.translateText("整理0", "en");
+            check("最近的条目在磁盘中，最早的已淘汰", requests.get() == before + 1);
+            truncated.close();
+        } finally {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+
+        System.out.println(failures == 0 ? "全部通过" : failures + " 项失败");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 模拟接口: 返回 "[语言] 原文"
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        JSONArray messages = request.getJSONArray("messages");
+        String system = messages.getJSONObject(0).getString("content");
+        String text = messages.getJSONObject(1).getString("content");
+        String language = system.substring(system.indexOf(" to ") + 4, system.indexOf(". Only"));
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int status;
+        String body;
+        if (failing) {
+            status = 500;
+            body = "{\"error\":\"internal\"}";
+        } else {
+            status = 200;
+            JSONObject message = new JSONObject().put("role", "assistant").put("content", "[" + language + "] " + text);
+            body = new JSONObject().put("choices", new JSONArray().put(new JSONObject().put("message", message))).toString();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void check(String description, boolean passed) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "✅ " : "❌ ") + description);
+    }
+}